@@ -7,7 +7,13 @@
  */
 package org.dspace.app.checker;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.sql.SQLException;
 import java.util.*;
 
@@ -26,6 +32,8 @@ import org.dspace.content.factory.ContentServiceFactory;
 import org.dspace.content.service.BitstreamService;
 import org.dspace.core.Context;
 import org.dspace.core.Utils;
+import org.dspace.services.ConfigurationService;
+import org.dspace.services.factory.DSpaceServicesFactory;
 
 /**
  * Command line access to the checksum checker. Options are listed in the 
@@ -41,6 +49,9 @@ public final class ChecksumChecker
 
     private static final BitstreamService bitstreamService = ContentServiceFactory.getInstance().getBitstreamService();
 
+    /** Key of the start date of the unfinished run in the checkpoint file */
+    private static final String CHECKPOINT_PROCESS_START = "process.start";
+
     /**
      * Blanked off constructor, this class should be used as a command line
      * tool.
@@ -71,6 +82,12 @@ public final class ChecksumChecker
      *            <dd>Report only errors in the logs</dd>
      *            <dt>-p</dt>
      *            <dd>Don't prune results before running checker</dd>
+     *            <dt>-t [threads]</dt>
+     *            <dd>number of threads verifying bitstreams</dd>
+     *            <dt>-m [MB/s]</dt>
+     *            <dd>maximum rate at which bitstreams are read</dd>
+     *            <dt>-r</dt>
+     *            <dd>resume the last run which was interrupted</dd>
      *            </dl>
      */
     public static void main(String[] args) throws SQLException {
@@ -89,6 +106,9 @@ public final class ChecksumChecker
         options.addOption("c", "count", true, "Check count");
         options.addOption("a", "handle", true, "Specify a handle to check");
         options.addOption("v", "verbose", false, "Report all processing");
+        options.addOption("t", "threads", true, "Number of threads verifying bitstreams");
+        options.addOption("m", "max-rate", true, "Maximum rate at which bitstreams are read, in MB/s");
+        options.addOption("r", "resume", false, "Resume the last run which was interrupted");
 
         OptionBuilder.withArgName("bitstream-ids").hasArgs().withDescription(
                 "Space separated list of bitstream ids");
@@ -120,6 +140,18 @@ public final class ChecksumChecker
         {
             printHelp(options);
         }
+
+        // A run which only checks the bitstreams not checked since it started
+        // can be resumed: the bitstreams checked before the interruption
+        // have been committed, so starting again from the same date skips them
+        boolean resumable = line.hasOption('l') || !(line.hasOption('L') || line.hasOption('b')
+                || line.hasOption('a') || line.hasOption('d'));
+        if (line.hasOption('r') && !resumable)
+        {
+            System.err.println("Only a run limited by -l, -c or the default run can be resumed,"
+                    + " -r cannot be used with -L, -b, -a or -d");
+            System.exit(1);
+        }
         Context context = null;
         try {
             context = new Context();
@@ -145,7 +177,28 @@ public final class ChecksumChecker
                         + " old results from the database.");
             }
 
-            Date processStart = Calendar.getInstance().getTime();
+            File checkpoint = getCheckpointFile();
+            Date processStart = null;
+            if (resumable && line.hasOption('r'))
+            {
+                processStart = readCheckpoint(checkpoint);
+                if (processStart == null)
+                {
+                    System.out.println("No interrupted run to resume, starting a new run.");
+                }
+                else
+                {
+                    System.out.println("Resuming the run started at " + processStart);
+                }
+            }
+            if (processStart == null)
+            {
+                processStart = Calendar.getInstance().getTime();
+            }
+            if (resumable)
+            {
+                writeCheckpoint(checkpoint, processStart);
+            }
 
             BitstreamDispatcher dispatcher = null;
 
@@ -224,6 +277,22 @@ public final class ChecksumChecker
             {
                 checker.setReportVerbose(true);
             }
+            try
+            {
+                if (line.hasOption('t'))
+                {
+                    checker.setThreads(Integer.parseInt(line.getOptionValue('t')));
+                }
+                if (line.hasOption('m'))
+                {
+                    checker.setMaxRate(Double.parseDouble(line.getOptionValue('m')));
+                }
+            }
+            catch (NumberFormatException e)
+            {
+                System.err.println("The number of threads and the maximum rate must be numbers");
+                System.exit(1);
+            }
 
             checker.setProcessStartDate(processStart);
             checker.setDispatcher(dispatcher);
@@ -231,6 +300,10 @@ public final class ChecksumChecker
             checker.process();
             context.complete();
             context = null;
+            if (resumable && !checkpoint.delete() && checkpoint.exists())
+            {
+                LOG.warn("Unable to delete the checkpoint file " + checkpoint);
+            }
         } finally {
             if(context != null){
                 context.abort();
@@ -238,6 +311,68 @@ public final class ChecksumChecker
         }
     }
 
+    /**
+     * @return the file recording the start of an unfinished run
+     */
+    private static File getCheckpointFile()
+    {
+        ConfigurationService configurationService = DSpaceServicesFactory.getInstance().getConfigurationService();
+        String path = configurationService.getProperty("checker.checkpoint.file");
+        if (path == null)
+        {
+            path = configurationService.getProperty("dspace.dir") + File.separator + "var" + File.separator
+                    + "checker.checkpoint";
+        }
+        return new File(path);
+    }
+
+    /**
+     * Read the start date of the unfinished run.
+     *
+     * @param checkpoint the checkpoint file
+     * @return the start date, or null if there is no unfinished run
+     */
+    private static Date readCheckpoint(File checkpoint)
+    {
+        if (!checkpoint.exists())
+        {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(checkpoint))
+        {
+            properties.load(in);
+            return new Date(Long.parseLong(properties.getProperty(CHECKPOINT_PROCESS_START)));
+        }
+        catch (IOException | NumberFormatException e)
+        {
+            LOG.warn("Unable to read the checkpoint file " + checkpoint, e);
+            return null;
+        }
+    }
+
+    /**
+     * Record the start date of this run, so it can be resumed if it is interrupted.
+     *
+     * @param checkpoint the checkpoint file
+     * @param processStart the start date of this run
+     */
+    private static void writeCheckpoint(File checkpoint, Date processStart)
+    {
+        Properties properties = new Properties();
+        properties.setProperty(CHECKPOINT_PROCESS_START, String.valueOf(processStart.getTime()));
+        checkpoint.getParentFile().mkdirs();
+        try (OutputStream out = new FileOutputStream(checkpoint))
+        {
+            properties.store(out, "Unfinished checksum checker run, resume it with ChecksumChecker -r");
+        }
+        catch (IOException e)
+        {
+            // the run itself doesn't depend on it
+            LOG.warn("Unable to write the checkpoint file " + checkpoint, e);
+        }
+    }
+
     /**
      * Print the help options for the user
      * 
@@ -262,6 +397,8 @@ public final class ChecksumChecker
         System.out
                 .println("\nCheck a defined number of bitstreams: ChecksumChecker -c 10");
         System.out.println("\nReport all processing (verbose)(default reports only errors): ChecksumChecker -v");
+        System.out.println("\nCheck with 4 threads, reading at most 50 MB/s: ChecksumChecker -l -t 4 -m 50");
+        System.out.println("\nResume an interrupted run of -l, -c or the default: ChecksumChecker -l -r");
         System.out.println("\nDefault (no arguments) is equivalent to '-c 1'");
         System.exit(0);
     }
@@ -0,0 +1,91 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.app.mediafilter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The external processes started by a filter while it works on one bitstream,
+ * so they can be destroyed when the filter takes longer than
+ * <code>filter.timeout</code>. A filter which starts a process (e.g. ImageMagick
+ * or Ghostscript) registers it with {@link #started(Process)}, from the thread
+ * the filter runs in.
+ * <p>
+ * Filters which work inside the JVM (PDFBox, POI, ...) can't be stopped this
+ * way: their thread is interrupted, and if it ignores that it is abandoned and
+ * keeps running until the filter ends by itself.
+ */
+public class FilterProcesses
+{
+    /** The processes of the filter running in the current thread */
+    private static final ThreadLocal<FilterProcesses> current = new ThreadLocal<>();
+
+    private final List<Process> processes = new ArrayList<>();
+
+    private boolean destroyed = false;
+
+    /**
+     * Register a process started by the filter running in the current thread.
+     * Nothing is done if the filter isn't run with a timeout.
+     *
+     * @param process
+     *            the process
+     */
+    public static void started(Process process)
+    {
+        FilterProcesses filterProcesses = current.get();
+        if (filterProcesses != null)
+        {
+            filterProcesses.add(process);
+        }
+    }
+
+    /**
+     * Collect the processes started by the current thread, until
+     * {@link #detach()} is called.
+     */
+    protected void attach()
+    {
+        current.set(this);
+    }
+
+    /**
+     * Stop collecting the processes started by the current thread.
+     */
+    protected void detach()
+    {
+        current.remove();
+    }
+
+    protected synchronized void add(Process process)
+    {
+        if (destroyed)
+        {
+            // the filter has already been given up on
+            process.destroy();
+        }
+        else
+        {
+            processes.add(process);
+        }
+    }
+
+    /**
+     * Destroy the processes started so far, and any process started later on.
+     */
+    protected synchronized void destroy()
+    {
+        destroyed = true;
+        for (Process process : processes)
+        {
+            process.destroy();
+        }
+        processes.clear();
+    }
+}
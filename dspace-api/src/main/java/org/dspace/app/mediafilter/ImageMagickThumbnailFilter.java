@@ -11,6 +11,7 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.ExecutionException;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
@@ -25,7 +26,12 @@ import org.dspace.core.Context;
 import org.im4java.core.ConvertCmd;
 import org.im4java.core.IM4JavaException;
 import org.im4java.core.IMOperation;
+import org.im4java.core.ImageCommand;
+import org.im4java.core.Operation;
+import org.im4java.process.ProcessEvent;
+import org.im4java.process.ProcessEventListener;
 import org.im4java.process.ProcessStarter;
+import org.im4java.process.ProcessTask;
 
 import org.dspace.core.ConfigurationManager;
 
@@ -127,7 +133,7 @@ public abstract class ImageMagickThumbnailFilter extends MediaFilter implements
         if (verbose) {
 		    System.out.println("IM Thumbnail Param: "+op);
         }
-		cmd.run(op);
+		run(cmd, op);
 		return f2;
     }
     
@@ -146,10 +152,50 @@ public abstract class ImageMagickThumbnailFilter extends MediaFilter implements
         if (verbose) {
 		    System.out.println("IM Image Param: "+op);
         }
-		cmd.run(op);
+		run(cmd, op);
 		return f2;
     }
     
+    /**
+     * Run an ImageMagick command in the current thread. The process it starts
+     * is registered with {@link FilterProcesses}, so it is destroyed when the
+     * filter times out (interrupting the thread only stops waiting for it).
+     */
+    protected void run(ImageCommand cmd, Operation op) throws IOException, InterruptedException, IM4JavaException {
+        cmd.addProcessEventListener(new ProcessEventListener() {
+            @Override
+            public void processInitiated(ProcessEvent event) {
+            }
+
+            @Override
+            public void processStarted(ProcessEvent event) {
+                FilterProcesses.started(event.getProcess());
+            }
+
+            @Override
+            public void processTerminated(ProcessEvent event) {
+            }
+        });
+        ProcessTask task = cmd.getProcessTask(op);
+        task.run();
+        ProcessEvent event;
+        try {
+            event = task.get();
+        } catch (ExecutionException e) {
+            throw new IM4JavaException(e.getCause());
+        }
+        Exception e = event.getException();
+        if (e instanceof IOException) {
+            throw (IOException) e;
+        } else if (e instanceof InterruptedException) {
+            throw (InterruptedException) e;
+        } else if (e instanceof IM4JavaException) {
+            throw (IM4JavaException) e;
+        } else if (e != null) {
+            throw new IM4JavaException(e);
+        }
+    }
+
     @Override
     public boolean preProcessBitstream(Context c, Item item, Bitstream source, boolean verbose)
             throws Exception
@@ -64,6 +64,10 @@ public class MediaFilterCLITool {
         options.addOption("m", "maximum", true,
                 "process no more than maximum items");
         options.addOption("h", "help", false, "help");
+        options.addOption("t", "threads", true,
+                "number of threads filtering items (default: filter.threads)");
+        options.addOption("T", "timeout", true,
+                "seconds a filter may work on one bitstream (default: filter.timeout)");
 
         //create a "plugin" option (to specify specific MediaFilter plugins to run)
         OptionBuilder.withLongOpt("plugins");
@@ -93,6 +97,8 @@ public class MediaFilterCLITool {
         boolean isForce = false; // default to not forced
         String identifier = null; // object scope limiter
         int max2Process = Integer.MAX_VALUE;
+        Integer mediaFilterThreads = null; // from the configuration unless given
+        Integer mediaFilterTimeout = null;
         Map<String, List<String>> filterFormats = new HashMap<>();
 
         CommandLine line = null;
@@ -144,6 +150,23 @@ public class MediaFilterCLITool {
             }
         }
 
+        try
+        {
+            if (line.hasOption('t'))
+            {
+                mediaFilterThreads = Integer.parseInt(line.getOptionValue('t'));
+            }
+            if (line.hasOption('T'))
+            {
+                mediaFilterTimeout = Integer.parseInt(line.getOptionValue('T'));
+            }
+        }
+        catch (NumberFormatException e)
+        {
+            System.out.println("ERROR: the number of threads and the timeout must be numbers");
+            System.exit(1);
+        }
+
         String filterNames[] = null;
         if(line.hasOption('p'))
         {
@@ -171,6 +194,14 @@ public class MediaFilterCLITool {
         mediaFilterService.setQuiet(isQuiet);
         mediaFilterService.setVerbose(isVerbose);
         mediaFilterService.setMax2Process(max2Process);
+        if (mediaFilterThreads != null)
+        {
+            mediaFilterService.setThreads(mediaFilterThreads);
+        }
+        if (mediaFilterTimeout != null)
+        {
+            mediaFilterService.setTimeout(mediaFilterTimeout);
+        }
 
         //initialize an array of our enabled filters
         List<FormatFilter> filterList = new ArrayList<FormatFilter>();
@@ -328,6 +359,10 @@ public class MediaFilterCLITool {
                 c.abort();
             }
         }
+        if (!isQuiet)
+        {
+            mediaFilterService.printStatistics();
+        }
         System.exit(status);
     }
 }
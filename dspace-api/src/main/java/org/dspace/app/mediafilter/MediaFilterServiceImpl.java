@@ -7,9 +7,31 @@
  */
 package org.dspace.app.mediafilter;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
+import org.apache.log4j.Logger;
 import org.dspace.app.mediafilter.service.MediaFilterService;
 import org.dspace.authorize.service.AuthorizeService;
 import org.dspace.content.*;
@@ -32,9 +54,22 @@ import org.springframework.beans.factory.annotation.Autowired;
  * recreate index after processing bitstreams; -i [identifier] limits processing 
  * scope to a community, collection or item; and -m [max] limits processing to a
  * maximum number of items.
+ * <p>
+ * With more than one thread (<code>filter.threads</code>) the items are
+ * filtered by worker threads, each with its own Context, which commit every
+ * item they have filtered. The number of bitstreams a filter class works on at
+ * the same time can be limited with <code>filter.&lt;class-name&gt;.threads</code>,
+ * and <code>filter.timeout</code> stops the filtering of a bitstream which
+ * takes too long.
  */
 public class MediaFilterServiceImpl implements MediaFilterService, InitializingBean
 {
+    /** log4j logger */
+    private static final Logger log = Logger.getLogger(MediaFilterServiceImpl.class);
+
+    /** Put on the queue once for every worker, after the last item */
+    private static final UUID NO_MORE_ITEMS = new UUID(0L, 0L);
+
     @Autowired(required = true)
     protected AuthorizeService authorizeService;
     @Autowired(required = true)
@@ -56,9 +91,10 @@ public class MediaFilterServiceImpl implements MediaFilterService, InitializingB
 
     protected int max2Process = Integer.MAX_VALUE;  // maximum number items to process
     
-    protected int processed = 0;   // number items processed
-    
-    protected Item currentItem = null;   // current item being processed
+    protected final AtomicInteger processed = new AtomicInteger();   // number items processed
+
+    // current item being processed, by every thread
+    protected final ThreadLocal<Item> currentItem = new ThreadLocal<>();
 
     protected List<FormatFilter> filterClasses = null;
     
@@ -72,6 +108,21 @@ public class MediaFilterServiceImpl implements MediaFilterService, InitializingB
     protected boolean isQuiet = false;
     protected boolean isForce = false; // default to not forced
 
+    protected int threads = 1; // number of threads filtering items
+    protected int timeout = 0; // seconds a filter may work on a bitstream, 0 for no limit
+
+    // the worker threads filtering the items, while filtering with more than one thread
+    protected Workers workers = null;
+
+    // runs the filters when they have to be timed or limited, created when first needed
+    protected ExecutorService filterExecutor = null;
+
+    // limits the number of bitstreams a filter class works on at the same time, by class name
+    protected final ConcurrentMap<String, Semaphore> filterLimits = new ConcurrentHashMap<>();
+
+    // what each filter did, by filter name
+    protected final ConcurrentMap<String, FilterStatistics> statistics = new ConcurrentHashMap<>();
+
     protected MediaFilterServiceImpl()
     {
 
@@ -86,30 +137,41 @@ public class MediaFilterServiceImpl implements MediaFilterService, InitializingB
                 publicFiltersClasses.add(filter.trim());
             }
         }
+
+        threads = Math.max(configurationService.getIntProperty("filter.threads", 1), 1);
+        timeout = configurationService.getIntProperty("filter.timeout", 0);
     }
 
     @Override
     public void applyFiltersAllItems(Context context) throws Exception
     {
-        if(skipList!=null)
-        {    
-            //if a skip-list exists, we need to filter community-by-community
-            //so we can respect what is in the skip-list
-            List<Community> topLevelCommunities = communityService.findAllTop(context);
+        boolean started = startWorkers(context);
+        try
+        {
+            if(skipList!=null)
+            {
+                //if a skip-list exists, we need to filter community-by-community
+                //so we can respect what is in the skip-list
+                List<Community> topLevelCommunities = communityService.findAllTop(context);
 
-            for (Community topLevelCommunity : topLevelCommunities) {
-                applyFiltersCommunity(context, topLevelCommunity);
+                for (Community topLevelCommunity : topLevelCommunities) {
+                    applyFiltersCommunity(context, topLevelCommunity);
+                }
             }
-        }
-        else 
-        {
-            //otherwise, just find every item and process
-            Iterator<Item> itemIterator = itemService.findAll(context);
-            while (itemIterator.hasNext() && processed < max2Process)
+            else
             {
-                applyFiltersItem(context, itemIterator.next());
+                //otherwise, just find every item and process
+                Iterator<Item> itemIterator = itemService.findAll(context);
+                while (itemIterator.hasNext() && processed.get() < max2Process)
+                {
+                    queueItem(context, itemIterator.next());
+                }
             }
         }
+        finally
+        {
+            finishWorkers(started);
+        }
     }
 
     @Override
@@ -117,15 +179,23 @@ public class MediaFilterServiceImpl implements MediaFilterService, InitializingB
                                              throws Exception
     {   //only apply filters if community not in skip-list
         if(!inSkipList(community.getHandle()))
-        {    
-           	List<Community> subcommunities = community.getSubcommunities();
-            for (Community subcommunity : subcommunities) {
-                applyFiltersCommunity(context, subcommunity);
+        {
+            boolean started = startWorkers(context);
+            try
+            {
+                List<Community> subcommunities = community.getSubcommunities();
+                for (Community subcommunity : subcommunities) {
+                    applyFiltersCommunity(context, subcommunity);
+                }
+
+                List<Collection> collections = community.getCollections();
+                for (Collection collection : collections) {
+                    applyFiltersCollection(context, collection);
+                }
             }
-           	
-           	List<Collection> collections = community.getCollections();
-            for (Collection collection : collections) {
-                applyFiltersCollection(context, collection);
+            finally
+            {
+                finishWorkers(started);
             }
         }
     }
@@ -137,14 +207,22 @@ public class MediaFilterServiceImpl implements MediaFilterService, InitializingB
         //only apply filters if collection not in skip-list
         if(!inSkipList(collection.getHandle()))
         {
-            Iterator<Item> itemIterator = itemService.findAllByCollection(context, collection);
-            while (itemIterator.hasNext() && processed < max2Process)
+            boolean started = startWorkers(context);
+            try
             {
-                applyFiltersItem(context, itemIterator.next());
+                Iterator<Item> itemIterator = itemService.findAllByCollection(context, collection);
+                while (itemIterator.hasNext() && processed.get() < max2Process)
+                {
+                    queueItem(context, itemIterator.next());
+                }
+            }
+            finally
+            {
+                finishWorkers(started);
             }
         }
     }
-       
+
     @Override
     public void applyFiltersItem(Context c, Item item) throws Exception
     {
@@ -153,18 +231,74 @@ public class MediaFilterServiceImpl implements MediaFilterService, InitializingB
         {
     	  //cache this item in MediaFilterManager
     	  //so it can be accessed by MediaFilters as necessary
-    	  currentItem = item;
+    	  currentItem.set(item);
     	
-          if (filterItem(c, item))
+          try
           {
-              // increment processed count
-              ++processed;
+              if (filterItem(c, item))
+              {
+                  // increment processed count
+                  processed.incrementAndGet();
+              }
+          }
+          finally
+          {
+              // clear item objects from context cache and internal cache
+              currentItem.remove();
           }
-          // clear item objects from context cache and internal cache
-          currentItem = null;
         }  
     }
 
+    /**
+     * Filter an item, or hand it to the workers when filtering with more than one thread.
+     */
+    protected void queueItem(Context context, Item item) throws Exception
+    {
+        if (workers == null)
+        {
+            applyFiltersItem(context, item);
+        }
+        else
+        {
+            workers.add(item.getID());
+        }
+    }
+
+    /**
+     * Start the worker threads, unless filtering with a single thread or the
+     * workers have already been started by the caller.
+     *
+     * @return true if the workers were started, and should be finished by the caller
+     */
+    protected boolean startWorkers(Context context) throws Exception
+    {
+        if (threads <= 1 || workers != null)
+        {
+            return false;
+        }
+        // the workers don't see what this context hasn't committed
+        context.commit();
+        workers = new Workers(threads);
+        return true;
+    }
+
+    /**
+     * Wait until the workers have filtered all items handed to them.
+     *
+     * @param started
+     *            whether the workers were started by the caller
+     * @throws Exception the first exception a worker failed with
+     */
+    protected void finishWorkers(boolean started) throws Exception
+    {
+        if (started)
+        {
+            Workers finished = workers;
+            workers = null;
+            finished.finish();
+        }
+    }
+
     @Override
     public boolean filterItem(Context context, Item myItem) throws Exception
     {
@@ -301,6 +435,27 @@ public class MediaFilterServiceImpl implements MediaFilterService, InitializingB
     @Override
     public boolean processBitstream(Context context, Item item, Bitstream source, FormatFilter formatFilter)
             throws Exception
+    {
+        FilterStatistics filterStatistics = getStatistics(formatFilter);
+        long start = System.nanoTime();
+        Boolean filtered = null;
+        try
+        {
+            filtered = doProcessBitstream(context, item, source, formatFilter);
+            return filtered;
+        }
+        finally
+        {
+            filterStatistics.add(filtered, source.getSize(), System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Implementation of {@link #processBitstream(Context, Item, Bitstream, FormatFilter)},
+     * which keeps the statistics of the filters.
+     */
+    protected boolean doProcessBitstream(Context context, Item item, Bitstream source, FormatFilter formatFilter)
+            throws Exception
     {
         //do pre-processing of this bitstream, and if it fails, skip this bitstream!
     	if(!formatFilter.preProcessBitstream(context, item, source, isVerbose))
@@ -354,7 +509,7 @@ public class MediaFilterServiceImpl implements MediaFilterService, InitializingB
         InputStream destStream;
         try {
             System.out.println("File: " + newName);
-            destStream = formatFilter.getDestinationStream(item, bitstreamService.retrieve(context, source), isVerbose);
+            destStream = getDestinationStream(formatFilter, item, bitstreamService.retrieve(context, source));
             if (destStream == null) {
                 if (!isQuiet) {
                     System.out.println("SKIPPED: bitstream " + source.getID()
@@ -426,10 +581,254 @@ public class MediaFilterServiceImpl implements MediaFilterService, InitializingB
         return true;
     }
     
+    /**
+     * Run a filter on the contents of a bitstream. If the filter class has a
+     * limit on the number of bitstreams it works on at the same time, wait for
+     * its turn. If the filtering takes longer than the timeout it is
+     * interrupted, the external processes it started are destroyed, the source
+     * is closed to stop the filter reading it, and a TimeoutException is
+     * thrown. A filter working inside the JVM which ignores all that is
+     * abandoned: it keeps its thread, and its turn, until it ends by itself.
+     * A filter run with a timeout gets a copy of the item read with a Context
+     * of its own, so an abandoned filter never uses the database session of
+     * the caller, which goes on with the next bitstream.
+     *
+     * @param formatFilter
+     *            the filter
+     * @param item
+     *            the item which owns the bitstream
+     * @param source
+     *            the contents of the bitstream
+     * @return the filtered contents, or null if the filter couldn't filter them
+     * @throws Exception if the filter failed or took too long
+     */
+    protected InputStream getDestinationStream(FormatFilter formatFilter, Item item, InputStream source)
+            throws Exception
+    {
+        Semaphore limit = getFilterLimit(formatFilter);
+        if (limit != null)
+        {
+            limit.acquire();
+        }
+        if (timeout <= 0)
+        {
+            try
+            {
+                return formatFilter.getDestinationStream(item, source, isVerbose);
+            }
+            finally
+            {
+                if (limit != null)
+                {
+                    limit.release();
+                }
+            }
+        }
+
+        // from here on the task releases the limit, when the filter really ends
+        FilterTask task = new FilterTask(formatFilter, item, source, limit);
+        Future<InputStream> result;
+        try
+        {
+            result = getFilterExecutor().submit(task);
+        }
+        catch (RejectedExecutionException e)
+        {
+            task.abandon();
+            throw new RejectedExecutionException("All " + filterExecutorThreads()
+                    + " filter threads are busy, filters which timed out are still running", e);
+        }
+        try
+        {
+            return result.get(timeout, TimeUnit.SECONDS);
+        }
+        catch (TimeoutException e)
+        {
+            result.cancel(true);
+            task.abandon();
+            try
+            {
+                source.close();
+            }
+            catch (IOException ioe)
+            {
+                log.debug("Unable to close the source of a timed out filter", ioe);
+            }
+            getStatistics(formatFilter).timedOut.incrementAndGet();
+            throw new TimeoutException(formatFilter.getClass().getName() + " did not finish within "
+                    + timeout + " seconds");
+        }
+        catch (ExecutionException e)
+        {
+            // throw what the filter threw, so it's handled as if the filter ran in this thread
+            if (e.getCause() instanceof Error)
+            {
+                throw (Error) e.getCause();
+            }
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    /**
+     * @return the limit on the number of bitstreams the class of the filter
+     *         works on at the same time, or null if it isn't limited
+     */
+    protected Semaphore getFilterLimit(FormatFilter formatFilter)
+    {
+        String className = formatFilter.getClass().getName();
+        Semaphore limit = filterLimits.get(className);
+        if (limit == null)
+        {
+            int filterThreads = configurationService.getIntProperty("filter." + className + ".threads", 0);
+            if (filterThreads <= 0 || filterThreads >= threads)
+            {
+                return null;
+            }
+            filterLimits.putIfAbsent(className, new Semaphore(filterThreads, true));
+            limit = filterLimits.get(className);
+        }
+        return limit;
+    }
+
+    /**
+     * @return the number of threads which run filters with a timeout: one for
+     *         every thread filtering items, plus as many for filters which
+     *         timed out but are still running
+     */
+    protected int filterExecutorThreads()
+    {
+        return 2 * threads;
+    }
+
+    protected synchronized ExecutorService getFilterExecutor()
+    {
+        if (filterExecutor == null)
+        {
+            filterExecutor = new ThreadPoolExecutor(0, filterExecutorThreads(), 60L, TimeUnit.SECONDS,
+                    new SynchronousQueue<Runnable>(), new NamedThreadFactory("media-filter"));
+        }
+        return filterExecutor;
+    }
+
+    /**
+     * Runs a filter on a bitstream in a thread of the filter executor, with a
+     * Context of its own. The task holds the turn of the filter class until
+     * the filter really ends, also when the caller has stopped waiting for it.
+     */
+    protected class FilterTask implements Callable<InputStream>
+    {
+        private final FormatFilter formatFilter;
+        private final UUID itemId;
+        private final InputStream source;
+        private final Semaphore limit;
+
+        private final FilterProcesses processes = new FilterProcesses();
+
+        // set by whichever comes first: the filter starting, or the caller giving up
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        protected FilterTask(FormatFilter formatFilter, Item item, InputStream source, Semaphore limit)
+        {
+            this.formatFilter = formatFilter;
+            this.itemId = item.getID();
+            this.source = source;
+            this.limit = limit;
+        }
+
+        @Override
+        public InputStream call() throws Exception
+        {
+            if (!claimed.compareAndSet(false, true))
+            {
+                // given up on before it started, and the turn has been released
+                return null;
+            }
+            Context context = null;
+            try
+            {
+                // the item of the caller belongs to its session, which it
+                // goes on using if it gives up on the filter
+                context = new Context();
+                context.turnOffAuthorisationSystem();
+                Item item = itemService.find(context, itemId);
+                if (item == null)
+                {
+                    log.warn("Item " + itemId + " is not visible to the filter thread, it isn't committed");
+                    return null;
+                }
+                currentItem.set(item);
+                processes.attach();
+                return formatFilter.getDestinationStream(item, source, isVerbose);
+            }
+            finally
+            {
+                processes.detach();
+                currentItem.remove();
+                if (context != null && context.isValid())
+                {
+                    context.abort();
+                }
+                release();
+            }
+        }
+
+        /**
+         * Give up on the filter: destroy its external processes, and release
+         * its turn if it hasn't started (otherwise it's released when the
+         * filter ends).
+         */
+        protected void abandon()
+        {
+            processes.destroy();
+            if (claimed.compareAndSet(false, true))
+            {
+                release();
+            }
+        }
+
+        private void release()
+        {
+            if (limit != null)
+            {
+                limit.release();
+            }
+        }
+    }
+
+    protected FilterStatistics getStatistics(FormatFilter formatFilter)
+    {
+        String name = formatFilter.getClass().getSimpleName();
+        if (formatFilter instanceof SelfNamedPlugin)
+        {
+            name += " (" + ((SelfNamedPlugin) formatFilter).getPluginInstanceName() + ")";
+        }
+        FilterStatistics filterStatistics = statistics.get(name);
+        if (filterStatistics == null)
+        {
+            statistics.putIfAbsent(name, new FilterStatistics());
+            filterStatistics = statistics.get(name);
+        }
+        return filterStatistics;
+    }
+
+    @Override
+    public void printStatistics()
+    {
+        if (statistics.isEmpty())
+        {
+            return;
+        }
+        System.out.println("SUMMARY:");
+        for (Map.Entry<String, FilterStatistics> entry : new TreeMap<>(statistics).entrySet())
+        {
+            System.out.println("\t" + entry.getKey() + ": " + entry.getValue());
+        }
+    }
+
     @Override
     public Item getCurrentItem()
     {
-        return currentItem;
+        return currentItem.get();
     }
     
     @Override
@@ -469,6 +868,16 @@ public class MediaFilterServiceImpl implements MediaFilterService, InitializingB
         this.max2Process = max2Process;
     }
 
+    @Override
+    public void setThreads(int threads) {
+        this.threads = Math.max(threads, 1);
+    }
+
+    @Override
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
     @Override
     public void setFilterClasses(List<FormatFilter> filterClasses) {
         this.filterClasses = filterClasses;
@@ -483,4 +892,194 @@ public class MediaFilterServiceImpl implements MediaFilterService, InitializingB
     public void setFilterFormats(Map<String, List<String>> filterFormats) {
         this.filterFormats = filterFormats;
     }
+
+    /**
+     * Worker threads filtering the items put on their queue, each with its own
+     * Context. A worker commits every item it has filtered. If a worker fails,
+     * all workers stop and the failure is thrown to the thread adding the items.
+     */
+    protected class Workers
+    {
+        private final BlockingQueue<UUID> queue;
+        private final ExecutorService executor;
+        private final AtomicReference<Exception> failure = new AtomicReference<>();
+        private final int count;
+
+        protected Workers(int count)
+        {
+            this.count = count;
+            // bounded, so the items are only read a little ahead of the workers
+            queue = new ArrayBlockingQueue<>(count * 2);
+            executor = Executors.newFixedThreadPool(count, new NamedThreadFactory("media-filter-worker"));
+            for (int i = 0; i < count; i++)
+            {
+                executor.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        work();
+                    }
+                });
+            }
+        }
+
+        /**
+         * Hand an item to the workers, waiting until one of them has room for it.
+         */
+        protected void add(UUID itemId) throws Exception
+        {
+            while (!queue.offer(itemId, 1, TimeUnit.SECONDS))
+            {
+                throwFailure();
+            }
+            throwFailure();
+        }
+
+        /**
+         * Wait until the workers have filtered all items.
+         */
+        protected void finish() throws Exception
+        {
+            for (int i = 0; i < count; i++)
+            {
+                while (!queue.offer(NO_MORE_ITEMS, 1, TimeUnit.SECONDS))
+                {
+                    if (failure.get() != null)
+                    {
+                        // the workers stop taking items
+                        queue.clear();
+                    }
+                }
+            }
+            executor.shutdown();
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES))
+            {
+                log.debug("Waiting for the media filter workers to finish");
+            }
+            throwFailure();
+        }
+
+        private void throwFailure() throws Exception
+        {
+            Exception e = failure.get();
+            if (e != null)
+            {
+                throw e;
+            }
+        }
+
+        private void work()
+        {
+            Context context = null;
+            try
+            {
+                context = new Context();
+                // have to be super-user to do the filtering
+                context.turnOffAuthorisationSystem();
+
+                UUID itemId = queue.take();
+                while (itemId != NO_MORE_ITEMS && failure.get() == null)
+                {
+                    Item item = itemService.find(context, itemId);
+                    if (item != null && processed.get() < max2Process)
+                    {
+                        applyFiltersItem(context, item);
+                        context.commit();
+                    }
+                    itemId = queue.take();
+                }
+                context.complete();
+            }
+            catch (Exception e)
+            {
+                log.error("Filtering items failed", e);
+                failure.compareAndSet(null, e);
+            }
+            finally
+            {
+                if (context != null && context.isValid())
+                {
+                    context.abort();
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates numbered daemon threads, so a filter which never finishes
+     * doesn't keep the JVM running.
+     */
+    protected static class NamedThreadFactory implements ThreadFactory
+    {
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        protected NamedThreadFactory(String prefix)
+        {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable)
+        {
+            Thread thread = new Thread(runnable, prefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /**
+     * What a filter did: how many bitstreams it filtered, skipped or failed on,
+     * and how much time it spent on them. With more than one thread that time
+     * is the sum over all threads, so the rates are those of a single thread.
+     */
+    protected static class FilterStatistics
+    {
+        protected final AtomicInteger filtered = new AtomicInteger();
+        protected final AtomicInteger skipped = new AtomicInteger();
+        protected final AtomicInteger failed = new AtomicInteger();
+        protected final AtomicInteger timedOut = new AtomicInteger();
+        protected final AtomicLong bytes = new AtomicLong();
+        protected final AtomicLong nanos = new AtomicLong();
+
+        /**
+         * @param filtered
+         *            true if the bitstream was filtered, false if it was
+         *            skipped, null if the filter failed
+         * @param size
+         *            the size of the bitstream
+         * @param elapsed
+         *            the time spent on the bitstream, in nanoseconds
+         */
+        protected void add(Boolean filtered, long size, long elapsed)
+        {
+            if (filtered == null)
+            {
+                failed.incrementAndGet();
+            }
+            else if (filtered)
+            {
+                this.filtered.incrementAndGet();
+            }
+            else
+            {
+                skipped.incrementAndGet();
+            }
+            bytes.addAndGet(size);
+            nanos.addAndGet(elapsed);
+        }
+
+        @Override
+        public String toString()
+        {
+            int total = filtered.get() + skipped.get() + failed.get();
+            double seconds = nanos.get() / 1e9;
+            return String.format("%d filtered, %d skipped, %d failed (%d timed out); "
+                            + "%.1f MB in %.1f s filter time, %.2f bitstreams/s, %.2f MB/s",
+                    filtered.get(), skipped.get(), failed.get(), timedOut.get(),
+                    bytes.get() / 1048576.0, seconds,
+                    seconds > 0 ? total / seconds : 0, seconds > 0 ? bytes.get() / 1048576.0 / seconds : 0);
+        }
+    }
 }
@@ -99,6 +99,12 @@ public interface MediaFilterService {
      */
     public Item getCurrentItem();
 
+    /**
+     * Print, for every filter which has been run, how many bitstreams it
+     * filtered, skipped and failed on, and how fast it was.
+     */
+    public void printStatistics();
+
     /**
      * Check whether or not to skip processing the given identifier.
      *
@@ -118,6 +124,23 @@ public interface MediaFilterService {
 
     public void setMax2Process(int max2Process);
 
+    /**
+     * Set the number of threads filtering items. With more than one thread
+     * every thread uses its own Context and commits each item it has filtered;
+     * at most one item per thread may be filtered beyond max2Process.
+     *
+     * @param threads the number of threads, at least 1
+     */
+    public void setThreads(int threads);
+
+    /**
+     * Set the number of seconds a filter may work on a single bitstream,
+     * after which the filtering of that bitstream is stopped.
+     *
+     * @param timeout the timeout in seconds, 0 for no limit
+     */
+    public void setTimeout(int timeout);
+
     public void setFilterClasses(List<FormatFilter> filterClasses);
 
     public void setSkipList(List<String> skipList);
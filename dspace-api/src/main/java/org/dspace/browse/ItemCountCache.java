@@ -0,0 +1,323 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.browse;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.log4j.Logger;
+import org.dspace.content.Collection;
+import org.dspace.content.Community;
+import org.dspace.content.DSpaceObject;
+import org.dspace.core.Context;
+import org.dspace.discovery.DiscoverFacetField;
+import org.dspace.discovery.DiscoverQuery;
+import org.dspace.discovery.DiscoverResult;
+import org.dspace.discovery.DiscoverResult.FacetResult;
+import org.dspace.discovery.SearchService;
+import org.dspace.discovery.SearchServiceException;
+import org.dspace.discovery.configuration.DiscoveryConfigurationParameters;
+import org.dspace.services.ConfigurationService;
+import org.dspace.services.factory.DSpaceServicesFactory;
+
+/**
+ * Process wide cache of the number of items in every community and collection,
+ * read from Discovery with a single faceted query.
+ * <p>
+ * The counts are loaded on first use. After that they are only refreshed in the
+ * background: when the search index has been changed ({@link #invalidate()},
+ * called by the Discovery IndexEventConsumer) or when they are older than
+ * <code>webui.strengths.cache.max-age</code> seconds. Until a refresh has
+ * finished the previous counts are served, so callers never wait for a count
+ * once the cache has been loaded. {@link #getAge()} tells how old the counts are.
+ * <p>
+ * The counts are shared by all users, so they are always read anonymously, with
+ * a context of their own on the refresh thread: they don't depend on the rights
+ * of the first caller and don't use its database session.
+ */
+public class ItemCountCache
+{
+    /** Log4j logger */
+    private static final Logger log = Logger.getLogger(ItemCountCache.class);
+
+    private static final ItemCountCache instance = new ItemCountCache();
+
+    protected final ConfigurationService configurationService;
+
+    /** The current counts, replaced as a whole by a refresh */
+    private volatile Counts counts = null;
+
+    /** Set while a refresh is scheduled or running, so changes are refreshed once */
+    private final AtomicBoolean refreshPending = new AtomicBoolean(false);
+
+    private final ScheduledExecutorService refresher;
+
+    protected ItemCountCache()
+    {
+        configurationService = DSpaceServicesFactory.getInstance().getConfigurationService();
+        refresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "item-count-refresh");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public static ItemCountCache getInstance()
+    {
+        return instance;
+    }
+
+    /**
+     * Get the count of the items in the given container.
+     *
+     * @param dso
+     *            a community or collection
+     * @return the number of discoverable items in the container
+     * @throws ItemCountException
+     */
+    public int getCount(DSpaceObject dso) throws ItemCountException
+    {
+        Map<String, Integer> containerCounts;
+        if (dso instanceof Collection)
+        {
+            containerCounts = getCounts().collections;
+        }
+        else if (dso instanceof Community)
+        {
+            containerCounts = getCounts().communities;
+        }
+        else
+        {
+            throw new ItemCountException("We can only count items in Communities or Collections");
+        }
+
+        Integer val = containerCounts.get(String.valueOf(dso.getID()));
+        return val == null ? 0 : val.intValue();
+    }
+
+    /**
+     * @return the time in milliseconds since the counts were read from the
+     *         search index, or -1 if they haven't been loaded yet
+     */
+    public long getAge()
+    {
+        Counts current = counts;
+        return current == null ? -1 : System.currentTimeMillis() - current.loaded;
+    }
+
+    /**
+     * Refresh the counts in the background, as items have been added, changed
+     * or removed. The refresh waits <code>webui.strengths.cache.refresh-delay</code>
+     * seconds, so it includes the changes which are committed to the search
+     * index after this call and so a burst of changes leads to one refresh.
+     */
+    public void invalidate()
+    {
+        if (counts != null)
+        {
+            scheduleRefresh(configurationService.getIntProperty("webui.strengths.cache.refresh-delay", 5));
+        }
+    }
+
+    private Counts getCounts() throws ItemCountException
+    {
+        Counts current = counts;
+        if (current == null)
+        {
+            synchronized (this)
+            {
+                current = counts;
+                if (current == null)
+                {
+                    // the only time a caller has to wait for the counts
+                    current = loadOnRefresher();
+                    counts = current;
+                }
+            }
+        }
+        else if (System.currentTimeMillis() - current.loaded
+                > configurationService.getIntProperty("webui.strengths.cache.max-age", 3600) * 1000L)
+        {
+            scheduleRefresh(0);
+        }
+        return current;
+    }
+
+    private void scheduleRefresh(int delay)
+    {
+        if (refreshPending.compareAndSet(false, true))
+        {
+            refresher.schedule(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    refresh();
+                }
+            }, delay, TimeUnit.SECONDS);
+        }
+    }
+
+    protected void refresh()
+    {
+        // changes made while the counts are being read need another refresh
+        refreshPending.set(false);
+        try
+        {
+            counts = loadAnonymously();
+        }
+        catch (Exception e)
+        {
+            // keep serving the previous counts
+            log.error("Unable to refresh the item counts", e);
+        }
+    }
+
+    /**
+     * Load the counts on the refresh thread and wait for them, so they aren't
+     * read in the database session of the calling thread.
+     *
+     * @return the counts
+     * @throws ItemCountException
+     */
+    private Counts loadOnRefresher() throws ItemCountException
+    {
+        try
+        {
+            return refresher.submit(new Callable<Counts>()
+            {
+                @Override
+                public Counts call() throws ItemCountException
+                {
+                    return loadAnonymously();
+                }
+            }).get();
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof ItemCountException)
+            {
+                throw (ItemCountException) e.getCause();
+            }
+            throw new ItemCountException(e.getCause());
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new ItemCountException(e);
+        }
+    }
+
+    /**
+     * Read the counts with a new context without a current user.
+     *
+     * @return the counts
+     * @throws ItemCountException
+     */
+    private Counts loadAnonymously() throws ItemCountException
+    {
+        Context context = new Context();
+        try
+        {
+            return load(context);
+        }
+        finally
+        {
+            if (context.isValid())
+            {
+                context.abort();
+            }
+        }
+    }
+
+    /**
+     * Read the counts of all communities and collections from the search index.
+     *
+     * @param context
+     *            DSpace context without a current user
+     * @return the counts
+     * @throws ItemCountException
+     */
+    protected Counts load(Context context) throws ItemCountException
+    {
+        SearchService searcher = DSpaceServicesFactory.getInstance().getServiceManager()
+                .getServiceByName(SearchService.class.getName(), SearchService.class);
+
+        DiscoverQuery query = new DiscoverQuery();
+        query.setFacetMinCount(1);
+        query.addFacetField(new DiscoverFacetField("location.comm",
+                            DiscoveryConfigurationParameters.TYPE_STANDARD, -1,
+                            DiscoveryConfigurationParameters.SORT.COUNT));
+        query.addFacetField(new DiscoverFacetField("location.coll",
+                            DiscoveryConfigurationParameters.TYPE_STANDARD, -1,
+                            DiscoveryConfigurationParameters.SORT.COUNT));
+        query.addFilterQueries("search.resourcetype:2");    // count only items
+        query.addFilterQueries("NOT(discoverable:false)");  // only discoverable
+        query.setMaxResults(0);
+
+        long start = System.currentTimeMillis();
+        try
+        {
+            DiscoverResult sResponse = searcher.search(context, query, false);
+            Counts loaded = new Counts(toMap(sResponse.getFacetResult("location.comm")),
+                    toMap(sResponse.getFacetResult("location.coll")), start);
+            log.debug("Loaded the item counts of " + loaded.communities.size() + " communities and "
+                    + loaded.collections.size() + " collections in "
+                    + (System.currentTimeMillis() - start) + " ms");
+            return loaded;
+        }
+        catch (SearchServiceException e)
+        {
+            log.error("caught exception: ", e);
+            throw new ItemCountException(e);
+        }
+    }
+
+    private static Map<String, Integer> toMap(List<FacetResult> facetResults)
+    {
+        Map<String, Integer> map = new HashMap<String, Integer>(facetResults.size() * 2);
+        for (FacetResult c : facetResults)
+        {
+            map.put(c.getAsFilterQuery(), (int) c.getCount());
+        }
+        return Collections.unmodifiableMap(map);
+    }
+
+    /**
+     * Immutable item counts of all communities and collections, by id.
+     */
+    protected static class Counts
+    {
+        final Map<String, Integer> communities;
+        final Map<String, Integer> collections;
+
+        /** When the counts were read */
+        final long loaded;
+
+        Counts(Map<String, Integer> communities, Map<String, Integer> collections, long loaded)
+        {
+            this.communities = communities;
+            this.collections = collections;
+            this.loaded = loaded;
+        }
+    }
+}
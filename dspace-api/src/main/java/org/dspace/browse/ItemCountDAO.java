@@ -36,4 +36,12 @@ public interface ItemCountDAO
 	 * @throws ItemCountException
 	 */
 	public int getCount(DSpaceObject dso) throws ItemCountException;
+
+	/**
+	 * Get the age of the counts returned by getCount.
+	 * 
+	 * @return the time in milliseconds since the counts were last read, 0 if they
+	 * are counted for every call, or -1 if no counts have been read yet
+	 */
+	public long getCountAge();
 }
@@ -108,4 +108,20 @@ public class ItemCounter
 
         return 0;
     }
+
+    /**
+     * Get the age of the counts returned by {@link #getCount(DSpaceObject)}, so
+     * a user interface can tell how current they are.
+     *
+     * @return the time in milliseconds since the counts were read, 0 if they
+     *         are counted in real time, or -1 if no counts have been read yet
+     */
+    public long getCountAge()
+    {
+        if (configurationService.getBooleanProperty("webui.strengths.cache", true))
+        {
+            return dao.getCountAge();
+        }
+        return 0;
+    }
 }
@@ -7,10 +7,13 @@
  */
 package org.dspace.browse;
 
-import java.io.Serializable;
+import java.sql.SQLException;
 import java.util.*;
 
+import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
+import org.dspace.authorize.factory.AuthorizeServiceFactory;
+import org.dspace.authorize.service.AuthorizeService;
 import org.dspace.content.DSpaceObject;
 import org.dspace.content.Item;
 import org.dspace.core.Constants;
@@ -24,6 +27,10 @@ import org.dspace.discovery.DiscoverResult.SearchDocument;
 import org.dspace.discovery.SearchService;
 import org.dspace.discovery.SearchServiceException;
 import org.dspace.discovery.configuration.DiscoveryConfigurationParameters;
+import org.dspace.eperson.EPerson;
+import org.dspace.eperson.Group;
+import org.dspace.eperson.factory.EPersonServiceFactory;
+import org.dspace.eperson.service.GroupService;
 import org.dspace.services.factory.DSpaceServicesFactory;
 
 /**
@@ -41,33 +48,37 @@ public class SolrBrowseDAO implements BrowseDAO
         this.context = context;
     }
 
-    static private class FacetValueComparator
-            implements Comparator, Serializable
-    {
-        @Override
-        public int compare(Object o1, Object o2)
-        {
-            String s1 = "", s2 = "";
-            if (o1 instanceof FacetResult && o2 instanceof String)
-            {
-                FacetResult c = (FacetResult) o1;
-                s1 = c.getSortValue();
-                s2 = (String) o2;
-            }
-            else if (o2 instanceof FacetResult && o1 instanceof String)
-            {
-                FacetResult c = (FacetResult) o2;
-                s1 = (String) o1;
-                s2 = c.getSortValue();
-            }
-            // both object are FacetResult so they are already sorted
-            return s1.compareTo(s2);
-        }
-    }
-
     /** Log4j log */
     private static final Logger log = Logger.getLogger(SolrBrowseDAO.class);
 
+    /**
+     * Number of distinct values between two samples kept in the cache, and so
+     * the size of the facet window read to find the position of a value
+     */
+    private static final int SAMPLE_INTERVAL = 1000;
+
+    /** Seconds the distinct values of a browse index are cached for */
+    private static final int DISTINCT_CACHE_TTL = DSpaceServicesFactory.getInstance()
+            .getConfigurationService().getIntProperty("browse.solr.distinct.cache.ttl", 300);
+
+    /** Number of browse index and scope combinations of which the distinct values are cached */
+    private static final int DISTINCT_CACHE_SIZE = DSpaceServicesFactory.getInstance()
+            .getConfigurationService().getIntProperty("browse.solr.distinct.cache.size", 500);
+
+    /**
+     * The distinct values of browse indexes, by index and scope, shared by all
+     * DAOs. Least recently used entries are dropped first.
+     */
+    private static final Map<String, DistinctValues> distinctValuesCache = Collections
+            .synchronizedMap(new LinkedHashMap<String, DistinctValues>(16, 0.75f, true)
+            {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, DistinctValues> eldest)
+                {
+                    return size() > DISTINCT_CACHE_SIZE;
+                }
+            });
+
     /** The DSpace context */
     private final Context context;
 
@@ -131,13 +142,25 @@ public class SolrBrowseDAO implements BrowseDAO
     SearchService searcher = DSpaceServicesFactory.getInstance().getServiceManager().getServiceByName(
             SearchService.class.getName(), SearchService.class);
 
+    AuthorizeService authorizeService = AuthorizeServiceFactory.getInstance().getAuthorizeService();
+
+    GroupService groupService = EPersonServiceFactory.getInstance().getGroupService();
+
     private DiscoverResult sResponse = null;
 
+    /** The distinct values used by this DAO, and the cache key they were found under */
+    private DistinctValues distinctValues = null;
+    private String distinctValuesKey = null;
+
     private boolean itemsWithdrawn = false;
     private boolean itemsDiscoverable = true;
 
     private boolean showFrequencies;
 
+    /**
+     * @return the items of a browse by item, distinct browses use
+     *         {@link #getDistinctValues()} and {@link #getDistinctWindow(int, int)}
+     */
     private DiscoverResult getSolrResponse() throws BrowseException
     {
         if (sResponse == null)
@@ -145,59 +168,221 @@ public class SolrBrowseDAO implements BrowseDAO
             DiscoverQuery query = new DiscoverQuery();
             addLocationScopeFilter(query);
             addStatusFilter(query);
-            if (distinct)
+            query.setMaxResults(limit/* > 0 ? limit : 20*/);
+            if (offset > 0)
             {
-                DiscoverFacetField dff = new DiscoverFacetField(facetField,
-                        DiscoveryConfigurationParameters.TYPE_TEXT, -1,
-                        DiscoveryConfigurationParameters.SORT.VALUE);
-                query.addFacetField(dff);
-                query.setFacetMinCount(1);
-                query.setMaxResults(0);
+                query.setStart(offset);
             }
-            else
-            {
-                query.setMaxResults(limit/* > 0 ? limit : 20*/);
-                if (offset > 0)
-                {
-                    query.setStart(offset);
-                }
 
-                // caution check first authority, value is always present!
-                if (authority != null)
-                {
-                    query.addFilterQueries("{!field f="+facetField + "_authority_filter}"
-                            + authority);
-                }
-                else if (value != null && !valuePartial)
-                {
-                    query.addFilterQueries("{!field f="+facetField + "_value_filter}" + value);
-                }
-                else if (valuePartial)
-                {
-                    query.addFilterQueries("{!field f="+facetField + "_partial}" + value);
-                }
-                // filter on item to be sure to don't include any other object
-                // indexed in the Discovery Search core
-                query.addFilterQueries("search.resourcetype:" + Constants.ITEM);
-                if (orderField != null)
-                {
-                    query.setSortField("bi_" + orderField + "_sort",
-                            ascending ? SORT_ORDER.asc : SORT_ORDER.desc);
-                }
+            // caution check first authority, value is always present!
+            if (authority != null)
+            {
+                query.addFilterQueries("{!field f="+facetField + "_authority_filter}"
+                        + authority);
+            }
+            else if (value != null && !valuePartial)
+            {
+                query.addFilterQueries("{!field f="+facetField + "_value_filter}" + value);
             }
-            try
+            else if (valuePartial)
             {
-				sResponse = searcher.search(context, query, itemsWithdrawn
-						|| !itemsDiscoverable);
+                query.addFilterQueries("{!field f="+facetField + "_partial}" + value);
             }
-            catch (SearchServiceException e)
+            // filter on item to be sure to don't include any other object
+            // indexed in the Discovery Search core
+            query.addFilterQueries("search.resourcetype:" + Constants.ITEM);
+            if (orderField != null)
             {
-                throw new BrowseException(e);
+                query.setSortField("bi_" + orderField + "_sort",
+                        ascending ? SORT_ORDER.asc : SORT_ORDER.desc);
             }
+            sResponse = search(query);
         }
         return sResponse;
     }
 
+    private DiscoverResult search(DiscoverQuery query) throws BrowseException
+    {
+        try
+        {
+            return searcher.search(context, query, itemsWithdrawn
+                    || !itemsDiscoverable);
+        }
+        catch (SearchServiceException e)
+        {
+            throw new BrowseException(e);
+        }
+    }
+
+    /**
+     * @return a query for the distinct values of the browse index in the
+     *         current scope, without the facet
+     */
+    private DiscoverQuery getDistinctQuery()
+    {
+        DiscoverQuery query = new DiscoverQuery();
+        addLocationScopeFilter(query);
+        addStatusFilter(query);
+        query.setFacetMinCount(1);
+        query.setMaxResults(0);
+        return query;
+    }
+
+    /**
+     * Get a window of the distinct values of the browse index, in ascending
+     * order. Only the values in the window are sent by Solr.
+     *
+     * @param start
+     *            position of the first value
+     * @param length
+     *            number of values, -1 for all values from start
+     * @return the values
+     * @throws BrowseException
+     */
+    private List<FacetResult> getDistinctWindow(int start, int length)
+            throws BrowseException
+    {
+        DiscoverQuery query = getDistinctQuery();
+        query.addFacetField(new DiscoverFacetField(facetField,
+                DiscoveryConfigurationParameters.TYPE_TEXT, length,
+                DiscoveryConfigurationParameters.SORT.VALUE, start));
+        return search(query).getFacetResult(facetField);
+    }
+
+    /**
+     * Get the number of distinct values of the browse index in the current
+     * scope, with a sample of their sort values. These are cached, as Solr can
+     * only count the distinct values of a field by returning all of them. A
+     * cached entry is used until it expires or the number of items in the scope
+     * changes. The items a user may read are part of the scope, so users with
+     * different rights don't share an entry.
+     *
+     * @return the distinct values
+     * @throws BrowseException
+     */
+    private DistinctValues getDistinctValues() throws BrowseException
+    {
+        String key = facetField + "|" + containerIDField + "|" + containerID
+                + "|" + itemsWithdrawn + "|" + itemsDiscoverable + "|" + getReadScope();
+        if (distinctValues != null && key.equals(distinctValuesKey))
+        {
+            return distinctValues;
+        }
+
+        long itemCount = search(getDistinctQuery()).getTotalSearchResults();
+        DistinctValues values = distinctValuesCache.get(key);
+        if (values == null || !values.isValid(itemCount))
+        {
+            DiscoverQuery query = getDistinctQuery();
+            query.addFacetField(new DiscoverFacetField(facetField,
+                    DiscoveryConfigurationParameters.TYPE_TEXT, -1,
+                    DiscoveryConfigurationParameters.SORT.VALUE));
+            DiscoverResult resp = search(query);
+            values = new DistinctValues(resp.getFacetResult(facetField),
+                    resp.getTotalSearchResults());
+            distinctValuesCache.put(key, values);
+            log.debug("Cached " + values.count + " distinct values of " + key);
+        }
+        distinctValues = values;
+        distinctValuesKey = key;
+        return values;
+    }
+
+    /**
+     * @return the rights of the current user on which the search results are
+     *         filtered by the resource restriction plugin: all items for
+     *         administrators, else the items readable by the user or one of
+     *         their groups
+     */
+    private String getReadScope() throws BrowseException
+    {
+        try
+        {
+            if (authorizeService.isAdmin(context))
+            {
+                return "admin";
+            }
+            EPerson currentUser = context.getCurrentUser();
+            if (currentUser == null)
+            {
+                return "anonymous";
+            }
+            List<String> groups = new ArrayList<>();
+            for (Group group : groupService.allMemberGroups(context, currentUser))
+            {
+                groups.add(group.getID().toString());
+            }
+            Collections.sort(groups);
+            return "e" + currentUser.getID() + ":" + StringUtils.join(groups, ",");
+        }
+        catch (SQLException e)
+        {
+            throw new BrowseException(e);
+        }
+    }
+
+    /**
+     * @return the number of sort values in the list which are less than the
+     *         given value, or the position the value would have in the list
+     */
+    private static int lowerBound(List<String> sortValues, String value)
+    {
+        int low = 0;
+        int high = sortValues.size();
+        while (low < high)
+        {
+            int mid = (low + high) >>> 1;
+            if (sortValues.get(mid).compareTo(value) < 0)
+            {
+                low = mid + 1;
+            }
+            else
+            {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static String getSortValue(FacetResult facet)
+    {
+        return facet.getSortValue() == null ? "" : facet.getSortValue();
+    }
+
+    /**
+     * The number of distinct values of a browse index in a scope, with the sort
+     * value of every {@link SolrBrowseDAO#SAMPLE_INTERVAL}th value.
+     */
+    private static class DistinctValues
+    {
+        private final int count;
+
+        private final List<String> samples;
+
+        /** The number of items in the scope when the values were read */
+        private final long itemCount;
+
+        private final long expires;
+
+        DistinctValues(List<FacetResult> facets, long itemCount)
+        {
+            this.count = facets.size();
+            this.samples = new ArrayList<>(count / SAMPLE_INTERVAL + 1);
+            for (int i = 0; i < count; i += SAMPLE_INTERVAL)
+            {
+                samples.add(getSortValue(facets.get(i)));
+            }
+            this.itemCount = itemCount;
+            this.expires = System.currentTimeMillis() + DISTINCT_CACHE_TTL * 1000L;
+        }
+
+        boolean isValid(long currentItemCount)
+        {
+            return itemCount == currentItemCount
+                    && System.currentTimeMillis() < expires;
+        }
+    }
+
     private void addStatusFilter(DiscoverQuery query)
     {
         if (itemsWithdrawn)
@@ -228,15 +413,14 @@ public class SolrBrowseDAO implements BrowseDAO
     @Override
     public int doCountQuery() throws BrowseException
     {
-        DiscoverResult resp = getSolrResponse();
         int count = 0;
         if (distinct)
         {
-            List<FacetResult> facetResults = resp.getFacetResult(facetField);
-            count = facetResults.size();
+            count = getDistinctValues().count;
         }
         else
         {
+            DiscoverResult resp = getSolrResponse();
             // we need to cast to int to respect the BrowseDAO contract...
             count = (int) resp.getTotalSearchResults();
             // FIXME null the response cache
@@ -250,36 +434,35 @@ public class SolrBrowseDAO implements BrowseDAO
     @Override
     public List doValueQuery() throws BrowseException
     {
-        DiscoverResult resp = getSolrResponse();
-        List<FacetResult> facet = resp.getFacetResult(facetField);
-        int count = doCountQuery();
         int start = offset > 0 ? offset : 0;
-        int max = limit > 0 ? limit : count; //if negative, return everything
-        List<String[]> result = new ArrayList<>();
+        List<FacetResult> facet;
         if (ascending)
         {
-            for (int i = start; i < (start + max) && i < count; i++)
-            {
-                FacetResult c = facet.get(i);
-                String freq = showFrequencies ? String.valueOf(c.getCount())
-                        : "";
-                result.add(new String[] { c.getDisplayedValue(),
-                        c.getAuthorityKey(), freq });
-            }
+            //if negative, return everything
+            facet = getDistinctWindow(start, limit > 0 ? limit : -1);
         }
         else
         {
-            for (int i = count - start - 1; i >= count - (start + max)
-                    && i >= 0; i--)
+            // the window is counted from the end of the ascending values
+            int end = doCountQuery() - start;
+            int first = limit > 0 ? Math.max(0, end - limit) : 0;
+            facet = new ArrayList<>();
+            if (end > 0)
             {
-                FacetResult c = facet.get(i);
-                String freq = showFrequencies ? String.valueOf(c.getCount())
-                        : "";
-                result.add(new String[] { c.getDisplayedValue(),
-                        c.getAuthorityKey(), freq });
+                facet.addAll(getDistinctWindow(first, end - first));
+                Collections.reverse(facet);
             }
         }
 
+        List<String[]> result = new ArrayList<>();
+        for (FacetResult c : facet)
+        {
+            String freq = showFrequencies ? String.valueOf(c.getCount())
+                    : "";
+            result.add(new String[] { c.getDisplayedValue(),
+                    c.getAuthorityKey(), freq });
+        }
+
         return result;
     }
 
@@ -376,12 +559,19 @@ public class SolrBrowseDAO implements BrowseDAO
     public int doDistinctOffsetQuery(String column, String value,
             boolean isAscending) throws BrowseException
     {
-        DiscoverResult resp = getSolrResponse();
-        List<FacetResult> facets = resp.getFacetResult(facetField);
-        Comparator comparator = new SolrBrowseDAO.FacetValueComparator();
-        Collections.sort(facets, comparator);
-        int x = Collections.binarySearch(facets, value, comparator);
-        int ascValue = (x >= 0) ? x : -(x + 1);
+        // find the block of values the value falls in from the cached samples,
+        // then its position within the block
+        int ascValue = 0;
+        int block = lowerBound(getDistinctValues().samples, value) - 1;
+        if (block >= 0)
+        {
+            List<String> sortValues = new ArrayList<>();
+            for (FacetResult facet : getDistinctWindow(block * SAMPLE_INTERVAL, SAMPLE_INTERVAL))
+            {
+                sortValues.add(getSortValue(facet));
+            }
+            ascValue = block * SAMPLE_INTERVAL + lowerBound(sortValues, value);
+        }
         if (isAscending)
         {
             return ascValue;
@@ -11,6 +11,15 @@ import java.io.IOException;
 import java.sql.SQLException;
 import java.util.Date;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.commons.collections.MapUtils;
 import org.apache.log4j.Logger;
@@ -19,7 +28,11 @@ import org.dspace.checker.service.ChecksumHistoryService;
 import org.dspace.checker.service.ChecksumResultService;
 import org.dspace.checker.service.MostRecentChecksumService;
 import org.dspace.content.Bitstream;
+import org.dspace.content.factory.ContentServiceFactory;
+import org.dspace.content.service.BitstreamService;
 import org.dspace.core.Context;
+import org.dspace.services.ConfigurationService;
+import org.dspace.services.factory.DSpaceServicesFactory;
 import org.dspace.storage.bitstore.factory.StorageServiceFactory;
 import org.dspace.storage.bitstore.service.BitstreamStorageService;
 
@@ -30,6 +43,15 @@ import org.dspace.storage.bitstore.service.BitstreamStorageService;
  * against the last calculated checksum for that bitstream.
  * </p>
  * 
+ * <p>
+ * With more than one thread (<code>checker.threads</code>) the bitstreams
+ * handed out by the dispatcher are put on a queue, from which the verifier
+ * threads take them. Every verifier uses its own Context. The results are
+ * committed every <code>checker.batch-size</code> bitstreams, so an interrupted
+ * run keeps what it has checked, and reading can be limited to
+ * <code>checker.max-rate</code> MB per second over all threads.
+ * </p>
+ * 
  * @author Jim Downing
  * @author Grace Carpenter
  * @author Nathan Sarr
@@ -43,6 +65,9 @@ public final class CheckerCommand
     /** Usual Log4J logger. */
     private static final Logger LOG = Logger.getLogger(CheckerCommand.class);
 
+    /** Put on the queue once for every verifier thread, after the last bitstream */
+    private static final UUID NO_MORE_BITSTREAMS = new UUID(0L, 0L);
+
     private Context context;
 
     /** BitstreamInfoDAO dependency. */
@@ -54,6 +79,7 @@ public final class CheckerCommand
     private ChecksumHistoryService checksumHistoryService = null;
     private BitstreamStorageService bitstreamStorageService = null;
     private ChecksumResultService checksumResultService = null;
+    private BitstreamService bitstreamService = null;
 
     /** start time for current process. */
     private Date processStartDate = null;
@@ -71,6 +97,15 @@ public final class CheckerCommand
     /** Report all processing */
     private boolean reportVerbose = false;
 
+    /** Number of threads verifying bitstreams */
+    private int threads = 1;
+
+    /** Number of bitstreams checked between commits, commit only at the end if 0 */
+    private int batchSize = 100;
+
+    /** Limits the rate at which bitstreams are read, null if unlimited */
+    private ReadRateLimiter rateLimiter = null;
+
     /**
      * Default constructor uses DSpace plugin manager to construct dependencies.
      */
@@ -80,7 +115,13 @@ public final class CheckerCommand
         checksumHistoryService = CheckerServiceFactory.getInstance().getChecksumHistoryService();
         bitstreamStorageService = StorageServiceFactory.getInstance().getBitstreamStorageService();
         checksumResultService = CheckerServiceFactory.getInstance().getChecksumResultService();
+        bitstreamService = ContentServiceFactory.getInstance().getBitstreamService();
         this.context = context;
+
+        ConfigurationService configurationService = DSpaceServicesFactory.getInstance().getConfigurationService();
+        setThreads(configurationService.getIntProperty("checker.threads", 1));
+        setBatchSize(configurationService.getIntProperty("checker.batch-size", 100));
+        setMaxRate(configurationService.getPropertyAsType("checker.max-rate", 0.0));
     }
 
     /**
@@ -112,32 +153,252 @@ public final class CheckerCommand
         // bitstream table - this always done.
         checksumService.updateMissingBitstreams(context);
 
-        Bitstream bitstream = dispatcher.next();
+        long start = System.currentTimeMillis();
+        int checked;
+        if (threads > 1)
+        {
+            checked = processConcurrently();
+        }
+        else
+        {
+            checked = 0;
+            Bitstream bitstream = dispatcher.next();
+
+            while (bitstream != null)
+            {
+                LOG.debug("Processing bitstream id = " + bitstream.getID());
+                MostRecentChecksum info = checkBitstream(context, bitstream);
+                report(context, info);
+
+                if (++checked % batchSize == 0)
+                {
+                    // keep the results so far if the run is interrupted
+                    context.commit();
+                }
+
+                bitstream = dispatcher.next();
+            }
+        }
+
+        LOG.info("Checked " + checked + " bitstreams with " + threads + " thread(s) in "
+                + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * Feed the bitstreams from the dispatcher to the verifier threads, and
+     * wait until they have been checked.
+     *
+     * @return the number of bitstreams checked
+     * @throws SQLException if the dispatcher or one of the verifiers failed
+     */
+    protected int processConcurrently() throws SQLException {
+        // the verifiers don't see what this context hasn't committed
+        context.commit();
+
+        // bounded, so the dispatcher stays only a little ahead of the verifiers
+        BlockingQueue<UUID> queue = new ArrayBlockingQueue<>(threads * 2);
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        AtomicInteger checked = new AtomicInteger();
+
+        ExecutorService verifiers = Executors.newFixedThreadPool(threads, new ThreadFactory()
+        {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                return new Thread(runnable, "checksum-verifier-" + count.incrementAndGet());
+            }
+        });
+        for (int i = 0; i < threads; i++)
+        {
+            verifiers.execute(new Verifier(queue, failure, checked));
+        }
+
+        try
+        {
+            int dispatched = 0;
+            Bitstream bitstream = dispatcher.next();
+            while (bitstream != null && enqueue(queue, bitstream.getID(), failure))
+            {
+                if (++dispatched % batchSize == 0)
+                {
+                    // the bitstreams are checked in other contexts, don't keep them in this one
+                    context.clearCache();
+                }
+                bitstream = dispatcher.next();
+            }
+        }
+        catch (SQLException | RuntimeException e)
+        {
+            failure.compareAndSet(null, e);
+        }
+        finally
+        {
+            finish(queue, failure);
+            verifiers.shutdown();
+            try
+            {
+                while (!verifiers.awaitTermination(1, TimeUnit.MINUTES))
+                {
+                    LOG.debug("Waiting for the verifiers to finish");
+                }
+            }
+            catch (InterruptedException e)
+            {
+                verifiers.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        Exception e = failure.get();
+        if (e instanceof SQLException)
+        {
+            throw (SQLException) e;
+        }
+        else if (e != null)
+        {
+            throw new SQLException("Checking the bitstreams failed", e);
+        }
+        return checked.get();
+    }
+
+    /**
+     * Put a bitstream id on the queue, waiting for room unless a verifier has failed.
+     *
+     * @return false if the id couldn't be queued
+     */
+    private boolean enqueue(BlockingQueue<UUID> queue, UUID id, AtomicReference<Exception> failure)
+    {
+        try
+        {
+            while (!queue.offer(id, 1, TimeUnit.SECONDS))
+            {
+                if (failure.get() != null)
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
 
-        while (bitstream != null)
+    /**
+     * Tell every verifier there are no more bitstreams. After a failure the
+     * bitstreams still queued are dropped, as the verifiers stop taking them.
+     */
+    private void finish(BlockingQueue<UUID> queue, AtomicReference<Exception> failure)
+    {
+        for (int i = 0; i < threads; i++)
         {
-            LOG.debug("Processing bitstream id = " + bitstream.getID());
-            MostRecentChecksum info = checkBitstream(bitstream);
+            while (!queue.offer(NO_MORE_BITSTREAMS))
+            {
+                if (failure.get() != null)
+                {
+                    queue.clear();
+                }
+                else
+                {
+                    Thread.yield();
+                }
+            }
+        }
+    }
 
-            if (reportVerbose
-                    || !ChecksumResultCode.CHECKSUM_MATCH.equals(info.getChecksumResult().getResultCode()))
+    /**
+     * Pass the result of a check to the collector, if it should be reported.
+     */
+    protected void report(Context context, MostRecentChecksum info) throws SQLException {
+        if (reportVerbose
+                || !ChecksumResultCode.CHECKSUM_MATCH.equals(info.getChecksumResult().getResultCode()))
+        {
+            // one result at a time, so the lines logged for them aren't mixed up
+            synchronized (collector)
             {
                 collector.collect(context, info);
             }
+        }
+    }
 
-            bitstream = dispatcher.next();
+    /**
+     * Checks the bitstreams taken from the queue, with its own Context.
+     */
+    protected class Verifier implements Runnable
+    {
+        private final BlockingQueue<UUID> queue;
+        private final AtomicReference<Exception> failure;
+        private final AtomicInteger checked;
+
+        protected Verifier(BlockingQueue<UUID> queue, AtomicReference<Exception> failure, AtomicInteger checked)
+        {
+            this.queue = queue;
+            this.failure = failure;
+            this.checked = checked;
+        }
+
+        @Override
+        public void run()
+        {
+            Context verifierContext = null;
+            try
+            {
+                verifierContext = new Context();
+                int uncommitted = 0;
+                UUID id = queue.take();
+                while (id != NO_MORE_BITSTREAMS && failure.get() == null)
+                {
+                    LOG.debug("Processing bitstream id = " + id);
+                    Bitstream bitstream = bitstreamService.find(verifierContext, id);
+                    if (bitstream == null)
+                    {
+                        LOG.warn("Bitstream id = " + id + " no longer exists, skipping it");
+                    }
+                    else
+                    {
+                        report(verifierContext, checkBitstream(verifierContext, bitstream));
+                        checked.incrementAndGet();
+                    }
+
+                    if (++uncommitted == batchSize)
+                    {
+                        verifierContext.commit();
+                        uncommitted = 0;
+                    }
+                    id = queue.take();
+                }
+                verifierContext.complete();
+            }
+            catch (Exception e)
+            {
+                LOG.error("Checking bitstreams failed", e);
+                failure.compareAndSet(null, e);
+            }
+            finally
+            {
+                if (verifierContext != null && verifierContext.isValid())
+                {
+                    verifierContext.abort();
+                }
+            }
         }
     }
 
     /**
      * Check a specified bitstream.
      * 
+     * @param context
+     *            the context to check it in
      * @param bitstream
      *            the bitstream
      * 
      * @return the information about the bitstream and its checksum data
      */
-    protected MostRecentChecksum checkBitstream(final Bitstream bitstream) throws SQLException {
+    protected MostRecentChecksum checkBitstream(Context context, final Bitstream bitstream) throws SQLException {
         // get bitstream info from bitstream table
         MostRecentChecksum info = checksumService.findByBitstream(context, bitstream);
 
@@ -150,23 +411,23 @@ public final class CheckerCommand
             // prevent id from appearing in most_recent_checksum
             // but not bitstream table, or vice versa
             info = checksumService.getNonPersistedObject();
-            processNullInfoBitstream(info);
+            processNullInfoBitstream(context, info);
         }
         else if (!info.isToBeProcessed())
         {
             // most_recent_checksum.to_be_processed is marked
             // 'false' for this bitstream id.
             // Do not do any db updates
-            info.setChecksumResult(getChecksumResultByCode(ChecksumResultCode.BITSTREAM_NOT_PROCESSED));
+            info.setChecksumResult(getChecksumResultByCode(context, ChecksumResultCode.BITSTREAM_NOT_PROCESSED));
         }
         else if (info.getBitstream().isDeleted())
         {
             // bitstream id is marked 'deleted' in bitstream table.
-            processDeletedBitstream(info);
+            processDeletedBitstream(context, info);
         }
         else
         {
-            processBitstream(info);
+            processBitstream(context, info);
         }
 
         return info;
@@ -182,16 +443,16 @@ public final class CheckerCommand
      * 
      * @return a result code (constants defined in Util)
      */
-    protected ChecksumResult compareChecksums(String checksumA, String checksumB) throws SQLException {
-        ChecksumResult result = getChecksumResultByCode(ChecksumResultCode.CHECKSUM_NO_MATCH);
+    protected ChecksumResult compareChecksums(Context context, String checksumA, String checksumB) throws SQLException {
+        ChecksumResult result = getChecksumResultByCode(context, ChecksumResultCode.CHECKSUM_NO_MATCH);
 
         if ((checksumA == null) || (checksumB == null))
         {
-            result = getChecksumResultByCode(ChecksumResultCode.CHECKSUM_PREV_NOT_FOUND);
+            result = getChecksumResultByCode(context, ChecksumResultCode.CHECKSUM_PREV_NOT_FOUND);
         }
         else if (checksumA.equals(checksumB))
         {
-            result = getChecksumResultByCode(ChecksumResultCode.CHECKSUM_MATCH);
+            result = getChecksumResultByCode(context, ChecksumResultCode.CHECKSUM_MATCH);
         }
 
         return result;
@@ -206,9 +467,9 @@ public final class CheckerCommand
      * @param info
      *            a deleted bitstream.
      */
-    protected void processDeletedBitstream(MostRecentChecksum info) throws SQLException {
+    protected void processDeletedBitstream(Context context, MostRecentChecksum info) throws SQLException {
         info.setProcessStartDate(new Date());
-        info.setChecksumResult(getChecksumResultByCode(ChecksumResultCode.BITSTREAM_MARKED_DELETED));
+        info.setChecksumResult(getChecksumResultByCode(context, ChecksumResultCode.BITSTREAM_MARKED_DELETED));
         info.setProcessEndDate(new Date());
         info.setToBeProcessed(false);
         checksumService.update(context, info);
@@ -224,11 +485,11 @@ public final class CheckerCommand
      *            A not found BitStreamInfo
      * @todo is this method required?
      */
-    protected void processNullInfoBitstream(MostRecentChecksum info) throws SQLException {
+    protected void processNullInfoBitstream(Context context, MostRecentChecksum info) throws SQLException {
         info.setInfoFound(false);
         info.setProcessStartDate(new Date());
         info.setProcessEndDate(new Date());
-        info.setChecksumResult(getChecksumResultByCode(ChecksumResultCode.BITSTREAM_INFO_NOT_FOUND));
+        info.setChecksumResult(getChecksumResultByCode(context, ChecksumResultCode.BITSTREAM_INFO_NOT_FOUND));
     }
 
     /**
@@ -247,11 +508,15 @@ public final class CheckerCommand
      * @param info
      *            BitstreamInfo to handle
      */
-    protected void processBitstream(MostRecentChecksum info) throws SQLException {
+    protected void processBitstream(Context context, MostRecentChecksum info) throws SQLException {
         info.setProcessStartDate(new Date());
 
         try
         {
+            if (rateLimiter != null)
+            {
+                rateLimiter.acquire(info.getBitstream().getSize());
+            }
             Map checksumMap = bitstreamStorageService.computeChecksum(context, info.getBitstream());
             if(MapUtils.isNotEmpty(checksumMap)) {
                 info.setBitstreamFound(true);
@@ -265,12 +530,12 @@ public final class CheckerCommand
             }
 
             // compare new checksum to previous checksum
-            info.setChecksumResult(compareChecksums(info.getExpectedChecksum(), info.getCurrentChecksum()));
+            info.setChecksumResult(compareChecksums(context, info.getExpectedChecksum(), info.getCurrentChecksum()));
         }
         catch (IOException e)
         {
             // bitstream located, but file missing from asset store
-            info.setChecksumResult(getChecksumResultByCode(ChecksumResultCode.BITSTREAM_NOT_FOUND));
+            info.setChecksumResult(getChecksumResultByCode(context, ChecksumResultCode.BITSTREAM_NOT_FOUND));
             info.setToBeProcessed(false);
             LOG.error("Error retrieving bitstream ID " + info.getBitstream().getID()
                     + " from " + "asset store.", e);
@@ -280,7 +545,7 @@ public final class CheckerCommand
             // ??this code only executes if an SQL
             // exception occurs in *DSpace* code, probably
             // indicating a general db problem?
-            info.setChecksumResult(getChecksumResultByCode(ChecksumResultCode.BITSTREAM_INFO_NOT_FOUND));
+            info.setChecksumResult(getChecksumResultByCode(context, ChecksumResultCode.BITSTREAM_INFO_NOT_FOUND));
             LOG.error("Error retrieving metadata for bitstream ID "
                     + info.getBitstream().getID(), e);
         } finally
@@ -293,7 +558,7 @@ public final class CheckerCommand
         }
     }
 
-    protected ChecksumResult getChecksumResultByCode(ChecksumResultCode checksumResultCode) throws SQLException {
+    protected ChecksumResult getChecksumResultByCode(Context context, ChecksumResultCode checksumResultCode) throws SQLException {
         return checksumResultService.findByCode(context, checksumResultCode);
     }
 
@@ -380,4 +645,59 @@ public final class CheckerCommand
     {
         this.reportVerbose = reportVerbose;
     }
+
+    /**
+     * Get the number of threads verifying bitstreams.
+     * 
+     * @return the number of threads
+     */
+    public int getThreads()
+    {
+        return threads;
+    }
+
+    /**
+     * Set the number of threads verifying bitstreams. With more than one
+     * thread every thread uses its own Context, and the results are always
+     * committed by those contexts.
+     * 
+     * @param threads
+     *            the number of threads, at least 1
+     */
+    public void setThreads(int threads)
+    {
+        this.threads = Math.max(threads, 1);
+    }
+
+    /**
+     * Get the number of bitstreams checked between commits.
+     * 
+     * @return the batch size, 0 if the results are only committed at the end
+     */
+    public int getBatchSize()
+    {
+        return batchSize == Integer.MAX_VALUE ? 0 : batchSize;
+    }
+
+    /**
+     * Set the number of bitstreams checked between commits.
+     * 
+     * @param batchSize
+     *            the batch size, 0 to commit the results at the end of the run
+     */
+    public void setBatchSize(int batchSize)
+    {
+        this.batchSize = batchSize > 0 ? batchSize : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Limit the rate at which bitstreams are read, over all threads.
+     * 
+     * @param megabytesPerSecond
+     *            the maximum rate in MB per second, 0 for no limit
+     */
+    public void setMaxRate(double megabytesPerSecond)
+    {
+        rateLimiter = megabytesPerSecond > 0 ? new ReadRateLimiter(megabytesPerSecond) : null;
+    }
 }
@@ -19,6 +19,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import java.sql.SQLException;
 import java.util.Date;
 import java.util.List;
+import java.util.UUID;
 
 /**
  * Service implementation for the MostRecentChecksum object.
@@ -183,6 +184,27 @@ public class MostRecentChecksumServiceImpl implements MostRecentChecksumService
         return mostRecentChecksumDAO.getOldestRecord(context, lessThanDate);
     }
 
+    /**
+     * Returns the next records to be processed, in the same order as
+     * {@link #findOldestRecord(Context, Date)}, starting after the given record.
+     * This allows reading the records a page at a time.
+     *
+     * @param lessThanDate
+     *            only return records last processed before this date, or null for all records
+     * @param afterEndDate
+     *            the process end date of the record to start after, or null to start at the oldest record
+     * @param afterBitstreamId
+     *            the bitstream id of the record to start after
+     * @param limit
+     *            the maximum number of records to return
+     * @return the records, oldest first
+     */
+    @Override
+    public List<MostRecentChecksum> findOldestRecords(Context context, Date lessThanDate, Date afterEndDate, UUID afterBitstreamId, int limit) throws SQLException
+    {
+        return mostRecentChecksumDAO.getOldestRecords(context, lessThanDate, afterEndDate, afterBitstreamId, limit);
+    }
+
     @Override
     public List<MostRecentChecksum> findNotInHistory(Context context) throws SQLException
     {
@@ -0,0 +1,75 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.checker;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the rate at which the checksum checker reads bitstreams from the
+ * asset store, over all threads which share the limiter. A thread asks for the
+ * size of a bitstream before reading it, and is kept waiting until the
+ * bitstreams read before it would have been read at the maximum rate.
+ */
+public class ReadRateLimiter
+{
+    private static final double BYTES_PER_MEGABYTE = 1024 * 1024;
+
+    /** Nanoseconds it takes to read one byte at the maximum rate */
+    private final double nanosPerByte;
+
+    /** When the next read may start, in System.nanoTime() */
+    private long nextRead = System.nanoTime();
+
+    /**
+     * @param megabytesPerSecond
+     *            the maximum rate, must be positive
+     */
+    public ReadRateLimiter(double megabytesPerSecond)
+    {
+        if (megabytesPerSecond <= 0)
+        {
+            throw new IllegalArgumentException("The maximum rate must be positive: " + megabytesPerSecond);
+        }
+        nanosPerByte = TimeUnit.SECONDS.toNanos(1) / (megabytesPerSecond * BYTES_PER_MEGABYTE);
+    }
+
+    /**
+     * Wait until the given number of bytes may be read. If the thread is
+     * interrupted it stops waiting, and its interrupt status is set again.
+     *
+     * @param bytes
+     *            the number of bytes which are going to be read
+     */
+    public void acquire(long bytes)
+    {
+        long wait;
+        synchronized (this)
+        {
+            long now = System.nanoTime();
+            // time which nobody used to read isn't saved up for later bursts
+            if (nextRead - now < 0)
+            {
+                nextRead = now;
+            }
+            wait = nextRead - now;
+            nextRead += (long) (Math.max(bytes, 0) * nanosPerByte);
+        }
+
+        if (wait > 0)
+        {
+            try
+            {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
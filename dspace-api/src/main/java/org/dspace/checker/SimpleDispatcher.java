@@ -14,6 +14,9 @@ import org.dspace.core.Context;
 
 import java.sql.SQLException;
 import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.UUID;
 
 /**
  * An implementation of the selection strategy that selects bitstreams in the
@@ -26,6 +29,10 @@ import java.util.Date;
  */
 public class SimpleDispatcher implements BitstreamDispatcher
 {
+    /**
+     * Number of records read from the database at once.
+     */
+    protected static final int PAGE_SIZE = 100;
 
     /**
      * Should this dispatcher keep on dispatching around the collection?
@@ -44,6 +51,18 @@ public class SimpleDispatcher implements BitstreamDispatcher
 
     protected Context context;
 
+    /**
+     * Bitstreams which have been read from the database but not handed out yet
+     */
+    protected LinkedList<Bitstream> page = new LinkedList<>();
+
+    /**
+     * Process end date and bitstream id of the last record read from the
+     * database, the next page starts after it
+     */
+    protected Date lastEndDate = null;
+    protected UUID lastBitstreamId = null;
+
     /**
      * Creates a new SimpleDispatcher.
      * 
@@ -69,34 +88,40 @@ public class SimpleDispatcher implements BitstreamDispatcher
     }
 
     /**
-     * Selects the next candidate bitstream.
+     * Selects the next candidate bitstream. The candidates are read from the
+     * database a page at a time; every page starts after the last record of the
+     * previous one, so a bitstream which is still being checked (by another
+     * thread) is not handed out again.
      * 
      * @see org.dspace.checker.BitstreamDispatcher#next()
      */
     @Override
     public synchronized Bitstream next() throws SQLException {
-        // should process loop infinitely through the
-        // bitstreams in most_recent_checksum table?
-        if (!loopContinuously && (processStartTime != null))
+        if (page.isEmpty())
         {
-            MostRecentChecksum oldestRecord = checksumService.findOldestRecord(context, processStartTime);
-            if(oldestRecord != null)
+            // should process loop infinitely through the
+            // bitstreams in most_recent_checksum table?
+            Date lessThanDate = loopContinuously ? null : processStartTime;
+            List<MostRecentChecksum> records = checksumService.findOldestRecords(context, lessThanDate,
+                    lastEndDate, lastBitstreamId, PAGE_SIZE);
+            for (MostRecentChecksum record : records)
             {
-                return oldestRecord.getBitstream();
-            }else{
-                return null;
+                page.add(record.getBitstream());
             }
-        }
-        else
-        {
-            MostRecentChecksum oldestRecord = checksumService.findOldestRecord(context);
-            if(oldestRecord != null)
+
+            if (!records.isEmpty())
             {
-                return oldestRecord.getBitstream();
-            }else{
-                return null;
+                MostRecentChecksum last = records.get(records.size() - 1);
+                // Only move forward: a record cached in this context may still
+                // show the end date it had before another context checked it
+                if (lastEndDate == null || last.getProcessEndDate().getTime() >= lastEndDate.getTime())
+                {
+                    lastEndDate = last.getProcessEndDate();
+                    lastBitstreamId = last.getBitstream().getID();
+                }
             }
         }
 
+        return page.poll();
     }
 }
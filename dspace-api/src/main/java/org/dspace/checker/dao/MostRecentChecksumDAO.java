@@ -16,6 +16,7 @@ import org.dspace.core.GenericDAO;
 import java.sql.SQLException;
 import java.util.Date;
 import java.util.List;
+import java.util.UUID;
 
 /**
  * Database Access Object interface class for the MostRecentChecksum object.
@@ -37,6 +38,8 @@ public interface MostRecentChecksumDAO extends GenericDAO<MostRecentChecksum>
 
     public MostRecentChecksum getOldestRecord(Context context, Date lessThanDate) throws SQLException;
 
+    public List<MostRecentChecksum> getOldestRecords(Context context, Date lessThanDate, Date afterEndDate, UUID afterBitstreamId, int limit) throws SQLException;
+
     public List<MostRecentChecksum> findNotInHistory(Context context) throws SQLException;
 
     public MostRecentChecksum findByBitstream(Context context, Bitstream bitstream) throws SQLException;
@@ -21,6 +21,7 @@ import org.hibernate.criterion.*;
 import java.sql.SQLException;
 import java.util.Date;
 import java.util.List;
+import java.util.UUID;
 
 /**
  * Hibernate implementation of the Database Access Object interface class for the MostRecentChecksum object.
@@ -134,6 +135,31 @@ public class MostRecentChecksumDAOImpl extends AbstractHibernateDAO<MostRecentCh
         return singleResult(criteria);
     }
 
+    @Override
+    public List<MostRecentChecksum> getOldestRecords(Context context, Date lessThanDate, Date afterEndDate, UUID afterBitstreamId, int limit) throws SQLException {
+        Criteria criteria = createCriteria(context, MostRecentChecksum.class);
+        criteria.add(Restrictions.eq("toBeProcessed", true));
+        if (lessThanDate != null)
+        {
+            criteria.add(Restrictions.lt("processStartDate", lessThanDate));
+        }
+        if (afterEndDate != null)
+        {
+            // keyset paging: everything after the last record of the previous page
+            criteria.add(
+                    Restrictions.or(
+                            Restrictions.gt("processEndDate", afterEndDate),
+                            Restrictions.and(
+                                    Restrictions.eq("processEndDate", afterEndDate),
+                                    Restrictions.gt("bitstream.id", afterBitstreamId)
+                            )
+                    ));
+        }
+        criteria.addOrder(Order.asc("processEndDate")).addOrder(Order.asc("bitstream.id"));
+        criteria.setMaxResults(limit);
+        return list(criteria);
+    }
+
     @Override
     public List<MostRecentChecksum> findNotInHistory(Context context) throws SQLException {
         Criteria criteria = createCriteria(context, MostRecentChecksum.class);
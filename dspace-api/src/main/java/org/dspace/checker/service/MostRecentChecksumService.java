@@ -15,6 +15,7 @@ import org.dspace.core.Context;
 import java.sql.SQLException;
 import java.util.Date;
 import java.util.List;
+import java.util.UUID;
 
 /**
  * Service interface class for the MostRecentChecksum object.
@@ -40,6 +41,8 @@ public interface MostRecentChecksumService {
 
     public MostRecentChecksum findOldestRecord(Context context, Date lessThanDate) throws SQLException;
 
+    public List<MostRecentChecksum> findOldestRecords(Context context, Date lessThanDate, Date afterEndDate, UUID afterBitstreamId, int limit) throws SQLException;
+
     public List<MostRecentChecksum> findNotInHistory(Context context) throws SQLException;
 
     public void update(Context context, MostRecentChecksum mostRecentChecksum) throws SQLException;
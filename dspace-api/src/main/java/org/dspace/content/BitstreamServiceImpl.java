@@ -220,6 +220,14 @@ public class BitstreamServiceImpl extends DSpaceObjectServiceImpl<Bitstream> imp
         log.info(LogManager.getHeader(context, "update_bitstream",
                 "bitstream_id=" + bitstream.getID()));
         super.update(context, bitstream);
+        for (Bundle bundle : bitstream.getBundles())
+        {
+            bundle.increaseModificationStamp();
+            for (Item item : bundle.getItems())
+            {
+                item.increaseModificationStamp();
+            }
+        }
         if (bitstream.isModified())
         {
             context.addEvent(new Event(Event.MODIFY, Constants.BITSTREAM, bitstream.getID(), null, getIdentifiers(context, bitstream)));
@@ -273,6 +281,13 @@ public class BitstreamServiceImpl extends DSpaceObjectServiceImpl<Bitstream> imp
         return bitstreamStorageService.retrieve(context, bitstream);
     }
 
+    @Override
+    public InputStream retrieve(Context context, Bitstream bitstream, long offset, long length) throws IOException, SQLException, AuthorizeException {
+        authorizeService.authorizeAction(context, bitstream, Constants.READ);
+
+        return bitstreamStorageService.retrieve(context, bitstream, offset, length);
+    }
+
     @Override
     public boolean isRegisteredBitstream(Bitstream bitstream) {
         return bitstreamStorageService.isRegisteredBitstream(bitstream.getInternalId());
@@ -327,6 +342,39 @@ public class BitstreamServiceImpl extends DSpaceObjectServiceImpl<Bitstream> imp
         bitstreamDAO.delete(context, bitstream);
     }
 
+    @Override
+    public Long countByInternalId(Context context, Integer storeNumber, String internalId) throws SQLException {
+        return bitstreamDAO.countByInternalId(context, storeNumber, internalId);
+    }
+
+    @Override
+    public Bitstream clone(Context context, Bitstream bitstream) throws SQLException, AuthorizeException {
+        Bitstream clonedBitstream = bitstreamDAO.create(context, new Bitstream());
+        clonedBitstream.setInternalId(bitstream.getInternalId());
+        clonedBitstream.setStoreNumber(bitstream.getStoreNumber());
+        clonedBitstream.setSizeBytes(bitstream.getSize());
+        clonedBitstream.setChecksum(bitstream.getChecksum());
+        clonedBitstream.setChecksumAlgorithm(bitstream.getChecksumAlgorithm());
+        setFormat(context, clonedBitstream, bitstream.getFormat(context));
+
+        log.info(LogManager.getHeader(context, "clone_bitstream",
+                "bitstream_id=" + clonedBitstream.getID() + ",source_id=" + bitstream.getID()));
+
+        context.addEvent(new Event(Event.CREATE, Constants.BITSTREAM, clonedBitstream.getID(), null, getIdentifiers(context, clonedBitstream)));
+
+        // permissions haven't been set at this point in time
+        context.turnOffAuthorisationSystem();
+        try
+        {
+            update(context, clonedBitstream);
+        }
+        finally
+        {
+            context.restoreAuthSystemState();
+        }
+        return clonedBitstream;
+    }
+
     @Override
     public List<Bitstream> findDuplicateInternalIdentifier(Context context, Bitstream bitstream) throws SQLException {
         return bitstreamDAO.findDuplicateInternalIdentifier(context, bitstream);
@@ -367,6 +367,10 @@ public class BundleServiceImpl extends DSpaceObjectServiceImpl<Bundle> implement
                 + bundle.getID()));
 
         super.update(context, bundle);
+        for (Item item : bundle.getItems())
+        {
+            item.increaseModificationStamp();
+        }
         bundleDAO.save(context, bundle);
 
         if (bundle.isModified() || bundle.isMetadataModified())
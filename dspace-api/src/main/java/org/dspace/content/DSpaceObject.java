@@ -31,6 +31,9 @@ public abstract class DSpaceObject implements Serializable
     @Column(name = "uuid", unique = true, nullable = false, insertable = true, updatable = false)
     protected java.util.UUID id;
 
+    @Column(name = "modification_stamp", nullable = false)
+    private long modificationStamp = 0;
+
     // accumulate information to add to "detail" element of content Event,
     // e.g. to document metadata fields touched, etc.
     @Transient
@@ -61,6 +64,20 @@ public abstract class DSpaceObject implements Serializable
     @Transient
     private boolean modified = false;
 
+    /**
+     * Lazily built index of the metadata values by field, see {@link #getMetadataByKey(String)}.
+     * Dropped whenever the metadata changes.
+     */
+    @Transient
+    private Map<String, List<MetadataValue>> metadataIndex = null;
+
+    /** The metadata list the index was built from, and its values in order at the time */
+    @Transient
+    private List<MetadataValue> metadataIndexSource = null;
+
+    @Transient
+    private MetadataValue[] metadataIndexValues = null;
+
     protected DSpaceObject()
     {
 
@@ -150,6 +167,92 @@ public abstract class DSpaceObject implements Serializable
 
     public void setMetadata(List<MetadataValue> metadata) {
         this.metadata = metadata;
+        clearMetadataIndex();
+    }
+
+    /**
+     * Get the metadata values with the given key, in the order of {@link #getMetadata()}.
+     * The key of a value is "schema.element" or "schema.element.qualifier" of its field.
+     * Every value is also listed under "schema.element.*", so all qualifiers of an
+     * element can be found at once.
+     * <p>
+     * The index is dropped when the metadata is changed through this object or the field of
+     * one of its values is changed, and rebuilt when the list of values was replaced or its
+     * values were added, removed or reordered directly.
+     *
+     * @param key the field key, see {@link #getMetadataKey(String, String, String)}
+     * @return the matching values, an empty list if there are none. Must not be modified.
+     */
+    List<MetadataValue> getMetadataByKey(String key)
+    {
+        List<MetadataValue> values = getMetadata();
+        if (metadataIndex == null || metadataIndexSource != values || !isIndexed(values))
+        {
+            Map<String, List<MetadataValue>> index = new HashMap<>();
+            for (MetadataValue value : values)
+            {
+                MetadataField field = value.getMetadataField();
+                String schema = field.getMetadataSchema().getName();
+                addToIndex(index, getMetadataKey(schema, field.getElement(), field.getQualifier()), value);
+                addToIndex(index, getMetadataKey(schema, field.getElement(), Item.ANY), value);
+            }
+            metadataIndex = index;
+            metadataIndexSource = values;
+            metadataIndexValues = values.toArray(new MetadataValue[values.size()]);
+        }
+
+        List<MetadataValue> result = metadataIndex.get(key);
+        return result == null ? Collections.<MetadataValue>emptyList() : result;
+    }
+
+    /**
+     * @return whether the list holds the same values, in the same order, as when the index was built
+     */
+    private boolean isIndexed(List<MetadataValue> values)
+    {
+        if (metadataIndexValues.length != values.size())
+        {
+            return false;
+        }
+        int i = 0;
+        for (MetadataValue value : values)
+        {
+            if (metadataIndexValues[i++] != value)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void addToIndex(Map<String, List<MetadataValue>> index, String key, MetadataValue value)
+    {
+        List<MetadataValue> bucket = index.get(key);
+        if (bucket == null)
+        {
+            bucket = new ArrayList<>(2);
+            index.put(key, bucket);
+        }
+        bucket.add(value);
+    }
+
+    /**
+     * @return the key of a field in {@link #getMetadataByKey(String)}. The qualifier can be
+     *      <code>null</code> for unqualified fields or <code>Item.ANY</code>.
+     */
+    static String getMetadataKey(String schema, String element, String qualifier)
+    {
+        return qualifier == null ? schema + "." + element : schema + "." + element + "." + qualifier;
+    }
+
+    /**
+     * Drop the metadata index, it is rebuilt on the next lookup.
+     */
+    void clearMetadataIndex()
+    {
+        metadataIndex = null;
+        metadataIndexSource = null;
+        metadataIndexValues = null;
     }
 
     protected void removeMetadata(MetadataValue metadataValue)
@@ -181,6 +284,7 @@ public abstract class DSpaceObject implements Serializable
 
     protected void setMetadataModified() {
         this.modifiedMetadata = true;
+        clearMetadataIndex();
     }
 
     public boolean isModified() {
@@ -192,4 +296,21 @@ public abstract class DSpaceObject implements Serializable
     protected void setModified() {
         this.modified = true;
     }
+
+    /**
+     * Stamp which increases each time the object is updated through its
+     * service. The stamp of a bundle also increases when one of its
+     * bitstreams is updated, and the stamp of an item when one of its bundles
+     * or bitstreams is, so caches can compare the stamp instead of the
+     * metadata to find out whether an object has changed.
+     *
+     * @return the modification stamp
+     */
+    public long getModificationStamp() {
+        return modificationStamp;
+    }
+
+    protected void increaseModificationStamp() {
+        modificationStamp++;
+    }
 }
\ No newline at end of file
@@ -123,9 +123,21 @@ public abstract class DSpaceObjectServiceImpl<T extends DSpaceObject> implements
 
     @Override
     public List<MetadataValue> getMetadata(T dso, String schema, String element, String qualifier, String lang) {
+        // Look up the values of a single field, or all qualifiers of an element, in the index
+        // of the object. Other wildcards need a scan of all values.
+        List<MetadataValue> candidates;
+        if (!Item.ANY.equals(schema) && !Item.ANY.equals(element))
+        {
+            candidates = dso.getMetadataByKey(DSpaceObject.getMetadataKey(schema, element, qualifier));
+        }
+        else
+        {
+            candidates = dso.getMetadata();
+        }
+
         // Build up list of matching values
         List<MetadataValue> values = new ArrayList<MetadataValue>();
-        for (MetadataValue dcv : dso.getMetadata())
+        for (MetadataValue dcv : candidates)
         {
             if (match(schema, element, qualifier, lang, dcv))
             {
@@ -393,6 +405,7 @@ public abstract class DSpaceObjectServiceImpl<T extends DSpaceObject> implements
             metadataValueIterator.remove();
             metadataValueService.delete(context, metadataValue);
         }
+        dso.clearMetadataIndex();
     }
 
     /**
@@ -540,6 +553,7 @@ public abstract class DSpaceObjectServiceImpl<T extends DSpaceObject> implements
     @Override
     public void update(Context context, T dso) throws SQLException, AuthorizeException
     {
+        dso.increaseModificationStamp();
         if(dso.isMetadataModified())
         {
             /*
@@ -179,6 +179,11 @@ public class ItemServiceImpl extends DSpaceObjectServiceImpl<Item> implements It
         return itemDAO.findAll(context, true, true);
     }
 
+    @Override
+    public List<UUID> findAllUnfilteredIDs(Context context, UUID after, int limit) throws SQLException {
+        return itemDAO.findAllIDs(context, after, limit);
+    }
+
     @Override
     public Iterator<Item> findBySubmitter(Context context, EPerson eperson) throws SQLException {
         return itemDAO.findBySubmitter(context, eperson);
@@ -213,6 +218,19 @@ public class ItemServiceImpl extends DSpaceObjectServiceImpl<Item> implements It
         return itemDAO.findAll(context, true, true, true, since);
     }
 
+    @Override
+    public List<UUID> findInArchiveOrWithdrawnDiscoverableIDsModifiedSince(Context context, Date since, UUID after, int limit)
+            throws SQLException
+    {
+        return itemDAO.findIDs(context, true, true, true, since, after, limit);
+    }
+
+    @Override
+    public List<UUID> findInArchiveOrWithdrawnDiscoverableIDs(Context context, List<UUID> ids) throws SQLException
+    {
+        return itemDAO.findIDs(context, true, true, true, ids);
+    }
+
     @Override
     public void updateLastModified(Context context, Item item) throws SQLException, AuthorizeException {
         item.setLastModified(new Date());
@@ -39,6 +39,8 @@ public class MetadataFieldServiceImpl implements MetadataFieldService {
     protected AuthorizeService authorizeService;
     @Autowired(required = true)
     protected MetadataValueService metadataValueService;
+    @Autowired(required = true)
+    protected MetadataRegistryCache metadataRegistryCache;
 
     protected MetadataFieldServiceImpl()
     {
@@ -69,6 +71,7 @@ public class MetadataFieldServiceImpl implements MetadataFieldService {
         metadataField.setMetadataSchema(metadataSchema);
         metadataField = metadataFieldDAO.create(context, metadataField);
         metadataFieldDAO.save(context, metadataField);
+        metadataRegistryCache.invalidate(context);
 
         log.info(LogManager.getHeader(context, "create_metadata_field",
                 "metadata_field_id=" + metadataField.getFieldID()));
@@ -83,13 +86,27 @@ public class MetadataFieldServiceImpl implements MetadataFieldService {
 
     @Override
     public MetadataField findByElement(Context context, MetadataSchema metadataSchema, String element, String qualifier) throws SQLException {
-        return metadataFieldDAO.findByElement(context, metadataSchema, element, qualifier);
+        return findByElement(context, metadataSchema.getName(), element, qualifier);
     }
 
 
     @Override
     public MetadataField findByElement(Context context, String metadataSchemaName, String element, String qualifier) throws SQLException {
-        return metadataFieldDAO.findByElement(context, metadataSchemaName, element, qualifier);
+        // Resolve the name through the registry cache, the field itself comes from the session
+        Integer id = metadataRegistryCache.getFieldId(context, metadataSchemaName, element, qualifier);
+        if (id == null)
+        {
+            return null;
+        }
+
+        MetadataField metadataField = find(context, id);
+        if (metadataField == null)
+        {
+            // deleted by another process
+            metadataRegistryCache.invalidate();
+            metadataField = metadataFieldDAO.findByElement(context, metadataSchemaName, element, qualifier);
+        }
+        return metadataField;
     }
 
     @Override
@@ -125,6 +142,7 @@ public class MetadataFieldServiceImpl implements MetadataFieldService {
         }
 
         metadataFieldDAO.save(context, metadataField);
+        metadataRegistryCache.invalidate(context);
 
         log.info(LogManager.getHeader(context, "update_metadatafieldregistry",
                 "metadata_field_id=" + metadataField.getFieldID() + "element=" + metadataField.getElement()
@@ -145,6 +163,7 @@ public class MetadataFieldServiceImpl implements MetadataFieldService {
 
         metadataValueService.deleteByMetadataField(context, metadataField);
         metadataFieldDAO.delete(context, metadataField);
+        metadataRegistryCache.invalidate(context);
     }
 
     /**
@@ -0,0 +1,275 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.content;
+
+import org.apache.log4j.Logger;
+import org.dspace.content.dao.MetadataFieldDAO;
+import org.dspace.content.dao.MetadataSchemaDAO;
+import org.dspace.core.Context;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process wide cache of the metadata registry, mapping schema names, namespaces and
+ * field names to their ids and back.
+ * <p>
+ * The cache holds an immutable snapshot of the registry, which is read without locking.
+ * The snapshot is loaded on first use and dropped by the metadata field and schema services
+ * whenever a field or schema is created, updated or deleted, and again when that change
+ * is committed. Names which aren't in the
+ * snapshot are looked up in the database, so registry changes made by another process are
+ * picked up as well.
+ * <p>
+ * The cache only holds ids and names, which are valid across sessions. The services use
+ * it to find the id of a field or schema and then load the object in the session of the
+ * context.
+ */
+public class MetadataRegistryCache
+{
+    private static final Logger log = Logger.getLogger(MetadataRegistryCache.class);
+
+    @Autowired(required = true)
+    protected MetadataFieldDAO metadataFieldDAO;
+
+    @Autowired(required = true)
+    protected MetadataSchemaDAO metadataSchemaDAO;
+
+    private volatile Snapshot snapshot = null;
+
+    /** Incremented on every change, so a snapshot loaded during a change isn't used */
+    private final AtomicLong version = new AtomicLong();
+
+    protected MetadataRegistryCache()
+    {
+
+    }
+
+    /**
+     * Get the id of a metadata field.
+     *
+     * @param context DSpace context
+     * @param schema the short name of the schema
+     * @param element the element
+     * @param qualifier the qualifier, or <code>null</code> for unqualified fields
+     * @return the id of the field, or <code>null</code> if there is no such field
+     * @throws SQLException
+     */
+    public Integer getFieldId(Context context, String schema, String element, String qualifier) throws SQLException
+    {
+        Integer id = getSnapshot(context).fieldIds.get(getFieldName(schema, element, qualifier));
+        if (id == null)
+        {
+            MetadataField field = metadataFieldDAO.findByElement(context, schema, element, qualifier);
+            if (field != null)
+            {
+                // added by another process
+                invalidate();
+                id = field.getFieldID();
+            }
+        }
+        return id;
+    }
+
+    /**
+     * @param context DSpace context
+     * @param fieldId the id of a metadata field
+     * @return the name of the field as "schema.element" or "schema.element.qualifier", or
+     *      <code>null</code> if there is no such field
+     * @throws SQLException
+     */
+    public String getFieldName(Context context, int fieldId) throws SQLException
+    {
+        return getSnapshot(context).fieldNames.get(fieldId);
+    }
+
+    /**
+     * @param context DSpace context
+     * @param schema the short name of a schema
+     * @return the ids of the fields in the schema, an empty list if there is no such schema
+     * @throws SQLException
+     */
+    public List<Integer> getFieldIds(Context context, String schema) throws SQLException
+    {
+        List<Integer> ids = getSnapshot(context).fieldIdsBySchema.get(schema);
+        return ids == null ? Collections.<Integer>emptyList() : ids;
+    }
+
+    /**
+     * @param context DSpace context
+     * @param name the short name of the schema
+     * @return the id of the schema, or <code>null</code> if there is no such schema
+     * @throws SQLException
+     */
+    public Integer getSchemaId(Context context, String name) throws SQLException
+    {
+        Integer id = getSnapshot(context).schemaIdsByName.get(name);
+        if (id == null)
+        {
+            MetadataSchema schema = metadataSchemaDAO.find(context, name);
+            if (schema != null)
+            {
+                invalidate();
+                id = schema.getSchemaID();
+            }
+        }
+        return id;
+    }
+
+    /**
+     * @param context DSpace context
+     * @param namespace the namespace of the schema
+     * @return the id of the schema, or <code>null</code> if there is no such schema
+     * @throws SQLException
+     */
+    public Integer getSchemaIdByNamespace(Context context, String namespace) throws SQLException
+    {
+        Integer id = getSnapshot(context).schemaIdsByNamespace.get(namespace);
+        if (id == null)
+        {
+            MetadataSchema schema = metadataSchemaDAO.findByNamespace(context, namespace);
+            if (schema != null)
+            {
+                invalidate();
+                id = schema.getSchemaID();
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Drop the snapshot, it is reloaded on the next lookup.
+     */
+    public void invalidate()
+    {
+        version.incrementAndGet();
+        snapshot = null;
+    }
+
+    /**
+     * Drop the snapshot now and again once the transaction of the context has
+     * ended. Called when a field or schema is created, updated or deleted:
+     * until the change is committed other threads still read the old registry
+     * from the database, and a snapshot they load meanwhile would outlive the
+     * change.
+     *
+     * @param context the context changing the registry
+     */
+    public void invalidate(Context context)
+    {
+        invalidate();
+        context.addTransactionHook(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                invalidate();
+            }
+        });
+    }
+
+    /**
+     * @return the name of a field as "schema.element" or "schema.element.qualifier"
+     */
+    public static String getFieldName(String schema, String element, String qualifier)
+    {
+        return qualifier == null ? schema + "." + element : schema + "." + element + "." + qualifier;
+    }
+
+    protected Snapshot getSnapshot(Context context) throws SQLException
+    {
+        Snapshot current = snapshot;
+        if (current != null)
+        {
+            return current;
+        }
+
+        long loadVersion = version.get();
+        current = new Snapshot(metadataSchemaDAO.findAll(context, MetadataSchema.class),
+                metadataFieldDAO.findAll(context, MetadataField.class));
+        synchronized (this)
+        {
+            if (version.get() == loadVersion)
+            {
+                snapshot = current;
+            }
+        }
+        log.debug("Loaded metadata registry cache: " + current.fieldIds.size() + " fields in "
+                + current.schemaIdsByName.size() + " schemas");
+        return current;
+    }
+
+    /**
+     * Replace the snapshot, as a lookup does which loads the registry. Lets tests
+     * install a snapshot loaded at a given moment, e.g. before a change was committed.
+     *
+     * @param snapshot the snapshot, or <code>null</code> to reload it on the next lookup
+     */
+    protected synchronized void setSnapshot(Snapshot snapshot)
+    {
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Immutable copy of the registry.
+     */
+    protected static class Snapshot
+    {
+        final Map<String, Integer> fieldIds;
+        final Map<Integer, String> fieldNames;
+        final Map<String, List<Integer>> fieldIdsBySchema;
+        final Map<String, Integer> schemaIdsByName;
+        final Map<String, Integer> schemaIdsByNamespace;
+
+        Snapshot(List<MetadataSchema> schemas, List<MetadataField> fields)
+        {
+            Map<String, Integer> byName = new HashMap<>();
+            Map<String, Integer> byNamespace = new HashMap<>();
+            for (MetadataSchema schema : schemas)
+            {
+                byName.put(schema.getName(), schema.getSchemaID());
+                byNamespace.put(schema.getNamespace(), schema.getSchemaID());
+            }
+
+            Map<String, Integer> ids = new HashMap<>();
+            Map<Integer, String> names = new HashMap<>();
+            Map<String, List<Integer>> bySchema = new HashMap<>();
+            for (MetadataField field : fields)
+            {
+                String schema = field.getMetadataSchema().getName();
+                String name = getFieldName(schema, field.getElement(), field.getQualifier());
+                ids.put(name, field.getFieldID());
+                names.put(field.getFieldID(), name);
+
+                List<Integer> schemaFields = bySchema.get(schema);
+                if (schemaFields == null)
+                {
+                    schemaFields = new ArrayList<>();
+                    bySchema.put(schema, schemaFields);
+                }
+                schemaFields.add(field.getFieldID());
+            }
+            for (Map.Entry<String, List<Integer>> entry : bySchema.entrySet())
+            {
+                entry.setValue(Collections.unmodifiableList(entry.getValue()));
+            }
+
+            fieldIds = Collections.unmodifiableMap(ids);
+            fieldNames = Collections.unmodifiableMap(names);
+            fieldIdsBySchema = Collections.unmodifiableMap(bySchema);
+            schemaIdsByName = Collections.unmodifiableMap(byName);
+            schemaIdsByNamespace = Collections.unmodifiableMap(byNamespace);
+        }
+    }
+}
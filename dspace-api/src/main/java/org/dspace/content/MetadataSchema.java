@@ -67,11 +67,12 @@ public class MetadataSchema
             return false;
         }
         final MetadataSchema other = (MetadataSchema) obj;
-        if (this.id != other.id)
+        // use the getters, either object can be an uninitialized proxy
+        if (this.getSchemaID() != other.getSchemaID())
         {
             return false;
         }
-        if ((this.namespace == null) ? (other.namespace != null) : !this.namespace.equals(other.namespace))
+        if ((this.getNamespace() == null) ? (other.getNamespace() != null) : !this.getNamespace().equals(other.getNamespace()))
         {
             return false;
         }
@@ -82,8 +83,8 @@ public class MetadataSchema
     public int hashCode()
     {
         int hash = 5;
-        hash = 67 * hash + this.id;
-        hash = 67 * hash + (this.namespace != null ? this.namespace.hashCode() : 0);
+        hash = 67 * hash + getSchemaID();
+        hash = 67 * hash + (getNamespace() != null ? getNamespace().hashCode() : 0);
         return hash;
     }
 
@@ -37,6 +37,9 @@ public class MetadataSchemaServiceImpl implements MetadataSchemaService {
     @Autowired(required = true)
     protected MetadataSchemaDAO metadataSchemaDAO;
 
+    @Autowired(required = true)
+    protected MetadataRegistryCache metadataRegistryCache;
+
     protected MetadataSchemaServiceImpl()
     {
 
@@ -71,6 +74,7 @@ public class MetadataSchemaServiceImpl implements MetadataSchemaService {
         metadataSchema.setNamespace(namespace);
         metadataSchema.setName(name);
         metadataSchemaDAO.save(context, metadataSchema);
+        metadataRegistryCache.invalidate(context);
         log.info(LogManager.getHeader(context, "create_metadata_schema",
                 "metadata_schema_id="
                         + metadataSchema.getSchemaID()));
@@ -79,7 +83,19 @@ public class MetadataSchemaServiceImpl implements MetadataSchemaService {
 
     @Override
     public MetadataSchema findByNamespace(Context context, String namespace) throws SQLException {
-        return metadataSchemaDAO.findByNamespace(context, namespace);
+        Integer id = metadataRegistryCache.getSchemaIdByNamespace(context, namespace);
+        if (id == null)
+        {
+            return null;
+        }
+
+        MetadataSchema metadataSchema = find(context, id);
+        if (metadataSchema == null)
+        {
+            metadataRegistryCache.invalidate();
+            metadataSchema = metadataSchemaDAO.findByNamespace(context, namespace);
+        }
+        return metadataSchema;
     }
 
     @Override
@@ -105,6 +121,7 @@ public class MetadataSchemaServiceImpl implements MetadataSchemaService {
                     + " unique");
         }
         metadataSchemaDAO.save(context, metadataSchema);
+        metadataRegistryCache.invalidate(context);
         log.info(LogManager.getHeader(context, "update_metadata_schema",
                 "metadata_schema_id=" + metadataSchema.getSchemaID() + "namespace="
                         + metadataSchema.getNamespace() + "name=" + metadataSchema.getName()));
@@ -123,6 +140,7 @@ public class MetadataSchemaServiceImpl implements MetadataSchemaService {
                 "metadata_schema_id=" + metadataSchema.getSchemaID()));
 
         metadataSchemaDAO.delete(context, metadataSchema);
+        metadataRegistryCache.invalidate(context);
     }
 
     @Override
@@ -142,7 +160,20 @@ public class MetadataSchemaServiceImpl implements MetadataSchemaService {
         {
             return null;
         }
-        return metadataSchemaDAO.find(context, shortName);
+
+        Integer id = metadataRegistryCache.getSchemaId(context, shortName);
+        if (id == null)
+        {
+            return null;
+        }
+
+        MetadataSchema metadataSchema = find(context, id);
+        if (metadataSchema == null)
+        {
+            metadataRegistryCache.invalidate();
+            metadataSchema = metadataSchemaDAO.find(context, shortName);
+        }
+        return metadataSchema;
     }
 
 
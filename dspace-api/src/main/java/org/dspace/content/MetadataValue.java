@@ -152,6 +152,11 @@ public class MetadataValue
 
     public void setMetadataField(MetadataField metadataField) {
         this.metadataField = metadataField;
+        if (dSpaceObject != null)
+        {
+            // the value moves to another field of its object
+            dSpaceObject.setMetadataModified();
+        }
     }
 
     /**
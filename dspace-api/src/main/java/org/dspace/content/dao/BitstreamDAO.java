@@ -42,6 +42,8 @@ public interface BitstreamDAO extends DSpaceObjectLegacySupportDAO<Bitstream> {
 
     public Long countByStoreNumber(Context context, Integer storeNumber) throws SQLException;
 
+    public Long countByInternalId(Context context, Integer storeNumber, String internalId) throws SQLException;
+
     int countRows(Context context) throws SQLException;
 
     int countDeleted(Context context) throws SQLException;
@@ -32,6 +32,48 @@ public interface ItemDAO extends DSpaceObjectLegacySupportDAO<Item>
 
     public Iterator<Item> findAll(Context context, boolean archived, boolean withdrawn) throws SQLException;
 
+    /**
+     * Find the ids of archived or withdrawn items, ordered by id. Meant to page through all items
+     * without loading them: pass the last id of the previous page as "after" to get the next page.
+     *
+     * @param context
+     * @param after only return ids greater than this one, null to start at the first item
+     * @param limit the maximum number of ids to return
+     * @return the ordered list of item ids
+     * @throws SQLException
+     */
+    public List<UUID> findAllIDs(Context context, UUID after, int limit) throws SQLException;
+
+    /**
+     * Get the ids of a page of items with the given status, ordered by id.
+     *
+     * @param context the dspace context
+     * @param archived whether archived items are included
+     * @param withdrawn whether withdrawn items are included
+     * @param discoverable the discoverable status of the items
+     * @param lastModified only return items modified after this date, null for all items
+     * @param after only return ids greater than this one, null to start at the first item
+     * @param limit the maximum number of ids to return
+     * @return the ordered list of item ids
+     * @throws SQLException
+     */
+    public List<UUID> findIDs(Context context, boolean archived, boolean withdrawn, boolean discoverable,
+            Date lastModified, UUID after, int limit) throws SQLException;
+
+    /**
+     * Check which of the given items exist with the given status.
+     *
+     * @param context the dspace context
+     * @param archived whether archived items are included
+     * @param withdrawn whether withdrawn items are included
+     * @param discoverable the discoverable status of the items
+     * @param ids the item ids to check, at most 1000
+     * @return the ids of the items which exist with the given status
+     * @throws SQLException
+     */
+    public List<UUID> findIDs(Context context, boolean archived, boolean withdrawn, boolean discoverable,
+            List<UUID> ids) throws SQLException;
+
     /**
      * Find all Items modified since a Date.
      *
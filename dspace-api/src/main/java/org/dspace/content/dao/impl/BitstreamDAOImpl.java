@@ -127,6 +127,17 @@ public class BitstreamDAOImpl extends AbstractHibernateDSODAO<Bitstream> impleme
         return countLong(criteria);
     }
 
+    @Override
+    public Long countByInternalId(Context context, Integer storeNumber, String internalId) throws SQLException {
+        Criteria criteria = createCriteria(context, Bitstream.class);
+        criteria.add(Restrictions.and(
+                Restrictions.eq("storeNumber", storeNumber),
+                Restrictions.eq("internalId", internalId),
+                Restrictions.eq("deleted", false)
+        ));
+        return countLong(criteria);
+    }
+
     @Override
     public int countRows(Context context) throws SQLException {
         return count(createQuery(context, "SELECT count(*) from Bitstream"));
@@ -58,6 +58,7 @@ public class BitstreamFormatDAOImpl extends AbstractHibernateDAO<BitstreamFormat
                 Restrictions.eq("internal", includeInternal),
                 Restrictions.like("mimetype", mimeType)
         ));
+        criteria.setCacheable(true);
 
         return singleResult(criteria);
     }
@@ -82,6 +83,7 @@ public class BitstreamFormatDAOImpl extends AbstractHibernateDAO<BitstreamFormat
         criteria.add(Restrictions.and(
                 Restrictions.eq("shortDescription", desc)
         ));
+        criteria.setCacheable(true);
 
         return uniqueResult(criteria);
     }
@@ -114,6 +116,7 @@ public class BitstreamFormatDAOImpl extends AbstractHibernateDAO<BitstreamFormat
 
         Query query = createQuery(context, "from BitstreamFormat bf where :extension in elements(bf.fileExtensions)");
         query.setParameter("extension", extension);
+        query.setCacheable(true);
 
 //        Criteria criteria = createCriteria(context, BitstreamFormat.class, "bitstreamFormat");
 //        criteria.createAlias("bitstreamFormat.fileExtensions", "extension");
@@ -63,6 +63,83 @@ public class ItemDAOImpl extends AbstractHibernateDSODAO<Item> implements ItemDA
         return iterate(query);
     }
 
+    @Override
+    public List<UUID> findAllIDs(Context context, UUID after, int limit) throws SQLException {
+        StringBuilder queryStr = new StringBuilder();
+        queryStr.append("SELECT i.id FROM Item i WHERE (i.inArchive = :in_archive OR i.withdrawn = :withdrawn)");
+        if(after != null)
+        {
+            queryStr.append(" AND i.id > :after");
+        }
+        queryStr.append(" ORDER BY i.id");
+
+        Query query = createQuery(context, queryStr.toString());
+        query.setParameter("in_archive", true);
+        query.setParameter("withdrawn", true);
+        if(after != null)
+        {
+            query.setParameter("after", after);
+        }
+        query.setMaxResults(limit);
+        @SuppressWarnings("unchecked")
+        List<UUID> ids = query.list();
+        return ids;
+    }
+
+    @Override
+    public List<UUID> findIDs(Context context, boolean archived, boolean withdrawn, boolean discoverable,
+            Date lastModified, UUID after, int limit) throws SQLException {
+        StringBuilder queryStr = new StringBuilder();
+        queryStr.append("SELECT i.id FROM Item i");
+        queryStr.append(" WHERE (i.inArchive = :in_archive OR i.withdrawn = :withdrawn)");
+        queryStr.append(" AND i.discoverable = :discoverable");
+        if(lastModified != null)
+        {
+            queryStr.append(" AND i.lastModified > :last_modified");
+        }
+        if(after != null)
+        {
+            queryStr.append(" AND i.id > :after");
+        }
+        queryStr.append(" ORDER BY i.id");
+
+        Query query = createQuery(context, queryStr.toString());
+        query.setParameter("in_archive", archived);
+        query.setParameter("withdrawn", withdrawn);
+        query.setParameter("discoverable", discoverable);
+        if(lastModified != null)
+        {
+            query.setTimestamp("last_modified", lastModified);
+        }
+        if(after != null)
+        {
+            query.setParameter("after", after);
+        }
+        query.setMaxResults(limit);
+        @SuppressWarnings("unchecked")
+        List<UUID> result = query.list();
+        return result;
+    }
+
+    @Override
+    public List<UUID> findIDs(Context context, boolean archived, boolean withdrawn, boolean discoverable,
+            List<UUID> ids) throws SQLException {
+        if(ids.isEmpty())
+        {
+            return Collections.emptyList();
+        }
+        Query query = createQuery(context, "SELECT i.id FROM Item i"
+                + " WHERE (i.inArchive = :in_archive OR i.withdrawn = :withdrawn)"
+                + " AND i.discoverable = :discoverable AND i.id IN (:ids)");
+        query.setParameter("in_archive", archived);
+        query.setParameter("withdrawn", withdrawn);
+        query.setParameter("discoverable", discoverable);
+        query.setParameterList("ids", ids);
+        @SuppressWarnings("unchecked")
+        List<UUID> result = query.list();
+        return result;
+    }
+
     @Override
     public Iterator<Item> findAll(Context context, boolean archived,
             boolean withdrawn, boolean discoverable, Date lastModified)
@@ -9,6 +9,7 @@ package org.dspace.content.factory;
 
 import org.dspace.content.DSpaceObject;
 import org.dspace.content.InProgressSubmission;
+import org.dspace.content.MetadataRegistryCache;
 import org.dspace.content.WorkspaceItem;
 import org.dspace.content.service.*;
 import org.dspace.services.factory.DSpaceServicesFactory;
@@ -43,6 +44,8 @@ public abstract class ContentServiceFactory {
 
     public abstract MetadataSchemaService getMetadataSchemaService();
 
+    public abstract MetadataRegistryCache getMetadataRegistryCache();
+
     public abstract MetadataValueService getMetadataValueService();
 
     public abstract WorkspaceItemService getWorkspaceItemService();
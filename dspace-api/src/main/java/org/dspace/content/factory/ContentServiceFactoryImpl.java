@@ -8,6 +8,7 @@
 package org.dspace.content.factory;
 
 import org.dspace.content.DSpaceObject;
+import org.dspace.content.MetadataRegistryCache;
 import org.dspace.content.service.*;
 import org.springframework.beans.factory.annotation.Autowired;
 
@@ -43,6 +44,8 @@ public class ContentServiceFactoryImpl extends ContentServiceFactory {
     @Autowired(required = true)
     private MetadataFieldService metadataFieldService;
     @Autowired(required = true)
+    private MetadataRegistryCache metadataRegistryCache;
+    @Autowired(required = true)
     private MetadataValueService metadataValueService;
     @Autowired(required = true)
     private WorkspaceItemService workspaceItemService;
@@ -112,6 +115,12 @@ public class ContentServiceFactoryImpl extends ContentServiceFactory {
         return metadataFieldService;
     }
 
+    @Override
+    public MetadataRegistryCache getMetadataRegistryCache()
+    {
+        return metadataRegistryCache;
+    }
+
     @Override
     public MetadataValueService getMetadataValueService()
     {
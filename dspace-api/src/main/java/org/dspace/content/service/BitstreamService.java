@@ -132,6 +132,19 @@ public interface BitstreamService extends DSpaceObjectService<Bitstream>, DSpace
      */
     public InputStream retrieve(Context context, Bitstream bitstream) throws IOException, SQLException, AuthorizeException;
 
+    /**
+     * Retrieve part of the contents of the bitstream, e.g. to answer an HTTP Range request.
+     * The bytes before offset aren't read from the asset store.
+     *
+     * @param offset the position of the first byte to return
+     * @param length the number of bytes to return, or -1 for all bytes up to the end
+     * @return a stream from which the requested part of the bitstream can be read.
+     * @throws IOException
+     * @throws SQLException
+     * @throws AuthorizeException
+     */
+    public InputStream retrieve(Context context, Bitstream bitstream, long offset, long length) throws IOException, SQLException, AuthorizeException;
+
     /**
      * Determine if this bitstream is registered (available elsewhere on
      * filesystem than in assetstore). More about registered items:
@@ -179,6 +192,37 @@ public interface BitstreamService extends DSpaceObjectService<Bitstream>, DSpace
 
     public Long countByStoreNumber(Context context, Integer storeNumber) throws SQLException;
 
+    /**
+     * Count the bitstreams, which haven't been deleted, whose contents are
+     * stored under the given internal id in the given asset store. The
+     * contents may only be removed from the store when there are none.
+     *
+     * @param context
+     *            DSpace context object
+     * @param storeNumber
+     *            the asset store
+     * @param internalId
+     *            the internal id of the contents
+     * @return the number of bitstreams referring to the contents
+     * @throws SQLException
+     */
+    public Long countByInternalId(Context context, Integer storeNumber, String internalId) throws SQLException;
+
+    /**
+     * Create a new bitstream with the same contents, format and technical
+     * metadata as the given bitstream. The contents aren't copied: both
+     * bitstreams refer to the same internal id in the same asset store.
+     *
+     * @param context
+     *            DSpace context object
+     * @param bitstream
+     *            the bitstream to clone
+     * @return the new bitstream
+     * @throws SQLException
+     * @throws AuthorizeException
+     */
+    public Bitstream clone(Context context, Bitstream bitstream) throws SQLException, AuthorizeException;
+
     int countTotal(Context context) throws SQLException ;
 
     int countDeletedBitstreams(Context context) throws SQLException;
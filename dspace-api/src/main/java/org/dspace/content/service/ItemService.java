@@ -78,6 +78,52 @@ public interface ItemService extends DSpaceObjectService<Item>, DSpaceObjectLega
      */
     public Iterator<Item> findAllUnfiltered(Context context) throws SQLException;
 
+    /**
+     * Get the ids of a page of "final" items (archived or withdrawn), ordered by id.
+     * This allows paging through all items without keeping them in the session.
+     *
+     * @param context
+     *            DSpace context object
+     * @param after
+     *            only return ids greater than this one, <code>null</code> for the first page
+     * @param limit
+     *            maximum number of ids to return
+     * @return the ordered item ids
+     * @throws SQLException
+     */
+    public List<UUID> findAllUnfilteredIDs(Context context, UUID after, int limit) throws SQLException;
+
+    /**
+     * Get the ids of a page of items which are in the archive or withdrawn, and discoverable,
+     * ordered by id. Like {@link #findInArchiveOrWithdrawnDiscoverableModifiedSince(Context, Date)},
+     * without keeping the items in the session.
+     *
+     * @param context
+     *            DSpace context object
+     * @param since
+     *            only return items modified after this date, <code>null</code> for all items
+     * @param after
+     *            only return ids greater than this one, <code>null</code> for the first page
+     * @param limit
+     *            maximum number of ids to return
+     * @return the ordered item ids
+     * @throws SQLException
+     */
+    public List<UUID> findInArchiveOrWithdrawnDiscoverableIDsModifiedSince(Context context, Date since, UUID after, int limit)
+            throws SQLException;
+
+    /**
+     * Check which of the given items are in the archive or withdrawn, and discoverable.
+     *
+     * @param context
+     *            DSpace context object
+     * @param ids
+     *            the item ids to check, at most 1000
+     * @return the ids of those items which are in the archive or withdrawn, and discoverable
+     * @throws SQLException
+     */
+    public List<UUID> findInArchiveOrWithdrawnDiscoverableIDs(Context context, List<UUID> ids) throws SQLException;
+
     /**
      * Find all the items in the archive by a given submitter. The order is
      * indeterminate. Only items with the "in archive" flag set are included.
@@ -18,6 +18,7 @@ import org.dspace.event.Dispatcher;
 import org.dspace.event.Event;
 import org.dspace.event.factory.EventServiceFactory;
 import org.dspace.event.service.EventService;
+import org.dspace.storage.rdbms.DatabaseCacheStatisticsVO;
 import org.dspace.storage.rdbms.DatabaseConfigVO;
 import org.dspace.utils.DSpace;
 import org.springframework.util.CollectionUtils;
@@ -70,12 +71,21 @@ public class Context
     /** Group IDs of special groups user is a member of */
     private List<UUID> specialGroups;
 
+    /**
+     * IDs of all groups the current user is (directly or indirectly) a member
+     * of, including special groups. <code>null</code> until first computed.
+     */
+    private Set<UUID> groupMembershipCache;
+
     /** Content events */
     private LinkedList<Event> events = null;
 
     /** Event dispatcher name */
     private String dispName = null;
 
+    /** Actions to run when the current transaction ends */
+    private List<Runnable> transactionHooks = null;
+
     /** options */
     private short options = 0;
 
@@ -165,6 +175,16 @@ public class Context
         return dbConnection.getDatabaseConfig();
     }
 
+    /**
+     * Get the hit/miss statistics of the database cache, see db.cache.statistics in dspace.cfg.
+     *
+     * @return statistics for each cache region, empty if statistics aren't collected
+     */
+    public List<DatabaseCacheStatisticsVO> getDBCacheStatistics()
+    {
+        return dbConnection.getCacheStatistics();
+    }
+
     public String getDbType(){
         return dbConnection.getType();
     }
@@ -180,6 +200,7 @@ public class Context
     public void setCurrentUser(EPerson user)
     {
         currentUser = user;
+        clearGroupMembershipCache();
     }
 
     /**
@@ -373,13 +394,121 @@ public class Context
                 dbConnection = null;
             }
         }
+        runTransactionHooks();
+        dispatchCommittedEvents();
+    }
+
+
+    /**
+     * Commit the changes made so far, without closing the context. Events are
+     * dispatched as by {@link #complete()}, and a new transaction is started so
+     * the context can go on being used. Objects which were loaded before the
+     * commit are no longer attached to the context and have to be found again
+     * before they are changed or their relations are read.
+     * <p>
+     * Calling commit() on a Context which is no longer valid (isValid()==false),
+     * is a no-op.
+     *
+     * @exception SQLException
+     *                if there was an error committing the database transaction
+     */
+    public void commit() throws SQLException
+    {
+        if(!isValid())
+        {
+            log.info("commit() was called on a closed Context object. No changes to commit.");
+            return;
+        }
+
+        try
+        {
+            if (!isReadOnly())
+            {
+                dispatchEvents();
+            }
+        }
+        finally
+        {
+            dbConnection.commit();
+            // Start the next transaction, so the context stays valid
+            dbConnection.getSession();
+        }
+        runTransactionHooks();
+        dispatchCommittedEvents();
     }
 
+    /**
+     * Run an action once the current transaction has ended, after it has been
+     * committed by {@link #commit()} or {@link #complete()}, or rolled back by
+     * {@link #abort()}. Used to drop cached copies of the changed data, which
+     * other threads may have read again from the database before the
+     * transaction ended.
+     *
+     * @param hook
+     *            the action
+     */
+    public void addTransactionHook(Runnable hook)
+    {
+        if (transactionHooks == null)
+        {
+            transactionHooks = new ArrayList<Runnable>();
+        }
+        transactionHooks.add(hook);
+    }
 
+    protected void runTransactionHooks()
+    {
+        List<Runnable> hooks = transactionHooks;
+        transactionHooks = null;
+        if (hooks != null)
+        {
+            for (Runnable hook : hooks)
+            {
+                try
+                {
+                    hook.run();
+                }
+                catch (RuntimeException e)
+                {
+                    log.error("Error running a transaction hook", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Dispatch the events added so far. When the selected dispatcher only
+     * dispatches committed changes (see {@link Dispatcher#isAfterCommit()})
+     * the events are kept until the transaction is committed by
+     * {@link #commit()} or {@link #complete()}.
+     */
     public void dispatchEvents()
+    {
+        dispatchEvents(false);
+    }
+
+    /**
+     * Dispatch the events of a transaction which has just been committed, if
+     * the selected dispatcher waits for the commit.
+     */
+    protected void dispatchCommittedEvents()
+    {
+        if (!isReadOnly())
+        {
+            dispatchEvents(true);
+        }
+    }
+
+    /**
+     * @param committed
+     *            whether the transaction which caused the events has been
+     *            committed
+     */
+    protected void dispatchEvents(boolean committed)
     {
         // Commit any changes made as part of the transaction
         Dispatcher dispatcher = null;
+        boolean dispatched = false;
 
         try {
             if (events != null) {
@@ -389,10 +518,17 @@ public class Context
                 }
 
                 dispatcher = eventService.getDispatcher(dispName);
-                dispatcher.dispatch(this);
+                if (dispatcher.isAfterCommit() == committed)
+                {
+                    dispatched = true;
+                    dispatcher.dispatch(this);
+                }
             }
         } finally {
-            events = null;
+            if (dispatched || dispatcher == null)
+            {
+                events = null;
+            }
             if (dispatcher != null) {
                 eventService.returnDispatcher(dispName, dispatcher);
             }
@@ -508,6 +644,7 @@ public class Context
                 log.error("Exception aborting context", ex);
             }
             events = null;
+            runTransactionHooks();
         }
     }
 
@@ -539,6 +676,7 @@ public class Context
     public void setSpecialGroup(UUID groupID)
     {
         specialGroups.add(groupID);
+        clearGroupMembershipCache();
 
         // System.out.println("Added " + groupID);
     }
@@ -577,6 +715,38 @@ public class Context
         return myGroups;
     }
 
+    /**
+     * Get the cached IDs of all groups the current user is a member of.
+     *
+     * @return the cached group IDs, or <code>null</code> if they have not
+     *         been computed yet (or the cache was cleared)
+     */
+    public Set<UUID> getGroupMembershipCache()
+    {
+        return groupMembershipCache;
+    }
+
+    /**
+     * Cache the IDs of all groups the current user is a member of, for the
+     * lifetime of this context (or until the cache is cleared).
+     *
+     * @param groupIDs
+     *            the group membership closure of the current user
+     */
+    public void setGroupMembershipCache(Set<UUID> groupIDs)
+    {
+        groupMembershipCache = groupIDs;
+    }
+
+    /**
+     * Forget the cached group membership of the current user, e.g. because
+     * the user or the group structure has changed.
+     */
+    public void clearGroupMembershipCache()
+    {
+        groupMembershipCache = null;
+    }
+
     @Override
     protected void finalize() throws Throwable
     {
@@ -7,10 +7,12 @@
  */
 package org.dspace.core;
 
+import org.dspace.storage.rdbms.DatabaseCacheStatisticsVO;
 import org.dspace.storage.rdbms.DatabaseConfigVO;
 
 import javax.sql.DataSource;
 import java.sql.SQLException;
+import java.util.List;
 
 /**
  * Interface representing a Database connection, this class should only be access by the context object.
@@ -38,6 +40,12 @@ public interface DBConnection<T> {
     public DataSource getDataSource();
 
     public DatabaseConfigVO getDatabaseConfig() throws SQLException;
+
+    /**
+     * @return hit/miss statistics for each region of the second level and query cache, empty if
+     *      statistics aren't collected
+     */
+    public List<DatabaseCacheStatisticsVO> getCacheStatistics();
     
     public void clearCache() throws SQLException;
 }
\ No newline at end of file
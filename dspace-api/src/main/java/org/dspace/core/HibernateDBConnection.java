@@ -7,11 +7,14 @@
  */
 package org.dspace.core;
 
+import org.dspace.storage.rdbms.DatabaseCacheStatisticsVO;
 import org.dspace.storage.rdbms.DatabaseConfigVO;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.hibernate.Transaction;
 import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.stat.SecondLevelCacheStatistics;
+import org.hibernate.stat.Statistics;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.orm.hibernate4.SessionFactoryUtils;
@@ -20,6 +23,9 @@ import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * Hibernate implementation of the DBConnection
@@ -108,6 +114,34 @@ public class HibernateDBConnection implements DBConnection<Session> {
         return databaseConfigVO;
     }
 
+    @Override
+    public List<DatabaseCacheStatisticsVO> getCacheStatistics() {
+        List<DatabaseCacheStatisticsVO> result = new ArrayList<>();
+        Statistics statistics = sessionFactory.getStatistics();
+        if(!statistics.isStatisticsEnabled())
+        {
+            return result;
+        }
+
+        String[] regionNames = statistics.getSecondLevelCacheRegionNames();
+        Arrays.sort(regionNames);
+        for (String regionName : regionNames) {
+            SecondLevelCacheStatistics regionStatistics = statistics.getSecondLevelCacheStatistics(regionName);
+            if(regionStatistics == null)
+            {
+                continue;
+            }
+            DatabaseCacheStatisticsVO statisticsVO = new DatabaseCacheStatisticsVO();
+            statisticsVO.setRegionName(regionName);
+            statisticsVO.setHitCount(regionStatistics.getHitCount());
+            statisticsVO.setMissCount(regionStatistics.getMissCount());
+            statisticsVO.setPutCount(regionStatistics.getPutCount());
+            statisticsVO.setElementCount(regionStatistics.getElementCountInMemory());
+            result.add(statisticsVO);
+        }
+        return result;
+    }
+
 	@Override
 	public void clearCache() throws SQLException {
 		this.getSession().clear();
@@ -0,0 +1,267 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.discovery;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import org.dspace.content.Bitstream;
+import org.dspace.core.Context;
+import org.dspace.services.ConfigurationService;
+import org.dspace.storage.bitstore.service.BitstreamStorageService;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads the full text of the bitstreams in the TEXT bundle of an item so it can be added to its
+ * discovery document.
+ * <p>
+ * Loading happens on a bounded pool of "discovery.index.fulltext.threads" threads, so the indexing
+ * thread can build the rest of the document in the meantime. When all loader threads are busy and
+ * the queue is full, the indexing thread loads the text itself. The text of a document is capped at
+ * "discovery.index.fulltext.max-chars" characters.
+ * <p>
+ * The bitstreams are read as UTF-8 plain text, as written by the text extraction media filters,
+ * instead of being sent through the Solr extracting request handler (Tika) as before. Bytes which
+ * aren't valid UTF-8, e.g. of a TEXT bitstream in another encoding, are indexed as the replacement
+ * character U+FFFD, and TEXT bitstreams in other formats are indexed as they are stored.
+ * <p>
+ * When "discovery.index.fulltext.cache.dir" is configured, the text of every bitstream is kept in
+ * that directory, keyed by the bitstream checksum, so unchanged bitstreams aren't read from the
+ * assetstore again when the index is rebuilt.
+ */
+public class FullTextLoader {
+
+    private static final Logger log = Logger.getLogger(FullTextLoader.class);
+
+    /** Separator between the texts of the bitstreams of one item */
+    protected static final String SEPARATOR = "\n";
+
+    protected final BitstreamStorageService bitstreamStorageService;
+    protected final ExecutorService executor;
+    protected final int maxChars;
+    protected final File cacheDir;
+
+    public FullTextLoader(ConfigurationService configurationService, BitstreamStorageService bitstreamStorageService)
+    {
+        this.bitstreamStorageService = bitstreamStorageService;
+
+        int threads = configurationService.getIntProperty("discovery.index.fulltext.threads", 2);
+        if (threads > 0)
+        {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(threads * 4), new LoaderThreadFactory(),
+                    new ThreadPoolExecutor.CallerRunsPolicy());
+            pool.allowCoreThreadTimeOut(true);
+            executor = pool;
+        }
+        else
+        {
+            executor = null;
+        }
+
+        int max = configurationService.getIntProperty("discovery.index.fulltext.max-chars", 0);
+        maxChars = max > 0 ? max : Integer.MAX_VALUE;
+
+        String dir = configurationService.getProperty("discovery.index.fulltext.cache.dir");
+        if (StringUtils.isNotBlank(dir))
+        {
+            cacheDir = new File(dir);
+            if (!cacheDir.isDirectory() && !cacheDir.mkdirs())
+            {
+                log.warn("Unable to create full text cache directory " + dir);
+            }
+        }
+        else
+        {
+            cacheDir = null;
+        }
+    }
+
+    /**
+     * Start loading the full text of the given bitstreams.
+     *
+     * @param context    the dspace context
+     * @param bitstreams the bitstreams of the TEXT bundle
+     * @return the text of all bitstreams, or <code>null</code> if there is none
+     */
+    public Future<String> load(final Context context, List<Bitstream> bitstreams)
+    {
+        final List<Bitstream> toLoad = new ArrayList<Bitstream>(bitstreams);
+        Callable<String> task = new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return loadText(context, toLoad);
+            }
+        };
+
+        if (executor == null)
+        {
+            FutureTask<String> future = new FutureTask<String>(task);
+            future.run();
+            return future;
+        }
+        return executor.submit(task);
+    }
+
+    protected String loadText(Context context, List<Bitstream> bitstreams)
+    {
+        StringBuilder text = new StringBuilder();
+        for (Bitstream bitstream : bitstreams)
+        {
+            if (text.length() >= maxChars)
+            {
+                break;
+            }
+
+            try {
+                String bitstreamText = getText(context, bitstream);
+                if (StringUtils.isNotEmpty(bitstreamText))
+                {
+                    if (text.length() > 0)
+                    {
+                        text.append(SEPARATOR);
+                    }
+                    text.append(bitstreamText);
+                }
+            } catch (IOException | SQLException e) {
+                log.error("Error while loading the full text of bitstream " + bitstream.getID(), e);
+            }
+        }
+
+        if (text.length() == 0)
+        {
+            return null;
+        }
+        if (text.length() > maxChars)
+        {
+            text.setLength(maxChars);
+        }
+        return text.toString();
+    }
+
+    /**
+     * Get the text of a bitstream from the cache or, if it isn't cached yet, from the assetstore.
+     */
+    protected String getText(Context context, Bitstream bitstream) throws IOException, SQLException
+    {
+        File complete = getCacheFile(bitstream, false);
+        File truncated = getCacheFile(bitstream, true);
+        for (File cached : new File[]{complete, truncated})
+        {
+            if (cached != null && cached.isFile())
+            {
+                return new String(Files.readAllBytes(cached.toPath()), StandardCharsets.UTF_8);
+            }
+        }
+
+        StringBuilder text = new StringBuilder();
+        boolean isTruncated = false;
+        try (InputStream is = bitstreamStorageService.retrieve(context, bitstream);
+             Reader reader = new InputStreamReader(is, StandardCharsets.UTF_8))
+        {
+            char[] buffer = new char[8192];
+            int read;
+            while ((read = reader.read(buffer)) != -1)
+            {
+                if (maxChars - text.length() < read)
+                {
+                    text.append(buffer, 0, maxChars - text.length());
+                    isTruncated = true;
+                    break;
+                }
+                text.append(buffer, 0, read);
+            }
+        }
+
+        String result = text.toString();
+        writeCacheFile(isTruncated ? truncated : complete, result);
+        return result;
+    }
+
+    /**
+     * Get the cache file for a bitstream. Texts which were cut off at the character limit are cached
+     * separately per limit, so raising the limit doesn't serve truncated texts.
+     *
+     * @return the cache file, or <code>null</code> if there is no cache or the bitstream has no checksum
+     */
+    protected File getCacheFile(Bitstream bitstream, boolean truncated)
+    {
+        String checksum = bitstream.getChecksum();
+        if (cacheDir == null || StringUtils.isBlank(checksum) || !StringUtils.isAlphanumeric(checksum))
+        {
+            return null;
+        }
+
+        String name = checksum + (truncated ? "-" + maxChars : "") + ".txt";
+        return new File(new File(cacheDir, checksum.substring(0, Math.min(2, checksum.length()))), name);
+    }
+
+    protected void writeCacheFile(File file, String text)
+    {
+        if (file == null)
+        {
+            return;
+        }
+
+        try {
+            File dir = file.getParentFile();
+            if (!dir.isDirectory() && !dir.mkdirs())
+            {
+                throw new IOException("Unable to create directory " + dir);
+            }
+
+            // write to a temporary file first, concurrent readers never see partial texts
+            File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+            try (Writer writer = Files.newBufferedWriter(tmp.toPath(), StandardCharsets.UTF_8))
+            {
+                writer.write(text);
+            }
+            try {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            log.warn("Unable to cache the full text in " + file + ": " + e.getMessage());
+        }
+    }
+
+    protected static class LoaderThreadFactory implements ThreadFactory
+    {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable)
+        {
+            Thread thread = new Thread(runnable, "discovery-fulltext-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
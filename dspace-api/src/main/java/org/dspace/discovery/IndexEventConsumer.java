@@ -8,6 +8,7 @@
 package org.dspace.discovery;
 
 import org.apache.log4j.Logger;
+import org.dspace.browse.ItemCountCache;
 import org.dspace.content.Bundle;
 import org.dspace.content.DSpaceObject;
 import org.dspace.core.Constants;
@@ -40,9 +41,13 @@ public class IndexEventConsumer implements Consumer {
 
     IndexingService indexer = DSpaceServicesFactory.getInstance().getServiceManager().getServiceByName(IndexingService.class.getName(),IndexingService.class);
 
+    // whether solr makes the changes searchable by itself (commitWithin)
+    private boolean commitWithin = false;
+
     @Override
     public void initialize() throws Exception {
-
+        commitWithin = DSpaceServicesFactory.getInstance().getConfigurationService()
+                .getIntProperty("discovery.index.commitWithin", -1) > 0;
     }
 
     /**
@@ -182,7 +187,7 @@ public class IndexEventConsumer implements Consumer {
 
             for (String hdl : handlesToDelete) {
                 try {
-                    indexer.unIndexContent(ctx, hdl, true);
+                    indexer.unIndexContent(ctx, hdl);
                     if (log.isDebugEnabled())
                     {
                         log.debug("UN-Indexed Item, handle=" + hdl);
@@ -194,6 +199,20 @@ public class IndexEventConsumer implements Consumer {
 
             }
 
+            if (!objectsToUpdate.isEmpty() || !handlesToDelete.isEmpty())
+            {
+                // one soft commit for all changes, instead of a hard commit per object
+                if (!commitWithin)
+                {
+                    try {
+                        indexer.softCommit();
+                    }
+                    catch (Exception e) {
+                        log.error("Failed while committing the index: ", e);
+                    }
+                }
+                ItemCountCache.getInstance().invalidate();
+            }
         }
 
         // "free" the resources
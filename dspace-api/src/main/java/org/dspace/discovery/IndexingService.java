@@ -57,6 +57,8 @@ public interface IndexingService {
 
     void commit() throws SearchServiceException;
 
+    void softCommit() throws SearchServiceException;
+
     void optimize() throws SearchServiceException;
 
     void buildSpellCheck() throws SearchServiceException;
@@ -0,0 +1,370 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.discovery;
+
+import org.apache.log4j.Logger;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.impl.HttpSolrServer;
+import org.apache.solr.common.SolrInputDocument;
+import org.dspace.content.Item;
+import org.dspace.content.factory.ContentServiceFactory;
+import org.dspace.content.service.ItemService;
+import org.dspace.core.Context;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Multi-threaded indexer used by {@link SolrServiceImpl#updateIndex(Context, boolean)} to (re)index
+ * all items when "discovery.index.threads" is configured.
+ * <p>
+ * The calling thread pages through the item ids and hands them to a number of worker threads.
+ * Every worker has its own Context, loads the items and builds their solr documents.
+ * The documents are handed to a single sender thread which adds them to solr in batches.
+ * No commit is done, that is left to the caller once all content has been indexed.
+ * <p>
+ * The queues between the threads are bounded. When all threads taking from a queue have stopped,
+ * e.g. because a worker couldn't get a database connection, the run is aborted instead of waiting
+ * for room in the queue forever.
+ */
+public class SolrIndexPipeline {
+
+    private static final Logger log = Logger.getLogger(SolrIndexPipeline.class);
+
+    /** Number of item ids read per database query */
+    protected static final int PAGE_SIZE = 1000;
+
+    /** Number of items a worker indexes before clearing its hibernate session */
+    protected static final int CLEAR_CACHE_INTERVAL = 1000;
+
+    /** Number of processed items between two progress reports */
+    protected static final int REPORT_INTERVAL = 10000;
+
+    /** Marker telling a worker that all ids have been handed out */
+    private static final UUID END_OF_IDS = new UUID(0, 0);
+
+    /** Marker telling the sender that all workers are done */
+    private static final SolrInputDocument END_OF_DOCUMENTS = new SolrInputDocument();
+
+    /** Time in milliseconds to wait for room in a queue before checking that its consumers still run */
+    protected static final long OFFER_TIMEOUT = 1000;
+
+    protected final SolrServiceImpl indexer;
+    protected final ItemService itemService;
+    protected final int threads;
+    protected final int batchSize;
+
+    protected final AtomicLong processed = new AtomicLong();
+    protected final AtomicLong written = new AtomicLong();
+    protected final AtomicLong failed = new AtomicLong();
+
+    protected long start;
+
+    public SolrIndexPipeline(SolrServiceImpl indexer, int threads, int batchSize)
+    {
+        this.indexer = indexer;
+        this.itemService = ContentServiceFactory.getInstance().getItemService();
+        this.threads = Math.max(1, threads);
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Index all archived and withdrawn items.
+     *
+     * @param context the dspace context, only used to read the item ids
+     * @param force   whether to reindex items which are already up to date in the index
+     * @throws SQLException
+     * @throws InterruptedException
+     */
+    public void indexItems(Context context, boolean force) throws SQLException, InterruptedException
+    {
+        start = System.currentTimeMillis();
+        log.info("Indexing items using " + threads + " threads and batches of " + batchSize + " documents");
+
+        BlockingQueue<UUID> ids = new ArrayBlockingQueue<UUID>(PAGE_SIZE * 2);
+        BlockingQueue<SolrInputDocument> documents = new ArrayBlockingQueue<SolrInputDocument>(batchSize * 2);
+
+        CountDownLatch senderRunning = new CountDownLatch(1);
+        Thread sender = new Thread(newSender(documents, senderRunning), "discovery-index-sender");
+        sender.start();
+
+        CountDownLatch workersRunning = new CountDownLatch(threads);
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < threads; i++)
+        {
+            workers.execute(newWorker(ids, documents, force, workersRunning, senderRunning));
+        }
+
+        try {
+            UUID last = null;
+            List<UUID> page;
+            do {
+                page = itemService.findAllUnfilteredIDs(context, last, PAGE_SIZE);
+                for (UUID id : page)
+                {
+                    offer(ids, id, workersRunning, "index workers");
+                }
+                if (!page.isEmpty())
+                {
+                    last = page.get(page.size() - 1);
+                }
+            } while (page.size() == PAGE_SIZE);
+        } finally {
+            try {
+                for (int i = 0; i < threads; i++)
+                {
+                    offer(ids, END_OF_IDS, workersRunning, "index workers");
+                }
+            } catch (IllegalStateException e) {
+                // the workers which stopped don't need to be told
+            }
+            workers.shutdown();
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            try {
+                offer(documents, END_OF_DOCUMENTS, senderRunning, "index sender");
+            } catch (IllegalStateException e) {
+                // the sender stopped already
+            }
+            sender.join();
+        }
+
+        log.info("Done indexing items: " + processed.get() + " processed, " + written.get() + " written, "
+                + failed.get() + " failed in " + (System.currentTimeMillis() - start) / 1000 + "s ("
+                + getThroughput() + " items/s)");
+    }
+
+    /**
+     * Put an element in a queue, waiting while it is full.
+     *
+     * @param queue     the queue
+     * @param element   the element
+     * @param consumers the threads taking from the queue which are still running
+     * @param name      the name of the consumers, for the error message
+     * @throws InterruptedException
+     * @throws IllegalStateException when all consumers have stopped, so the queue will stay full
+     */
+    protected static <T> void offer(BlockingQueue<T> queue, T element, CountDownLatch consumers, String name)
+            throws InterruptedException
+    {
+        while (!queue.offer(element, OFFER_TIMEOUT, TimeUnit.MILLISECONDS))
+        {
+            if (consumers.getCount() == 0)
+            {
+                throw new IllegalStateException("All " + name + " have stopped, aborting the indexing");
+            }
+        }
+    }
+
+    protected Worker newWorker(BlockingQueue<UUID> ids, BlockingQueue<SolrInputDocument> documents, boolean force,
+                               CountDownLatch running, CountDownLatch senderRunning)
+    {
+        return new Worker(ids, documents, force, running, senderRunning);
+    }
+
+    protected Sender newSender(BlockingQueue<SolrInputDocument> documents, CountDownLatch running)
+    {
+        return new Sender(documents, running);
+    }
+
+    protected long getThroughput()
+    {
+        long elapsed = System.currentTimeMillis() - start;
+        return elapsed == 0 ? 0 : processed.get() * 1000 / elapsed;
+    }
+
+    protected void itemProcessed()
+    {
+        long count = processed.incrementAndGet();
+        if (count % REPORT_INTERVAL == 0)
+        {
+            log.info("Processed " + count + " items, " + written.get() + " written, " + failed.get() + " failed ("
+                    + getThroughput() + " items/s)");
+        }
+    }
+
+    /**
+     * Loads the items for the ids it takes from the queue and builds their documents.
+     */
+    protected class Worker implements Runnable
+    {
+        protected final BlockingQueue<UUID> ids;
+        protected final BlockingQueue<SolrInputDocument> documents;
+        protected final boolean force;
+        protected final CountDownLatch running;
+        protected final CountDownLatch senderRunning;
+
+        protected Worker(BlockingQueue<UUID> ids, BlockingQueue<SolrInputDocument> documents, boolean force,
+                         CountDownLatch running, CountDownLatch senderRunning)
+        {
+            this.ids = ids;
+            this.documents = documents;
+            this.force = force;
+            this.running = running;
+            this.senderRunning = senderRunning;
+        }
+
+        @Override
+        public void run()
+        {
+            Context context = null;
+            try {
+                context = new Context();
+                context.turnOffAuthorisationSystem();
+                int itemCount = 0;
+                UUID id;
+                while ((id = ids.take()) != END_OF_IDS)
+                {
+                    index(context, id);
+                    itemProcessed();
+                    if (++itemCount >= CLEAR_CACHE_INTERVAL)
+                    {
+                        clearCache(context);
+                        itemCount = 0;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException | Error e) {
+                // the executor would swallow the error, the run is aborted as soon as all workers have stopped
+                log.error("Index worker stopped: " + e.getMessage(), e);
+            } finally {
+                if (context != null)
+                {
+                    context.abort();
+                }
+                running.countDown();
+            }
+        }
+
+        protected void clearCache(Context context)
+        {
+            try {
+                context.clearCache();
+            } catch (SQLException e) {
+                log.error(e.getMessage(), e);
+            }
+        }
+
+        protected void index(Context context, UUID id) throws InterruptedException
+        {
+            try {
+                Item item = itemService.find(context, id);
+                if (item == null)
+                {
+                    return;
+                }
+
+                String handle = item.getHandle();
+                if (handle == null)
+                {
+                    handle = indexer.handleService.findHandle(context, item);
+                }
+
+                if (item.isArchived() || item.isWithdrawn())
+                {
+                    // The uniqueid of the document doesn't change, so adding it replaces
+                    // the old version and there is no need to delete it first
+                    if (force || indexer.requiresIndexing(handle, item.getLastModified()))
+                    {
+                        offer(documents, indexer.buildItemDocument(context, item, handle), senderRunning,
+                                "index senders");
+                    }
+                }
+                else
+                {
+                    indexer.unIndexContent(context, item);
+                }
+            } catch (InterruptedException | IllegalStateException e) {
+                throw e;
+            } catch (Exception e) {
+                failed.incrementAndGet();
+                log.error("Error while indexing item " + id + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Collects the documents built by the workers and adds them to solr in batches.
+     */
+    protected class Sender implements Runnable
+    {
+        protected final BlockingQueue<SolrInputDocument> documents;
+        protected final CountDownLatch running;
+
+        protected Sender(BlockingQueue<SolrInputDocument> documents, CountDownLatch running)
+        {
+            this.documents = documents;
+            this.running = running;
+        }
+
+        @Override
+        public void run()
+        {
+            List<SolrInputDocument> batch = new ArrayList<SolrInputDocument>(batchSize);
+            try {
+                SolrInputDocument doc;
+                while ((doc = documents.take()) != END_OF_DOCUMENTS)
+                {
+                    batch.add(doc);
+                    if (batch.size() >= batchSize)
+                    {
+                        send(batch);
+                        batch.clear();
+                    }
+                }
+                send(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException | Error e) {
+                // the workers abort the run as soon as the queue of documents stays full
+                log.error("Index sender stopped: " + e.getMessage(), e);
+            } finally {
+                running.countDown();
+            }
+        }
+
+        protected void send(List<SolrInputDocument> batch)
+        {
+            HttpSolrServer solr = indexer.getSolr();
+            if (batch.isEmpty() || solr == null)
+            {
+                return;
+            }
+
+            try {
+                solr.add(batch);
+                written.addAndGet(batch.size());
+            } catch (SolrServerException | IOException | RuntimeException e) {
+                // Retry one by one so a single bad document doesn't lose the whole batch
+                log.warn("Error while adding a batch of " + batch.size() + " documents, retrying one by one: "
+                        + e.getMessage());
+                for (SolrInputDocument doc : batch)
+                {
+                    try {
+                        solr.add(doc);
+                        written.incrementAndGet();
+                    } catch (SolrServerException | IOException | RuntimeException ex) {
+                        failed.incrementAndGet();
+                        log.error("Error while adding document " + doc.getFieldValue("search.uniqueid")
+                                + " to the index: " + ex.getMessage(), ex);
+                    }
+                }
+            }
+        }
+    }
+}
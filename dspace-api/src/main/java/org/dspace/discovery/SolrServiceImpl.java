@@ -24,8 +24,6 @@ import org.apache.log4j.Logger;
 import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.impl.HttpSolrServer;
-import org.apache.solr.client.solrj.request.AbstractUpdateRequest;
-import org.apache.solr.client.solrj.request.ContentStreamUpdateRequest;
 import org.apache.solr.client.solrj.response.FacetField;
 import org.apache.solr.client.solrj.response.QueryResponse;
 import org.apache.solr.client.solrj.util.ClientUtils;
@@ -34,7 +32,6 @@ import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.SolrInputDocument;
 import org.apache.solr.common.params.*;
 import org.apache.solr.common.util.NamedList;
-import org.apache.solr.handler.extraction.ExtractingParams;
 import org.dspace.content.*;
 import org.dspace.content.Collection;
 import org.dspace.content.authority.Choices;
@@ -47,7 +44,9 @@ import org.dspace.content.service.ItemService;
 import org.dspace.core.*;
 import org.dspace.discovery.configuration.*;
 import org.dspace.handle.service.HandleService;
+import org.dspace.kernel.mixins.ServiceChangeListener;
 import org.dspace.services.factory.DSpaceServicesFactory;
+import org.dspace.storage.bitstore.factory.StorageServiceFactory;
 import org.dspace.storage.rdbms.DatabaseUtils;
 import org.dspace.util.MultiFormatDateParser;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -63,6 +62,9 @@ import java.sql.SQLException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * SolrIndexer contains the methods that index Items and their metadata,
@@ -85,7 +87,7 @@ import java.util.*;
  * @author Ben Bosman (ben at atmire dot com)
  */
 @Service
-public class SolrServiceImpl implements SearchService, IndexingService {
+public class SolrServiceImpl implements SearchService, IndexingService, ServiceChangeListener {
 
     private static final Logger log = Logger.getLogger(SolrServiceImpl.class);
 
@@ -122,12 +124,33 @@ public class SolrServiceImpl implements SearchService, IndexingService {
      */
     private HttpSolrServer solr = null;
 
+    /**
+     * Loads the full text of items on a separate thread pool.
+     */
+    private FullTextLoader fullTextLoader = null;
+
+    /**
+     * The index and search plugins, looked up on first use and dropped when a
+     * plugin is registered or unregistered.
+     */
+    private volatile IndexPluginChain indexPlugins = null;
+    private volatile SolrServiceSearchPlugin[] searchPlugins = null;
+
 
     protected SolrServiceImpl()
     {
 
     }
 
+    /**
+     * Time within which solr has to make added and deleted documents
+     * searchable, in milliseconds, or -1 to leave that to explicit commits.
+     */
+    protected int getCommitWithin()
+    {
+        return ConfigurationManager.getIntProperty("discovery", "index.commitWithin", -1);
+    }
+
     protected HttpSolrServer getSolr()
     {
         if ( solr == null)
@@ -166,6 +189,57 @@ public class SolrServiceImpl implements SearchService, IndexingService {
         return solr;
     }
 
+    protected synchronized FullTextLoader getFullTextLoader()
+    {
+        if (fullTextLoader == null)
+        {
+            fullTextLoader = new FullTextLoader(DSpaceServicesFactory.getInstance().getConfigurationService(),
+                    StorageServiceFactory.getInstance().getBitstreamStorageService());
+        }
+        return fullTextLoader;
+    }
+
+    protected IndexPluginChain getIndexPlugins()
+    {
+        IndexPluginChain chain = indexPlugins;
+        if (chain == null)
+        {
+            List<SolrServiceIndexPlugin> plugins = DSpaceServicesFactory.getInstance().getServiceManager().getServicesByType(SolrServiceIndexPlugin.class);
+            chain = new IndexPluginChain(plugins.toArray(new SolrServiceIndexPlugin[plugins.size()]));
+            indexPlugins = chain;
+        }
+        return chain;
+    }
+
+    protected SolrServiceSearchPlugin[] getSearchPlugins()
+    {
+        SolrServiceSearchPlugin[] plugins = searchPlugins;
+        if (plugins == null)
+        {
+            List<SolrServiceSearchPlugin> list = DSpaceServicesFactory.getInstance().getServiceManager().getServicesByType(SolrServiceSearchPlugin.class);
+            plugins = list.toArray(new SolrServiceSearchPlugin[list.size()]);
+            searchPlugins = plugins;
+        }
+        return plugins;
+    }
+
+    @Override
+    public Class<?>[] notifyForTypes() {
+        return new Class<?>[] { SolrServiceIndexPlugin.class, SolrServiceSearchPlugin.class };
+    }
+
+    @Override
+    public void serviceRegistered(String serviceName, Object service, List<Class<?>> implementedTypes) {
+        indexPlugins = null;
+        searchPlugins = null;
+    }
+
+    @Override
+    public void serviceUnregistered(String serviceName, Object service) {
+        indexPlugins = null;
+        searchPlugins = null;
+    }
+
     /**
      * If the handle for the "dso" already exists in the index, and the "dso"
      * has a lastModified timestamp that is newer than the document in the index
@@ -283,7 +357,7 @@ public class SolrServiceImpl implements SearchService, IndexingService {
                 return;
             }
             String uniqueID = dso.getType()+"-"+dso.getID();
-            getSolr().deleteById(uniqueID);
+            getSolr().deleteById(uniqueID, getCommitWithin());
             if(commit)
             {
                 getSolr().commit();
@@ -319,7 +393,7 @@ public class SolrServiceImpl implements SearchService, IndexingService {
 
         try {
             if(getSolr() != null){
-                getSolr().deleteByQuery(HANDLE_FIELD + ":\"" + handle + "\"");
+                getSolr().deleteByQuery(HANDLE_FIELD + ":\"" + handle + "\"", getCommitWithin());
                 if(commit)
                 {
                     getSolr().commit();
@@ -385,6 +459,10 @@ public class SolrServiceImpl implements SearchService, IndexingService {
      * opened and closed on each DSO. But this allows the UI processes to step
      * in and attain a lock and write to the index even if other processes/jvms
      * are running a reindex.
+     * <p/>
+     * When "discovery.index.threads" is set, items are indexed by a
+     * {@link SolrIndexPipeline} which builds documents on several threads and
+     * sends them to solr in batches of "discovery.index.batch.size" documents.
      *
      * @param context the dspace context
      * @param force whether or not to force the reindexing
@@ -392,16 +470,27 @@ public class SolrServiceImpl implements SearchService, IndexingService {
     @Override
     public void updateIndex(Context context, boolean force)
     {
+        IndexPluginChain plugins = getIndexPlugins();
+        plugins.resetTimings();
         try {
-            Iterator<Item> items = null;
-            int itemCount = 0;
-            for (items = itemService.findAllUnfiltered(context); items.hasNext();)
-            {
-                Item item = items.next();
-                indexContent(context, item, force);
-                if (itemCount++ >= 1000) {
-                	context.clearCache();
-                	itemCount = 0;
+            int threads = DSpaceServicesFactory.getInstance().getConfigurationService().getIntProperty("discovery.index.threads", 0);
+            if (threads > 0)
+            {
+                int batchSize = DSpaceServicesFactory.getInstance().getConfigurationService().getIntProperty("discovery.index.batch.size", 500);
+                new SolrIndexPipeline(this, threads, batchSize).indexItems(context, force);
+            }
+            else
+            {
+                Iterator<Item> items = null;
+                int itemCount = 0;
+                for (items = itemService.findAllUnfiltered(context); items.hasNext();)
+                {
+                    Item item = items.next();
+                    indexContent(context, item, force);
+                    if (itemCount++ >= 1000) {
+                        context.clearCache();
+                        itemCount = 0;
+                    }
                 }
             }
 
@@ -426,6 +515,7 @@ public class SolrServiceImpl implements SearchService, IndexingService {
         {
             log.error(e.getMessage(), e);
         }
+        plugins.logTimings();
     }
 
     /**
@@ -696,45 +786,14 @@ public class SolrServiceImpl implements SearchService, IndexingService {
      * Write the document to the index under the appropriate handle.
      *
      * @param doc the solr document to be written to the server
-     * @param streams
      * @throws IOException IO exception
      */
-    protected void writeDocument(SolrInputDocument doc, List<BitstreamContentStream> streams) throws IOException {
+    protected void writeDocument(SolrInputDocument doc) throws IOException {
 
         try {
             if(getSolr() != null)
             {
-                if(CollectionUtils.isNotEmpty(streams))
-                {
-                    ContentStreamUpdateRequest req = new ContentStreamUpdateRequest("/update/extract");
-
-                    for(BitstreamContentStream bce : streams)
-                    {
-                        req.addContentStream(bce);
-                    }
-
-                    ModifiableSolrParams params = new ModifiableSolrParams();
-
-                    //req.setParam(ExtractingParams.EXTRACT_ONLY, "true");
-                    for(String name : doc.getFieldNames())
-                    {
-                        for(Object val : doc.getFieldValues(name))
-                        {
-                             params.add(ExtractingParams.LITERALS_PREFIX + name,val.toString());
-                        }
-                    }
-
-                    req.setParams(params);
-                    req.setParam(ExtractingParams.UNKNOWN_FIELD_PREFIX, "attr_");
-                    req.setParam(ExtractingParams.MAP_PREFIX + "content", "fulltext");
-                    req.setParam(ExtractingParams.EXTRACT_FORMAT, "text");
-                    req.setAction(AbstractUpdateRequest.ACTION.COMMIT, true, true);
-                    req.process(getSolr());
-                }
-                else
-                {
-                    getSolr().add(doc);
-                }
+                getSolr().add(doc, getCommitWithin());
             }
         } catch (SolrServerException e)
         {
@@ -781,13 +840,9 @@ public class SolrServiceImpl implements SearchService, IndexingService {
         addContainerMetadataField(doc, highlightedMetadataFields, toIgnoreMetadataFields, "dc.title", title);
 
         //Do any additional indexing, depends on the plugins
-        List<SolrServiceIndexPlugin> solrServiceIndexPlugins = DSpaceServicesFactory.getInstance().getServiceManager().getServicesByType(SolrServiceIndexPlugin.class);
-        for (SolrServiceIndexPlugin solrServiceIndexPlugin : solrServiceIndexPlugins)
-        {
-            solrServiceIndexPlugin.additionalIndex(context, community, doc);
-        }
+        getIndexPlugins().additionalIndex(context, community, doc);
 
-        writeDocument(doc, null);
+        writeDocument(doc);
     }
 
     /**
@@ -837,13 +892,9 @@ public class SolrServiceImpl implements SearchService, IndexingService {
 
 
         //Do any additional indexing, depends on the plugins
-        List<SolrServiceIndexPlugin> solrServiceIndexPlugins = DSpaceServicesFactory.getInstance().getServiceManager().getServicesByType(SolrServiceIndexPlugin.class);
-        for (SolrServiceIndexPlugin solrServiceIndexPlugin : solrServiceIndexPlugins)
-        {
-            solrServiceIndexPlugin.additionalIndex(context, collection, doc);
-        }
+        getIndexPlugins().additionalIndex(context, collection, doc);
 
-        writeDocument(doc, null);
+        writeDocument(doc);
     }
 
     /**
@@ -886,6 +937,31 @@ public class SolrServiceImpl implements SearchService, IndexingService {
             handle = handleService.findHandle(context, item);
         }
 
+        SolrInputDocument doc = buildItemDocument(context, item, handle);
+
+        // write the index
+        try {
+            writeDocument(doc);
+            log.info("Wrote Item: " + handle + " to Index");
+        } catch (RuntimeException e)
+        {
+            log.error("Error while writing item to discovery index: " + handle + " message:"+ e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Build the solr document for a DSpace Item without writing it to the index.
+     *
+     * @param context Users Context
+     * @param item    The DSpace Item to be indexed
+     * @param handle  The handle of the item
+     * @return the solr document
+     * @throws SQLException
+     * @throws IOException
+     */
+    protected SolrInputDocument buildItemDocument(Context context, Item item, String handle)
+            throws SQLException, IOException {
+
         // get the location string (for searching by collection & community)
         List<String> locations = getItemLocations(context, item);
 
@@ -899,6 +975,38 @@ public class SolrServiceImpl implements SearchService, IndexingService {
         doc.addField("discoverable", item.isDiscoverable());
         doc.addField("lastModified", item.getLastModified());
 
+        // start loading the full text, it is added to the document once the metadata has been indexed
+        Future<String> fullText = null;
+        try {
+            // now get full text of any bitstreams in the TEXT bundle
+            // trundle through the bundles
+            List<Bitstream> textBitstreams = new ArrayList<Bitstream>();
+            for (Bundle myBundle : item.getBundles())
+            {
+                if ((myBundle.getName() != null)
+                        && myBundle.getName().equals("TEXT"))
+                {
+                    // a-ha! grab the text out of the bitstreams
+                    for (Bitstream myBitstream : myBundle.getBitstreams())
+                    {
+                        textBitstreams.add(myBitstream);
+
+                        log.debug("  Added BitStream: "
+                                + myBitstream.getStoreNumber() + "	"
+                                + myBitstream.getSequenceID() + "   "
+                                + myBitstream.getName());
+                    }
+                }
+            }
+            if (!textBitstreams.isEmpty())
+            {
+                fullText = getFullTextLoader().load(context, textBitstreams);
+            }
+        } catch (RuntimeException e)
+        {
+            log.error(e.getMessage(), e);
+        }
+
         //Keep a list of our sort values which we added, sort values can only be added once
         List<String> sortFieldsAdded = new ArrayList<String>();
         Set<String> hitHighlightingFields = new HashSet<String>();
@@ -1348,63 +1456,27 @@ public class SolrServiceImpl implements SearchService, IndexingService {
 
         log.debug("  Added Grouping");
 
-
-
-        List<BitstreamContentStream> streams = new ArrayList<BitstreamContentStream>();
-
-        try {
-            // now get full text of any bitstreams in the TEXT bundle
-            // trundle through the bundles
-            List<Bundle> myBundles = item.getBundles();
-
-            for (Bundle myBundle : myBundles)
-            {
-                if ((myBundle.getName() != null)
-                        && myBundle.getName().equals("TEXT"))
+        if (fullText != null)
+        {
+            try {
+                String text = fullText.get();
+                if (text != null)
                 {
-                    // a-ha! grab the text out of the bitstreams
-                    List<Bitstream> bitstreams = myBundle.getBitstreams();
-
-                    for (Bitstream myBitstream : bitstreams)
-                    {
-                        try {
-
-                            streams.add(new BitstreamContentStream(context, myBitstream));
-
-                            log.debug("  Added BitStream: "
-                                    + myBitstream.getStoreNumber() + "	"
-                                    + myBitstream.getSequenceID() + "   "
-                                    + myBitstream.getName());
-
-                        } catch (Exception e)
-                        {
-                            // this will never happen, but compiler is now
-                            // happy.
-                            log.trace(e.getMessage(), e);
-                        }
-                    }
+                    doc.addField("fulltext", text);
                 }
+                log.debug("  Added Full Text");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while loading the full text of item " + handle, e);
+            } catch (ExecutionException e) {
+                log.error("Error while loading the full text of item " + handle, e.getCause());
             }
-        } catch (RuntimeException e)
-        {
-            log.error(e.getMessage(), e);
         }
 
         //Do any additional indexing, depends on the plugins
-        List<SolrServiceIndexPlugin> solrServiceIndexPlugins = DSpaceServicesFactory.getInstance().getServiceManager().getServicesByType(SolrServiceIndexPlugin.class);
-        for (SolrServiceIndexPlugin solrServiceIndexPlugin : solrServiceIndexPlugins)
-        {
-            solrServiceIndexPlugin.additionalIndex(context, item, doc);
-        }
+        getIndexPlugins().additionalIndex(context, item, doc);
 
-        // write the index and close the inputstreamreaders
-        try {
-            writeDocument(doc, streams);
-            log.info("Wrote Item: " + handle + " to Index");
-        } catch (RuntimeException e)
-        {
-            log.error("Error while writing item to discovery index: " + handle + " message:"+ e.getMessage(), e);
-        }
+        return doc;
     }
 
     /**
@@ -1729,8 +1801,7 @@ public class SolrServiceImpl implements SearchService, IndexingService {
         }
 
         //Add any configured search plugins !
-        List<SolrServiceSearchPlugin> solrServiceSearchPlugins = DSpaceServicesFactory.getInstance().getServiceManager().getServicesByType(SolrServiceSearchPlugin.class);
-        for (SolrServiceSearchPlugin searchPlugin : solrServiceSearchPlugins)
+        for (SolrServiceSearchPlugin searchPlugin : getSearchPlugins())
         {
             searchPlugin.additionalSearchParameters(context, discoveryQuery, solrQuery);
         }
@@ -2323,6 +2394,22 @@ public class SolrServiceImpl implements SearchService, IndexingService {
 		}
 	}
 
+    /**
+     * Make the changes searchable without flushing them to disk, which is
+     * left to the hard commits of solr's autoCommit.
+     */
+    @Override
+    public void softCommit() throws SearchServiceException {
+        try {
+            if(getSolr() != null)
+            {
+                getSolr().commit(true, true, true);
+            }
+        } catch (Exception e) {
+            throw new SearchServiceException(e.getMessage(), e);
+        }
+    }
+
     @Override
     public String escapeQueryChars(String query) {
         // Use Solr's built in query escape tool
@@ -2331,4 +2418,81 @@ public class SolrServiceImpl implements SearchService, IndexingService {
         // rely on special characters to separate the field from the query value)
         return ClientUtils.escapeQueryChars(query);
     }
+
+    /**
+     * The index plugins, called one after the other for every document. Keeps
+     * track of the number of calls and the time spent in each plugin, so the
+     * plugin which slows down indexing can be found. The timings are logged at
+     * the end of {@link #updateIndex(Context, boolean)}.
+     */
+    protected static class IndexPluginChain
+    {
+        private final SolrServiceIndexPlugin[] plugins;
+        private final AtomicLongArray calls;
+        private final AtomicLongArray nanos;
+
+        IndexPluginChain(SolrServiceIndexPlugin[] plugins)
+        {
+            this.plugins = plugins;
+            this.calls = new AtomicLongArray(plugins.length);
+            this.nanos = new AtomicLongArray(plugins.length);
+        }
+
+        public void additionalIndex(Context context, DSpaceObject dso, SolrInputDocument doc)
+        {
+            for (int i = 0; i < plugins.length; i++)
+            {
+                long start = System.nanoTime();
+                try
+                {
+                    plugins[i].additionalIndex(context, dso, doc);
+                }
+                finally
+                {
+                    nanos.addAndGet(i, System.nanoTime() - start);
+                    calls.incrementAndGet(i);
+                }
+            }
+        }
+
+        /**
+         * @return the total time in milliseconds spent in each plugin since the
+         *         last reset, by plugin class name
+         */
+        public Map<String, Long> getTimings()
+        {
+            Map<String, Long> timings = new LinkedHashMap<>();
+            for (int i = 0; i < plugins.length; i++)
+            {
+                String name = plugins[i].getClass().getName();
+                Long previous = timings.get(name);
+                long millis = nanos.get(i) / 1000000;
+                timings.put(name, previous == null ? millis : previous + millis);
+            }
+            return timings;
+        }
+
+        public void resetTimings()
+        {
+            for (int i = 0; i < plugins.length; i++)
+            {
+                calls.set(i, 0);
+                nanos.set(i, 0);
+            }
+        }
+
+        public void logTimings()
+        {
+            if (log.isInfoEnabled())
+            {
+                for (int i = 0; i < plugins.length; i++)
+                {
+                    long count = calls.get(i);
+                    log.info("Index plugin " + plugins[i].getClass().getName() + ": " + count + " documents in "
+                            + nanos.get(i) / 1000000 + " ms"
+                            + (count == 0 ? "" : " (" + nanos.get(i) / count / 1000 + " us per document)"));
+                }
+            }
+        }
+    }
 }
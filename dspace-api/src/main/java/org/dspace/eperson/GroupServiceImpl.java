@@ -112,6 +112,7 @@ public class GroupServiceImpl extends DSpaceObjectServiceImpl<Group> implements
         }
         group.addMember(e);
         e.getGroups().add(group);
+        context.clearGroupMembershipCache();
         context.addEvent(new Event(Event.ADD, Constants.GROUP, group.getID(), Constants.EPERSON, e.getID(), e.getEmail(), getIdentifiers(context, group)));
     }
 
@@ -126,6 +127,7 @@ public class GroupServiceImpl extends DSpaceObjectServiceImpl<Group> implements
 
         groupParent.addMember(groupChild);
         groupChild.addParentGroup(groupParent);
+        context.clearGroupMembershipCache();
 
         context.addEvent(new Event(Event.ADD, Constants.GROUP, groupParent.getID(), Constants.GROUP, groupChild.getID(), groupChild.getName(), getIdentifiers(context, groupParent)));
     }
@@ -134,6 +136,7 @@ public class GroupServiceImpl extends DSpaceObjectServiceImpl<Group> implements
     public void removeMember(Context context, Group group, EPerson ePerson) {
         if (group.remove(ePerson))
         {
+            context.clearGroupMembershipCache();
             context.addEvent(new Event(Event.REMOVE, Constants.GROUP, group.getID(), Constants.EPERSON, ePerson.getID(), ePerson.getEmail(), getIdentifiers(context, group)));
         }
     }
@@ -143,6 +146,7 @@ public class GroupServiceImpl extends DSpaceObjectServiceImpl<Group> implements
         if (groupParent.remove(childGroup))
         {
             childGroup.removeParentGroup(groupParent);
+            context.clearGroupMembershipCache();
             context.addEvent(new Event(Event.REMOVE, Constants.GROUP, groupParent.getID(), Constants.GROUP, childGroup.getID(), childGroup.getName(), getIdentifiers(context, groupParent)));
         }
     }
@@ -166,9 +170,20 @@ public class GroupServiceImpl extends DSpaceObjectServiceImpl<Group> implements
             return true;
         }
 
-        EPerson currentuser = context.getCurrentUser();
+        // the membership closure of the current user is computed once per
+        // context, every following check is a simple lookup
+        Set<UUID> groupIDs = context.getGroupMembershipCache();
+        if (groupIDs == null)
+        {
+            groupIDs = new HashSet<>();
+            for (Group memberGroup : allMemberGroups(context, context.getCurrentUser()))
+            {
+                groupIDs.add(memberGroup.getID());
+            }
+            context.setGroupMembershipCache(groupIDs);
+        }
 
-        return epersonInGroup(context, group, currentuser);
+        return groupIDs.contains(group.getID());
     }
 
     @Override
@@ -337,6 +352,7 @@ public class GroupServiceImpl extends DSpaceObjectServiceImpl<Group> implements
         // Remove ourself
         groupDAO.delete(context, group);
         rethinkGroupCache(context, false);
+        context.clearGroupMembershipCache();
 
         log.info(LogManager.getHeader(context, "delete_group", "group_id="
                 + group.getID()));
@@ -425,6 +441,7 @@ public class GroupServiceImpl extends DSpaceObjectServiceImpl<Group> implements
             rethinkGroupCache(context, true);
             group.clearGroupsChanged();
         }
+        context.clearGroupMembershipCache();
 
         log.info(LogManager.getHeader(context, "update_group", "group_id="
                 + group.getID()));
@@ -0,0 +1,403 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.event;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.dspace.core.Context;
+import org.dspace.core.Utils;
+import org.dspace.event.factory.EventServiceFactory;
+import org.dspace.event.service.EventService;
+import org.dspace.services.ConfigurationService;
+import org.dspace.services.factory.DSpaceServicesFactory;
+
+/**
+ * AsyncDispatcher delivers the events of a transaction to its consumers on a
+ * background thread, once the transaction has been committed. The request
+ * which made the changes doesn't wait for the consumers, e.g. for the search
+ * index to be updated.
+ * <p>
+ * Events wait in a queue per dispatcher name. An event which is already
+ * waiting in the queue for the same object, e.g. because an item was modified
+ * by several requests in a row, is only delivered once. The consumers get the
+ * events in batches, in a context of their own with the authorization system
+ * turned off, so consumers which need the user who made the change should stay
+ * on a synchronous dispatcher.
+ * <p>
+ * The queue holds at most <code>event.dispatcher.&lt;name&gt;.queue.size</code>
+ * events (default 10000); when it is full, committing transactions wait for
+ * it. <code>event.dispatcher.&lt;name&gt;.batch.size</code> (default 100) sets
+ * the number of events delivered in one context. Events still queued when
+ * DSpace stops are delivered for at most
+ * <code>event.dispatcher.&lt;name&gt;.shutdown.timeout</code> seconds (default
+ * 60).
+ */
+public class AsyncDispatcher extends BasicDispatcher
+{
+    /** log4j category */
+    private static Logger log = Logger.getLogger(AsyncDispatcher.class);
+
+    /** Queues of events, by dispatcher name */
+    private static final Map<String, EventQueue> queues = new HashMap<String, EventQueue>();
+
+    public AsyncDispatcher(String name)
+    {
+        super(name);
+    }
+
+    @Override
+    public boolean isAfterCommit()
+    {
+        return true;
+    }
+
+    /**
+     * Queue all events added to this Context, to be delivered to the
+     * configured consumers on the background thread.
+     *
+     * @param ctx
+     *            the execution context
+     */
+    @Override
+    public void dispatch(Context ctx)
+    {
+        if (consumers.isEmpty() || !ctx.hasEvents())
+        {
+            return;
+        }
+
+        String tid = "TX" + Utils.generateKey();
+        List<Event> events = new ArrayList<Event>(ctx.getEvents().size());
+        while (ctx.hasEvents())
+        {
+            Event event = ctx.pollEvent();
+            event.setDispatcher(getIdentifier());
+            event.setTransactionID(tid);
+            events.add(event);
+        }
+        getQueue(name).add(events);
+    }
+
+    /**
+     * Deliver a batch of events synchronously to the consumers, as
+     * {@link BasicDispatcher} does.
+     *
+     * @param ctx
+     *            context holding the events
+     */
+    protected void deliver(Context ctx)
+    {
+        super.dispatch(ctx);
+    }
+
+    /**
+     * @param name
+     *            name of the dispatcher
+     * @return the number of events waiting to be delivered
+     */
+    public static int getQueueDepth(String name)
+    {
+        EventQueue queue = findQueue(name);
+        return queue == null ? 0 : queue.getDepth();
+    }
+
+    /**
+     * @param name
+     *            name of the dispatcher
+     * @return the number of events delivered to the consumers so far
+     */
+    public static long getDeliveredCount(String name)
+    {
+        EventQueue queue = findQueue(name);
+        return queue == null ? 0 : queue.getDelivered();
+    }
+
+    /**
+     * @param name
+     *            name of the dispatcher
+     * @return the number of events dropped so far because the same event was
+     *         already queued
+     */
+    public static long getCoalescedCount(String name)
+    {
+        EventQueue queue = findQueue(name);
+        return queue == null ? 0 : queue.getCoalesced();
+    }
+
+    /**
+     * Wait until all queued events of the dispatcher have been delivered.
+     *
+     * @param name
+     *            name of the dispatcher
+     * @param timeout
+     *            maximum time to wait, in milliseconds
+     * @return true if the queue is empty
+     * @throws InterruptedException
+     *             if the thread is interrupted while waiting
+     */
+    public static boolean awaitDelivery(String name, long timeout) throws InterruptedException
+    {
+        EventQueue queue = findQueue(name);
+        return queue == null || queue.awaitEmpty(timeout);
+    }
+
+    private static EventQueue findQueue(String name)
+    {
+        synchronized (queues)
+        {
+            return queues.get(name);
+        }
+    }
+
+    private static EventQueue getQueue(String name)
+    {
+        synchronized (queues)
+        {
+            EventQueue queue = queues.get(name);
+            if (queue == null)
+            {
+                queue = new EventQueue(name);
+                queues.put(name, queue);
+                queue.start();
+            }
+            return queue;
+        }
+    }
+
+    /**
+     * Queue of the events of one dispatcher, with the thread delivering them.
+     */
+    protected static class EventQueue implements Runnable
+    {
+        private final String name;
+
+        /** Queued events by {@link #key(Event)}, oldest first */
+        private final LinkedHashMap<String, Event> pending = new LinkedHashMap<String, Event>();
+
+        private final int maxSize;
+
+        private final int batchSize;
+
+        private final long shutdownTimeout;
+
+        /** Whether a batch taken from the queue is being delivered */
+        private boolean delivering = false;
+
+        private volatile long delivered = 0;
+
+        private volatile long coalesced = 0;
+
+        protected EventQueue(String name)
+        {
+            this.name = name;
+            String prefix = "event.dispatcher." + name;
+            ConfigurationService configurationService = DSpaceServicesFactory.getInstance().getConfigurationService();
+            maxSize = Math.max(1, configurationService.getIntProperty(prefix + ".queue.size", 10000));
+            batchSize = Math.max(1, configurationService.getIntProperty(prefix + ".batch.size", 100));
+            shutdownTimeout = TimeUnit.SECONDS.toMillis(
+                    configurationService.getIntProperty(prefix + ".shutdown.timeout", 60));
+        }
+
+        protected void start()
+        {
+            Thread thread = new Thread(this, "event-dispatcher-" + name);
+            thread.setDaemon(true);
+            thread.start();
+
+            Runtime.getRuntime().addShutdownHook(new Thread("event-dispatcher-" + name + "-shutdown")
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        if (!awaitEmpty(shutdownTimeout))
+                        {
+                            log.warn("Stopping with " + getDepth() + " events of dispatcher "
+                                    + EventQueue.this.name + " not delivered");
+                        }
+                    }
+                    catch (InterruptedException e)
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+
+        /**
+         * Queue the events of a transaction, waiting while the queue is full.
+         * An event which is already queued is moved to the end of the queue.
+         */
+        protected synchronized void add(List<Event> events)
+        {
+            boolean interrupted = false;
+            if (pending.size() >= maxSize)
+            {
+                log.warn("The queue of event dispatcher " + name + " is full (" + pending.size()
+                        + " events), waiting for it to be delivered");
+            }
+            for (Event event : events)
+            {
+                String key = key(event);
+                while (pending.size() >= maxSize && !pending.containsKey(key))
+                {
+                    try
+                    {
+                        wait();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        // the events are queued anyway, they belong to a committed transaction
+                        interrupted = true;
+                        break;
+                    }
+                }
+                if (pending.remove(key) != null)
+                {
+                    coalesced++;
+                }
+                pending.put(key, event);
+            }
+            notifyAll();
+            if (interrupted)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        protected synchronized int getDepth()
+        {
+            return pending.size();
+        }
+
+        protected long getDelivered()
+        {
+            return delivered;
+        }
+
+        protected long getCoalesced()
+        {
+            return coalesced;
+        }
+
+        protected synchronized boolean awaitEmpty(long timeout) throws InterruptedException
+        {
+            long end = System.currentTimeMillis() + timeout;
+            while (!pending.isEmpty() || delivering)
+            {
+                long wait = end - System.currentTimeMillis();
+                if (wait <= 0)
+                {
+                    return false;
+                }
+                wait(wait);
+            }
+            return true;
+        }
+
+        protected synchronized List<Event> take() throws InterruptedException
+        {
+            delivering = false;
+            notifyAll();
+            while (pending.isEmpty())
+            {
+                wait();
+            }
+
+            List<Event> batch = new ArrayList<Event>(Math.min(batchSize, pending.size()));
+            Iterator<Event> events = pending.values().iterator();
+            while (events.hasNext() && batch.size() < batchSize)
+            {
+                batch.add(events.next());
+                events.remove();
+            }
+            delivering = true;
+            notifyAll();
+            return batch;
+        }
+
+        @Override
+        public void run()
+        {
+            EventService eventService = EventServiceFactory.getInstance().getEventService();
+            while (true)
+            {
+                List<Event> batch;
+                try
+                {
+                    batch = take();
+                }
+                catch (InterruptedException e)
+                {
+                    log.warn("Event dispatcher " + name + " interrupted, " + getDepth()
+                            + " events not delivered");
+                    return;
+                }
+
+                long start = System.currentTimeMillis();
+                Context context = null;
+                Dispatcher dispatcher = null;
+                try
+                {
+                    context = new Context();
+                    context.turnOffAuthorisationSystem();
+                    context.setDispatcher(name);
+                    for (Event event : batch)
+                    {
+                        context.addEvent(event);
+                    }
+
+                    dispatcher = eventService.getDispatcher(name);
+                    ((AsyncDispatcher) dispatcher).deliver(context);
+                    context.complete();
+                }
+                catch (Exception e)
+                {
+                    log.error("Failed to deliver " + batch.size() + " events of dispatcher " + name, e);
+                }
+                finally
+                {
+                    if (dispatcher != null)
+                    {
+                        eventService.returnDispatcher(name, dispatcher);
+                    }
+                    if (context != null && context.isValid())
+                    {
+                        context.abort();
+                    }
+                }
+
+                delivered += batch.size();
+                if (log.isDebugEnabled())
+                {
+                    log.debug("Delivered " + batch.size() + " events of dispatcher " + name + " in "
+                            + (System.currentTimeMillis() - start) + " ms, " + getDepth()
+                            + " queued, " + delivered + " delivered and " + coalesced
+                            + " coalesced so far");
+                }
+            }
+        }
+
+        /**
+         * Events with the same key have the same effect on the consumers.
+         */
+        protected static String key(Event event)
+        {
+            return event.getEventType() + ":" + event.getSubjectType() + ":" + event.getSubjectID()
+                    + ":" + event.getObjectType() + ":" + event.getObjectID() + ":" + event.getDetail();
+        }
+    }
+}
@@ -71,4 +71,17 @@ public abstract class Dispatcher
      */
     public abstract void dispatch(Context ctx);
 
+    /**
+     * Whether the events are dispatched once the transaction which caused them
+     * has been committed, instead of before the commit. Consumers of such a
+     * dispatcher can't change the database within that transaction, but they
+     * see the committed state of the objects.
+     *
+     * @return true if the events are dispatched after the commit
+     */
+    public boolean isAfterCommit()
+    {
+        return false;
+    }
+
 }
@@ -46,6 +46,8 @@ public class HandleDAOImpl extends AbstractHibernateDAO<Handle> implements Handl
     public Handle findByHandle(Context context, String handle) throws SQLException {
         Criteria criteria = createCriteria(context, Handle.class);
         criteria.add(Restrictions.eq("handle", handle));
+        // Handle resolution happens on nearly every request, see the query cache in hibernate.cfg.xml
+        criteria.setCacheable(true);
         return uniqueResult(criteria);
     }
 
@@ -19,11 +19,21 @@ import org.dspace.harvest.factory.HarvestServiceFactory;
 import org.dspace.harvest.service.HarvestedCollectionService;
 
 import java.io.IOException;
+import java.net.URI;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The class responsible for scheduling harvesting cycles are regular intervals.
+ * <p>
+ * Harvests which are due are queued with the most overdue first, and run by a
+ * pool of maxThreads threads. At most maxThreadsPerHost harvests from the same
+ * OAI server run at the same time; the others wait while harvests from other
+ * servers go ahead. A new harvest starts as soon as another one finishes.
  * @author alexey
  */
 public class HarvestScheduler implements Runnable
@@ -37,11 +47,27 @@ public class HarvestScheduler implements Runnable
 
     public static final Object lock = new Object();
 
-    protected static Stack<HarvestThread> harvestThreads;
+    // The queue and the counters belong to this scheduler, as the harvests it
+    // started may still be running when a new scheduler has replaced it
+
+    /** harvests waiting to run, the most overdue first */
+    protected final PriorityQueue<HarvestThread> harvestThreads = new PriorityQueue<HarvestThread>();
+
+    /** collections whose harvest is waiting or running */
+    protected final Set<UUID> scheduledCollections = new HashSet<UUID>();
+
+    /** number of running harvests per OAI server host */
+    protected final Map<String, Integer> activeHosts = new HashMap<String, Integer>();
+
+    protected ExecutorService executor;
 
     protected static Integer maxActiveThreads;
 
-    protected static volatile Integer activeThreads = 0;
+    protected static int maxThreadsPerHost;
+
+    protected static int harvestInterval;
+
+    protected volatile int activeThreads = 0;
 
     public static final int HARVESTER_STATUS_RUNNING = 1;
 
@@ -116,13 +142,17 @@ public class HarvestScheduler implements Runnable
             harvestAdmin = EPersonServiceFactory.getInstance().getEPersonService().findByEmail(mainContext, harvestAdminParam);
         }
 
-        harvestThreads = new Stack<HarvestThread>();
-
         maxActiveThreads = ConfigurationManager.getIntProperty("oai", "harvester.maxThreads");
         if (maxActiveThreads == 0)
         {
             maxActiveThreads = 3;
         }
+        maxThreadsPerHost = ConfigurationManager.getIntProperty("oai", "harvester.maxThreadsPerHost", maxActiveThreads);
+        harvestInterval = ConfigurationManager.getIntProperty("oai", "harvester.harvestFrequency");
+        if (harvestInterval == 0)
+        {
+            harvestInterval = 720;
+        }
         minHeartbeat = ConfigurationManager.getIntProperty("oai", "harvester.minHeartbeat") * 1000;
         if (minHeartbeat == 0)
         {
@@ -137,7 +167,20 @@ public class HarvestScheduler implements Runnable
 
     @Override
     public void run() {
-        scheduleLoop();
+        executor = Executors.newFixedThreadPool(maxActiveThreads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "harvest-" + count.incrementAndGet());
+            }
+        });
+        try {
+            scheduleLoop();
+        } finally {
+            // running harvests finish, queued ones are dropped
+            executor.shutdown();
+        }
     }
 
     protected void scheduleLoop() {
@@ -152,7 +195,9 @@ public class HarvestScheduler implements Runnable
                             break;
                         case HARVESTER_INTERRUPT_INSERT_THREAD:
                             interrupt = HARVESTER_INTERRUPT_NONE;
+                            mainContext = new Context();
                             addThread(mainContext, harvestedCollectionService.find(mainContext, collectionService.find(mainContext, interruptValue)));
+                            mainContext.complete();
                             interruptValue = null;
                             break;
                         case HARVESTER_INTERRUPT_PAUSE:
@@ -162,83 +207,59 @@ public class HarvestScheduler implements Runnable
                         case HARVESTER_INTERRUPT_STOP:
                             interrupt = HARVESTER_INTERRUPT_NONE;
                             status = HARVESTER_STATUS_STOPPED;
+                            dropQueued();
                             return;
                     }
                 }
 
                 if (status == HARVESTER_STATUS_PAUSED) {
-                    while(interrupt != HARVESTER_INTERRUPT_RESUME && interrupt != HARVESTER_INTERRUPT_STOP) {
-                        Thread.sleep(1000);
+                    // running harvests finish, no new ones start until the scheduler resumes
+                    synchronized(lock) {
+                        while(interrupt != HARVESTER_INTERRUPT_RESUME && interrupt != HARVESTER_INTERRUPT_STOP) {
+                            lock.wait();
+                        }
                     }
 
-                    if (interrupt != HARVESTER_INTERRUPT_STOP) {
-                        break;
+                    if (interrupt == HARVESTER_INTERRUPT_STOP) {
+                        continue;
                     }
+                    setInterrupt(HARVESTER_INTERRUPT_NONE);
                 }
 
                 status = HARVESTER_STATUS_RUNNING;
 
-                // Stage #1: if something is ready for harvest, push it onto the ready stack, mark it as "queued"
+                // Stage #1: if something is ready for harvest, queue it up, mark it as "queued"
                 mainContext = new Context();
                 List<HarvestedCollection> cids = harvestedCollectionService.findReady(mainContext);
                 log.info("Collections ready for immediate harvest: " + cids.toString());
 
                 for (HarvestedCollection harvestedCollection : cids) {
-                    addThread(mainContext, harvestedCollection);
-                }
-
-                // Stage #2: start up all the threads currently in the queue up to the maximum number
-                while (!harvestThreads.isEmpty()) {
-                    synchronized(HarvestScheduler.class) {
-                        activeThreads++;
-                    }
-                    Thread activeThread = new Thread(harvestThreads.pop());
-                    activeThread.start();
-                    log.info("Thread started: " + activeThread.toString());
-
-                    /* Wait while the number of threads running is greater than or equal to max */
-                    while (activeThreads >= maxActiveThreads) {
-                        /* Wait a second */
-                        Thread.sleep(1000);
-                    }
-                }
-
-                // Finally, wait for the last few remaining threads to finish
-                // TODO: this step might be unnecessary. Theoretically a single very long harvest process
-                // could then lock out all the other ones from starting on their next iteration.
-                // FIXME: also, this might lead to a situation when a single thread getting stuck without
-                // throwing an exception would shut down the whole scheduler
-                while (activeThreads != 0) {
-                        /* Wait a second */
-                        Thread.sleep(1000);
+                    addThread(mainContext, harvestedCollection, false);
                 }
 
                 // Commit everything
                 try {
                         mainContext.complete();
-                        log.info("Done with iteration " + i);
                 } catch (SQLException e) {
                         e.printStackTrace();
                         mainContext.abort();
                 }
 
+                // Stage #2: start the most overdue harvests, up to the maximum number of threads
+                dispatch();
+                log.info("Done with iteration " + i + ". " + getQueueStatus());
             }
             catch (Exception e) {
                     log.error("Exception on iteration: " + i);
                     e.printStackTrace();
             }
 
-            // Stage #3: figure out how long until the next iteration and wait
+            // Stage #3: figure out how long until the next iteration and wait. Harvests waiting
+            // in the queue are started by the harvests which finish, not by this thread.
             try {
                 Context tempContext = new Context();
                 HarvestedCollection hc = harvestedCollectionService.findOldestHarvest(tempContext);
 
-                int harvestInterval = ConfigurationManager.getIntProperty("oai", "harvester.harvestFrequency");
-                if (harvestInterval == 0)
-                {
-                    harvestInterval = 720;
-                }
-
                 Date nextTime;
                 long nextHarvest = 0;
                 if (hc != null) {
@@ -255,9 +276,13 @@ public class HarvestScheduler implements Runnable
 
                 tempContext.complete();
 
-                status = HARVESTER_STATUS_SLEEPING;
                 synchronized(lock) {
-                    lock.wait(delay);
+                    if (status == HARVESTER_STATUS_RUNNING && activeThreads == 0) {
+                        status = HARVESTER_STATUS_SLEEPING;
+                    }
+                    if (interrupt == HARVESTER_INTERRUPT_NONE) {
+                        lock.wait(delay);
+                    }
                 }
             }
             catch (InterruptedException ie) {
@@ -273,25 +298,164 @@ public class HarvestScheduler implements Runnable
 
 
     /**
-     * Adds a thread to the ready stack. Can also be called externally to queue up a collection
+     * Adds a thread to the ready queue. Can also be called externally to queue up a collection
      * for harvesting before it is "due" for another cycle. This allows starting a harvest process
      * from the UI that still "plays nice" with these thread mechanics instead of making an
-     * asynchronous call to runHarvest().
+     * asynchronous call to runHarvest(). Such harvests go before the ones which are due.
      */
     public void addThread(Context context, HarvestedCollection harvestedCollection) throws SQLException, IOException, AuthorizeException {
-        log.debug("****** Entered the addThread method. Active threads: " + harvestThreads.toString());
+        addThread(context, harvestedCollection, true);
+    }
+
+    /**
+     * Adds a thread to the ready queue, unless the collection is already queued or being harvested.
+     *
+     * @param immediate
+     *            whether the harvest goes before the harvests which are due
+     */
+    protected void addThread(Context context, HarvestedCollection harvestedCollection, boolean immediate) throws SQLException, IOException, AuthorizeException {
+        UUID collectionId = harvestedCollection.getCollection().getID();
+        synchronized (this) {
+            if (scheduledCollections.contains(collectionId)) {
+                log.debug("Collection " + collectionId + " is already queued or being harvested");
+                return;
+            }
+        }
+
         context.setCurrentUser(harvestAdmin);
 
         harvestedCollection.setHarvestStatus(HarvestedCollection.STATUS_QUEUED);
         harvestedCollectionService.update(context, harvestedCollection);
         context.dispatchEvents();
 
-        HarvestThread ht = new HarvestThread(harvestedCollection.getCollection().getID());
-        harvestThreads.push(ht);
+        Date dueTime = null;
+        if (!immediate && harvestedCollection.getHarvestDate() != null) {
+            Calendar calendar = Calendar.getInstance();
+            calendar.setTime(harvestedCollection.getHarvestDate());
+            calendar.add(Calendar.MINUTE, harvestInterval);
+            dueTime = calendar.getTime();
+        }
+        HarvestThread ht = new HarvestThread(collectionId, getHost(harvestedCollection.getOaiSource()), dueTime, this);
+        synchronized (this) {
+            scheduledCollections.add(collectionId);
+            harvestThreads.add(ht);
+        }
 
-        log.debug("****** Queued up a thread. Active threads: " + harvestThreads.toString());
         log.info("Thread queued up: " + ht.toString());
     }
 
+    /**
+     * Start queued harvests, the most overdue first, while there are fewer than
+     * maxThreads running. Harvests from a host which already has
+     * maxThreadsPerHost harvests running stay in the queue.
+     */
+    protected void dispatch() {
+        synchronized (this) {
+            if (status == HARVESTER_STATUS_PAUSED || status == HARVESTER_STATUS_STOPPED) {
+                return;
+            }
+            if (executor == null || executor.isShutdown()) {
+                // this scheduler has stopped, a new one may be running
+                return;
+            }
+
+            List<HarvestThread> waiting = new ArrayList<HarvestThread>();
+            while (activeThreads < maxActiveThreads && !harvestThreads.isEmpty()) {
+                HarvestThread ht = harvestThreads.poll();
+                Integer hostThreads = activeHosts.get(ht.getHost());
+                if (hostThreads != null && hostThreads >= maxThreadsPerHost) {
+                    waiting.add(ht);
+                    continue;
+                }
+
+                activeHosts.put(ht.getHost(), hostThreads == null ? 1 : hostThreads + 1);
+                activeThreads++;
+                executor.execute(ht);
+                log.info("Thread started: " + ht.toString());
+            }
+            harvestThreads.addAll(waiting);
+        }
+    }
+
+    /**
+     * Called by a harvest thread started by this scheduler when it finishes,
+     * to start the next harvest.
+     */
+    protected void harvestFinished(HarvestThread ht) {
+        synchronized (this) {
+            activeThreads--;
+            Integer hostThreads = activeHosts.get(ht.getHost());
+            if (hostThreads != null && hostThreads > 1) {
+                activeHosts.put(ht.getHost(), hostThreads - 1);
+            } else {
+                activeHosts.remove(ht.getHost());
+            }
+            scheduledCollections.remove(ht.getCollectionId());
+        }
+        dispatch();
+    }
+
+    /**
+     * Mark the collections whose harvest hasn't started yet as ready again, so
+     * they are found by the next scheduler.
+     */
+    protected void dropQueued() {
+        List<HarvestThread> queued;
+        synchronized (this) {
+            queued = new ArrayList<HarvestThread>(harvestThreads);
+            harvestThreads.clear();
+            for (HarvestThread ht : queued) {
+                scheduledCollections.remove(ht.getCollectionId());
+            }
+        }
+        if (queued.isEmpty()) {
+            return;
+        }
 
+        Context context = null;
+        try {
+            context = new Context();
+            for (HarvestThread ht : queued) {
+                HarvestedCollection hc = harvestedCollectionService.find(context, collectionService.find(context, ht.getCollectionId()));
+                if (hc != null) {
+                    hc.setHarvestStatus(HarvestedCollection.STATUS_READY);
+                    harvestedCollectionService.update(context, hc);
+                }
+            }
+            context.complete();
+        } catch (SQLException e) {
+            log.error("Unable to reset the status of the queued collections", e);
+        } finally {
+            if (context != null && context.isValid()) {
+                context.abort();
+            }
+        }
+    }
+
+    /**
+     * The host of an OAI server, to limit the number of harvests from it.
+     */
+    protected static String getHost(String oaiSource) {
+        try {
+            String host = new URI(oaiSource).getHost();
+            if (host != null) {
+                return host.toLowerCase();
+            }
+        } catch (Exception e) {
+            log.debug("Unable to parse the OAI source " + oaiSource, e);
+        }
+        return oaiSource;
+    }
+
+    /**
+     * @return the number of running and queued harvests, and how overdue the most overdue queued harvest is
+     */
+    public String getQueueStatus() {
+        synchronized (this) {
+            HarvestThread next = harvestThreads.peek();
+            long lag = next == null || next.getDueTime() == null ? 0 : Math.max(0, System.currentTimeMillis() - next.getDueTime().getTime());
+            return "Running harvests: " + activeThreads + ", queued harvests: " + harvestThreads.size()
+                    + ", maximum lag of queued harvests: " + (lag / 1000) + " s";
+        }
+    }
 }
@@ -74,7 +74,10 @@ public class HarvestSchedulingServiceImpl implements HarvestSchedulingService {
 
     @Override
 	public void resumeScheduler() throws SQLException, AuthorizeException {
-		HarvestScheduler.setInterrupt(HarvestScheduler.HARVESTER_INTERRUPT_RESUME);
+		synchronized(HarvestScheduler.lock) {
+			HarvestScheduler.setInterrupt(HarvestScheduler.HARVESTER_INTERRUPT_RESUME);
+			HarvestScheduler.lock.notify();
+		}
     }
 
     @Override
@@ -12,26 +12,74 @@ import org.dspace.content.Collection;
 import org.dspace.content.factory.ContentServiceFactory;
 import org.dspace.content.service.CollectionService;
 import org.dspace.core.Context;
+import org.dspace.core.LogManager;
 import org.dspace.harvest.factory.HarvestServiceFactory;
 import org.dspace.harvest.service.HarvestedCollectionService;
 
 import java.sql.SQLException;
+import java.util.Date;
 import java.util.UUID;
 
 /**
- * A harvester thread used to execute a single harvest cycle on a collection
+ * A harvester thread used to execute a single harvest cycle on a collection.
+ * The scheduler runs the most overdue harvests first.
  * @author alexey
  */
-public class HarvestThread extends Thread {
+public class HarvestThread extends Thread implements Comparable<HarvestThread> {
 
     private static final Logger log = Logger.getLogger(HarvestThread.class);
     protected UUID collectionId;
+
+    /** the host of the OAI server which is harvested */
+    protected String host;
+
+    /** when the harvest was due, or null if it should run as soon as possible */
+    protected Date dueTime;
+
+    /** the scheduler which started the harvest, told when it finishes */
+    protected HarvestScheduler scheduler;
     protected CollectionService collectionService = ContentServiceFactory.getInstance().getCollectionService();
     protected HarvestedCollectionService harvestedCollectionService = HarvestServiceFactory.getInstance().getHarvestedCollectionService();
 
 
     protected HarvestThread(UUID collectionId) throws SQLException {
+        this(collectionId, null, null, null);
+    }
+
+    protected HarvestThread(UUID collectionId, String host, Date dueTime, HarvestScheduler scheduler) throws SQLException {
         this.collectionId = collectionId;
+        this.host = host;
+        this.dueTime = dueTime;
+        this.scheduler = scheduler;
+    }
+
+    public UUID getCollectionId() {
+        return collectionId;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public Date getDueTime() {
+        return dueTime;
+    }
+
+    /**
+     * Harvests which were due earlier come first, those which should run as
+     * soon as possible before all others.
+     */
+    @Override
+    public int compareTo(HarvestThread other) {
+        if (dueTime == null || other.dueTime == null) {
+            return dueTime == null ? (other.dueTime == null ? 0 : -1) : 1;
+        }
+        return dueTime.compareTo(other.dueTime);
+    }
+
+    @Override
+    public String toString() {
+        return "HarvestThread[collection=" + collectionId + ", host=" + host + ", due=" + dueTime + "]";
     }
 
     @Override
@@ -46,6 +94,7 @@ public class HarvestThread extends Thread {
         Context context;
         Collection dso;
         HarvestedCollection hc = null;
+        long startTime = System.currentTimeMillis();
         try {
             context = new Context();
             dso = collectionService.find(context, collectionId);
@@ -55,6 +104,7 @@ public class HarvestThread extends Thread {
                 dso = hc.getCollection();
                 OAIHarvester harvester = new OAIHarvester(context, dso, hc);
                 harvester.runHarvest();
+                logStatistics(context, startTime, harvester.getRecordsProcessed());
             } catch (RuntimeException e) {
                 log.error("Runtime exception in thread: " + this.toString());
                 log.error(e.getMessage() + " " + e.getCause());
@@ -78,14 +128,29 @@ public class HarvestThread extends Thread {
                     context.abort();
                 }
 
-                synchronized (HarvestScheduler.class) {
-                    HarvestScheduler.activeThreads--;
-                }
             }
         } catch (SQLException e) {
             log.error(e.getMessage(), e);
+        } finally {
+            if (scheduler != null) {
+                scheduler.harvestFinished(this);
+            }
         }
 
-        log.info("Thread for collection " + hc.getCollection().getID() + " completes.");
+        log.info("Thread for collection " + collectionId + " completes.");
+    }
+
+    /**
+     * Log how long the harvest waited after it was due, and how fast it
+     * processed the records.
+     */
+    protected void logStatistics(Context context, long startTime, int records)
+    {
+        long duration = System.currentTimeMillis() - startTime;
+        long lag = dueTime == null ? 0 : Math.max(0, startTime - dueTime.getTime());
+        double recordsPerSecond = duration == 0 ? 0 : records * 1000.0 / duration;
+        log.info(LogManager.getHeader(context, "harvest_statistics", "collection_id=" + collectionId
+                + ",host=" + host + ",lag_ms=" + lag + ",records=" + records + ",duration_ms=" + duration
+                + ",records_per_second=" + String.format("%.2f", recordsPerSecond)));
     }
 }
\ No newline at end of file
@@ -98,6 +98,9 @@ public class OAIHarvester {
 	// our context
 	Context ourContext;
 
+	// number of records processed by the current harvest
+	protected int recordsProcessed = 0;
+
     // Namespace used by the ORE serialization format
     // Set in dspace.cfg as oai.harvester.oreSerializationFormat.{ORESerialKey} = {ORESerialNS}
     private Namespace ORESerialNS;
@@ -249,6 +252,7 @@ public class OAIHarvester {
 
 		Date startTime = new Date();
 		String toDate = processDate(startTime,0);
+		recordsProcessed = 0;
 
 		String dateGranularity;
 
@@ -364,6 +368,7 @@ public class OAIHarvester {
                         }
 
 						processRecord(record,OREPrefix);
+						recordsProcessed++;
 						ourContext.dispatchEvents();
 					}
 				}
@@ -422,6 +427,14 @@ public class OAIHarvester {
 		harvestedCollection.update(ourContext, harvestRow);
 	}
 
+    /**
+     * @return the number of records processed by the last call to runHarvest()
+     */
+    public int getRecordsProcessed()
+    {
+        return recordsProcessed;
+    }
+
     /**
      * Process an individual PMH record, making (or updating) a corresponding DSpace Item.
      * @param record a JDOM Element containing the actual PMH record with descriptive metadata.
@@ -16,16 +16,19 @@ import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.time.DateFormatUtils;
+import org.apache.commons.lang.time.DateUtils;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.log4j.Logger;
 import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrRequest;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.impl.HttpSolrServer;
 import org.apache.solr.client.solrj.request.AbstractUpdateRequest;
 import org.apache.solr.client.solrj.request.ContentStreamUpdateRequest;
 import org.apache.solr.client.solrj.request.CoreAdminRequest;
+import org.apache.solr.client.solrj.response.CoreAdminResponse;
 import org.apache.solr.client.solrj.response.FacetField;
 import org.apache.solr.client.solrj.response.QueryResponse;
 import org.apache.solr.client.solrj.response.RangeFacet;
@@ -49,6 +52,7 @@ import org.dspace.statistics.util.DnsLookup;
 import org.dspace.statistics.util.LocationUtils;
 import org.dspace.statistics.util.SpiderDetector;
 import org.dspace.usage.UsageWorkflowEvent;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 
@@ -60,6 +64,11 @@ import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Static holder for a HttpSolrClient connection pool to issue
@@ -70,7 +79,7 @@ import java.util.*;
  * @author kevinvandevelde at atmire.com
  * @author mdiggory at atmire.com
  */
-public class SolrLoggerServiceImpl implements SolrLoggerService, InitializingBean
+public class SolrLoggerServiceImpl implements SolrLoggerService, InitializingBean, DisposableBean
 {
     private static final Logger log = Logger.getLogger(SolrLoggerServiceImpl.class);
 	
@@ -84,6 +93,15 @@ public class SolrLoggerServiceImpl implements SolrLoggerService, InitializingBea
 
     protected boolean useProxies;
 
+    /** Writes usage events in the background, null when events are written synchronously */
+    protected SolrStatisticsWriter statisticsWriter;
+
+    /** Daily rollups of the usage events, null when they are disabled */
+    protected StatisticsRollup statisticsRollup;
+
+    /** Name of the core holding the daily rollups, it must not look like a year core */
+    protected static final String ROLLUP_CORE = "statistics-rollup";
+
     private static List<String> statisticYearCores = new ArrayList<String>();
 
     @Autowired(required = true)
@@ -191,6 +209,124 @@ public class SolrLoggerServiceImpl implements SolrLoggerService, InitializingBea
         }
 
         log.info("useProxies=" + useProxies);
+
+        if (solr != null && ConfigurationManager.getBooleanProperty("solr-statistics", "rollup.enabled", false))
+        {
+            try
+            {
+                statisticsRollup = new StatisticsRollup(createCore(solr, ROLLUP_CORE),
+                        ConfigurationManager.getLongProperty("solr-statistics", "rollup.flush.interval", 10000),
+                        ConfigurationManager.getIntProperty("solr-statistics", "rollup.batch.size", 1000));
+            }
+            catch (Exception e)
+            {
+                log.error("Unable to load the rollup core, reports are computed from the usage events", e);
+            }
+        }
+
+        if (solr != null && ConfigurationManager.getBooleanProperty("solr-statistics", "writer.async", false))
+        {
+            SolrStatisticsWriter.Overflow overflow = SolrStatisticsWriter.Overflow.DROP;
+            if ("block".equalsIgnoreCase(ConfigurationManager.getProperty("solr-statistics", "writer.overflow")))
+            {
+                overflow = SolrStatisticsWriter.Overflow.BLOCK;
+            }
+            statisticsWriter = new SolrStatisticsWriter(solr,
+                    ConfigurationManager.getIntProperty("solr-statistics", "writer.queue.size", 10000),
+                    ConfigurationManager.getIntProperty("solr-statistics", "writer.batch.size", 100),
+                    ConfigurationManager.getLongProperty("solr-statistics", "writer.flush.interval", 1000),
+                    overflow,
+                    ConfigurationManager.getLongProperty("solr-statistics", "writer.overflow.timeout", 100),
+                    ConfigurationManager.getIntProperty("solr-statistics", "writer.dns.threads", 4))
+            {
+                @Override
+                protected void prepare(SolrInputDocument doc)
+                {
+                    // the reverse DNS lookup is left to the threads preparing the batch
+                    Object ip = doc.getFieldValue("ip");
+                    if (ip != null && doc.getField("dns") == null)
+                    {
+                        addDns(doc, ip.toString());
+                    }
+                }
+
+                @Override
+                protected void written(List<SolrInputDocument> batch)
+                {
+                    if (statisticsRollup != null)
+                    {
+                        statisticsRollup.add(batch);
+                        statisticsRollup.flush();
+                    }
+                }
+            };
+            statisticsWriter.start();
+            log.info("Writing usage events asynchronously, overflow policy: " + overflow);
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception
+    {
+        if (statisticsWriter != null)
+        {
+            statisticsWriter.shutdown(ConfigurationManager.getLongProperty("solr-statistics", "writer.shutdown.timeout", 10000));
+        }
+        if (statisticsRollup != null)
+        {
+            statisticsRollup.shutdown();
+        }
+    }
+
+    /**
+     * @return the background writer of usage events, or <code>null</code> if they are written synchronously
+     */
+    public SolrStatisticsWriter getStatisticsWriter()
+    {
+        return statisticsWriter;
+    }
+
+    /**
+     * Store a usage event, in the background if the asynchronous writer is enabled.
+     *
+     * @param doc the usage event
+     * @throws IOException
+     * @throws SolrServerException
+     */
+    protected void addDocument(SolrInputDocument doc) throws IOException, SolrServerException
+    {
+        if (statisticsWriter != null)
+        {
+            statisticsWriter.add(doc);
+        }
+        else
+        {
+            solr.add(doc);
+            if (statisticsRollup != null)
+            {
+                statisticsRollup.add(doc);
+            }
+        }
+    }
+
+    /**
+     * Add the reverse DNS name of the ip address to the usage event.
+     *
+     * @param doc the usage event
+     * @param ip  the ip address of the client
+     */
+    protected void addDns(SolrInputDocument doc, String ip)
+    {
+        try
+        {
+            String dns = DnsLookup.reverseDns(ip);
+            doc.addField("dns", dns.toLowerCase());
+        }
+        catch (Exception e)
+        {
+            log.error("Failed DNS Lookup for IP:" + ip);
+            log.debug(e.getMessage(),e);
+        }
     }
 
     @Override
@@ -226,7 +362,7 @@ public class SolrLoggerServiceImpl implements SolrLoggerService, InitializingBea
             doc1.addField("statistics_type", StatisticsType.VIEW.text());
 
 
-            solr.add(doc1);
+            addDocument(doc1);
             //commits are executed automatically using the solr autocommit
 //            solr.commit(false, false);
 
@@ -263,7 +399,7 @@ public class SolrLoggerServiceImpl implements SolrLoggerService, InitializingBea
 
 			doc1.addField("statistics_type", StatisticsType.VIEW.text());
 
-			solr.add(doc1);
+			addDocument(doc1);
 			// commits are executed automatically using the solr autocommit
 			// solr.commit(false, false);
 
@@ -318,15 +454,9 @@ public class SolrLoggerServiceImpl implements SolrLoggerService, InitializingBea
                 doc1.addField("referrer", request.getHeader("referer"));
             }
 
-            try
+            if (statisticsWriter == null)
             {
-                String dns = DnsLookup.reverseDns(ip);
-                doc1.addField("dns", dns.toLowerCase());
-            }
-            catch (Exception e)
-            {
-                log.error("Failed DNS Lookup for IP:" + ip);
-                log.debug(e.getMessage(),e);
+                addDns(doc1, ip);
             }
 		    if(request.getHeader("User-Agent") != null)
 		    {
@@ -404,15 +534,9 @@ public class SolrLoggerServiceImpl implements SolrLoggerService, InitializingBea
 
             doc1.addField("ip", ip);
 
-            try
+            if (statisticsWriter == null)
             {
-                String dns = DnsLookup.reverseDns(ip);
-                doc1.addField("dns", dns.toLowerCase());
-            }
-            catch (Exception e)
-            {
-                log.error("Failed DNS Lookup for IP:" + ip);
-                log.debug(e.getMessage(),e);
+                addDns(doc1, ip);
             }
 		    if(userAgent != null)
 		    {
@@ -504,7 +628,7 @@ public class SolrLoggerServiceImpl implements SolrLoggerService, InitializingBea
                 solrDoc.addField("page", page);
             }
 
-            solr.add(solrDoc);
+            addDocument(solrDoc);
         }
         catch (RuntimeException re)
         {
@@ -555,7 +679,7 @@ public class SolrLoggerServiceImpl implements SolrLoggerService, InitializingBea
                 solrDoc.addField("actor", usageWorkflowEvent.getActor().getID());
             }
 
-            solr.add(solrDoc);
+            addDocument(solrDoc);
         }
         catch (Exception e)
         {
@@ -873,6 +997,11 @@ public class SolrLoggerServiceImpl implements SolrLoggerService, InitializingBea
             String filterQuery, String facetField, int max, boolean showTotal,
             List<String> facetQueries) throws SolrServerException
     {
+        if (useRollups(query, filterQuery, facetField, null, null, facetQueries))
+        {
+            return queryRollupFacetField(query, filterQuery, facetField, max, showTotal);
+        }
+
         QueryResponse queryResponse = query(query, filterQuery, facetField,
                 0,max, null, null, null, facetQueries, null, false);
         if (queryResponse == null)
@@ -911,11 +1040,83 @@ public class SolrLoggerServiceImpl implements SolrLoggerService, InitializingBea
         }
     }
 
+    /**
+     * {@link #queryFacetField} answered from the daily rollups: the values are
+     * sorted by their number of hits, and limited like the facet of query().
+     */
+    protected ObjectCount[] queryRollupFacetField(String query, String filterQuery, String facetField, int max,
+                                                  boolean showTotal) throws SolrServerException
+    {
+        Map<String, Long> sums = statisticsRollup.sum(query, getRollupFilterQueries(filterQuery), facetField);
+        long total = sums.remove(null);
+        List<Map.Entry<String, Long>> values = new ArrayList<Map.Entry<String, Long>>(sums.entrySet());
+        Collections.sort(values, new Comparator<Map.Entry<String, Long>>()
+        {
+            @Override
+            public int compare(Map.Entry<String, Long> value1, Map.Entry<String, Long> value2)
+            {
+                int order = value2.getValue().compareTo(value1.getValue());
+                return order != 0 ? order : value1.getKey().compareTo(value2.getKey());
+            }
+        });
+        // without a limit query() leaves the default facet limit of solr
+        int limit = max == -1 ? 100 : max;
+        if (0 <= limit && limit < values.size())
+        {
+            values = values.subList(0, limit);
+        }
+        if (values.isEmpty())
+        {
+            return new ObjectCount[0];
+        }
+
+        ObjectCount[] result = new ObjectCount[values.size() + (showTotal ? 1 : 0)];
+        for (int i = 0; i < values.size(); i++)
+        {
+            result[i] = new ObjectCount();
+            result[i].setCount(values.get(i).getValue());
+            result[i].setValue(values.get(i).getKey());
+        }
+        if (showTotal)
+        {
+            result[result.length - 1] = new ObjectCount();
+            result[result.length - 1].setCount(total);
+            result[result.length - 1].setValue("total");
+        }
+        return result;
+    }
+
     @Override
     public ObjectCount[] queryFacetDate(String query,
             String filterQuery, int max, String dateType, String dateStart,
             String dateEnd, boolean showTotal, Context context) throws SolrServerException
     {
+        List<Date> gapDates = getGapDates(dateType, dateStart, dateEnd);
+        if (useRollups(query, filterQuery, null, dateType, gapDates.get(gapDates.size() - 1), null))
+        {
+            long[] counts = sumRollupsByGap(query, getRollupFilterQueries(filterQuery), gapDates);
+            List<ObjectCount> result = new ArrayList<ObjectCount>();
+            for (int i = 0; i < gapDates.size() - 1; i++)
+            {
+                // like the date facet, which leaves out gaps without hits
+                if (0 < counts[i])
+                {
+                    ObjectCount gapCount = new ObjectCount();
+                    gapCount.setCount(counts[i]);
+                    gapCount.setValue(getGapName(gapDates.get(i), dateType, context));
+                    result.add(gapCount);
+                }
+            }
+            if (showTotal)
+            {
+                ObjectCount totalCount = new ObjectCount();
+                totalCount.setCount(counts[counts.length - 1]);
+                totalCount.setValue("total");
+                result.add(totalCount);
+            }
+            return result.toArray(new ObjectCount[result.size()]);
+        }
+
         QueryResponse queryResponse = query(query, filterQuery, null, 0, max,
                 dateType, dateStart, dateEnd, null, null, false);
         if (queryResponse == null)
@@ -947,6 +1148,200 @@ public class SolrLoggerServiceImpl implements SolrLoggerService, InitializingBea
         return result;
     }
 
+    @Override
+    public Map<String, ObjectCount[]> queryFacetDate(String query,
+            String filterQuery, String facetField, List<String> facetValues,
+            String dateType, String dateStart, String dateEnd,
+            boolean showTotal, Context context) throws SolrServerException
+    {
+        Map<String, ObjectCount[]> result = new LinkedHashMap<String, ObjectCount[]>();
+        if (facetValues.isEmpty())
+        {
+            return result;
+        }
+
+        // The same gaps as the date facet of query(), with fixed dates so the
+        // names of the gaps match the counts
+        List<Date> gapDates = getGapDates(dateType, dateStart, dateEnd);
+        SimpleDateFormat solrFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+        solrFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        List<String> gapQueries = new ArrayList<String>();
+        List<String> gapNames = new ArrayList<String>();
+        for (int i = 0; i < gapDates.size() - 1; i++)
+        {
+            gapNames.add(getGapName(gapDates.get(i), dateType, context));
+            gapQueries.add("time:[" + solrFormat.format(gapDates.get(i)) + " TO "
+                    + solrFormat.format(gapDates.get(i + 1)) + "}");
+        }
+
+        if (useRollups(query, filterQuery, facetField, dateType, gapDates.get(gapDates.size() - 1), null))
+        {
+            // a request per value, the rollups can't be summed by value and date at once
+            for (String value : facetValues)
+            {
+                long[] counts = sumRollupsByGap(query, getRollupFilterQueries(filterQuery,
+                        facetField + ":" + ClientUtils.escapeQueryChars(value)), gapDates);
+                ObjectCount[] valueCounts = new ObjectCount[gapNames.size() + (showTotal ? 1 : 0)];
+                for (int i = 0; i < valueCounts.length; i++)
+                {
+                    valueCounts[i] = new ObjectCount();
+                    valueCounts[i].setValue(i < gapNames.size() ? gapNames.get(i) : "total");
+                    valueCounts[i].setCount(counts[i < gapNames.size() ? i : counts.length - 1]);
+                }
+                result.put(value, valueCounts);
+            }
+            return result;
+        }
+
+        List<String> facetQueries = new ArrayList<String>();
+        for (String value : facetValues)
+        {
+            String valueQuery = facetField + ":" + ClientUtils.escapeQueryChars(value);
+            for (String gapQuery : gapQueries)
+            {
+                facetQueries.add(valueQuery + " AND " + gapQuery);
+            }
+            if (showTotal)
+            {
+                facetQueries.add(valueQuery);
+            }
+        }
+
+        QueryResponse response = query(query, filterQuery, null, 0, -1, null, null,
+                null, facetQueries, null, false);
+        Map<String, Integer> counts = response == null ? null : response.getFacetQuery();
+        Iterator<String> facetQuery = facetQueries.iterator();
+        for (String value : facetValues)
+        {
+            ObjectCount[] valueCounts = new ObjectCount[gapNames.size() + (showTotal ? 1 : 0)];
+            for (int i = 0; i < valueCounts.length; i++)
+            {
+                Integer count = counts == null ? null : counts.get(facetQuery.next());
+                valueCounts[i] = new ObjectCount();
+                valueCounts[i].setValue(i < gapNames.size() ? gapNames.get(i) : "total");
+                valueCounts[i].setCount(count == null ? 0 : count);
+            }
+            result.put(value, valueCounts);
+        }
+        return result;
+    }
+
+    /**
+     * The gaps of a date facet like the NOW/&lt;unit&gt; date facet of
+     * query(), in UTC.
+     *
+     * @return the start of each gap, followed by the end of the last gap
+     */
+    protected List<Date> getGapDates(String dateType, String dateStart, String dateEnd)
+    {
+        int field = getCalendarField(dateType);
+        Calendar gapStart = DateUtils.truncate(Calendar.getInstance(TimeZone.getTimeZone("UTC")), field);
+        int start = Integer.parseInt(dateStart.trim());
+        int end = Integer.parseInt(dateEnd.trim());
+        gapStart.add(field, start);
+        List<Date> gapDates = new ArrayList<Date>();
+        for (int gap = start; gap <= end; gap++)
+        {
+            gapDates.add(gapStart.getTime());
+            gapStart.add(field, 1);
+        }
+        return gapDates;
+    }
+
+    protected String getGapName(Date gapStart, String dateType, Context context)
+    {
+        SimpleDateFormat nameFormat = new SimpleDateFormat(DATE_FORMAT_8601);
+        nameFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return getDateView(nameFormat.format(gapStart), dateType, context);
+    }
+
+    protected int getCalendarField(String dateType)
+    {
+        if ("YEAR".equalsIgnoreCase(dateType))
+        {
+            return Calendar.YEAR;
+        }
+        else if ("MONTH".equalsIgnoreCase(dateType))
+        {
+            return Calendar.MONTH;
+        }
+        else if ("HOUR".equalsIgnoreCase(dateType))
+        {
+            return Calendar.HOUR_OF_DAY;
+        }
+        return Calendar.DAY_OF_MONTH;
+    }
+
+    /**
+     * Whether a report can be answered from the daily rollups instead of the
+     * usage events. The rollups leave out the hits of robots and don't know
+     * the ip address of the hits, so they are only used with the isBot filter
+     * and without the spider ip filter.
+     *
+     * @param until the end of the last date gap counted, or null if there are none
+     */
+    protected boolean useRollups(String query, String filterQuery, String facetField, String dateType,
+                                 Date until, List<String> facetQueries)
+    {
+        return statisticsRollup != null
+                && (facetQueries == null || facetQueries.isEmpty())
+                && ConfigurationManager.getBooleanProperty("solr-statistics", "query.filter.isBot", true)
+                && !ConfigurationManager.getBooleanProperty("solr-statistics", "query.filter.spiderIp", false)
+                && statisticsRollup.canAnswer(query, filterQuery, facetField, dateType, until);
+    }
+
+    /**
+     * @return the filter queries query() adds for the given filter queries,
+     *         which apply to the rollups
+     */
+    protected List<String> getRollupFilterQueries(String... filterQueries)
+    {
+        List<String> result = new ArrayList<String>();
+        String bundleQuery = getBundleFilterQuery();
+        if (bundleQuery != null)
+        {
+            result.add(bundleQuery);
+        }
+        for (String filterQuery : filterQueries)
+        {
+            if (filterQuery != null)
+            {
+                result.add(filterQuery);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Sum the hits of the rollups by date gap.
+     *
+     * @param gapDates the start of each gap, followed by the end of the last gap
+     * @return the number of hits of each gap, followed by the total number of hits
+     */
+    protected long[] sumRollupsByGap(String query, List<String> filterQueries, List<Date> gapDates)
+            throws SolrServerException
+    {
+        long[] counts = new long[gapDates.size()];
+        for (Map.Entry<String, Long> day : statisticsRollup.sum(query, filterQueries, "time").entrySet())
+        {
+            if (day.getKey() == null)
+            {
+                counts[counts.length - 1] = day.getValue();
+                continue;
+            }
+            Date date = StatisticsRollup.parseDay(day.getKey());
+            for (int i = 0; i < gapDates.size() - 1; i++)
+            {
+                if (!date.before(gapDates.get(i)) && date.before(gapDates.get(i + 1)))
+                {
+                    counts[i] += day.getValue();
+                    break;
+                }
+            }
+        }
+        return counts;
+    }
+
     @Override
     public Map<String, Integer> queryFacetQuery(String query,
             String filterQuery, List<String> facetQueries)
@@ -961,6 +1356,13 @@ public class SolrLoggerServiceImpl implements SolrLoggerService, InitializingBea
     public ObjectCount queryTotal(String query, String filterQuery)
             throws SolrServerException
     {
+        if (useRollups(query, filterQuery, null, null, null, null))
+        {
+            ObjectCount objCount = new ObjectCount();
+            objCount.setCount(statisticsRollup.sum(query, getRollupFilterQueries(filterQuery), null).get(null));
+            return objCount;
+        }
+
         QueryResponse queryResponse = query(query, filterQuery, null,0, -1, null,
                 null, null, null, null, false);
         ObjectCount objCount = new ObjectCount();
@@ -1104,6 +1506,40 @@ public class SolrLoggerServiceImpl implements SolrLoggerService, InitializingBea
             solrQuery.setSortField(sort, (ascending ? SolrQuery.ORDER.asc : SolrQuery.ORDER.desc));
         }
 
+        String bundleQuery = getBundleFilterQuery();
+        if (bundleQuery != null)
+        {
+            solrQuery.addFilterQuery(bundleQuery);
+        }
+
+        if (filterQuery != null)
+        {
+            solrQuery.addFilterQuery(filterQuery);
+        }
+
+        QueryResponse response;
+        try
+        {
+            // Many facet queries, like those of the dates of several objects,
+            // make the url longer than the servlet container accepts
+            response = solr.query(solrQuery, facetQueries != null && 0 < facetQueries.size()
+                    ? SolrRequest.METHOD.POST : SolrRequest.METHOD.GET);
+        }
+        catch (SolrServerException e)
+        {
+            System.err.println("Error using query " + query);
+            throw e;
+        }
+        return response;
+    }
+
+
+    /**
+     * @return the filter query leaving out the bitstreams of bundles which
+     *         aren't configured in query.filter.bundles, or null
+     */
+    protected String getBundleFilterQuery()
+    {
         String bundles;
         if((bundles = ConfigurationManager.getProperty("solr-statistics", "query.filter.bundles")) != null && 0 < bundles.length()){
 
@@ -1124,30 +1560,11 @@ public class SolrLoggerServiceImpl implements SolrLoggerService, InitializingBea
             }
             bundleQuery.append(")");
 
-
-            solrQuery.addFilterQuery(bundleQuery.toString());
-        }
-
-        if (filterQuery != null)
-        {
-            solrQuery.addFilterQuery(filterQuery);
-        }
-
-        QueryResponse response;
-        try
-        {
-            // solr.set
-            response = solr.query(solrQuery);
+            return bundleQuery.toString();
         }
-        catch (SolrServerException e)
-        {
-            System.err.println("Error using query " + query);
-            throw e;
-        }
-        return response;
+        return null;
     }
 
-
     /** String of IP and Ranges in IPTable as a Solr Query */
     protected String filterQuery = null;
 
@@ -1206,89 +1623,251 @@ public class SolrLoggerServiceImpl implements SolrLoggerService, InitializingBea
         yearRangeQuery.add(FacetParams.FACET_RANGE_GAP, "+1YEAR");
         yearRangeQuery.add(FacetParams.FACET_MINCOUNT, String.valueOf(1));
 
-        //Create a temp directory to store our files in !
-        File tempDirectory = new File(ConfigurationManager.getProperty("dspace.dir") + File.separator + "temp" + File.separator);
-        tempDirectory.mkdirs();
-
-
         QueryResponse queryResponse = solr.query(yearRangeQuery);
         //We only have one range query !
         List<RangeFacet.Count> yearResults = queryResponse.getFacetRanges().get(0).getCounts();
+        if (yearResults.isEmpty())
+        {
+            return;
+        }
+
+        //The years are moved in parallel, each by a thread of its own
+        int threads = Math.max(1, ConfigurationManager.getIntProperty("solr-statistics", "shard.threads", 2));
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, yearResults.size()));
+        Map<String, Future<Long>> moves = new LinkedHashMap<String, Future<Long>>();
         for (RangeFacet.Count count : yearResults) {
-            long totalRecords = count.getCount();
-
-            //Create a range query from this !
-            //We start with out current year
-            DCDate dcStart = new DCDate(count.getValue());
-            Calendar endDate = Calendar.getInstance();
-            //Advance one year for the start of the next one !
-            endDate.setTime(dcStart.toDate());
-            endDate.add(Calendar.YEAR, 1);
-            DCDate dcEndDate = new DCDate(endDate.getTime());
-
-
-            StringBuilder filterQuery = new StringBuilder();
-            filterQuery.append("time:([");
-            filterQuery.append(ClientUtils.escapeQueryChars(dcStart.toString()));
-            filterQuery.append(" TO ");
-            filterQuery.append(ClientUtils.escapeQueryChars(dcEndDate.toString()));
-            filterQuery.append("]");
-            //The next part of the filter query excludes the content from midnight of the next year !
-            filterQuery.append(" NOT ").append(ClientUtils.escapeQueryChars(dcEndDate.toString()));
-            filterQuery.append(")");
-
-
-            Map<String, String> yearQueryParams = new HashMap<String, String>();
-            yearQueryParams.put(CommonParams.Q, "*:*");
-            yearQueryParams.put(CommonParams.ROWS, String.valueOf(10000));
-            yearQueryParams.put(CommonParams.FQ, filterQuery.toString());
-            yearQueryParams.put(CommonParams.WT, "csv");
-
-            //Start by creating a new core
-            String coreName = "statistics-" + dcStart.getYear();
-            HttpSolrServer statisticsYearServer = createCore(solr, coreName);
-
-            System.out.println("Moving: " + totalRecords + " into core " + coreName);
-            log.info("Moving: " + totalRecords + " records into core " + coreName);
-
-            List<File> filesToUpload = new ArrayList<File>();
-            for(int i = 0; i < totalRecords; i+=10000){
-                String solrRequestUrl = solr.getBaseURL() + "/select";
-                solrRequestUrl = generateURL(solrRequestUrl, yearQueryParams);
+            final DCDate dcStart = new DCDate(count.getValue());
+            moves.put(String.valueOf(dcStart.getYear()), executor.submit(new Callable<Long>() {
+                @Override
+                public Long call() throws Exception {
+                    return moveYear(dcStart);
+                }
+            }));
+        }
+        executor.shutdown();
 
-                HttpGet get = new HttpGet(solrRequestUrl);
-                HttpResponse response = new DefaultHttpClient().execute(get);
-                InputStream csvInputstream = response.getEntity().getContent();
-                //Write the csv ouput to a file !
-                File csvFile = new File(tempDirectory.getPath() + File.separatorChar + "temp." + dcStart.getYear() + "." + i + ".csv");
-                FileUtils.copyInputStreamToFile(csvInputstream, csvFile);
-                filesToUpload.add(csvFile);
+        List<String> failedYears = new ArrayList<String>();
+        for (Map.Entry<String, Future<Long>> move : moves.entrySet()) {
+            try {
+                move.getValue().get();
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while moving the statistics into year cores", e);
+            } catch (ExecutionException e) {
+                log.error("Unable to move the statistics of " + move.getKey() + ": " + e.getCause().getMessage(), e.getCause());
+                System.out.println("Unable to move the statistics of " + move.getKey() + ": " + e.getCause().getMessage());
+                failedYears.add(move.getKey());
+            }
+        }
+        if (!failedYears.isEmpty()) {
+            throw new IOException("The statistics of " + StringUtils.join(failedYears, ", ")
+                    + " were not moved, run the sharding again to resume");
+        }
+    }
 
-                //Add 10000 & start over again
-                yearQueryParams.put(CommonParams.START, String.valueOf((i + 10000)));
+    /**
+     * Move the statistics of one year into a core of its own. The records are
+     * read in pages in the order of their uid and added to the year core as
+     * they are read. They are only deleted from the main core once the year
+     * core holds the uid of every record of the year. The cursor of the last
+     * page committed to the year core is kept in a checkpoint file, so a move
+     * which was interrupted resumes from there; records which are copied
+     * again simply replace their earlier copy.
+     *
+     * @param dcStart the start of the year
+     * @return the number of records moved
+     * @throws IOException
+     * @throws SolrServerException
+     */
+    protected long moveYear(DCDate dcStart) throws IOException, SolrServerException {
+        //Create a range query from this !
+        //We start with out current year
+        Calendar endDate = Calendar.getInstance();
+        //Advance one year for the start of the next one !
+        endDate.setTime(dcStart.toDate());
+        endDate.add(Calendar.YEAR, 1);
+        DCDate dcEndDate = new DCDate(endDate.getTime());
+
+
+        StringBuilder filterQuery = new StringBuilder();
+        filterQuery.append("time:([");
+        filterQuery.append(ClientUtils.escapeQueryChars(dcStart.toString()));
+        filterQuery.append(" TO ");
+        filterQuery.append(ClientUtils.escapeQueryChars(dcEndDate.toString()));
+        filterQuery.append("]");
+        //The next part of the filter query excludes the content from midnight of the next year !
+        filterQuery.append(" NOT ").append(ClientUtils.escapeQueryChars(dcEndDate.toString()));
+        filterQuery.append(")");
+
+        //Start by creating a new core, or reuse the core of an interrupted move
+        String coreName = "statistics-" + dcStart.getYear();
+        HttpSolrServer statisticsYearServer = getOrCreateCore(solr, coreName);
+
+        long totalRecords = countRecords(solr, filterQuery.toString());
+        System.out.println("Moving: " + totalRecords + " into core " + coreName);
+        log.info("Moving: " + totalRecords + " records into core " + coreName);
+
+        int batchSize = Math.max(1, ConfigurationManager.getIntProperty("solr-statistics", "shard.batch.size", 10000));
+        SolrQuery pageQuery = new SolrQuery("*:*");
+        pageQuery.addFilterQuery(filterQuery.toString());
+        pageQuery.setRows(batchSize);
+        pageQuery.setSort("uid", SolrQuery.ORDER.asc);
+
+        //Resume from the last page committed to the year core by an interrupted move
+        File checkpoint = new File(ConfigurationManager.getProperty("dspace.dir") + File.separator + "temp"
+                + File.separator + coreName + ".cursor");
+        String cursorMark = CursorMarkParams.CURSOR_MARK_START;
+        if (checkpoint.exists()) {
+            cursorMark = FileUtils.readFileToString(checkpoint, "UTF-8").trim();
+            log.info("Resuming the move into core " + coreName + " from the checkpoint " + checkpoint);
+        }
+
+        long copied = 0;
+        while (true) {
+            pageQuery.set(CursorMarkParams.CURSOR_MARK_PARAM, cursorMark);
+            QueryResponse page = solr.query(pageQuery);
+            List<SolrInputDocument> records = new ArrayList<SolrInputDocument>(page.getResults().size());
+            for (SolrDocument record : page.getResults()) {
+                SolrInputDocument input = ClientUtils.toSolrInputDocument(record);
+                //The year core assigns its own versions
+                input.removeField("_version_");
+                records.add(input);
+            }
+            if (!records.isEmpty()) {
+                statisticsYearServer.add(records);
+                copied += records.size();
+                //Commit now and then, so an interrupted move resumes close to where it stopped
+                if (copied % (batchSize * 10L) < records.size()) {
+                    statisticsYearServer.commit(true, true);
+                    FileUtils.writeStringToFile(checkpoint, page.getNextCursorMark(), "UTF-8");
+                    log.info("Moved " + copied + " records into core " + coreName);
+                }
             }
+            if (cursorMark.equals(page.getNextCursorMark())) {
+                break;
+            }
+            cursorMark = page.getNextCursorMark();
+        }
+        statisticsYearServer.commit(true, true);
 
-            for (File tempCsv : filesToUpload) {
-                //Upload the data in the csv files to our new solr core
-                ContentStreamUpdateRequest contentStreamUpdateRequest = new ContentStreamUpdateRequest("/update/csv");
-                contentStreamUpdateRequest.setParam("stream.contentType", "text/plain;charset=utf-8");
-	            contentStreamUpdateRequest.setParam("skip", "_version_");
-                contentStreamUpdateRequest.setAction(AbstractUpdateRequest.ACTION.COMMIT, true, true);
-                contentStreamUpdateRequest.addFile(tempCsv, "text/plain;charset=utf-8");
+        //Only delete the records from the main core when they all made it to the year core
+        long missingRecords = countMissingRecords(statisticsYearServer, filterQuery.toString(), batchSize);
+        if (0 < missingRecords) {
+            //The next run copies all the records of the year again
+            FileUtils.deleteQuietly(checkpoint);
+            throw new IOException("Core " + coreName + " misses " + missingRecords + " of the records of "
+                    + dcStart.getYear() + ", they are kept in the main core");
+        }
+        long movedRecords = countRecords(solr, filterQuery.toString());
+
+        //Delete contents of this year from our year query !
+        FileUtils.deleteQuietly(checkpoint);
+        solr.deleteByQuery(filterQuery.toString());
+        solr.commit(true, true);
+
+        log.info("Moved " + movedRecords + " records into core: " + coreName);
+        System.out.println("Moved " + movedRecords + " records into core: " + coreName);
+        return movedRecords;
+    }
 
-                statisticsYearServer.request(contentStreamUpdateRequest);
+    /**
+     * Count the records of the main core matching the filter query whose uid
+     * is not in the given core, comparing the uids page by page.
+     */
+    protected long countMissingRecords(HttpSolrServer server, String filterQuery, int batchSize) throws SolrServerException {
+        SolrQuery uidQuery = new SolrQuery("*:*");
+        uidQuery.addFilterQuery(filterQuery);
+        uidQuery.setFields("uid");
+        uidQuery.setRows(batchSize);
+        uidQuery.setSort("uid", SolrQuery.ORDER.asc);
+
+        long missing = 0;
+        String cursorMark = CursorMarkParams.CURSOR_MARK_START;
+        while (true) {
+            uidQuery.set(CursorMarkParams.CURSOR_MARK_PARAM, cursorMark);
+            QueryResponse page = solr.query(uidQuery);
+            if (!page.getResults().isEmpty()) {
+                List<String> uids = new ArrayList<String>(page.getResults().size());
+                for (SolrDocument record : page.getResults()) {
+                    uids.add(String.valueOf(record.getFieldValue("uid")));
+                }
+                SolrQuery presentQuery = new SolrQuery("{!terms f=uid}" + StringUtils.join(uids, ","));
+                presentQuery.setRows(0);
+                //A page of uids doesn't fit in a url
+                missing += uids.size() - server.query(presentQuery, SolrRequest.METHOD.POST).getResults().getNumFound();
             }
-            statisticsYearServer.commit(true, true);
+            if (cursorMark.equals(page.getNextCursorMark())) {
+                break;
+            }
+            cursorMark = page.getNextCursorMark();
+        }
+        return missing;
+    }
 
+    protected long countRecords(HttpSolrServer server, String filterQuery) throws SolrServerException {
+        SolrQuery countQuery = new SolrQuery("*:*");
+        countQuery.addFilterQuery(filterQuery);
+        countQuery.setRows(0);
+        return server.query(countQuery).getResults().getNumFound();
+    }
 
-            //Delete contents of this year from our year query !
-            solr.deleteByQuery(filterQuery.toString());
-            solr.commit(true, true);
+    /**
+     * Get a core which was created before, e.g. by an interrupted shard of the
+     * statistics, or create it.
+     */
+    protected HttpSolrServer getOrCreateCore(HttpSolrServer solr, String coreName) throws IOException, SolrServerException {
+        String baseSolrUrl = solr.getBaseURL().replace("statistics", "");
+        CoreAdminResponse status = CoreAdminRequest.getStatus(coreName, new HttpSolrServer(baseSolrUrl));
+        if (status.getCoreStatus(coreName) != null && status.getCoreStatus(coreName).get("instanceDir") != null) {
+            return new HttpSolrServer(baseSolrUrl + "/" + coreName);
+        }
+        return createCore(solr, coreName);
+    }
+
+    @Override
+    public void rollupStatistics(int days) throws IOException, SolrServerException
+    {
+        if (statisticsRollup == null)
+        {
+            System.out.println("The daily rollups are disabled, see solr-statistics.rollup.enabled");
+            return;
+        }
 
-            log.info("Moved " + totalRecords + " records into core: " + coreName);
+        Calendar today = DateUtils.truncate(Calendar.getInstance(TimeZone.getTimeZone("UTC")), Calendar.DAY_OF_MONTH);
+        Date from;
+        if (0 < days)
+        {
+            Calendar start = (Calendar) today.clone();
+            start.add(Calendar.DAY_OF_MONTH, -days);
+            from = start.getTime();
+        }
+        else
+        {
+            from = statisticsRollup.getRolledUpUntil(true);
+            if (from == null)
+            {
+                // the first run, starting from the day of the oldest hit
+                SolrQuery oldestQuery = new SolrQuery("*:*").setRows(1).setFields("time")
+                        .setSort("time", SolrQuery.ORDER.asc);
+                addAdditionalSolrYearCores(oldestQuery);
+                SolrDocumentList oldest = solr.query(oldestQuery).getResults();
+                from = today.getTime();
+                if (!oldest.isEmpty())
+                {
+                    Calendar oldestDay = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+                    oldestDay.setTime((Date) oldest.get(0).getFieldValue("time"));
+                    from = DateUtils.truncate(oldestDay, Calendar.DAY_OF_MONTH).getTime();
+                }
+                statisticsRollup.setRolledUpUntil(from);
+            }
         }
 
-        FileUtils.deleteDirectory(tempDirectory);
+        // today is still being added to by the usage events
+        System.out.println("Rolling up the usage events from " + DateFormatUtils.formatUTC(from, "yyyy-MM-dd")
+                + " until " + DateFormatUtils.formatUTC(today.getTime(), "yyyy-MM-dd"));
+        String shards = 0 < statisticYearCores.size() ? StringUtils.join(statisticYearCores.iterator(), ",") : null;
+        statisticsRollup.rollup(solr, shards, from, today.getTime());
     }
 
     protected HttpSolrServer createCore(HttpSolrServer solr, String coreName) throws IOException, SolrServerException {
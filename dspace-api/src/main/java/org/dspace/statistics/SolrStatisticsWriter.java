@@ -0,0 +1,317 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.statistics;
+
+import org.apache.log4j.Logger;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.common.SolrInputDocument;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Queues usage events and writes them to the statistics core in batches on a background thread,
+ * so logging a view doesn't block the request on solr.
+ * <p>
+ * When the queue is full, new events are either dropped immediately ({@link Overflow#DROP}) or the
+ * caller waits up to a configured time for room in the queue before the event is dropped
+ * ({@link Overflow#BLOCK}). The remaining events are written when the writer is shut down.
+ * <p>
+ * The events are written once {@link #start()} has been called. Before they are written, the
+ * events of a batch are completed by {@link #prepare(SolrInputDocument)} on a small pool of
+ * threads, so one slow lookup doesn't hold up the lookups of the other events.
+ */
+public class SolrStatisticsWriter implements Runnable
+{
+    private static final Logger log = Logger.getLogger(SolrStatisticsWriter.class);
+
+    /** What to do with an event when the queue is full */
+    public static enum Overflow
+    {
+        DROP,
+        BLOCK
+    }
+
+    protected final SolrServer solr;
+    protected final BlockingQueue<SolrInputDocument> queue;
+    protected final int batchSize;
+    protected final long flushInterval;
+    protected final Overflow overflow;
+    protected final long overflowTimeout;
+    protected final int prepareThreads;
+
+    protected final AtomicLong queued = new AtomicLong();
+    protected final AtomicLong flushed = new AtomicLong();
+    protected final AtomicLong dropped = new AtomicLong();
+    protected final AtomicLong failed = new AtomicLong();
+
+    protected volatile boolean running = true;
+    protected Thread flusher;
+    protected ExecutorService preparers;
+
+    /**
+     * @param solr            the statistics core
+     * @param queueSize       maximum number of events waiting to be written
+     * @param batchSize       maximum number of events written per request
+     * @param flushInterval   maximum time in milliseconds an event waits before it is written
+     * @param overflow        what to do when the queue is full
+     * @param overflowTimeout time in milliseconds to wait for room in the queue with {@link Overflow#BLOCK}
+     * @param prepareThreads  number of threads preparing the events of a batch, 1 to prepare them on the writer thread
+     */
+    public SolrStatisticsWriter(SolrServer solr, int queueSize, int batchSize, long flushInterval,
+                                Overflow overflow, long overflowTimeout, int prepareThreads)
+    {
+        this.solr = solr;
+        this.queue = new ArrayBlockingQueue<SolrInputDocument>(Math.max(1, queueSize));
+        this.batchSize = Math.max(1, batchSize);
+        this.flushInterval = Math.max(1, flushInterval);
+        this.overflow = overflow;
+        this.overflowTimeout = overflowTimeout;
+        this.prepareThreads = Math.max(1, prepareThreads);
+    }
+
+    /**
+     * Start writing the queued events on a background thread.
+     */
+    public synchronized void start()
+    {
+        if (flusher != null)
+        {
+            throw new IllegalStateException("The usage event writer has already been started");
+        }
+        if (1 < prepareThreads)
+        {
+            preparers = Executors.newFixedThreadPool(prepareThreads, new ThreadFactory()
+            {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable)
+                {
+                    Thread thread = new Thread(runnable, "solr-statistics-prepare-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        flusher = new Thread(this, "solr-statistics-writer");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Queue a usage event to be written to solr.
+     *
+     * @param doc the usage event
+     * @return <code>true</code> if the event was queued, <code>false</code> if it was dropped
+     */
+    public boolean add(SolrInputDocument doc)
+    {
+        boolean added = false;
+        if (running)
+        {
+            try {
+                if (overflow == Overflow.BLOCK)
+                {
+                    added = queue.offer(doc, overflowTimeout, TimeUnit.MILLISECONDS);
+                }
+                else
+                {
+                    added = queue.offer(doc);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (added)
+        {
+            queued.incrementAndGet();
+        }
+        else if (dropped.incrementAndGet() % 1000 == 1)
+        {
+            log.warn("Usage event queue is full, " + dropped.get() + " events dropped so far");
+        }
+        return added;
+    }
+
+    @Override
+    public void run()
+    {
+        List<SolrInputDocument> batch = new ArrayList<SolrInputDocument>(batchSize);
+        while (running || !queue.isEmpty())
+        {
+            try {
+                SolrInputDocument doc = queue.poll(flushInterval, TimeUnit.MILLISECONDS);
+                if (doc != null)
+                {
+                    batch.add(doc);
+                    queue.drainTo(batch, batchSize - 1);
+                    write(batch);
+                    batch.clear();
+                }
+            } catch (InterruptedException e) {
+                // stop waiting, write what is left in the queue
+                running = false;
+            } catch (RuntimeException e) {
+                log.error("Unexpected error while writing usage events", e);
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Write a batch of usage events to solr. Commits are left to the solr autocommit.
+     *
+     * @param batch the events to write
+     */
+    protected void write(List<SolrInputDocument> batch)
+    {
+        prepare(batch);
+
+        try {
+            solr.add(batch);
+            flushed.addAndGet(batch.size());
+        } catch (Exception e) {
+            failed.addAndGet(batch.size());
+            log.error("Unable to write " + batch.size() + " usage events: " + e.getMessage(), e);
+            return;
+        }
+        written(batch);
+    }
+
+    /**
+     * Prepare the events of a batch, on the pool of preparing threads if there is one.
+     *
+     * @param batch the events to prepare
+     */
+    protected void prepare(List<SolrInputDocument> batch)
+    {
+        if (preparers == null || batch.size() == 1)
+        {
+            for (SolrInputDocument doc : batch)
+            {
+                prepare(doc);
+            }
+            return;
+        }
+
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(batch.size());
+        for (final SolrInputDocument doc : batch)
+        {
+            tasks.add(Executors.callable(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    prepare(doc);
+                }
+            }));
+        }
+        try {
+            preparers.invokeAll(tasks);
+        } catch (InterruptedException e) {
+            // write the events as they are, the writer stops after this batch
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Hook to complete an event before it is sent to solr, on the writer thread or one of the
+     * preparing threads.
+     * Used for expensive lookups which don't need the request.
+     *
+     * @param doc the usage event
+     */
+    protected void prepare(SolrInputDocument doc)
+    {
+    }
+
+    /**
+     * Hook called on the writer thread once a batch of events has been written to solr.
+     *
+     * @param batch the events which were written
+     */
+    protected void written(List<SolrInputDocument> batch)
+    {
+    }
+
+    /**
+     * Stop accepting events and wait for the queued events to be written.
+     *
+     * @param timeout maximum time in milliseconds to wait for the queue to be written
+     */
+    public void shutdown(long timeout)
+    {
+        // the flusher notices within one flush interval and writes the rest of the queue
+        running = false;
+        Thread writer;
+        synchronized (this)
+        {
+            writer = flusher;
+        }
+        if (writer == null)
+        {
+            // never started, write the queue on this thread
+            run();
+        }
+        else
+        {
+            try {
+                writer.join(timeout);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (preparers != null)
+        {
+            preparers.shutdown();
+        }
+        log.info("Usage event writer stopped: " + queued.get() + " queued, " + flushed.get() + " written, "
+                + dropped.get() + " dropped, " + failed.get() + " failed, " + queue.size() + " left in the queue");
+    }
+
+    /** @return the number of events accepted in the queue */
+    public long getQueuedCount()
+    {
+        return queued.get();
+    }
+
+    /** @return the number of events written to solr */
+    public long getFlushedCount()
+    {
+        return flushed.get();
+    }
+
+    /** @return the number of events dropped because the queue was full */
+    public long getDroppedCount()
+    {
+        return dropped.get();
+    }
+
+    /** @return the number of events solr failed to store */
+    public long getFailedCount()
+    {
+        return failed.get();
+    }
+
+    /** @return the number of events currently waiting to be written */
+    public int getQueueSize()
+    {
+        return queue.size();
+    }
+}
@@ -0,0 +1,781 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.statistics;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.response.FieldStatsInfo;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.client.solrj.util.ClientUtils;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.SolrInputField;
+import org.apache.solr.common.params.CursorMarkParams;
+import org.apache.solr.common.params.ShardParams;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Daily rollups of the usage events: the number of hits per day, object,
+ * statistics type, country and bundle, kept in a solr core of their own. A
+ * rollup holds the fields of its hits listed in {@link #FIELDS} and the number
+ * of hits in the <code>count</code> field. Hits of robots are left out.
+ * <p>
+ * The rollups of past days are computed from the hits by {@link #rollup}, the
+ * hits of today are added as they are written by {@link #add}. Added hits of a
+ * day which has been rolled up meanwhile are dropped, as the rollup already
+ * counts them, and a day is only rolled up once its hits have been flushed.
+ * Reports which
+ * only search these fields and don't need more than a day's precision are
+ * answered from the rollups with {@link #sum}, see {@link #canAnswer}.
+ * <p>
+ * The rollups of the days before the state are complete. The later days are
+ * only counted by the added hits, so reports which include them are answered
+ * from the rollups once a run of {@link #rollup} got up to the days still
+ * being flushed, and while no flush of this process has failed since.
+ */
+public class StatisticsRollup
+{
+    private static final Logger log = Logger.getLogger(StatisticsRollup.class);
+
+    /** Fields of a hit which identify its rollup, besides the day */
+    protected static final String[] KEY_FIELDS = {"type", "id", "countryCode", "statistics_type", "bundleName"};
+
+    /** Fields of a hit copied into its rollup, they only depend on the object */
+    protected static final String[] COPIED_FIELDS = {"owningComm", "owningColl", "owningItem"};
+
+    /** Fields which can be searched in the rollups */
+    public static final Set<String> FIELDS = new HashSet<String>(Arrays.asList(
+            "type", "id", "countryCode", "statistics_type", "bundleName", "owningComm", "owningColl", "owningItem",
+            "time"));
+
+    /** Fields of the rollups which can be counted by value, they hold one value at most */
+    public static final Set<String> FACET_FIELDS = new HashSet<String>(Arrays.asList(
+            "type", "id", "countryCode", "statistics_type"));
+
+    /** Field holding the number of hits of a rollup */
+    public static final String COUNT_FIELD = "count";
+
+    /** Unique key of the document recording until which day the rollups are complete */
+    protected static final String STATE_UID = "rollup-state";
+
+    /**
+     * Unique key of the document recording that a run of {@link #rollup} got up
+     * to the days still being flushed. Like the state it has {@link #STATE_UID}
+     * as its statistics type.
+     */
+    protected static final String COMPLETE_UID = "rollup-complete";
+
+    /** Time in milliseconds the state is cached */
+    protected static final long STATE_TTL = 60000;
+
+    /** Field names used in a query */
+    protected static final Pattern QUERY_FIELD = Pattern.compile("([A-Za-z_][A-Za-z0-9_]*)\\s*:");
+
+    /** Dates and date math used in a query */
+    protected static final Pattern QUERY_DATE = Pattern.compile("\\d{4}-\\d{2}-\\d{2}T[^\\s\\]}),]*|NOW[^\\s\\]}),]*");
+
+    /** Date ranges of the time field, the end is the second group */
+    protected static final Pattern TIME_RANGE = Pattern.compile(
+            "time\\s*:\\s*[\\[{]\\s*(\\S+)\\s+TO\\s+([^\\s\\]}]+)\\s*[\\]}]");
+
+    /** Dates which fall on the start of a day */
+    protected static final Pattern DAY_DATE = Pattern.compile(
+            "\\d{4}-\\d{2}-\\d{2}T00\\\\?:00\\\\?:00(\\.0+)?Z|NOW/(DAY|MONTH|YEAR)([+-]\\d+(DAY|MONTH|YEAR)S?)*");
+
+    protected final SolrServer rollups;
+
+    protected final long flushInterval;
+
+    protected final int batchSize;
+
+    /** Hits added since the last flush, by rollup key, with the number of hits in the count field */
+    private Map<String, SolrInputDocument> pending = new HashMap<String, SolrInputDocument>();
+
+    /** Flushes the added hits every flush interval, started when the first hits are added */
+    private ScheduledExecutorService timer;
+
+    private Date rolledUpUntil;
+
+    /** Whether a run of {@link #rollup} got up to the days still being flushed */
+    private boolean runComplete = false;
+
+    /** The first day of the rollups a flush failed to write, or null */
+    private Date flushFailedSince;
+
+    private long stateRead = 0;
+
+    /**
+     * @param rollups       the core holding the rollups
+     * @param flushInterval maximum time in milliseconds the added hits are kept before they are written
+     * @param batchSize     number of hits read and rollups written per request by {@link #rollup}
+     */
+    public StatisticsRollup(SolrServer rollups, long flushInterval, int batchSize)
+    {
+        this.rollups = rollups;
+        this.flushInterval = flushInterval;
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Add a stored hit to the rollup of its day. The rollups are written by
+     * {@link #flush()}, which runs every flush interval.
+     *
+     * @param hit the usage event
+     */
+    public void add(SolrInputDocument hit)
+    {
+        add(Collections.singletonList(hit));
+        if (flushInterval <= 0)
+        {
+            flush();
+        }
+    }
+
+    /**
+     * Add stored hits to the rollups of their day, to be written by {@link #flush()}.
+     *
+     * @param hits the usage events
+     */
+    public synchronized void add(List<SolrInputDocument> hits)
+    {
+        for (SolrInputDocument hit : hits)
+        {
+            Object isBot = hit.getFieldValue("isBot");
+            Object time = hit.getFieldValue("time");
+            if (isBot != null && Boolean.parseBoolean(isBot.toString()) || time == null)
+            {
+                continue;
+            }
+            addTo(pending, getDay(time), hit);
+        }
+        if (timer == null && flushInterval > 0 && !pending.isEmpty())
+        {
+            startTimer();
+        }
+    }
+
+    private void startTimer()
+    {
+        timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "statistics-rollup-flush");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        timer.scheduleWithFixedDelay(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    flush();
+                }
+                catch (RuntimeException e)
+                {
+                    log.error("Unable to flush the rollups", e);
+                }
+            }
+        }, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop flushing every flush interval, and write the hits added so far.
+     */
+    public void shutdown()
+    {
+        synchronized (this)
+        {
+            if (timer != null)
+            {
+                timer.shutdown();
+                timer = null;
+            }
+        }
+        flush();
+    }
+
+    /**
+     * Write the hits added since the last flush as increments of the rollups.
+     * When the rollups can't be written the hits are only counted by the next
+     * {@link #rollup} of their day. The hits of days which have been rolled up
+     * since they were added are dropped, they are counted already.
+     */
+    public void flush()
+    {
+        Map<String, SolrInputDocument> flushed;
+        synchronized (this)
+        {
+            flushed = pending;
+            pending = new HashMap<String, SolrInputDocument>();
+        }
+        if (flushed.isEmpty())
+        {
+            return;
+        }
+
+        // today is never rolled up, so the state is only needed for the hits of past days
+        String today = formatDay(new Date());
+        Date complete = null;
+        for (SolrInputDocument rollup : flushed.values())
+        {
+            if (!today.equals(rollup.getFieldValue("time")))
+            {
+                complete = getRolledUpUntil(true);
+                break;
+            }
+        }
+
+        List<SolrInputDocument> updates = new ArrayList<SolrInputDocument>(flushed.size());
+        Date firstDay = null;
+        for (SolrInputDocument rollup : flushed.values())
+        {
+            Date day = parseDay(rollup.getFieldValue("time").toString());
+            if (complete != null && day.before(complete))
+            {
+                log.debug("Dropping " + rollup.getFieldValue(COUNT_FIELD) + " hits of " + rollup.getFieldValue("uid")
+                        + ", their day has been rolled up");
+                continue;
+            }
+            SolrInputDocument update = new SolrInputDocument();
+            for (String field : rollup.getFieldNames())
+            {
+                if ("uid".equals(field))
+                {
+                    update.addField(field, rollup.getFieldValue(field));
+                }
+                else if (COUNT_FIELD.equals(field))
+                {
+                    update.addField(field, Collections.singletonMap("inc", rollup.getFieldValue(field)));
+                }
+                else
+                {
+                    update.addField(field, Collections.singletonMap("set", rollup.getFieldValues(field)));
+                }
+            }
+            updates.add(update);
+            if (firstDay == null || day.before(firstDay))
+            {
+                firstDay = day;
+            }
+        }
+        if (updates.isEmpty())
+        {
+            return;
+        }
+
+        try
+        {
+            rollups.add(updates);
+        }
+        catch (Exception e)
+        {
+            log.error("Unable to add the hits to " + updates.size() + " rollups: " + e.getMessage(), e);
+            // the rollups of these days miss hits until they are rolled up again
+            synchronized (this)
+            {
+                if (flushFailedSince == null || firstDay.before(flushFailedSince))
+                {
+                    flushFailedSince = firstDay;
+                }
+            }
+        }
+    }
+
+    /**
+     * Recompute the rollups of the given days from the hits. The days are
+     * processed in order; when the rollups were complete up to a processed day
+     * they are complete up to the day after it once it is done, so an
+     * interrupted run can be resumed. A day which ended less than two flush
+     * intervals ago is left for the next run, as its last hits may still be
+     * waiting to be flushed.
+     *
+     * @param statistics the core holding the hits
+     * @param shards     the shards of the statistics, or null
+     * @param from       the first day
+     * @param until      the day after the last day
+     * @throws IOException
+     * @throws SolrServerException
+     */
+    public void rollup(SolrServer statistics, String shards, Date from, Date until)
+            throws IOException, SolrServerException
+    {
+        Date complete = getRolledUpUntil(true);
+        Date flushed = new Date(System.currentTimeMillis() - 2 * Math.max(flushInterval, 0));
+        Date stopped = until;
+        Calendar day = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        day.setTime(from);
+        while (day.getTime().before(until))
+        {
+            long start = System.currentTimeMillis();
+            String dayStart = formatDay(day.getTime());
+            day.add(Calendar.DAY_OF_MONTH, 1);
+            if (day.getTime().after(flushed))
+            {
+                log.info("The hits of " + dayStart + " may not all have been flushed yet, it is left for the next run");
+                stopped = parseDay(dayStart);
+                break;
+            }
+            String dayRange = "time:[" + dayStart + " TO " + formatDay(day.getTime()) + "}";
+
+            Map<String, SolrInputDocument> dayRollups = new HashMap<String, SolrInputDocument>();
+            SolrQuery query = new SolrQuery("*:*");
+            query.addFilterQuery(dayRange);
+            query.addFilterQuery("-isBot:true");
+            query.setFields(StringUtils.join(KEY_FIELDS, ",") + "," + StringUtils.join(COPIED_FIELDS, ","));
+            query.setRows(batchSize);
+            query.setSort("uid", SolrQuery.ORDER.asc);
+            if (shards != null)
+            {
+                query.set(ShardParams.SHARDS, shards);
+            }
+            long hits = 0;
+            String cursorMark = CursorMarkParams.CURSOR_MARK_START;
+            while (true)
+            {
+                query.set(CursorMarkParams.CURSOR_MARK_PARAM, cursorMark);
+                QueryResponse response = statistics.query(query);
+                for (SolrDocument hit : response.getResults())
+                {
+                    addTo(dayRollups, dayStart, hit);
+                }
+                hits += response.getResults().size();
+                if (cursorMark.equals(response.getNextCursorMark()))
+                {
+                    break;
+                }
+                cursorMark = response.getNextCursorMark();
+            }
+
+            rollups.deleteByQuery(dayRange + " -statistics_type:" + ClientUtils.escapeQueryChars(STATE_UID));
+            List<SolrInputDocument> batch = new ArrayList<SolrInputDocument>(batchSize);
+            for (SolrInputDocument rollup : dayRollups.values())
+            {
+                batch.add(rollup);
+                if (batch.size() == batchSize)
+                {
+                    rollups.add(batch);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty())
+            {
+                rollups.add(batch);
+            }
+
+            if (complete != null && complete.equals(parseDay(dayStart)))
+            {
+                complete = day.getTime();
+                addState(complete);
+            }
+            rollups.commit();
+
+            log.info("Rolled up " + hits + " hits of " + dayStart + " into " + dayRollups.size() + " rollups in "
+                    + (System.currentTimeMillis() - start) + " ms");
+        }
+
+        // the run got up to the days whose hits may still be flushed, from now
+        // on the days after the state are kept up to date by the added hits
+        boolean done = complete != null && !complete.before(stopped)
+                && !stopped.before(parseDay(formatDay(flushed)));
+        if (done && !isRunComplete())
+        {
+            SolrInputDocument state = new SolrInputDocument();
+            state.addField("uid", COMPLETE_UID);
+            state.addField("statistics_type", STATE_UID);
+            state.addField("time", formatDay(complete));
+            rollups.add(state);
+            rollups.commit();
+        }
+
+        synchronized (this)
+        {
+            rolledUpUntil = complete;
+            runComplete = runComplete || done;
+            stateRead = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Record that there are no hits before the given day, so the rollups are
+     * complete up to that day.
+     *
+     * @param day the first day with hits
+     * @throws IOException
+     * @throws SolrServerException
+     */
+    public void setRolledUpUntil(Date day) throws IOException, SolrServerException
+    {
+        addState(day);
+        rollups.commit();
+        synchronized (this)
+        {
+            rolledUpUntil = day;
+            stateRead = System.currentTimeMillis();
+        }
+    }
+
+    private void addState(Date rolledUpUntil) throws IOException, SolrServerException
+    {
+        SolrInputDocument state = new SolrInputDocument();
+        state.addField("uid", STATE_UID);
+        state.addField("statistics_type", STATE_UID);
+        state.addField("time", formatDay(rolledUpUntil));
+        rollups.add(state);
+    }
+
+    /**
+     * @param refresh whether to read the state from solr, instead of the cached state
+     * @return the day until which the rollups are complete, or null if they were never computed
+     */
+    public synchronized Date getRolledUpUntil(boolean refresh)
+    {
+        readState(refresh);
+        return rolledUpUntil;
+    }
+
+    /**
+     * @return whether a run of {@link #rollup} got up to the days still being
+     *         flushed, so the added hits keep the rollups of the days after the
+     *         state up to date
+     */
+    public synchronized boolean isRunComplete()
+    {
+        readState(false);
+        return runComplete;
+    }
+
+    private void readState(boolean refresh)
+    {
+        if (refresh || System.currentTimeMillis() - stateRead > STATE_TTL)
+        {
+            rolledUpUntil = null;
+            runComplete = false;
+            try
+            {
+                QueryResponse response = rollups.query(
+                        new SolrQuery("statistics_type:" + ClientUtils.escapeQueryChars(STATE_UID)).setRows(2));
+                for (SolrDocument state : response.getResults())
+                {
+                    if (STATE_UID.equals(state.getFieldValue("uid")))
+                    {
+                        rolledUpUntil = (Date) state.getFieldValue("time");
+                    }
+                    else if (COMPLETE_UID.equals(state.getFieldValue("uid")))
+                    {
+                        runComplete = true;
+                    }
+                }
+            }
+            catch (SolrServerException e)
+            {
+                log.error("Unable to read the state of the rollups", e);
+            }
+            stateRead = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Whether a report can be answered from the rollups: the queries only
+     * search fields of the rollups and dates on the start of a day, the facet
+     * field holds one value per rollup, the dates are counted by day or
+     * coarser, and the rollups of the counted days are complete. They are when
+     * the dates end before the state, or when a run got up to the days still
+     * being flushed and no flush failed for a day which hasn't been rolled up
+     * since.
+     *
+     * @param query       the query
+     * @param filterQuery the filter query, or null
+     * @param facetField  the field whose values are counted, or null
+     * @param dateType    the unit the dates are counted by, or null
+     * @param until       the day after the last day counted by the dates, or null if
+     *                    only the queries limit them
+     * @return true if the report can be answered from the rollups
+     */
+    public boolean canAnswer(String query, String filterQuery, String facetField, String dateType, Date until)
+    {
+        if (facetField != null && !FACET_FIELDS.contains(facetField))
+        {
+            return false;
+        }
+        if (dateType != null && !("DAY".equalsIgnoreCase(dateType) || "MONTH".equalsIgnoreCase(dateType)
+                || "YEAR".equalsIgnoreCase(dateType)))
+        {
+            return false;
+        }
+        if (!isRollupQuery(query) || !isRollupQuery(filterQuery))
+        {
+            return false;
+        }
+
+        Date end = until;
+        for (Date queryEnd : new Date[] {getRangeEnd(query), getRangeEnd(filterQuery)})
+        {
+            if (queryEnd != null && (end == null || queryEnd.before(end)))
+            {
+                end = queryEnd;
+            }
+        }
+        synchronized (this)
+        {
+            Date complete = getRolledUpUntil(false);
+            if (complete == null)
+            {
+                return false;
+            }
+            if (end != null && !end.after(complete))
+            {
+                return true;
+            }
+            return isRunComplete() && (flushFailedSince == null || flushFailedSince.before(complete));
+        }
+    }
+
+    /**
+     * The day after the last day a query searches, for the rollups. Date
+     * ranges which are combined otherwise than by AND make the latest end
+     * count.
+     *
+     * @param query the query
+     * @return the latest end of the date ranges of the query, or null if it has
+     *         none, or one which doesn't end on a given day
+     */
+    protected Date getRangeEnd(String query)
+    {
+        if (query == null)
+        {
+            return null;
+        }
+        Date end = null;
+        Matcher range = TIME_RANGE.matcher(query);
+        while (range.find())
+        {
+            String rangeEnd = range.group(2);
+            if (!Character.isDigit(rangeEnd.charAt(0)) || !DAY_DATE.matcher(rangeEnd).matches())
+            {
+                // open ended, or relative to now
+                return null;
+            }
+            Date day = parseDay(rangeEnd);
+            if (end == null || day.after(end))
+            {
+                end = day;
+            }
+        }
+        return end;
+    }
+
+    protected boolean isRollupQuery(String query)
+    {
+        if (query == null)
+        {
+            return true;
+        }
+        Matcher date = QUERY_DATE.matcher(query);
+        while (date.find())
+        {
+            if (!DAY_DATE.matcher(date.group()).matches())
+            {
+                return false;
+            }
+        }
+        // the colons of the dates don't separate field names
+        Matcher field = QUERY_FIELD.matcher(date.replaceAll(""));
+        while (field.find())
+        {
+            if (!FIELDS.contains(field.group(1)))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Rewrite the bounds of the date ranges of a query for the rollups, which
+     * are dated on the start of their day: an inclusive upper bound on the
+     * start of a day leaves that day out, an exclusive lower bound keeps it.
+     *
+     * @param query the query
+     * @return the query for the rollups
+     */
+    protected String toRollupQuery(String query)
+    {
+        String date = "(" + DAY_DATE.pattern() + ")";
+        return query.replaceAll("(TO\\s+" + date + ")\\s*\\]", "$1}")
+                .replaceAll("\\{\\s*" + date, "[$1");
+    }
+
+    /**
+     * Sum the number of hits of the rollups matching the queries.
+     *
+     * @param query         the query
+     * @param filterQueries the filter queries
+     * @param facetField    the field whose values are summed separately, or null
+     * @return the sums by value of the facet field, with the total under the null key
+     * @throws SolrServerException
+     */
+    public Map<String, Long> sum(String query, List<String> filterQueries, String facetField)
+            throws SolrServerException
+    {
+        SolrQuery solrQuery = new SolrQuery(toRollupQuery(query)).setRows(0);
+        for (String filterQuery : filterQueries)
+        {
+            solrQuery.addFilterQuery(toRollupQuery(filterQuery));
+        }
+        solrQuery.addFilterQuery("-statistics_type:" + ClientUtils.escapeQueryChars(STATE_UID));
+        solrQuery.setGetFieldStatistics(COUNT_FIELD);
+        if (facetField != null)
+        {
+            solrQuery.addStatsFieldFacets(COUNT_FIELD, facetField);
+        }
+
+        Map<String, Long> sums = new LinkedHashMap<String, Long>();
+        FieldStatsInfo stats = rollups.query(solrQuery).getFieldStatsInfo().get(COUNT_FIELD);
+        sums.put(null, stats == null ? 0 : toLong(stats.getSum()));
+        if (stats != null && facetField != null && stats.getFacets() != null
+                && stats.getFacets().get(facetField) != null)
+        {
+            for (FieldStatsInfo value : stats.getFacets().get(facetField))
+            {
+                long sum = toLong(value.getSum());
+                if (value.getName() != null && 0 < sum)
+                {
+                    sums.put(value.getName(), sum);
+                }
+            }
+        }
+        return sums;
+    }
+
+    protected long toLong(Object sum)
+    {
+        return sum instanceof Number ? ((Number) sum).longValue() : 0;
+    }
+
+    /**
+     * Add a hit to the rollup with its key in the given rollups.
+     */
+    protected void addTo(Map<String, SolrInputDocument> dayRollups, String day, Map<String, ?> hit)
+    {
+        StringBuilder key = new StringBuilder(day);
+        for (String field : KEY_FIELDS)
+        {
+            key.append('/').append(getValue(hit.get(field)));
+        }
+
+        SolrInputDocument rollup = dayRollups.get(key.toString());
+        if (rollup == null)
+        {
+            rollup = new SolrInputDocument();
+            rollup.addField("uid", key.toString());
+            rollup.addField("time", day);
+            for (String field : KEY_FIELDS)
+            {
+                addValues(rollup, field, hit.get(field));
+            }
+            for (String field : COPIED_FIELDS)
+            {
+                addValues(rollup, field, hit.get(field));
+            }
+            rollup.addField(COUNT_FIELD, 0L);
+            dayRollups.put(key.toString(), rollup);
+        }
+        rollup.setField(COUNT_FIELD, (Long) rollup.getFieldValue(COUNT_FIELD) + 1);
+    }
+
+    private void addValues(SolrInputDocument rollup, String field, Object value)
+    {
+        for (Object single : getValues(value))
+        {
+            rollup.addField(field, single);
+        }
+    }
+
+    /**
+     * The values of a field of a hit: a SolrInputField when the hit is being
+     * written, a value or collection of values when it was read from solr.
+     */
+    private Collection<?> getValues(Object value)
+    {
+        if (value instanceof SolrInputField)
+        {
+            value = ((SolrInputField) value).getValues();
+        }
+        if (value == null)
+        {
+            return Collections.emptyList();
+        }
+        if (value instanceof Collection)
+        {
+            return (Collection<?>) value;
+        }
+        return Collections.singletonList(value);
+    }
+
+    private String getValue(Object value)
+    {
+        List<String> values = new ArrayList<String>();
+        for (Object single : getValues(value))
+        {
+            values.add(single.toString());
+        }
+        Collections.sort(values);
+        return StringUtils.join(values, ",");
+    }
+
+    /**
+     * @param time the time of a hit, as a date or as the string it is written with
+     * @return the start of the day of the hit, as written to solr
+     */
+    protected String getDay(Object time)
+    {
+        if (time instanceof Date)
+        {
+            return formatDay((Date) time);
+        }
+        return time.toString().substring(0, 10) + "T00:00:00Z";
+    }
+
+    protected static String formatDay(Date day)
+    {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'00:00:00'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(day);
+    }
+
+    protected static Date parseDay(String day)
+    {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        try
+        {
+            return format.parse(day.substring(0, 10));
+        }
+        catch (java.text.ParseException e)
+        {
+            throw new IllegalArgumentException("Not a day: " + day, e);
+        }
+    }
+}
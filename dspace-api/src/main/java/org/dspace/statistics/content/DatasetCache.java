@@ -0,0 +1,111 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.statistics.content;
+
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.dspace.services.ConfigurationService;
+import org.dspace.services.factory.DSpaceServicesFactory;
+import org.dspace.statistics.Dataset;
+
+/**
+ * Process wide cache of the datasets of the statistics pages, so repeated
+ * views of the same page don't query solr again. A dataset is identified by a
+ * key describing its queries, filters and date window (see
+ * {@link StatisticsDataVisits#getCacheKey}), and kept for
+ * <code>solr-statistics.dataset.cache.ttl</code> seconds (0 disables the
+ * cache). At most <code>solr-statistics.dataset.cache.size</code> datasets are
+ * kept, the least recently used are dropped first.
+ * <p>
+ * The cached datasets are shared, callers must not change them.
+ */
+public class DatasetCache
+{
+    private static final DatasetCache instance = new DatasetCache();
+
+    protected final ConfigurationService configurationService;
+
+    /** Cached datasets by key, least recently used first */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    protected DatasetCache()
+    {
+        configurationService = DSpaceServicesFactory.getInstance().getConfigurationService();
+    }
+
+    public static DatasetCache getInstance()
+    {
+        return instance;
+    }
+
+    /**
+     * @param key
+     *            key of the dataset
+     * @return the cached dataset, or null if it isn't cached or has expired
+     */
+    public synchronized Dataset get(String key)
+    {
+        Entry entry = entries.get(key);
+        if (entry == null)
+        {
+            return null;
+        }
+        if (entry.expires - System.currentTimeMillis() < 0)
+        {
+            entries.remove(key);
+            return null;
+        }
+        return entry.dataset;
+    }
+
+    /**
+     * Cache a dataset, unless caching is disabled.
+     *
+     * @param key
+     *            key of the dataset
+     * @param dataset
+     *            the dataset
+     */
+    public synchronized void put(String key, Dataset dataset)
+    {
+        long ttl = configurationService.getIntProperty("solr-statistics.dataset.cache.ttl", 300);
+        int size = configurationService.getIntProperty("solr-statistics.dataset.cache.size", 100);
+        if (ttl <= 0 || size <= 0)
+        {
+            return;
+        }
+
+        entries.put(key, new Entry(dataset, System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(ttl)));
+        while (entries.size() > size)
+        {
+            entries.remove(entries.keySet().iterator().next());
+        }
+    }
+
+    /**
+     * Drop all cached datasets.
+     */
+    public synchronized void clear()
+    {
+        entries.clear();
+    }
+
+    private static class Entry
+    {
+        private final Dataset dataset;
+
+        private final long expires;
+
+        private Entry(Dataset dataset, long expires)
+        {
+            this.dataset = dataset;
+            this.expires = expires;
+        }
+    }
+}
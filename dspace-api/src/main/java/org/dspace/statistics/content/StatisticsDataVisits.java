@@ -184,8 +184,13 @@ public class StatisticsDataVisits extends StatisticsData
 
 //        System.out.println("FILTERQUERY: " + filterQuery);
 
-        // We determine our values on the queries resolved above
-        Dataset dataset = null;
+        // The same statistics were shown a moment ago
+        String cacheKey = getCacheKey(context, datasetQueries, dateFacet, showTotal, filterQuery);
+        Dataset dataset = DatasetCache.getInstance().get(cacheKey);
+        if (dataset != null)
+        {
+            return dataset;
+        }
 
         // Run over our queries.
         // First how many queries do we have ?
@@ -213,11 +218,15 @@ public class StatisticsDataVisits extends StatisticsData
                     }else{
                         // We need to get the max objects and the next part of the query on them (next part beeing the datasettimequery
                         ObjectCount[] maxObjectCounts = solrLoggerService.queryFacetField(query, filterQuery, dataSetQuery.getFacetField(), dataSetQuery.getMax(), false, null);
+                        // Count the dates of all max objects at once
+                        List<String> maxObjects = new ArrayList<String>(maxObjectCounts.length);
+                        for (ObjectCount maxObjectCount : maxObjectCounts) {
+                            maxObjects.add(maxObjectCount.getValue());
+                        }
+                        Map<String, ObjectCount[]> dateFacetCounts = solrLoggerService.queryFacetDate(query, filterQuery, dataSetQuery.getFacetField(), maxObjects, dateFacet.getDateType(), dateFacet.getStartDate(), dateFacet.getEndDate(), showTotal, context);
                         for (int j = 0; j < maxObjectCounts.length; j++) {
                             ObjectCount firstCount = maxObjectCounts[j];
-                            String newQuery = dataSetQuery.getFacetField() + ": " + ClientUtils.escapeQueryChars(firstCount.getValue()) + " AND " + query;
-                            ObjectCount[] maxDateFacetCounts = solrLoggerService.queryFacetDate(newQuery, filterQuery, dataSetQuery.getMax(), dateFacet.getDateType(), dateFacet.getStartDate(), dateFacet.getEndDate(), showTotal, context);
-
+                            ObjectCount[] maxDateFacetCounts = dateFacetCounts.get(firstCount.getValue());
 
                             // Make sure we have a dataSet
                             if(dataset == null)
@@ -379,9 +388,40 @@ public class StatisticsDataVisits extends StatisticsData
         {
             dataset = new Dataset(0, 0);
         }
+        DatasetCache.getInstance().put(cacheKey, dataset);
         return dataset;
     }
 
+    /**
+     * Key of the dataset in the {@link DatasetCache}: everything which makes
+     * up the solr queries, and the locale of the labels.
+     */
+    protected String getCacheKey(Context context, List<DatasetQuery> datasetQueries,
+            DatasetTimeGenerator dateFacet, boolean showTotal, String filterQuery)
+    {
+        StringBuilder key = new StringBuilder(getClass().getName());
+        for (DatasetGenerator datasetGenerator : getDatasetGenerators()) {
+            key.append('|').append(datasetGenerator.getClass().getSimpleName());
+        }
+        for (DatasetQuery datasetQuery : datasetQueries) {
+            key.append('|').append(datasetQuery.getName())
+                    .append(',').append(datasetQuery.getFacetField())
+                    .append(',').append(datasetQuery.getMax());
+            for (Query query : datasetQuery.getQueries()) {
+                key.append(',').append(query.getQuery()).append(',').append(query.getDsoLength());
+            }
+        }
+        if (dateFacet != null) {
+            key.append("|date,").append(dateFacet.getDateType())
+                    .append(',').append(dateFacet.getStartDate())
+                    .append(',').append(dateFacet.getEndDate());
+        }
+        key.append('|').append(showTotal)
+                .append('|').append(filterQuery)
+                .append('|').append(context.getCurrentLocale());
+        return key.toString();
+    }
+
     protected void processAxis(Context context, DatasetGenerator datasetGenerator, List<DatasetQuery> queries) throws SQLException {
         if(datasetGenerator instanceof DatasetDSpaceObjectGenerator){
             DatasetDSpaceObjectGenerator dspaceObjAxis = (DatasetDSpaceObjectGenerator) datasetGenerator;
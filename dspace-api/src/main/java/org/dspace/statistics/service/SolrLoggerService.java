@@ -167,6 +167,37 @@ public interface SolrLoggerService {
             String filterQuery, int max, String dateType, String dateStart,
             String dateEnd, boolean showTotal, Context context) throws SolrServerException;
 
+    /**
+     * Query used to get the values of several values of a field grouped by
+     * the date, in one request instead of a date facet query per value.
+     *
+     * @param query
+     *            the query to be used
+     * @param facetField
+     *            the field holding the values
+     * @param facetValues
+     *            the values to count
+     * @param dateType
+     *            the type to be used (example: DAY, MONTH, YEAR)
+     * @param dateStart
+     *            the start date Format:(-3, -2, ..) the date is calculated
+     *            relatively on today
+     * @param dateEnd
+     *            the end date stop Format (-2, +1, ..) the date is calculated
+     *            relatively on today
+     * @param showTotal
+     *            a boolean determining whether the total amount should be given
+     *            back as the last element of each array
+     * @return the results of each value, by value, with a count for every date
+     *         in the range, also when it is 0
+     * @throws SolrServerException
+     *             ...
+     */
+    public Map<String, ObjectCount[]> queryFacetDate(String query,
+            String filterQuery, String facetField, List<String> facetValues,
+            String dateType, String dateStart, String dateEnd,
+            boolean showTotal, Context context) throws SolrServerException;
+
     public Map<String, Integer> queryFacetQuery(String query,
             String filterQuery, List<String> facetQueries)
             throws SolrServerException;
@@ -194,6 +225,19 @@ public interface SolrLoggerService {
 
     public void shardSolrIndex() throws IOException, SolrServerException;
 
+    /**
+     * Compute the daily rollups of the usage events from the events, up to
+     * yesterday. Reports are answered from the rollups once they have been
+     * computed for all past days.
+     *
+     * @param days
+     *            the number of past days to compute again, or 0 to continue
+     *            from the last day which was computed
+     * @throws IOException
+     * @throws SolrServerException
+     */
+    public void rollupStatistics(int days) throws IOException, SolrServerException;
+
     public void reindexBitstreamHits(boolean removeDeletedBitstreams) throws Exception;
 
     /**
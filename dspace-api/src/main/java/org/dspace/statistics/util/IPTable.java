@@ -7,181 +7,504 @@
  */
 package org.dspace.statistics.util;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
-import java.util.Map;
+import java.util.List;
 import java.util.Set;
 
 /**
- * A Spare v4 IPTable implementation that uses nested HashMaps
- * to optimize IP address matching over ranges of IP addresses.
+ * A table of IPv4 and IPv6 address ranges, used to match client addresses
+ * against the spider address lists.
+ * <p>
+ * Addresses are stored as 128 bit numbers, IPv4 addresses as IPv4-mapped IPv6
+ * addresses (::ffff:a.b.c.d). Added ranges are collected and, on the first
+ * lookup after a change, sorted and merged into arrays of disjoint ranges, so
+ * loading a large list costs a single sort. Lookups are a binary search over
+ * these arrays and don't allocate.
+ * <p>
+ * The table can be read by several threads at once. Changes are visible to
+ * lookups which start after the change.
  *
  * @author mdiggory at atmire.com
  */
 public class IPTable {
 
-    /* A lookup tree for IP addresses and SubnetRanges */
-    private Map<String, Map<String, Map<String, Set<String>>>> map =
-            new HashMap<String, Map<String, Map<String, Set<String>>>>();
+    /** Upper 64 bits of the IPv4-mapped addresses */
+    private static final long IPV4_HIGH = 0L;
+
+    /** Lower 64 bits of the IPv4-mapped address ::ffff:0.0.0.0 */
+    private static final long IPV4_LOW = 0xFFFF00000000L;
+
+    /** Ranges added since the last lookup, as {startHigh, startLow, endHigh, endLow} */
+    private final List<long[]> pending = new ArrayList<long[]>();
+
+    /** The merged ranges lookups are done on */
+    private volatile Ranges ranges = new Ranges(new long[0], new long[0], new long[0], new long[0]);
+
+    private volatile boolean dirty = false;
 
     /**
-     * Can be full v4 IP, subnet or range string
+     * Can be a full v4 or v6 IP, a CIDR block (192.168.0.0/16, 2001:db8::/32),
+     * the first three places of a v4 IP (192.168.1, same as 192.168.1.0/24)
+     * or a range of two full IPs (192.168.1.1-192.168.1.20).
      *
      * @param ip
      */
     public void add(String ip) throws IPFormatException {
 
-        String[] start;
+        ip = ip.trim();
 
-        String[] end;
+        long[] range;
 
-        String[] range = ip.split("-");
+        int dash = ip.indexOf('-');
 
-        if (range.length >= 2) {
+        if (dash >= 0) {
 
-            start = range[0].trim().split("/")[0].split("\\.");
-            end = range[1].trim().split("/")[0].split("\\.");
+            String start = ip.substring(0, dash).trim();
+            String end = ip.substring(dash + 1).trim();
 
-            if (start.length != 4 || end.length != 4)
+            if (start.indexOf('/') >= 0 || end.indexOf('/') >= 0)
             {
-                throw new IPFormatException(ip + " - Ranges need to be full IPv4 Addresses");
+                throw new IPFormatException(ip + " - Ranges need to be full IP Addresses");
             }
 
-            if (!(start[0].equals(end[0]) && start[1].equals(end[1]) && start[2].equals(end[2]))) {
-                throw new IPFormatException(ip + " - Ranges can only be across the last subnet x.y.z.0 - x.y.z.254");
+            range = new long[] {
+                    parseHigh(start, 0, start.length()), parseLow(start, 0, start.length()),
+                    parseHigh(end, 0, end.length()), parseLow(end, 0, end.length())};
+
+            if (compare(range[0], range[1], range[2], range[3]) > 0)
+            {
+                throw new IPFormatException(ip + " - Range ends before it starts");
             }
 
         } else {
-            //need to ignore CIDR notation for the moment.
-            //ip = ip.split("\\/")[0];
 
-            String[] subnets = ip.split("\\.");
-
-            if (subnets.length < 3) {
-                throw new IPFormatException(ip + " - require at least three subnet places (255.255.255.0");
+            int prefix = -1;
 
+            int slash = ip.indexOf('/');
+            if (slash >= 0) {
+                prefix = parsePrefix(ip, slash + 1);
+                ip = ip.substring(0, slash);
             }
 
-            start = subnets;
-            end = subnets;
-        }
-
-        if (start.length >= 3) {
-
+            boolean v6 = ip.indexOf(':') >= 0;
 
-            Map<String, Map<String, Set<String>>> first = map.get(start[0]);
-
-            if (first == null) {
-                first = new HashMap<String, Map<String, Set<String>>>();
-                map.put(start[0], first);
-            }
+            if (!v6) {
+                int places = 1;
+                for (int i = 0; i < ip.length(); i++) {
+                    if (ip.charAt(i) == '.') {
+                        places++;
+                    }
+                }
 
-            Map<String, Set<String>> second = first.get(start[1]);
+                if (places == 3 && prefix < 0) {
+                    ip = ip + ".0";
+                    prefix = 24;
+                } else if (places < 3) {
+                    throw new IPFormatException(ip + " - require at least three subnet places (255.255.255.0");
+                }
 
+                if (prefix > 32) {
+                    throw new IPFormatException(ip + " - IPv4 prefix length can't exceed 32");
+                }
 
-            if (second == null) {
-                second = new HashMap<String, Set<String>>();
-                first.put(start[1], second);
+                // the prefix of the IPv4-mapped address
+                if (prefix >= 0) {
+                    prefix += 96;
+                }
             }
 
-            Set<String> third = second.get(start[2]);
-
-            if (third == null) {
-                third = new HashSet<String>();
-                second.put(start[2], third);
+            if (prefix < 0) {
+                prefix = 128;
             }
 
-            //now populate fourth place (* or value 0-254);
+            long high = parseHigh(ip, 0, ip.length());
+            long low = parseLow(ip, 0, ip.length());
 
-            if (start.length == 3) {
-                third.add("*");
-            }
+            long highMask = prefix >= 64 ? -1L : prefix == 0 ? 0L : -1L << (64 - prefix);
+            long lowMask = prefix <= 64 ? 0L : prefix == 128 ? -1L : -1L << (128 - prefix);
 
-            if (third.contains("*")) {
-                return;
-            }
+            range = new long[] {high & highMask, low & lowMask, high | ~highMask, low | ~lowMask};
+        }
 
-            if (start.length >= 4) {
-                int s = Integer.valueOf(start[3]);
-                int e = Integer.valueOf(end[3]);
-                for (int i = s; i <= e; i++) {
-                    third.add(String.valueOf(i));
-                }
-            }
+        synchronized (this) {
+            pending.add(range);
+            dirty = true;
         }
     }
 
     /** Check whether a given address is contained in this netblock.
-     * 
+     *
      * @param ip the address to be tested
      * @return true if {@code ip} is within this table's limits
      * @throws IPFormatException
      */
     public boolean contains(String ip) throws IPFormatException {
 
-        String[] subnets = ip.split("\\.");
+        Ranges current = dirty ? merge() : ranges;
 
-        if (subnets.length != 4)
+        int from = 0;
+        int to = ip.length();
+        while (from < to && ip.charAt(from) == ' ') {
+            from++;
+        }
+        while (to > from && ip.charAt(to - 1) == ' ') {
+            to--;
+        }
+
+        if (ip.indexOf(':', from) < 0)
         {
-            throw new IPFormatException("needs to be a single IP address");
+            return current.contains(IPV4_HIGH, IPV4_LOW | parseIPv4(ip, from, to));
         }
 
-        Map<String, Map<String, Set<String>>> first = map.get(subnets[0]);
+        return current.contains(parseHigh(ip, from, to), parseLow(ip, from, to));
+    }
 
-        if (first == null)
-        {
-            return false;
+    /** Convert to a Set.
+     * IPv4 ranges are listed as the first three places of the IP for every
+     * complete /24 block they cover and as single IPs for the rest. IPv6
+     * ranges are listed as single IPs or as "start-end" ranges.
+     *
+     * @return this table's content as a Set
+     */
+    public Set<String> toSet() {
+        HashSet<String> set = new HashSet<String>();
+
+        Ranges current = dirty ? merge() : ranges;
+
+        for (int i = 0; i < current.size(); i++) {
+            long startHigh = current.startHigh[i];
+            long startLow = current.startLow[i];
+            long endHigh = current.endHigh[i];
+            long endLow = current.endLow[i];
+
+            if (isIPv4(startHigh, startLow) && isIPv4(endHigh, endLow)) {
+                long ip = startLow & 0xFFFFFFFFL;
+                long end = endLow & 0xFFFFFFFFL;
+                while (ip <= end) {
+                    if ((ip & 0xFF) == 0 && ip + 0xFF <= end) {
+                        String block = formatIPv4(ip);
+                        set.add(block.substring(0, block.length() - 2));
+                        ip += 0x100;
+                    } else {
+                        set.add(formatIPv4(ip));
+                        ip++;
+                    }
+                }
+            } else if (startHigh == endHigh && startLow == endLow) {
+                set.add(formatIPv6(startHigh, startLow));
+            } else {
+                set.add(formatIPv6(startHigh, startLow) + "-" + formatIPv6(endHigh, endLow));
+            }
         }
 
-        Map<String, Set<String>> second = first.get(subnets[1]);
+        return set;
+    }
 
-        if (second == null)
-        {
-            return false;
+    /**
+     * Sort the pending ranges in with the current ones, merging ranges which
+     * overlap or touch.
+     */
+    private synchronized Ranges merge() {
+        if (!dirty) {
+            return ranges;
         }
 
-        Set<String> third = second.get(subnets[2]);
+        List<long[]> all = new ArrayList<long[]>(pending);
+        Ranges current = ranges;
+        for (int i = 0; i < current.size(); i++) {
+            all.add(new long[] {current.startHigh[i], current.startLow[i], current.endHigh[i], current.endLow[i]});
+        }
 
-        if (third == null)
-        {
-            return false;
+        Collections.sort(all, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] a, long[] b) {
+                return IPTable.compare(a[0], a[1], b[0], b[1]);
+            }
+        });
+
+        List<long[]> merged = new ArrayList<long[]>(all.size());
+        long[] last = null;
+        for (long[] range : all) {
+            if (last != null && touches(last, range)) {
+                if (compare(range[2], range[3], last[2], last[3]) > 0) {
+                    last[2] = range[2];
+                    last[3] = range[3];
+                }
+            } else {
+                last = Arrays.copyOf(range, 4);
+                merged.add(last);
+            }
         }
 
-        return third.contains(subnets[3]) || third.contains("*");
+        int size = merged.size();
+        long[] startHigh = new long[size];
+        long[] startLow = new long[size];
+        long[] endHigh = new long[size];
+        long[] endLow = new long[size];
+        for (int i = 0; i < size; i++) {
+            long[] range = merged.get(i);
+            startHigh[i] = range[0];
+            startLow[i] = range[1];
+            endHigh[i] = range[2];
+            endLow[i] = range[3];
+        }
 
+        ranges = new Ranges(startHigh, startLow, endHigh, endLow);
+        pending.clear();
+        dirty = false;
+        return ranges;
     }
 
-    /** Convert to a Set.
-     * @return this table's content as a Set
+    /**
+     * @return whether {@code next}, which doesn't start before {@code last},
+     *      starts at most one address after the end of {@code last}
      */
-    public Set<String> toSet() {
-        HashSet<String> set = new HashSet<String>();
+    private static boolean touches(long[] last, long[] next) {
+        if (last[2] == -1L && last[3] == -1L) {
+            return true;
+        }
+        long afterLow = last[3] + 1;
+        long afterHigh = afterLow == 0 ? last[2] + 1 : last[2];
+        return compare(next[0], next[1], afterHigh, afterLow) <= 0;
+    }
+
+    /** Unsigned comparison of two 128 bit numbers */
+    private static int compare(long aHigh, long aLow, long bHigh, long bLow) {
+        if (aHigh != bHigh) {
+            return aHigh + Long.MIN_VALUE < bHigh + Long.MIN_VALUE ? -1 : 1;
+        }
+        if (aLow != bLow) {
+            return aLow + Long.MIN_VALUE < bLow + Long.MIN_VALUE ? -1 : 1;
+        }
+        return 0;
+    }
+
+    private static boolean isIPv4(long high, long low) {
+        return high == IPV4_HIGH && (low & 0xFFFFFFFF00000000L) == IPV4_LOW;
+    }
+
+    private static String formatIPv4(long ip) {
+        return ((ip >>> 24) & 0xFF) + "." + ((ip >>> 16) & 0xFF) + "." + ((ip >>> 8) & 0xFF) + "." + (ip & 0xFF);
+    }
+
+    /** Format like {@link java.net.Inet6Address#getHostAddress()} */
+    private static String formatIPv6(long high, long low) {
+        StringBuilder address = new StringBuilder(39);
+        for (int group = 0; group < 8; group++) {
+            long half = group < 4 ? high : low;
+            if (group > 0) {
+                address.append(':');
+            }
+            address.append(Long.toHexString((half >>> (16 * (3 - group % 4))) & 0xFFFF));
+        }
+        return address.toString();
+    }
+
+    private static int parsePrefix(String ip, int from) throws IPFormatException {
+        if (from >= ip.length() || ip.length() - from > 3) {
+            throw new IPFormatException(ip + " - invalid prefix length");
+        }
+        int prefix = 0;
+        for (int i = from; i < ip.length(); i++) {
+            char c = ip.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new IPFormatException(ip + " - invalid prefix length");
+            }
+            prefix = prefix * 10 + (c - '0');
+        }
+        if (prefix > 128) {
+            throw new IPFormatException(ip + " - invalid prefix length");
+        }
+        return prefix;
+    }
+
+    /** Parse a full IPv4 address into an unsigned 32 bit number */
+    private static long parseIPv4(String ip, int from, int to) throws IPFormatException {
+        long address = 0;
+        int places = 0;
+        int i = from;
+        while (places < 4) {
+            int value = 0;
+            int digits = 0;
+            while (i < to && ip.charAt(i) >= '0' && ip.charAt(i) <= '9' && digits < 3) {
+                value = value * 10 + (ip.charAt(i) - '0');
+                digits++;
+                i++;
+            }
+            if (digits == 0 || value > 255) {
+                throw new IPFormatException("needs to be a single IP address");
+            }
+            address = (address << 8) | value;
+            places++;
+            if (places < 4) {
+                if (i >= to || ip.charAt(i) != '.') {
+                    throw new IPFormatException("needs to be a single IP address");
+                }
+                i++;
+            }
+        }
+        if (i != to) {
+            throw new IPFormatException("needs to be a single IP address");
+        }
+        return address;
+    }
+
+    private static long parseHigh(String ip, int from, int to) throws IPFormatException {
+        return parse(ip, from, to, false);
+    }
+
+    private static long parseLow(String ip, int from, int to) throws IPFormatException {
+        return parse(ip, from, to, true);
+    }
+
+    /**
+     * Parse an IPv4 or IPv6 address into a 128 bit number, one half at a time
+     * so no array has to be allocated.
+     *
+     * @param low whether to return the lower or the upper 64 bits
+     */
+    private static long parse(String ip, int from, int to, boolean low) throws IPFormatException {
+        if (ip.indexOf(':', from) < 0 || ip.indexOf(':', from) >= to) {
+            long v4 = parseIPv4(ip, from, to);
+            return low ? IPV4_LOW | v4 : IPV4_HIGH;
+        }
+
+        // ignore the zone of link local addresses, fe80::1%eth0
+        int zone = ip.indexOf('%', from);
+        if (zone >= 0 && zone < to) {
+            to = zone;
+        }
 
-        for (Map.Entry<String, Map<String, Map<String, Set<String>>>> first : map.entrySet()) {
-            String firstString = first.getKey();
-            Map<String, Map<String, Set<String>>> secondMap = first.getValue();
+        long headHigh = 0;
+        long headLow = 0;
+        long tailHigh = 0;
+        long tailLow = 0;
+        int head = 0;
+        int tail = 0;
+        boolean compressed = false;
+
+        int i = from;
+        if (to - i >= 2 && ip.charAt(i) == ':' && ip.charAt(i + 1) == ':') {
+            compressed = true;
+            i += 2;
+        }
 
-            for (Map.Entry<String, Map<String, Set<String>>> second : secondMap.entrySet()) {
-                String secondString = second.getKey();
-                Map<String, Set<String>> thirdMap = second.getValue();
+        while (i < to) {
+            int end = i;
+            boolean dotted = false;
+            while (end < to && ip.charAt(end) != ':') {
+                dotted |= ip.charAt(end) == '.';
+                end++;
+            }
 
-                for (Map.Entry<String, Set<String>> third : thirdMap.entrySet()) {
-                    String thirdString = third.getKey();
-                    Set<String> fourthSet = third.getValue();
+            int count;
+            long value;
+            if (dotted) {
+                // embedded IPv4 address, only allowed as the last two groups
+                if (end != to) {
+                    throw new IPFormatException("needs to be a single IP address");
+                }
+                value = parseIPv4(ip, i, end);
+                count = 2;
+            } else {
+                if (end == i || end - i > 4) {
+                    throw new IPFormatException("needs to be a single IP address");
+                }
+                value = 0;
+                for (int j = i; j < end; j++) {
+                    int digit = Character.digit(ip.charAt(j), 16);
+                    if (digit < 0) {
+                        throw new IPFormatException("needs to be a single IP address");
+                    }
+                    value = (value << 4) | digit;
+                }
+                count = 1;
+            }
 
-                    if (fourthSet.contains("*")) {
-                        set.add(firstString + "." + secondString + "." + thirdString);
+            if (!compressed) {
+                for (int g = count - 1; g >= 0; g--) {
+                    long group = (value >>> (16 * g)) & 0xFFFF;
+                    if (head >= 8) {
+                        throw new IPFormatException("needs to be a single IP address");
+                    }
+                    if (head < 4) {
+                        headHigh |= group << (16 * (3 - head));
                     } else {
-                        for (String fourth : fourthSet) {
-                            set.add(firstString + "." + secondString + "." + thirdString + "." + fourth);
-                        }
+                        headLow |= group << (16 * (7 - head));
                     }
+                    head++;
+                }
+            } else {
+                int bits = 16 * count;
+                tailHigh = (tailHigh << bits) | (tailLow >>> (64 - bits));
+                tailLow = (tailLow << bits) | value;
+                tail += count;
+            }
 
+            i = end;
+            if (i < to) {
+                // skip the separator, a second one marks the compressed zeros
+                i++;
+                if (i == to) {
+                    throw new IPFormatException("needs to be a single IP address");
+                }
+                if (ip.charAt(i) == ':') {
+                    if (compressed) {
+                        throw new IPFormatException("needs to be a single IP address");
+                    }
+                    compressed = true;
+                    i++;
                 }
             }
         }
 
-        return set;
+        if (compressed ? head + tail > 7 : head != 8) {
+            throw new IPFormatException("needs to be a single IP address");
+        }
+
+        return low ? headLow | tailLow : headHigh | tailHigh;
+    }
+
+    /**
+     * Disjoint ranges sorted by their start.
+     */
+    private static class Ranges {
+        final long[] startHigh;
+        final long[] startLow;
+        final long[] endHigh;
+        final long[] endLow;
+
+        Ranges(long[] startHigh, long[] startLow, long[] endHigh, long[] endLow) {
+            this.startHigh = startHigh;
+            this.startLow = startLow;
+            this.endHigh = endHigh;
+            this.endLow = endLow;
+        }
+
+        int size() {
+            return startHigh.length;
+        }
+
+        boolean contains(long high, long low) {
+            // find the last range starting at or before the address
+            int lo = 0;
+            int hi = size() - 1;
+            int found = -1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (compare(startHigh[mid], startLow[mid], high, low) <= 0) {
+                    found = mid;
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return found >= 0 && compare(high, low, endHigh[found], endLow[found]) <= 0;
+        }
     }
 
 
@@ -11,12 +11,9 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Set;
-import java.util.Collections;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.servlet.http.HttpServletRequest;
 import org.dspace.core.ConfigurationManager;
 import org.slf4j.Logger;
@@ -38,17 +35,18 @@ public class SpiderDetector {
     private static Boolean useProxies;
 
     /**
-     * Sparse HashTable structure to hold IP address ranges.
+     * Sorted table of IP address ranges, published once completely loaded.
      */
-    private static IPTable table = null;
+    private static volatile IPTable table = null;
 
-    /** Collection of regular expressions to match known spiders' agents. */
-    private static final List<Pattern> agents
-            = Collections.synchronizedList(new ArrayList<Pattern>());
+    /** Compiled regular expressions to match known spiders' agents. */
+    private static volatile SpiderPatternMatcher agents;
 
-    /** Collection of regular expressions to match known spiders' domain names. */
-    private static final List<Pattern> domains
-            = Collections.synchronizedList(new ArrayList<Pattern>());
+    /** Compiled regular expressions to match known spiders' domain names. */
+    private static volatile SpiderPatternMatcher domains;
+
+    /** Recent User-Agent verdicts, most clients send the same handful of agents. */
+    private static volatile VerdictCache agentVerdicts;
 
     /**
      * Utility method which reads lines from a file & returns them in a Set.
@@ -105,7 +103,7 @@ public class SpiderDetector {
     private synchronized static void loadSpiderIpAddresses() {
 
         if (table == null) {
-            table = new IPTable();
+            IPTable spiders = new IPTable();
 
             String filePath = ConfigurationManager.getProperty("dspace.dir");
 
@@ -118,7 +116,7 @@ public class SpiderDetector {
                         {
                             for (String ip : readPatterns(file)) {
                                 log.debug("Loading {}", ip);
-                                if (!Character.isDigit(ip.charAt(0)))
+                                if (!Character.isDigit(ip.charAt(0)) && ip.indexOf(':') < 0)
                                 {
                                     try {
                                         ip = DnsLookup.forward(ip);
@@ -128,7 +126,11 @@ public class SpiderDetector {
                                         continue;
                                     }
                                 }
-                                table.add(ip);
+                                try {
+                                    spiders.add(ip);
+                                } catch (IPTable.IPFormatException e) {
+                                    log.warn("Not loading {}:  {}", ip, e.getMessage());
+                                }
                             }
                             log.info("Loaded Spider IP file: " + file);
                         }
@@ -137,10 +139,11 @@ public class SpiderDetector {
                     log.info("No spider file loaded");
                 }
             }
-            catch (IOException | IPTable.IPFormatException e) {
+            catch (IOException e) {
                 log.error("Error Loading Spiders:" + e.getMessage(), e);
             }
 
+            table = spiders;
         }
 
     }
@@ -151,11 +154,12 @@ public class SpiderDetector {
      * @param directory simple directory name (e.g. "agents").
      *      "${dspace.dir}/config/spiders" will be prepended to yield the path to
      *      the directory of pattern files.
-     * @param patternList patterns read from the files in {@code directory} will
-     *      be added to this List.
+     * @return the patterns read from the files in {@code directory}, compiled
+     *      into a single matcher.
      */
-    private static void loadPatterns(String directory, List<Pattern> patternList)
+    private static SpiderPatternMatcher loadPatterns(String directory)
     {
+        Set<String> patternList = new HashSet<>();
         String dspaceHome = ConfigurationManager.getProperty("dspace.dir");
         File spidersDir = new File(dspaceHome, "config/spiders");
         File patternsDir = new File(spidersDir, directory);
@@ -173,10 +177,7 @@ public class SpiderDetector {
                             file.getPath(), ex.getMessage());
                     continue;
                 }
-                for (String pattern : patterns)
-                {
-                    patternList.add(Pattern.compile(pattern));
-                }
+                patternList.addAll(patterns);
                 log.info("Loaded pattern file:  {}", file.getPath());
             }
         }
@@ -184,6 +185,66 @@ public class SpiderDetector {
         {
             log.info("No patterns loaded from {}", patternsDir.getPath());
         }
+        return new SpiderPatternMatcher(patternList);
+    }
+
+    private static SpiderPatternMatcher getAgents()
+    {
+        SpiderPatternMatcher matcher = agents;
+        if (matcher == null)
+        {
+            synchronized (SpiderDetector.class)
+            {
+                matcher = agents;
+                if (matcher == null)
+                {
+                    int cacheSize = ConfigurationManager.getIntProperty("usage-statistics",
+                            "spiders.agent.cache.size", 1000);
+                    agentVerdicts = cacheSize > 0 ? new VerdictCache(cacheSize) : null;
+                    matcher = agents = loadPatterns("agents");
+                }
+            }
+        }
+        return matcher;
+    }
+
+    private static SpiderPatternMatcher getDomains()
+    {
+        SpiderPatternMatcher matcher = domains;
+        if (matcher == null)
+        {
+            synchronized (SpiderDetector.class)
+            {
+                matcher = domains;
+                if (matcher == null)
+                {
+                    matcher = domains = loadPatterns("domains");
+                }
+            }
+        }
+        return matcher;
+    }
+
+    /**
+     * Check a User-Agent header against the agent patterns, using the verdict
+     * cache when it is enabled.
+     */
+    private static boolean isSpiderAgent(String agent)
+    {
+        SpiderPatternMatcher matcher = getAgents();
+        VerdictCache cache = agentVerdicts;
+        if (cache == null)
+        {
+            return matcher.matches(agent);
+        }
+
+        Boolean verdict = cache.get(agent);
+        if (verdict == null)
+        {
+            verdict = matcher.matches(agent);
+            cache.put(agent, verdict);
+        }
+        return verdict;
     }
 
     /**
@@ -202,21 +263,9 @@ public class SpiderDetector {
             String hostname, String agent)
     {
         // See if any agent patterns match
-        if (null != agent)
+        if (null != agent && isSpiderAgent(agent))
         {
-            synchronized(agents)
-            {
-                if (agents.isEmpty())
-                    loadPatterns("agents", agents);
-            }
-            for (Pattern candidate : agents)
-            {
-		// prevent matcher() invocation from a null Pattern object
-                if (null != candidate && candidate.matcher(agent).find())
-                {
-                    return true;
-                }
-            }
+            return true;
         }
 
         // No.  See if any IP addresses match
@@ -234,21 +283,9 @@ public class SpiderDetector {
             return true;
 
         // No.  See if any DNS names match
-        if (null != hostname)
+        if (null != hostname && getDomains().matches(hostname))
         {
-            synchronized(domains)
-            {
-                if (domains.isEmpty())
-                    loadPatterns("domains", domains);
-            }
-            for (Pattern candidate : domains)
-            {
-		// prevent matcher() invocation from a null Pattern object
-		if (null != candidate && candidate.matcher(hostname).find())
-                {
-                    return true;
-                }
-            }
+            return true;
         }
 
         // Not a known spider.
@@ -302,4 +339,53 @@ public class SpiderDetector {
         return useProxies;
     }
 
+    /**
+     * Bounded cache of recent verdicts which doesn't lock on reads. Entries live in
+     * two generations: when the current generation is full it becomes the old one
+     * and the previous old generation is dropped. Entries found in the old
+     * generation are moved back to the current one, so frequent agents stay cached.
+     */
+    private static class VerdictCache
+    {
+        private final int generationSize;
+        private volatile ConcurrentHashMap<String, Boolean> current = new ConcurrentHashMap<>();
+        private volatile ConcurrentHashMap<String, Boolean> old = new ConcurrentHashMap<>();
+
+        VerdictCache(int size)
+        {
+            generationSize = Math.max(1, size / 2);
+        }
+
+        Boolean get(String key)
+        {
+            Boolean verdict = current.get(key);
+            if (verdict == null)
+            {
+                verdict = old.get(key);
+                if (verdict != null)
+                {
+                    put(key, verdict);
+                }
+            }
+            return verdict;
+        }
+
+        void put(String key, Boolean verdict)
+        {
+            ConcurrentHashMap<String, Boolean> generation = current;
+            generation.put(key, verdict);
+            if (generation.size() > generationSize)
+            {
+                synchronized (this)
+                {
+                    if (current == generation)
+                    {
+                        old = generation;
+                        current = new ConcurrentHashMap<>();
+                    }
+                }
+            }
+        }
+    }
+
 }
@@ -0,0 +1,389 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.statistics.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Matches a value against a fixed set of spider patterns (regular expressions, as found in
+ * config/spiders/agents and config/spiders/domains) in a single pass instead of one regular
+ * expression per pattern.
+ * <p>
+ * Most spider patterns are plain strings. These are compiled into one Aho-Corasick automaton,
+ * so the value is scanned once whatever the number of patterns. Patterns which need the regex
+ * engine are only evaluated when the literal text they start with occurs in the value, or on
+ * every value when they have no such text.
+ * <p>
+ * Instances are immutable and can be shared between threads without locking.
+ *
+ * @see SpiderDetector
+ */
+public class SpiderPatternMatcher
+{
+    private static final Logger log = LoggerFactory.getLogger(SpiderPatternMatcher.class);
+
+    /** Characters with a special meaning in a regular expression */
+    private static final String METACHARACTERS = ".[]{}()*+?^$|";
+
+    /** Quantifiers which make the character before them optional */
+    private static final String OPTIONAL_QUANTIFIERS = "?*{";
+
+    /** Minimum length of a literal used to decide whether a regular expression must be evaluated */
+    private static final int MIN_PREFILTER_LENGTH = 3;
+
+    /** Root of the automaton */
+    private final Node root = new Node(true);
+
+    /** Regular expressions guarded by a literal, indexed by {@link Node#regexes} */
+    private final List<Pattern> guarded = new ArrayList<>();
+
+    /** Regular expressions which have to be evaluated on every value */
+    private final List<Pattern> unguarded = new ArrayList<>();
+
+    /** Patterns of the form "^literal" */
+    private final List<String> prefixes = new ArrayList<>();
+
+    private final int size;
+
+    /**
+     * Compile a set of patterns. Invalid patterns are logged and skipped.
+     *
+     * @param patterns the regular expressions
+     */
+    public SpiderPatternMatcher(Collection<String> patterns)
+    {
+        int count = 0;
+        for (String pattern : patterns)
+        {
+            try {
+                add(pattern);
+                count++;
+            } catch (PatternSyntaxException e) {
+                log.error("Invalid spider pattern {}:  {}", pattern, e.getMessage());
+            }
+        }
+        size = count;
+        buildFailureLinks();
+        log.debug("Compiled {} spider patterns, {} regular expressions guarded by a literal, {} unguarded",
+                size, guarded.size(), unguarded.size());
+    }
+
+    /**
+     * @param value the value to test, e.g. a User-Agent header or a host name
+     * @return true if any of the patterns is found in the value
+     */
+    public boolean matches(String value)
+    {
+        if (value == null)
+        {
+            return false;
+        }
+
+        for (String prefix : prefixes)
+        {
+            if (value.startsWith(prefix))
+            {
+                return true;
+            }
+        }
+
+        // Scan the value once, remembering the guarded expressions which already failed
+        boolean[] tried = null;
+        Node node = root;
+        for (int i = 0; i < value.length(); i++)
+        {
+            node = node.next(value.charAt(i));
+            if (node.literal)
+            {
+                return true;
+            }
+            for (Node out = node.output; out != null; out = out.failure.output)
+            {
+                for (int regex : out.regexes)
+                {
+                    if (tried == null)
+                    {
+                        tried = new boolean[guarded.size()];
+                    }
+                    if (!tried[regex])
+                    {
+                        tried[regex] = true;
+                        if (guarded.get(regex).matcher(value).find())
+                        {
+                            return true;
+                        }
+                    }
+                }
+            }
+        }
+
+        for (Pattern pattern : unguarded)
+        {
+            if (pattern.matcher(value).find())
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of patterns compiled into this matcher
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * @return true if no patterns were compiled into this matcher
+     */
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    private void add(String pattern)
+    {
+        // Always compile, so invalid patterns are rejected like before
+        Pattern compiled = Pattern.compile(pattern);
+
+        String literal = toLiteral(pattern, 0);
+        if (literal != null && !literal.isEmpty())
+        {
+            insert(literal).literal = true;
+            return;
+        }
+
+        if (pattern.startsWith("^"))
+        {
+            literal = toLiteral(pattern, 1);
+            if (literal != null && !literal.isEmpty())
+            {
+                prefixes.add(literal);
+                return;
+            }
+        }
+
+        String required = requiredPrefix(pattern);
+        if (required.length() >= MIN_PREFILTER_LENGTH)
+        {
+            Node node = insert(required);
+            int[] regexes = node.regexes == null ? new int[0] : node.regexes;
+            node.regexes = Arrays.copyOf(regexes, regexes.length + 1);
+            node.regexes[regexes.length] = guarded.size();
+            guarded.add(compiled);
+        }
+        else
+        {
+            unguarded.add(compiled);
+        }
+    }
+
+    /**
+     * Convert a pattern to the plain string it matches, if it is one.
+     *
+     * @return the string, or null if the pattern uses regular expression constructs
+     */
+    static String toLiteral(String pattern, int start)
+    {
+        StringBuilder literal = new StringBuilder(pattern.length());
+        for (int i = start; i < pattern.length(); i++)
+        {
+            char c = pattern.charAt(i);
+            if (c == '\\')
+            {
+                if (i + 1 >= pattern.length() || Character.isLetterOrDigit(pattern.charAt(i + 1)))
+                {
+                    return null;
+                }
+                literal.append(pattern.charAt(++i));
+            }
+            else if (METACHARACTERS.indexOf(c) >= 0)
+            {
+                return null;
+            }
+            else
+            {
+                literal.append(c);
+            }
+        }
+        return literal.toString();
+    }
+
+    /**
+     * Get the plain text every match of a pattern starts with. Empty when the pattern has
+     * alternatives at the top level, as the text is only required by the first of them.
+     */
+    static String requiredPrefix(String pattern)
+    {
+        int depth = 0;
+        boolean inClass = false;
+        for (int i = 0; i < pattern.length(); i++)
+        {
+            char c = pattern.charAt(i);
+            if (c == '\\')
+            {
+                i++;
+            }
+            else if (inClass)
+            {
+                inClass = c != ']';
+            }
+            else if (c == '[')
+            {
+                inClass = true;
+            }
+            else if (c == '(')
+            {
+                depth++;
+            }
+            else if (c == ')')
+            {
+                depth--;
+            }
+            else if (c == '|' && depth == 0)
+            {
+                return "";
+            }
+        }
+
+        StringBuilder prefix = new StringBuilder();
+        for (int i = 0; i < pattern.length(); i++)
+        {
+            char c = pattern.charAt(i);
+            char literal;
+            int next;
+            if (c == '\\')
+            {
+                if (i + 1 >= pattern.length() || Character.isLetterOrDigit(pattern.charAt(i + 1)))
+                {
+                    break;
+                }
+                literal = pattern.charAt(i + 1);
+                next = i + 2;
+            }
+            else if (METACHARACTERS.indexOf(c) >= 0)
+            {
+                break;
+            }
+            else
+            {
+                literal = c;
+                next = i + 1;
+            }
+
+            if (next < pattern.length() && OPTIONAL_QUANTIFIERS.indexOf(pattern.charAt(next)) >= 0)
+            {
+                break;
+            }
+            prefix.append(literal);
+            i = next - 1;
+        }
+        return prefix.toString();
+    }
+
+    private Node insert(String literal)
+    {
+        Node node = root;
+        for (int i = 0; i < literal.length(); i++)
+        {
+            char c = literal.charAt(i);
+            Node child = node.children.get(c);
+            if (child == null)
+            {
+                child = new Node(false);
+                node.children.put(c, child);
+            }
+            node = child;
+        }
+        return node;
+    }
+
+    /**
+     * Breadth first computation of the failure and output links of the automaton.
+     */
+    private void buildFailureLinks()
+    {
+        Queue<Node> queue = new LinkedList<>();
+        for (Node child : root.children.values())
+        {
+            child.failure = root;
+            child.output = child.regexes != null ? child : null;
+            queue.add(child);
+        }
+
+        while (!queue.isEmpty())
+        {
+            Node node = queue.remove();
+            for (Map.Entry<Character, Node> entry : node.children.entrySet())
+            {
+                char c = entry.getKey();
+                Node child = entry.getValue();
+
+                Node failure = node.failure;
+                while (failure != null && !failure.children.containsKey(c))
+                {
+                    failure = failure.failure;
+                }
+                child.failure = failure == null ? root : failure.children.get(c);
+
+                // a literal ending in a suffix of this node also ends here
+                child.literal |= child.failure.literal;
+                child.output = child.regexes != null ? child : child.failure.output;
+                queue.add(child);
+            }
+        }
+    }
+
+    private static class Node
+    {
+        final Map<Character, Node> children = new HashMap<>();
+        Node failure;
+        /** Closest node on the failure path, including this one, guarding regular expressions */
+        Node output;
+        boolean literal;
+        final boolean root;
+        int[] regexes;
+
+        Node(boolean root)
+        {
+            this.root = root;
+        }
+
+        Node next(char c)
+        {
+            Node node = this;
+            while (true)
+            {
+                Node child = node.children.get(c);
+                if (child != null)
+                {
+                    return child;
+                }
+                if (node.root)
+                {
+                    return node;
+                }
+                node = node.failure;
+            }
+        }
+    }
+}
@@ -64,6 +64,8 @@ public class StatisticsClient
         options.addOption("e", "export", false, "Export SOLR view statistics data to usage-statistics-intermediate-format");
         options.addOption("r", "remove-deleted-bitstreams", false, "While indexing the bundle names remove the statistics about deleted bitstreams");
         options.addOption("s", "shard-solr-index", false, "Split the data from the main Solr core into separate Solr cores per year");
+        options.addOption("a", "rollup", false, "Compute the daily rollups of the usage events up to yesterday");
+        options.addOption("d", "days", true, "With -a, compute the rollups of the given number of past days again");
         options.addOption("h", "help", false, "help");
 
 		CommandLine line = parser.parse(options, args);
@@ -107,6 +109,10 @@ public class StatisticsClient
         {
             solrLoggerService.shardSolrIndex();
         }
+        else if(line.hasOption('a'))
+        {
+            solrLoggerService.rollupStatistics(line.hasOption('d') ? Integer.parseInt(line.getOptionValue('d')) : 0);
+        }
         else
         {
             printHelp(options, 0);
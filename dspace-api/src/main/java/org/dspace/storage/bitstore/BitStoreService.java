@@ -47,6 +47,23 @@ public interface BitStoreService
      */
 	public InputStream get(Bitstream bitstream) throws IOException;
 
+    /**
+     * Retrieve part of the bits for bitstream, without reading the bits before it.
+     *
+     * @param bitstream
+     * @param offset
+     *         The position of the first byte to return
+     * @param length
+     *         The number of bytes to return, or -1 for all bytes up to the end
+     *
+     * @exception java.io.IOException
+     *         If a problem occurs while retrieving the bits, or if no
+     *         asset with ID exists in the store
+     *
+     * @return The stream of bits
+     */
+	public InputStream get(Bitstream bitstream, long offset, long length) throws IOException;
+
     /**
      * Store a stream of bits.
      *
@@ -216,6 +216,14 @@ public class BitstreamStorageServiceImpl implements BitstreamStorageService, Ini
         return stores.get(storeNumber).get(bitstream);
     }
 
+    @Override
+    public InputStream retrieve(Context context, Bitstream bitstream, long offset, long length)
+            throws SQLException, IOException
+    {
+        Integer storeNumber = bitstream.getStoreNumber();
+        return stores.get(storeNumber).get(bitstream, offset, length);
+    }
+
     @Override
     public void cleanup(boolean deleteDbRecords, boolean verbose) throws SQLException, IOException, AuthorizeException {
         Context context = null;
@@ -285,8 +293,10 @@ public class BitstreamStorageServiceImpl implements BitstreamStorageService, Ini
 				}
 
 
-                // Since versioning allows for multiple bitstreams, check if the internal identifier isn't used on another place
-                if(0 < bitstreamService.findDuplicateInternalIdentifier(context, bitstream).size())
+                // Bitstreams may share their contents (clones, or a store which
+                // stores identical contents once), so only remove the contents
+                // when no other bitstream refers to them any more
+                if(bitstreamService.countByInternalId(context, bitstream.getStoreNumber(), bitstream.getInternalId()) == 0)
                 {
                     stores.get(bitstream.getStoreNumber()).remove(bitstream);
 
@@ -335,6 +345,9 @@ public class BitstreamStorageServiceImpl implements BitstreamStorageService, Ini
     }
 
     /**
+     * Clone a bitstream. The contents aren't copied, the clone refers to the
+     * same contents in the asset store; cleanup only removes them once neither
+     * bitstream uses them.
      *
      * @param context
      * @param bitstream the bitstream to be cloned
@@ -343,7 +356,7 @@ public class BitstreamStorageServiceImpl implements BitstreamStorageService, Ini
      */
 	@Override
     public Bitstream clone(Context context, Bitstream bitstream) throws SQLException, IOException, AuthorizeException {
-		Bitstream clonedBitstream = bitstreamService.create(context, bitstreamService.retrieve(context, bitstream));
+		Bitstream clonedBitstream = bitstreamService.clone(context, bitstream);
 		List<MetadataValue> metadataValues = bitstreamService.getMetadata(bitstream, Item.ANY, Item.ANY, Item.ANY, Item.ANY);
 		for (MetadataValue metadataValue : metadataValues) {
 			bitstreamService.addMetadata(context, clonedBitstream, metadataValue.getMetadataField(), metadataValue.getLanguage(), metadataValue.getValue(), metadataValue.getAuthority(), metadataValue.getConfidence());
@@ -366,14 +379,23 @@ public class BitstreamStorageServiceImpl implements BitstreamStorageService, Ini
             Bitstream bitstream = allBitstreamsInSource.next();
             log.info("Copying bitstream:" + bitstream.getID() + " from assetstore[" + assetstoreSource + "] to assetstore[" + assetstoreDestination + "] Name:" + bitstream.getName() + ", SizeBytes:" + bitstream.getSize());
 
+            // the destination may store the contents under another internal id
+            String sourceInternalId = bitstream.getInternalId();
             InputStream inputStream = retrieve(context, bitstream);
             stores.get(assetstoreDestination).put(bitstream, inputStream);
             bitstream.setStoreNumber(assetstoreDestination);
             bitstreamService.update(context, bitstream);
 
-            if (deleteOld) {
+            // other bitstreams still in the source may share the contents
+            if (deleteOld && bitstreamService.countByInternalId(context, assetstoreSource, sourceInternalId) == 0) {
                 log.info("Removing bitstream:" + bitstream.getID() + " from assetstore[" + assetstoreSource + "]");
-                stores.get(assetstoreSource).remove(bitstream);
+                String destinationInternalId = bitstream.getInternalId();
+                bitstream.setInternalId(sourceInternalId);
+                try {
+                    stores.get(assetstoreSource).remove(bitstream);
+                } finally {
+                    bitstream.setInternalId(destinationInternalId);
+                }
             }
 
             processedCounter++;
@@ -7,6 +7,7 @@
  */
 package org.dspace.storage.bitstore;
 
+import org.apache.commons.io.input.BoundedInputStream;
 import org.apache.log4j.Logger;
 import org.dspace.content.Bitstream;
 import org.dspace.core.Utils;
@@ -96,6 +97,42 @@ public class DSBitStoreService implements BitStoreService
         }
 	}
 
+    /**
+     * Retrieve part of the bits for the asset with ID. The file is positioned
+     * at offset, so the bits before it aren't read.
+     *
+     * @param bitstream
+     *            The ID of the asset to retrieve
+     * @param offset
+     *            The position of the first byte to return
+     * @param length
+     *            The number of bytes to return, or -1 for all bytes up to the end
+     * @exception java.io.IOException
+     *                If a problem occurs while retrieving the bits
+     *
+     * @return The stream of bits
+     */
+	public InputStream get(Bitstream bitstream, long offset, long length) throws IOException
+	{
+        FileInputStream in;
+        try {
+            in = new FileInputStream(getFile(bitstream));
+        } catch (Exception e)
+        {
+            log.error("get(" + bitstream.getInternalId() + ", " + offset + ", " + length + ")", e);
+            throw new IOException(e);
+        }
+
+        try {
+            in.getChannel().position(offset);
+        } catch (IOException e)
+        {
+            in.close();
+            throw e;
+        }
+        return length < 0 ? in : new BoundedInputStream(in, length);
+	}
+
     /**
      * Store a stream of bits.
      *
@@ -0,0 +1,215 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.storage.bitstore;
+
+import org.apache.log4j.Logger;
+import org.dspace.content.Bitstream;
+import org.dspace.core.Utils;
+
+import java.io.*;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Asset store which stores identical contents only once. It wraps another
+ * asset store, and names the contents of a bitstream after their SHA-256
+ * digest instead of a random identifier, so bitstreams with the same contents
+ * share one internal id. The contents are only removed from the wrapped store
+ * once no bitstream refers to them any more (see
+ * {@link BitstreamStorageServiceImpl#cleanup(boolean, boolean)}).
+ * <p>
+ * The contents are first written to a temporary file while the digest is
+ * computed. When the wrapped store is a {@link DSBitStoreService} the file is
+ * moved into the asset store, otherwise it is copied into the wrapped store
+ * unless that already holds the contents.
+ */
+public class DeduplicatingBitStoreService implements BitStoreService
+{
+    /** log4j log */
+    private static Logger log = Logger.getLogger(DeduplicatingBitStoreService.class);
+
+    /** Digest which names the contents */
+    private static final String DIGEST = "SHA-256";
+
+    /** Checksum algorithm stored with the bitstream, as for the other stores */
+    private static final String CSA = "MD5";
+
+    /** the wrapped asset store */
+    private BitStoreService store;
+
+    /** directory for the temporary files */
+    private File tempDir;
+
+    public DeduplicatingBitStoreService()
+    {
+    }
+
+    /**
+     * Initialize the wrapped asset store and the directory for the temporary
+     * files. Without a configured directory a DSBitStoreService uses "tmp" in
+     * its base directory, so the temporary files can be moved into it.
+     */
+    @Override
+    public void init() throws IOException
+    {
+        store.init();
+
+        if (tempDir == null)
+        {
+            if (store instanceof DSBitStoreService && ((DSBitStoreService) store).getBaseDir() != null)
+            {
+                tempDir = new File(((DSBitStoreService) store).getBaseDir(), "tmp");
+            }
+            else
+            {
+                tempDir = new File(System.getProperty("java.io.tmpdir"));
+            }
+        }
+        if (!tempDir.exists() && !tempDir.mkdirs())
+        {
+            throw new IOException("Unable to create the temporary directory " + tempDir);
+        }
+    }
+
+    @Override
+    public String generateId()
+    {
+        return store.generateId();
+    }
+
+    @Override
+    public InputStream get(Bitstream bitstream) throws IOException
+    {
+        return store.get(bitstream);
+    }
+
+    @Override
+    public InputStream get(Bitstream bitstream, long offset, long length) throws IOException
+    {
+        return store.get(bitstream, offset, length);
+    }
+
+    /**
+     * Store a stream of bits under the digest of the bits. The internal id of
+     * the bitstream is replaced by the digest; when the wrapped store already
+     * holds the same bits they aren't stored again.
+     *
+     * @param bitstream
+     *            The bitstream to store
+     * @param in
+     *            The stream of bits to store
+     * @exception java.io.IOException
+     *             If a problem occurs while storing the bits
+     */
+    @Override
+    public void put(Bitstream bitstream, InputStream in) throws IOException
+    {
+        File temp = File.createTempFile("dedup", null, tempDir);
+        try
+        {
+            MessageDigest digest;
+            MessageDigest checksum;
+            try
+            {
+                digest = MessageDigest.getInstance(DIGEST);
+                checksum = MessageDigest.getInstance(CSA);
+            }
+            catch (NoSuchAlgorithmException e)
+            {
+                throw new IOException(e);
+            }
+
+            try (InputStream dis = new DigestInputStream(new DigestInputStream(in, digest), checksum);
+                 OutputStream out = new FileOutputStream(temp))
+            {
+                Utils.bufferedCopy(dis, out);
+            }
+
+            bitstream.setInternalId(Utils.toHex(digest.digest()));
+            bitstream.setSizeBytes(temp.length());
+            bitstream.setChecksum(Utils.toHex(checksum.digest()));
+            bitstream.setChecksumAlgorithm(CSA);
+
+            Map attrs = new HashMap();
+            attrs.put("size_bytes", null);
+            attrs.put("modified", null);
+            if (store.about(bitstream, attrs) != null)
+            {
+                log.debug("Contents of bitstream " + bitstream.getID() + " are already stored as " + bitstream.getInternalId());
+                if (store instanceof DSBitStoreService)
+                {
+                    // a cleanup running now must not take the contents for unused
+                    ((DSBitStoreService) store).getFile(bitstream).setLastModified(System.currentTimeMillis());
+                }
+                return;
+            }
+
+            if (store instanceof DSBitStoreService)
+            {
+                File file = ((DSBitStoreService) store).getFile(bitstream);
+                File parent = file.getParentFile();
+                if (!parent.exists())
+                {
+                    parent.mkdirs();
+                }
+                // another thread may have stored the same contents meanwhile
+                if (temp.renameTo(file) || file.exists())
+                {
+                    return;
+                }
+            }
+
+            try (InputStream stored = new FileInputStream(temp))
+            {
+                store.put(bitstream, stored);
+            }
+        }
+        finally
+        {
+            if (temp.exists() && !temp.delete())
+            {
+                log.warn("Unable to delete the temporary file " + temp);
+            }
+        }
+    }
+
+    @Override
+    public Map about(Bitstream bitstream, Map attrs) throws IOException
+    {
+        return store.about(bitstream, attrs);
+    }
+
+    @Override
+    public void remove(Bitstream bitstream) throws IOException
+    {
+        store.remove(bitstream);
+    }
+
+    public BitStoreService getStore()
+    {
+        return store;
+    }
+
+    public void setStore(BitStoreService store)
+    {
+        this.store = store;
+    }
+
+    public File getTempDir()
+    {
+        return tempDir;
+    }
+
+    public void setTempDir(File tempDir)
+    {
+        this.tempDir = tempDir;
+    }
+}
@@ -0,0 +1,268 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.storage.bitstore;
+
+import org.apache.log4j.Logger;
+import org.dspace.core.Utils;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read-through cache of asset store contents on the local disk, for asset
+ * stores which are slow to read from, like {@link S3BitStoreService}. The
+ * contents are kept in files named after the asset store number and the
+ * internal id, so several asset stores may share a cache. When the cache grows
+ * beyond its maximum size the least recently used files are removed.
+ */
+public class LocalBitstreamCache
+{
+    /** log4j log */
+    private static Logger log = Logger.getLogger(LocalBitstreamCache.class);
+
+    /** suffix of the files which are being written */
+    private static final String PART_SUFFIX = ".part";
+
+    /** the directory holding the cached contents */
+    private final File directory;
+
+    /** the maximum size of the cache, in bytes */
+    private final long maxSize;
+
+    /** the current size of the cache, in bytes */
+    private final AtomicLong size = new AtomicLong();
+
+    /**
+     * @param directory
+     *            the directory holding the cached contents, created if needed
+     * @param maxSize
+     *            the maximum size of the cache, in bytes
+     * @throws IOException
+     *             if the directory can't be created
+     */
+    public LocalBitstreamCache(File directory, long maxSize) throws IOException
+    {
+        this.directory = directory;
+        this.maxSize = maxSize;
+
+        if (!directory.exists() && !directory.mkdirs())
+        {
+            throw new IOException("Unable to create the cache directory " + directory);
+        }
+        // contents cached by an earlier run are kept, unless they weren't complete
+        for (File file : listFiles())
+        {
+            if (file.getName().endsWith(PART_SUFFIX))
+            {
+                file.delete();
+            }
+            else
+            {
+                size.addAndGet(file.length());
+            }
+        }
+        evict();
+    }
+
+    /**
+     * Whether contents of the given size are worth caching. Contents larger
+     * than a tenth of the cache would push out too much else.
+     *
+     * @param length
+     *            the size of the contents, in bytes
+     * @return true if the contents should be cached
+     */
+    public boolean accepts(long length)
+    {
+        return length <= maxSize / 10;
+    }
+
+    /**
+     * Open the cached contents for the given internal id.
+     *
+     * @param storeNumber
+     *            the number of the asset store holding the contents
+     * @param internalId
+     *            the internal id of the contents
+     * @return the cached contents, or null if they aren't cached
+     */
+    public InputStream get(int storeNumber, String internalId)
+    {
+        File file = getFile(storeNumber, internalId);
+        try
+        {
+            InputStream in = new FileInputStream(file);
+            file.setLastModified(System.currentTimeMillis());
+            return in;
+        }
+        catch (FileNotFoundException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Cache the contents for the given internal id. The stream is read to the
+     * end and closed.
+     *
+     * @param storeNumber
+     *            the number of the asset store holding the contents
+     * @param internalId
+     *            the internal id of the contents
+     * @param in
+     *            the contents
+     * @return the cached contents
+     * @throws IOException
+     *             if the contents can't be read or written
+     */
+    public InputStream put(int storeNumber, String internalId, InputStream in) throws IOException
+    {
+        File file = getFile(storeNumber, internalId);
+        File parent = file.getParentFile();
+        if (!parent.exists())
+        {
+            parent.mkdirs();
+        }
+
+        File temp = File.createTempFile(file.getName(), PART_SUFFIX, parent);
+        try
+        {
+            try (OutputStream out = new FileOutputStream(temp))
+            {
+                Utils.bufferedCopy(in, out);
+            }
+            finally
+            {
+                in.close();
+            }
+
+            long length = temp.length();
+            if (file.exists())
+            {
+                // another thread cached the same contents meanwhile
+                length -= file.length();
+                file.delete();
+            }
+            if (!temp.renameTo(file))
+            {
+                throw new IOException("Unable to move " + temp + " to " + file);
+            }
+            size.addAndGet(length);
+        }
+        finally
+        {
+            temp.delete();
+        }
+
+        InputStream cached = new FileInputStream(file);
+        evict();
+        return cached;
+    }
+
+    /**
+     * Remove the cached contents for the given internal id, if any.
+     *
+     * @param storeNumber
+     *            the number of the asset store holding the contents
+     * @param internalId
+     *            the internal id of the contents
+     */
+    public void remove(int storeNumber, String internalId)
+    {
+        File file = getFile(storeNumber, internalId);
+        long length = file.length();
+        if (file.delete())
+        {
+            size.addAndGet(-length);
+        }
+    }
+
+    /**
+     * Remove the least recently used contents until the cache is no larger
+     * than its maximum size.
+     */
+    protected synchronized void evict()
+    {
+        if (size.get() <= maxSize)
+        {
+            return;
+        }
+
+        List<File> files = listFiles();
+        // the modification times change while sorting when files are read
+        final Map<File, Long> lastModified = new HashMap<>();
+        for (File file : files)
+        {
+            lastModified.put(file, file.lastModified());
+        }
+        Collections.sort(files, new Comparator<File>()
+        {
+            @Override
+            public int compare(File f1, File f2)
+            {
+                return lastModified.get(f1).compareTo(lastModified.get(f2));
+            }
+        });
+
+        for (File file : files)
+        {
+            if (size.get() <= maxSize)
+            {
+                break;
+            }
+            if (file.getName().endsWith(PART_SUFFIX))
+            {
+                // still being written
+                continue;
+            }
+            long length = file.length();
+            if (file.delete())
+            {
+                size.addAndGet(-length);
+                log.debug("Evicted " + file.getName() + " from the bitstream cache");
+            }
+        }
+    }
+
+    /**
+     * The cached contents are spread over subdirectories named after the first
+     * two characters of the internal id.
+     */
+    protected File getFile(int storeNumber, String internalId)
+    {
+        // the internal id is supposed to be a plain file name
+        String name = internalId.replace('/', '_').replace(File.separatorChar, '_');
+        String subdirectory = name.length() > 2 ? name.substring(0, 2) : "_";
+        return new File(new File(directory, subdirectory), storeNumber + "-" + name);
+    }
+
+    private List<File> listFiles()
+    {
+        List<File> files = new ArrayList<>();
+        File[] subdirectories = directory.listFiles();
+        if (subdirectories != null)
+        {
+            for (File subdirectory : subdirectories)
+            {
+                File[] cached = subdirectory.listFiles();
+                if (cached != null)
+                {
+                    files.addAll(Arrays.asList(cached));
+                }
+            }
+        }
+        return files;
+    }
+}
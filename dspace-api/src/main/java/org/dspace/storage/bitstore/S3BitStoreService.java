@@ -7,14 +7,18 @@
  */
 package org.dspace.storage.bitstore;
 
+import com.amazonaws.ClientConfiguration;
 import com.amazonaws.auth.AWSCredentials;
 import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.regions.Region;
 import com.amazonaws.regions.Regions;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.S3ClientOptions;
 import com.amazonaws.services.s3.model.*;
-import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.commons.io.output.NullOutputStream;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.http.HttpStatus;
 import org.apache.log4j.Logger;
@@ -23,15 +27,28 @@ import org.dspace.core.ConfigurationManager;
 import org.dspace.core.Utils;
 import org.springframework.beans.factory.annotation.Required;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Asset store using Amazon's Simple Storage Service (S3).
  * S3 is a commercial, web-service accessible, remote storage facility.
  * NB: you must have obtained an account with Amazon to use this store
+ * <p>
+ * Bitstreams larger than the part size are uploaded in parts, several at a
+ * time, while the MD5 checksum is computed from the incoming stream. Setting
+ * an endpoint allows any S3 compatible service to be used, and setting a cache
+ * directory keeps recently read bitstreams on the local disk.
  * 
  * @author Richard Rodgers, Peter Dietz
  */ 
@@ -44,6 +61,9 @@ public class S3BitStoreService implements BitStoreService
     /** Checksum algorithm */
     private static final String CSA = "MD5";
 
+    /** The smallest part S3 accepts in a multipart upload, except for the last */
+    private static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+
     private String awsAccessKey;
     private String awsSecretKey;
     private String awsRegionName;
@@ -54,9 +74,40 @@ public class S3BitStoreService implements BitStoreService
     /** (Optional) subfolder within bucket where objects are stored */
     private String subfolder = null;
 	
+    /** (Optional) endpoint of an S3 compatible service, instead of Amazon's */
+    private String endpoint = null;
+
+    /** Address buckets as part of the path instead of the host name */
+    private boolean pathStyleAccess = false;
+
+    /** Maximum number of open connections to S3 */
+    private int maxConnections = ClientConfiguration.DEFAULT_MAX_CONNECTIONS;
+
+    /** Timeouts for opening a connection and for reading from it, in milliseconds */
+    private int connectionTimeout = ClientConfiguration.DEFAULT_CONNECTION_TIMEOUT;
+    private int socketTimeout = ClientConfiguration.DEFAULT_SOCKET_TIMEOUT;
+
+    /** Size of the parts of a multipart upload, in bytes */
+    private int partSize = 16 * 1024 * 1024;
+
+    /** Number of parts uploaded at the same time */
+    private int uploadThreads = 4;
+
+    /** (Optional) directory for the local cache of recently read bitstreams */
+    private File cacheDir = null;
+
+    /** Maximum size of the local cache, in bytes */
+    private long cacheSize = 1024L * 1024 * 1024;
+
 	/** S3 service */
 	private AmazonS3 s3Service = null;
 
+    /** Uploads the parts of multipart uploads */
+    private ExecutorService uploadExecutor = null;
+
+    /** Local cache of recently read bitstreams, if configured */
+    private LocalBitstreamCache cache = null;
+
     public S3BitStoreService()
     {
     }
@@ -73,9 +124,21 @@ public class S3BitStoreService implements BitStoreService
             log.warn("Empty S3 access or secret");
         }
 
-        // init client
+        // init client, connections are kept open and reused up to maxConnections
         AWSCredentials awsCredentials = new BasicAWSCredentials(getAwsAccessKey(), getAwsSecretKey());
-        s3Service = new AmazonS3Client(awsCredentials);
+        ClientConfiguration clientConfiguration = new ClientConfiguration();
+        clientConfiguration.setMaxConnections(maxConnections);
+        clientConfiguration.setConnectionTimeout(connectionTimeout);
+        clientConfiguration.setSocketTimeout(socketTimeout);
+        clientConfiguration.setUseTcpKeepAlive(true);
+        s3Service = new AmazonS3Client(awsCredentials, clientConfiguration);
+        if(StringUtils.isNotBlank(endpoint)) {
+            s3Service.setEndpoint(endpoint);
+            log.info("S3 Endpoint set to: " + endpoint);
+        }
+        if(pathStyleAccess) {
+            s3Service.setS3ClientOptions(new S3ClientOptions().withPathStyleAccess(true));
+        }
 
         // bucket name
         if(StringUtils.isEmpty(bucketName)) {
@@ -95,8 +158,8 @@ public class S3BitStoreService implements BitStoreService
             throw new IOException(e);
         }
 
-        // region
-        if(StringUtils.isNotBlank(awsRegionName)) {
+        // region, an endpoint takes precedence
+        if(StringUtils.isNotBlank(awsRegionName) && StringUtils.isBlank(endpoint)) {
             try {
                 Regions regions = Regions.fromName(awsRegionName);
                 Region region = Region.getRegion(regions);
@@ -107,6 +170,29 @@ public class S3BitStoreService implements BitStoreService
             }
         }
 
+        if(partSize < MIN_PART_SIZE) {
+            log.warn("S3 partSize " + partSize + " is too small, using " + MIN_PART_SIZE);
+            partSize = MIN_PART_SIZE;
+        }
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(uploadThreads, uploadThreads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "s3-upload-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        uploadExecutor = executor;
+
+        if(cacheDir != null) {
+            cache = new LocalBitstreamCache(cacheDir, cacheSize);
+            log.info("S3 cache in " + cacheDir + ", at most " + cacheSize + " bytes");
+        }
+
         log.info("AWS S3 Assetstore ready to go! bucket:"+bucketName);
     }
 	
@@ -138,8 +224,25 @@ public class S3BitStoreService implements BitStoreService
         String key = getFullKey(bitstream.getInternalId());
 		try
 		{
+            if (cache != null)
+            {
+                InputStream cached = cache.get(bitstream.getStoreNumber(), bitstream.getInternalId());
+                if (cached != null)
+                {
+                    return cached;
+                }
+            }
+
             S3Object object = s3Service.getObject(new GetObjectRequest(bucketName, key));
-			return (object != null) ? object.getObjectContent() : null;
+            if (object == null)
+            {
+                return null;
+            }
+            if (cache != null && cache.accepts(object.getObjectMetadata().getContentLength()))
+            {
+                return cache.put(bitstream.getStoreNumber(), bitstream.getInternalId(), object.getObjectContent());
+            }
+			return object.getObjectContent();
 		}
         catch (Exception e)
 		{
@@ -149,7 +252,62 @@ public class S3BitStoreService implements BitStoreService
 	}
 
     /**
-     * Store a stream of bits.
+     * Retrieve part of the bits for the asset with ID, using a ranged GET so only
+     * the requested bytes are transferred.
+     *
+     * @param bitstream
+     *            The ID of the asset to retrieve
+     * @param offset
+     *            The position of the first byte to return
+     * @param length
+     *            The number of bytes to return, or -1 for all bytes up to the end
+     * @exception java.io.IOException
+     *                If a problem occurs while retrieving the bits
+     *
+     * @return The stream of bits, or null
+     */
+	public InputStream get(Bitstream bitstream, long offset, long length) throws IOException
+	{
+        String key = getFullKey(bitstream.getInternalId());
+		try
+		{
+            if (cache != null)
+            {
+                InputStream cached = cache.get(bitstream.getStoreNumber(), bitstream.getInternalId());
+                if (cached != null)
+                {
+                    IOUtils.skipFully(cached, offset);
+                    return length < 0 ? cached : new BoundedInputStream(cached, length);
+                }
+            }
+
+            GetObjectRequest request = new GetObjectRequest(bucketName, key);
+            if (length < 0)
+            {
+                request.setRange(offset);
+            }
+            else if (length > 0)
+            {
+                request.setRange(offset, offset + length - 1);
+            }
+            else
+            {
+                return new ByteArrayInputStream(new byte[0]);
+            }
+            S3Object object = s3Service.getObject(request);
+			return (object != null) ? object.getObjectContent() : null;
+		}
+        catch (Exception e)
+		{
+            log.error("get("+key+", "+offset+", "+length+")", e);
+        	throw new IOException(e);
+		}
+	}
+
+    /**
+     * Store a stream of bits. Streams larger than the part size are uploaded
+     * in parts, which are sent at the same time by the upload threads. At most
+     * one part per upload thread and the part being read are held in memory.
      *
      * <p>
      * If this method returns successfully, the bits have been stored.
@@ -166,31 +324,107 @@ public class S3BitStoreService implements BitStoreService
 	public void put(Bitstream bitstream, InputStream in) throws IOException
 	{
         String key = getFullKey(bitstream.getInternalId());
-        //Copy istream to temp file, and send the file, with some metadata
-        File scratchFile = File.createTempFile(bitstream.getInternalId(), "s3bs");
         try {
-            FileUtils.copyInputStreamToFile(in, scratchFile);
-            Long contentLength = Long.valueOf(scratchFile.length());
-
-            PutObjectRequest putObjectRequest = new PutObjectRequest(bucketName, key, scratchFile);
-            PutObjectResult putObjectResult = s3Service.putObject(putObjectRequest);
+            // the ETag of a multipart upload isn't the MD5 of the contents, so compute it here
+            DigestInputStream dis = new DigestInputStream(in, MessageDigest.getInstance(CSA));
+
+            byte[] part = readPart(dis);
+            long contentLength;
+            if (part.length < partSize) {
+                ObjectMetadata objectMetadata = new ObjectMetadata();
+                objectMetadata.setContentLength(part.length);
+                s3Service.putObject(new PutObjectRequest(bucketName, key, new ByteArrayInputStream(part), objectMetadata));
+                contentLength = part.length;
+            } else {
+                contentLength = putMultipart(key, dis, part);
+            }
 
             bitstream.setSizeBytes(contentLength);
-            bitstream.setChecksum(putObjectResult.getETag());
+            bitstream.setChecksum(Utils.toHex(dis.getMessageDigest().digest()));
             bitstream.setChecksumAlgorithm(CSA);
-
-            scratchFile.delete();
-
         } catch(Exception e) {
             log.error("put(" + bitstream.getInternalId() +", is)", e);
             throw new IOException(e);
         } finally {
-            if(scratchFile.exists()) {
-                scratchFile.delete();
-            }
+            in.close();
         }
 	}
 
+    /**
+     * Upload the stream in parts, starting with the part already read.
+     *
+     * @return the number of bytes uploaded
+     */
+    protected long putMultipart(final String key, InputStream in, byte[] firstPart)
+            throws IOException, InterruptedException, ExecutionException
+    {
+        final String uploadId = s3Service.initiateMultipartUpload(
+                new InitiateMultipartUploadRequest(bucketName, key)).getUploadId();
+        final Semaphore inFlight = new Semaphore(uploadThreads);
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+        List<Future<PartETag>> uploads = new ArrayList<>();
+        long contentLength = 0;
+        try {
+            byte[] part = firstPart;
+            int partNumber = 1;
+            while (part.length > 0) {
+                inFlight.acquire();
+                if (failure.get() != null) {
+                    // don't read the rest of the stream for nothing
+                    inFlight.release();
+                    break;
+                }
+
+                final byte[] bytes = part;
+                final int number = partNumber++;
+                uploads.add(uploadExecutor.submit(new Callable<PartETag>() {
+                    @Override
+                    public PartETag call() throws Exception {
+                        try {
+                            return s3Service.uploadPart(new UploadPartRequest()
+                                    .withBucketName(bucketName).withKey(key).withUploadId(uploadId)
+                                    .withPartNumber(number).withPartSize(bytes.length)
+                                    .withInputStream(new ByteArrayInputStream(bytes))).getPartETag();
+                        } catch (Exception e) {
+                            failure.compareAndSet(null, e);
+                            throw e;
+                        } finally {
+                            inFlight.release();
+                        }
+                    }
+                }));
+                contentLength += part.length;
+                part = readPart(in);
+            }
+
+            List<PartETag> partETags = new ArrayList<>();
+            for (Future<PartETag> upload : uploads) {
+                partETags.add(upload.get());
+            }
+            s3Service.completeMultipartUpload(new CompleteMultipartUploadRequest(bucketName, key, uploadId, partETags));
+            return contentLength;
+        } catch (Exception e) {
+            for (Future<PartETag> upload : uploads) {
+                upload.cancel(true);
+            }
+            try {
+                s3Service.abortMultipartUpload(new AbortMultipartUploadRequest(bucketName, key, uploadId));
+            } catch (Exception abortFailure) {
+                log.warn("Unable to abort the multipart upload of " + key, abortFailure);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Read the next part of a stream, which is shorter than the part size only
+     * at the end of the stream.
+     */
+    protected byte[] readPart(InputStream in) throws IOException
+    {
+        return IOUtils.toByteArray(new BoundedInputStream(in, partSize));
+    }
+
     /**
      * Obtain technical metadata about an asset in the asset store.
      *
@@ -219,7 +453,13 @@ public class S3BitStoreService implements BitStoreService
                     attrs.put("size_bytes", objectMetadata.getContentLength());
                 }
                 if (attrs.containsKey("checksum")) {
-                    attrs.put("checksum", objectMetadata.getETag());
+                    String eTag = objectMetadata.getETag();
+                    if (eTag != null && eTag.contains("-")) {
+                        // the ETag of a multipart upload isn't an MD5 digest, compute it
+                        attrs.put("checksum", computeChecksum(bitstream));
+                    } else {
+                        attrs.put("checksum", eTag);
+                    }
                     attrs.put("checksum_algorithm", CSA);
                 }
                 if (attrs.containsKey("modified")) {
@@ -238,6 +478,20 @@ public class S3BitStoreService implements BitStoreService
         return null;
 	}
 
+    /**
+     * Compute the MD5 checksum of a bitstream by reading it from S3. The local
+     * cache is bypassed, as the checksum has to tell whether the stored object
+     * is intact, and the cache isn't filled with bitstreams nobody asked for.
+     */
+    protected String computeChecksum(Bitstream bitstream) throws Exception
+    {
+        S3Object object = s3Service.getObject(new GetObjectRequest(bucketName, getFullKey(bitstream.getInternalId())));
+        try (DigestInputStream dis = new DigestInputStream(object.getObjectContent(), MessageDigest.getInstance(CSA))) {
+            IOUtils.copy(dis, new NullOutputStream());
+            return Utils.toHex(dis.getMessageDigest().digest());
+        }
+    }
+
     /**
      * Remove an asset from the asset store. An irreversible operation.
      *
@@ -251,6 +505,9 @@ public class S3BitStoreService implements BitStoreService
         String key = getFullKey(bitstream.getInternalId());
         try {
             s3Service.deleteObject(bucketName, key);
+            if (cache != null) {
+                cache.remove(bitstream.getStoreNumber(), bitstream.getInternalId());
+            }
         } catch (Exception e) {
             log.error("remove("+key+")", e);
             throw new IOException(e);
@@ -305,6 +562,78 @@ public class S3BitStoreService implements BitStoreService
         this.bucketName = bucketName;
     }
 
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public void setEndpoint(String endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    public boolean isPathStyleAccess() {
+        return pathStyleAccess;
+    }
+
+    public void setPathStyleAccess(boolean pathStyleAccess) {
+        this.pathStyleAccess = pathStyleAccess;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    public int getConnectionTimeout() {
+        return connectionTimeout;
+    }
+
+    public void setConnectionTimeout(int connectionTimeout) {
+        this.connectionTimeout = connectionTimeout;
+    }
+
+    public int getSocketTimeout() {
+        return socketTimeout;
+    }
+
+    public void setSocketTimeout(int socketTimeout) {
+        this.socketTimeout = socketTimeout;
+    }
+
+    public int getPartSize() {
+        return partSize;
+    }
+
+    public void setPartSize(int partSize) {
+        this.partSize = partSize;
+    }
+
+    public int getUploadThreads() {
+        return uploadThreads;
+    }
+
+    public void setUploadThreads(int uploadThreads) {
+        this.uploadThreads = uploadThreads;
+    }
+
+    public File getCacheDir() {
+        return cacheDir;
+    }
+
+    public void setCacheDir(File cacheDir) {
+        this.cacheDir = cacheDir;
+    }
+
+    public long getCacheSize() {
+        return cacheSize;
+    }
+
+    public void setCacheSize(long cacheSize) {
+        this.cacheSize = cacheSize;
+    }
+
     public String getSubfolder() {
         return subfolder;
     }
@@ -133,6 +133,28 @@ public interface BitstreamStorageService {
     public InputStream retrieve(Context context, Bitstream bitstream)
             throws SQLException, IOException;
 
+    /**
+     * Retrieve part of the bits for the bitstream. The asset store skips to
+     * offset, so the bits before it aren't read.
+     *
+     * @param context
+     *            The current context
+     * @param bitstream
+     *            The bitstream to retrieve
+     * @param offset
+     *            The position of the first byte to return
+     * @param length
+     *            The number of bytes to return, or -1 for all bytes up to the end
+     * @exception IOException
+     *                If a problem occurs while retrieving the bits
+     * @exception SQLException
+     *                If a problem occurs accessing the RDBMS
+     *
+     * @return The stream of bits, or null
+     */
+    public InputStream retrieve(Context context, Bitstream bitstream, long offset, long length)
+            throws SQLException, IOException;
+
     /**
      * Clean up the bitstream storage area. This method deletes any bitstreams
      * which are more than 1 hour old and marked deleted. The deletions cannot
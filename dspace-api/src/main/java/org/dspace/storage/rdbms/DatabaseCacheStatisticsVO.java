@@ -0,0 +1,80 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.storage.rdbms;
+
+/**
+ * Value object for the statistics of one region of the database (second level or query) cache.
+ * The statistics are retrieved by the implementation of the org.dspace.core.DBConnection object
+ * and are only collected when db.cache.statistics is enabled.
+ * This class is just used to export & can be used for display purposes
+ */
+public class DatabaseCacheStatisticsVO {
+
+    private String regionName;
+
+    private long hitCount;
+
+    private long missCount;
+
+    private long putCount;
+
+    private long elementCount;
+
+    public DatabaseCacheStatisticsVO()
+    {
+
+    }
+
+    public String getRegionName() {
+        return regionName;
+    }
+
+    public void setRegionName(String regionName) {
+        this.regionName = regionName;
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public void setHitCount(long hitCount) {
+        this.hitCount = hitCount;
+    }
+
+    public long getMissCount() {
+        return missCount;
+    }
+
+    public void setMissCount(long missCount) {
+        this.missCount = missCount;
+    }
+
+    public long getPutCount() {
+        return putCount;
+    }
+
+    public void setPutCount(long putCount) {
+        this.putCount = putCount;
+    }
+
+    public long getElementCount() {
+        return elementCount;
+    }
+
+    public void setElementCount(long elementCount) {
+        this.elementCount = elementCount;
+    }
+
+    /**
+     * @return the fraction of lookups which were found in the cache, 0 if there were no lookups
+     */
+    public double getHitRatio() {
+        long lookups = hitCount + missCount;
+        return lookups == 0 ? 0 : (double) hitCount / lookups;
+    }
+}
@@ -0,0 +1,15 @@
+--
+-- The contents of this file are subject to the license and copyright
+-- detailed in the LICENSE and NOTICE files at the root of the source
+-- tree and available online at
+--
+-- http://www.dspace.org/license/
+--
+
+------------------------------------------------------
+-- Modification stamp of DSpace objects, increased on every update, so
+-- caches can tell whether an object changed without reading its metadata
+------------------------------------------------------
+
+ALTER TABLE dspaceobject
+      ADD (modification_stamp BIGINT DEFAULT 0 NOT NULL);
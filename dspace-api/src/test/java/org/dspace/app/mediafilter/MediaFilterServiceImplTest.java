@@ -0,0 +1,363 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.app.mediafilter;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.dspace.AbstractUnitTest;
+import org.dspace.authorize.AuthorizeException;
+import org.dspace.content.Collection;
+import org.dspace.content.Community;
+import org.dspace.content.Item;
+import org.dspace.content.WorkspaceItem;
+import org.dspace.content.factory.ContentServiceFactory;
+import org.dspace.content.service.CollectionService;
+import org.dspace.content.service.CommunityService;
+import org.dspace.content.service.InstallItemService;
+import org.dspace.content.service.ItemService;
+import org.dspace.content.service.WorkspaceItemService;
+import org.dspace.core.Context;
+import org.dspace.services.ConfigurationService;
+import org.dspace.services.factory.DSpaceServicesFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit Tests for the threads, the per filter limits and the timeout of class
+ * MediaFilterServiceImpl
+ */
+public class MediaFilterServiceImplTest extends AbstractUnitTest
+{
+    /** log4j category */
+    private static final Logger log = Logger.getLogger(MediaFilterServiceImplTest.class);
+
+    private CommunityService communityService = ContentServiceFactory.getInstance().getCommunityService();
+    private CollectionService collectionService = ContentServiceFactory.getInstance().getCollectionService();
+    private WorkspaceItemService workspaceItemService = ContentServiceFactory.getInstance().getWorkspaceItemService();
+    private InstallItemService installItemService = ContentServiceFactory.getInstance().getInstallItemService();
+    private ItemService itemService = ContentServiceFactory.getInstance().getItemService();
+    private ConfigurationService configurationService = DSpaceServicesFactory.getInstance().getConfigurationService();
+
+    private Community community;
+
+    private Item item;
+
+    private MediaFilterServiceImpl service;
+
+    @Before
+    @Override
+    public void init()
+    {
+        super.init();
+        try
+        {
+            context.turnOffAuthorisationSystem();
+            community = communityService.create(null, context);
+            Collection collection = collectionService.create(context, community);
+            WorkspaceItem workspaceItem = workspaceItemService.create(context, collection, false);
+            item = installItemService.installItem(context, workspaceItem);
+            context.restoreAuthSystemState();
+            // the filter and worker threads only see what is committed
+            context.commit();
+        }
+        catch (SQLException | AuthorizeException ex)
+        {
+            log.error("Error in init", ex);
+            fail("Error in init: " + ex.getMessage());
+        }
+        service = new MediaFilterServiceImpl();
+        service.configurationService = configurationService;
+        service.itemService = itemService;
+    }
+
+    @After
+    @Override
+    public void destroy()
+    {
+        BlockingFilter.release.countDown();
+        try
+        {
+            context.turnOffAuthorisationSystem();
+            communityService.delete(context, communityService.find(context, community.getID()));
+            context.restoreAuthSystemState();
+        }
+        catch (SQLException | AuthorizeException | IOException ex)
+        {
+            log.error("Error in destroy", ex);
+        }
+        configurationService.setProperty("filter." + BlockingFilter.class.getName() + ".threads", null);
+        community = null;
+        item = null;
+        service = null;
+        super.destroy();
+    }
+
+    private InputStream source()
+    {
+        return new ByteArrayInputStream(new byte[] { 1, 2, 3 });
+    }
+
+    /**
+     * Test that the worker threads filter the items with contexts of their own.
+     */
+    @Test(timeout = 60000)
+    public void testWorkers() throws Exception
+    {
+        final List<String> workerThreads = Collections.synchronizedList(new ArrayList<String>());
+        final List<Context> contexts = Collections.synchronizedList(new ArrayList<Context>());
+        MediaFilterServiceImpl workerService = new MediaFilterServiceImpl()
+        {
+            @Override
+            public void applyFiltersItem(Context c, Item filtered)
+            {
+                workerThreads.add(Thread.currentThread().getName());
+                contexts.add(c);
+                processed.incrementAndGet();
+            }
+        };
+        workerService.itemService = itemService;
+        workerService.setThreads(2);
+
+        boolean started = workerService.startWorkers(context);
+        assertThat("testWorkers 0", started, equalTo(true));
+        // nested calls use the running workers
+        assertThat("testWorkers 1", workerService.startWorkers(context), equalTo(false));
+        for (int i = 0; i < 5; i++)
+        {
+            workerService.queueItem(context, item);
+        }
+        workerService.finishWorkers(started);
+
+        assertThat("testWorkers 2", workerThreads.size(), equalTo(5));
+        for (String thread : workerThreads)
+        {
+            assertThat("testWorkers 3", thread, startsWith("media-filter-worker-"));
+        }
+        assertThat("testWorkers 4", contexts.contains(context), equalTo(false));
+        assertThat("testWorkers 5", workerService.workers, nullValue());
+    }
+
+    /**
+     * Test that a filter class only works on as many bitstreams at the same
+     * time as it is allowed to.
+     */
+    @Test(timeout = 60000)
+    public void testFilterLimit() throws Exception
+    {
+        configurationService.setProperty("filter." + BlockingFilter.class.getName() + ".threads", 1);
+        service.setThreads(3);
+        final BlockingFilter filter = new BlockingFilter(false);
+        BlockingFilter.release = new CountDownLatch(1);
+
+        ExecutorService callers = Executors.newFixedThreadPool(3);
+        List<Future<InputStream>> results = new ArrayList<>();
+        for (int i = 0; i < 3; i++)
+        {
+            results.add(callers.submit(new Callable<InputStream>()
+            {
+                @Override
+                public InputStream call() throws Exception
+                {
+                    return service.getDestinationStream(filter, item, source());
+                }
+            }));
+        }
+        Thread.sleep(500);
+        assertThat("testFilterLimit 0", filter.started.get(), equalTo(1));
+
+        BlockingFilter.release.countDown();
+        for (Future<InputStream> result : results)
+        {
+            assertThat("testFilterLimit 1", result.get(), notNullValue());
+        }
+        callers.shutdown();
+        assertThat("testFilterLimit 2", filter.started.get(), equalTo(3));
+        assertThat("testFilterLimit 3", filter.maxRunning.get(), equalTo(1));
+    }
+
+    /**
+     * Test that a filter which takes too long is given up on, while it keeps
+     * the turn of its filter class until it really ends.
+     */
+    @Test(timeout = 60000)
+    public void testTimeout() throws Exception
+    {
+        configurationService.setProperty("filter." + BlockingFilter.class.getName() + ".threads", 1);
+        service.setThreads(2);
+        service.setTimeout(1);
+        BlockingFilter filter = new BlockingFilter(true);
+        BlockingFilter.release = new CountDownLatch(1);
+
+        try
+        {
+            service.getDestinationStream(filter, item, source());
+            fail("testTimeout 0");
+        }
+        catch (TimeoutException e)
+        {
+            assertThat("testTimeout 1", e.getMessage(), containsString("1 seconds"));
+        }
+        assertThat("testTimeout 2", service.getStatistics(filter).timedOut.get(), equalTo(1));
+        // the filter ran on the filter executor, with an item of its own
+        assertThat("testTimeout 3", filter.thread, startsWith("media-filter-"));
+        assertThat("testTimeout 4", filter.item, not(sameInstance(item)));
+        assertThat("testTimeout 5", filter.item.getID(), equalTo(item.getID()));
+
+        // the abandoned filter still has the turn
+        Semaphore limit = service.getFilterLimit(filter);
+        assertThat("testTimeout 6", limit.availablePermits(), equalTo(0));
+        BlockingFilter.release.countDown();
+        assertThat("testTimeout 7", limit.tryAcquire(10, TimeUnit.SECONDS), equalTo(true));
+        limit.release();
+    }
+
+    /**
+     * Test that filters aren't started when all filter threads are taken by
+     * filters which timed out.
+     */
+    @Test(timeout = 60000)
+    public void testFilterThreadsBusy() throws Exception
+    {
+        service.setTimeout(1);
+        BlockingFilter filter = new BlockingFilter(true);
+        BlockingFilter.release = new CountDownLatch(1);
+
+        for (int i = 0; i < service.filterExecutorThreads(); i++)
+        {
+            try
+            {
+                service.getDestinationStream(filter, item, source());
+                fail("testFilterThreadsBusy 0");
+            }
+            catch (TimeoutException e)
+            {
+                // abandoned, keeps its thread
+            }
+        }
+        try
+        {
+            service.getDestinationStream(filter, item, source());
+            fail("testFilterThreadsBusy 1");
+        }
+        catch (RejectedExecutionException e)
+        {
+            assertThat("testFilterThreadsBusy 2", e.getMessage(), containsString("filter threads are busy"));
+        }
+
+        // the threads are free again once the filters end
+        BlockingFilter.release.countDown();
+        Thread.sleep(500);
+        assertThat("testFilterThreadsBusy 3", service.getDestinationStream(filter, item, source()),
+                notNullValue());
+    }
+
+    /**
+     * A filter which waits until it is released, optionally ignoring
+     * interruptions like a filter working inside the JVM might.
+     */
+    static class BlockingFilter extends MediaFilter
+    {
+        static volatile CountDownLatch release = new CountDownLatch(0);
+
+        private final boolean ignoreInterrupts;
+
+        final AtomicInteger started = new AtomicInteger();
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+
+        volatile String thread;
+        volatile Item item;
+
+        BlockingFilter(boolean ignoreInterrupts)
+        {
+            this.ignoreInterrupts = ignoreInterrupts;
+        }
+
+        @Override
+        public InputStream getDestinationStream(Item item, InputStream source, boolean verbose)
+                throws Exception
+        {
+            this.thread = Thread.currentThread().getName();
+            this.item = item;
+            started.incrementAndGet();
+            int now = running.incrementAndGet();
+            synchronized (maxRunning)
+            {
+                maxRunning.set(Math.max(maxRunning.get(), now));
+            }
+            try
+            {
+                while (true)
+                {
+                    try
+                    {
+                        release.await();
+                        break;
+                    }
+                    catch (InterruptedException e)
+                    {
+                        if (!ignoreInterrupts)
+                        {
+                            throw e;
+                        }
+                    }
+                }
+                return new ByteArrayInputStream(new byte[] { 4, 5, 6 });
+            }
+            finally
+            {
+                running.decrementAndGet();
+            }
+        }
+
+        @Override
+        public String getFilteredName(String sourceName)
+        {
+            return sourceName + ".txt";
+        }
+
+        @Override
+        public String getBundleName()
+        {
+            return "TEXT";
+        }
+
+        @Override
+        public String getFormatString()
+        {
+            return "Text";
+        }
+
+        @Override
+        public String getDescription()
+        {
+            return "Blocking filter";
+        }
+    }
+}
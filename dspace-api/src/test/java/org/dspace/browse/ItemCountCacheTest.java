@@ -0,0 +1,140 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.browse;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.dspace.AbstractUnitTest;
+import org.dspace.authorize.AuthorizeException;
+import org.dspace.content.Collection;
+import org.dspace.content.Community;
+import org.dspace.content.factory.ContentServiceFactory;
+import org.dspace.content.service.CollectionService;
+import org.dspace.content.service.CommunityService;
+import org.dspace.core.Context;
+import org.dspace.services.ConfigurationService;
+import org.dspace.services.factory.DSpaceServicesFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit Tests for class ItemCountCache
+ */
+public class ItemCountCacheTest extends AbstractUnitTest
+{
+    /** log4j category */
+    private static final Logger log = Logger.getLogger(ItemCountCacheTest.class);
+
+    private CommunityService communityService = ContentServiceFactory.getInstance().getCommunityService();
+
+    private CollectionService collectionService = ContentServiceFactory.getInstance().getCollectionService();
+
+    private ConfigurationService configurationService = DSpaceServicesFactory.getInstance().getConfigurationService();
+
+    private Community community;
+
+    private Collection collection;
+
+    @Before
+    @Override
+    public void init()
+    {
+        super.init();
+        try
+        {
+            context.turnOffAuthorisationSystem();
+            community = communityService.create(null, context);
+            collection = collectionService.create(context, community);
+            context.restoreAuthSystemState();
+        }
+        catch (SQLException | AuthorizeException ex)
+        {
+            log.error("Error in init", ex);
+            fail("Error in init: " + ex.getMessage());
+        }
+    }
+
+    @After
+    @Override
+    public void destroy()
+    {
+        try
+        {
+            context.turnOffAuthorisationSystem();
+            communityService.delete(context, communityService.find(context, community.getID()));
+            context.restoreAuthSystemState();
+        }
+        catch (SQLException | AuthorizeException | IOException ex)
+        {
+            log.error("Error in destroy", ex);
+        }
+        configurationService.setProperty("webui.strengths.cache.refresh-delay", null);
+        community = null;
+        collection = null;
+        super.destroy();
+    }
+
+    /**
+     * Test that the counts are read anonymously with a context of their own,
+     * whoever asks for them first.
+     */
+    @Test
+    public void testCountsIndependentOfCaller() throws Exception
+    {
+        final Map<String, Object> loads = Collections.synchronizedMap(new HashMap<String, Object>());
+        ItemCountCache cache = new ItemCountCache()
+        {
+            @Override
+            protected Counts load(Context loadContext)
+            {
+                loads.put("context", loadContext);
+                loads.put("user", loadContext.getCurrentUser());
+                loads.put("thread", Thread.currentThread().getName());
+                // an administrator or the submitter might see more items
+                int count = loadContext.getCurrentUser() == null && !loadContext.ignoreAuthorization() ? 3 : 5;
+                return new Counts(Collections.singletonMap(String.valueOf(community.getID()), count),
+                        Collections.singletonMap(String.valueOf(collection.getID()), count),
+                        System.currentTimeMillis());
+            }
+        };
+
+        context.turnOffAuthorisationSystem();
+        assertThat("testCountsIndependentOfCaller 0", context.getCurrentUser(), equalTo(eperson));
+        assertThat("testCountsIndependentOfCaller 1", cache.getCount(collection), equalTo(3));
+        assertThat("testCountsIndependentOfCaller 2", cache.getCount(community), equalTo(3));
+        context.restoreAuthSystemState();
+
+        assertThat("testCountsIndependentOfCaller 3", loads.get("context"), not(sameInstance((Object) context)));
+        assertThat("testCountsIndependentOfCaller 4", loads.get("user"), nullValue());
+        assertThat("testCountsIndependentOfCaller 5", (String) loads.get("thread"), equalTo("item-count-refresh"));
+        Object loadContext = loads.get("context");
+        // the caller's context is left alone
+        assertThat("testCountsIndependentOfCaller 6", context.isValid(), equalTo(true));
+        assertThat("testCountsIndependentOfCaller 7", context.getCurrentUser(), equalTo(eperson));
+
+        // a refresh reads the same counts
+        configurationService.setProperty("webui.strengths.cache.refresh-delay", 0);
+        cache.invalidate();
+        for (int i = 0; i < 100 && loads.get("context") == loadContext; i++)
+        {
+            Thread.sleep(100);
+        }
+        assertThat("testCountsIndependentOfCaller 8", loads.get("context"), not(sameInstance(loadContext)));
+        assertThat("testCountsIndependentOfCaller 9", loads.get("user"), nullValue());
+        assertThat("testCountsIndependentOfCaller 10", cache.getCount(collection), equalTo(3));
+    }
+}
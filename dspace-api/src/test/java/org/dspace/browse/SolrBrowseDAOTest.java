@@ -0,0 +1,192 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.browse;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import mockit.Mock;
+import mockit.MockUp;
+import org.dspace.AbstractUnitTest;
+import org.dspace.core.Context;
+import org.dspace.discovery.DiscoverFacetField;
+import org.dspace.discovery.DiscoverQuery;
+import org.dspace.discovery.DiscoverResult;
+import org.dspace.discovery.SearchService;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit Tests for class SolrBrowseDAO, against a search service which serves
+ * the distinct values of a browse index.
+ */
+public class SolrBrowseDAOTest extends AbstractUnitTest
+{
+    /**
+     * The number of values an anonymous user, a logged in user and an
+     * administrator may read
+     */
+    private int anonymousValues = 10;
+    private int userValues = 15;
+    private int adminValues = 25;
+
+    /** The number of items, as reported by the search service */
+    private long itemCount = 100;
+
+    /** The number of searches for all the values of the index */
+    private int fullSearches = 0;
+
+    private SearchService searcher;
+
+    @Before
+    @Override
+    public void init()
+    {
+        super.init();
+        searcher = new MockUp<SearchService>()
+        {
+            @Mock
+            DiscoverResult search(Context context, DiscoverQuery query, boolean includeWithdrawn) throws Exception
+            {
+                int count = context.ignoreAuthorization() ? adminValues
+                        : context.getCurrentUser() == null ? anonymousValues : userValues;
+                DiscoverResult result = new DiscoverResult();
+                result.setTotalSearchResults(itemCount);
+                for (DiscoverFacetField facet : query.getFacetFields())
+                {
+                    int start = facet.getOffset() > 0 ? facet.getOffset() : 0;
+                    int end = facet.getLimit() < 0 ? count : Math.min(count, start + facet.getLimit());
+                    if (facet.getLimit() < 0)
+                    {
+                        fullSearches++;
+                    }
+                    for (int i = start; i < end; i++)
+                    {
+                        String value = value(i);
+                        result.addFacetResult(facet.getField(),
+                                new DiscoverResult.FacetResult(value, value, null, value, 1));
+                    }
+                }
+                return result;
+            }
+        }.getMockInstance();
+    }
+
+    private static String value(int i)
+    {
+        return String.format("v%02d", i);
+    }
+
+    private static List<String> values(int... indexes)
+    {
+        List<String> values = new ArrayList<>();
+        for (int i : indexes)
+        {
+            values.add(value(i));
+        }
+        return values;
+    }
+
+    /**
+     * @return a distinct browse of a facet field of its own, so the tests
+     *         don't share cache entries
+     */
+    private SolrBrowseDAO newDAO(String facetField, int offset, int limit, boolean ascending)
+    {
+        SolrBrowseDAO dao = new SolrBrowseDAO(context);
+        dao.searcher = searcher;
+        dao.setDistinct(true);
+        dao.setFilterMappingTables(facetField, null);
+        dao.setOffset(offset);
+        dao.setLimit(limit);
+        dao.setAscending(ascending);
+        return dao;
+    }
+
+    private static List<String> displayedValues(SolrBrowseDAO dao) throws BrowseException
+    {
+        List<String> values = new ArrayList<>();
+        for (Object row : dao.doValueQuery())
+        {
+            values.add(((String[]) row)[0]);
+        }
+        return values;
+    }
+
+    /**
+     * Test the pages of an ascending and a descending browse.
+     */
+    @Test
+    public void testPaging() throws Exception
+    {
+        String field = "paging_" + UUID.randomUUID();
+        context.turnOffAuthorisationSystem();
+        assertThat("testPaging 0", newDAO(field, 0, 10, true).doCountQuery(), equalTo(25));
+        assertThat("testPaging 1", displayedValues(newDAO(field, 0, 10, true)),
+                equalTo(values(0, 1, 2, 3, 4, 5, 6, 7, 8, 9)));
+        assertThat("testPaging 2", displayedValues(newDAO(field, 20, 10, true)),
+                equalTo(values(20, 21, 22, 23, 24)));
+        assertThat("testPaging 3", displayedValues(newDAO(field, 0, 10, false)),
+                equalTo(values(24, 23, 22, 21, 20, 19, 18, 17, 16, 15)));
+        assertThat("testPaging 4", displayedValues(newDAO(field, 20, 10, false)),
+                equalTo(values(4, 3, 2, 1, 0)));
+        assertThat("testPaging 5", displayedValues(newDAO(field, 30, 10, false)).isEmpty(), equalTo(true));
+        // the descending pages are counted from the cached values
+        assertThat("testPaging 6", fullSearches, equalTo(1));
+        context.restoreAuthSystemState();
+    }
+
+    /**
+     * Test that the cached values are read again when the number of items
+     * changes.
+     */
+    @Test
+    public void testInvalidation() throws Exception
+    {
+        String field = "invalidation_" + UUID.randomUUID();
+        context.turnOffAuthorisationSystem();
+        assertThat("testInvalidation 0", newDAO(field, 0, 10, true).doCountQuery(), equalTo(25));
+        assertThat("testInvalidation 1", newDAO(field, 0, 10, true).doCountQuery(), equalTo(25));
+        assertThat("testInvalidation 2", fullSearches, equalTo(1));
+
+        adminValues = 26;
+        itemCount++;
+        assertThat("testInvalidation 3", newDAO(field, 0, 10, true).doCountQuery(), equalTo(26));
+        assertThat("testInvalidation 4", fullSearches, equalTo(2));
+        assertThat("testInvalidation 5", displayedValues(newDAO(field, 0, 1, false)), equalTo(values(25)));
+        context.restoreAuthSystemState();
+    }
+
+    /**
+     * Test that users who may read other items don't share cached values.
+     */
+    @Test
+    public void testReadScope() throws Exception
+    {
+        String field = "scope_" + UUID.randomUUID();
+        assertThat("testReadScope 0", newDAO(field, 0, 10, true).doCountQuery(), equalTo(userValues));
+
+        context.setCurrentUser(null);
+        assertThat("testReadScope 1", newDAO(field, 0, 10, true).doCountQuery(), equalTo(anonymousValues));
+
+        context.turnOffAuthorisationSystem();
+        assertThat("testReadScope 2", newDAO(field, 0, 10, true).doCountQuery(), equalTo(adminValues));
+        context.restoreAuthSystemState();
+
+        // each user's values are cached
+        context.setCurrentUser(eperson);
+        assertThat("testReadScope 3", newDAO(field, 0, 10, true).doCountQuery(), equalTo(userValues));
+        assertThat("testReadScope 4", fullSearches, equalTo(3));
+        assertThat("testReadScope 5", displayedValues(newDAO(field, 10, 10, false)),
+                equalTo(values(4, 3, 2, 1, 0)));
+    }
+}
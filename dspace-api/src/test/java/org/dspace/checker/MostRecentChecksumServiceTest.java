@@ -0,0 +1,172 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.checker;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import org.apache.log4j.Logger;
+import org.dspace.AbstractUnitTest;
+import org.dspace.checker.factory.CheckerServiceFactory;
+import org.dspace.checker.service.MostRecentChecksumService;
+import org.dspace.content.Bitstream;
+import org.dspace.content.factory.ContentServiceFactory;
+import org.dspace.content.service.BitstreamService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit Tests for class MostRecentChecksumServiceImpl
+ */
+public class MostRecentChecksumServiceTest extends AbstractUnitTest
+{
+    /** log4j category */
+    private static final Logger log = Logger.getLogger(MostRecentChecksumServiceTest.class);
+
+    private BitstreamService bitstreamService = ContentServiceFactory.getInstance().getBitstreamService();
+    private MostRecentChecksumService mostRecentChecksumService = CheckerServiceFactory.getInstance()
+            .getMostRecentChecksumService();
+
+    /**
+     * Ids of the bitstreams created for the tests
+     */
+    private List<UUID> ids;
+
+    private List<Bitstream> bitstreams;
+
+    /**
+     * The end date shared by the checksums of the bitstreams, older than the
+     * checksums of any other bitstream
+     */
+    private Date endDate = new Date(86400000L);
+
+    /**
+     * This method will be run before every test as per @Before. It will
+     * initialize resources required for the tests.
+     *
+     * Other methods can be annotated with @Before here or in subclasses
+     * but no execution order is guaranteed
+     */
+    @Before
+    @Override
+    public void init()
+    {
+        super.init();
+        try
+        {
+            ids = new ArrayList<>();
+            bitstreams = new ArrayList<>();
+            for (int i = 0; i < 3; i++)
+            {
+                File f = new File(testProps.get("test.bitstream").toString());
+                Bitstream bitstream = bitstreamService.create(context, new FileInputStream(f));
+                bitstreams.add(bitstream);
+                ids.add(bitstream.getID());
+            }
+
+            mostRecentChecksumService.updateMissingBitstreams(context);
+            for (Bitstream bitstream : bitstreams)
+            {
+                MostRecentChecksum checksum = mostRecentChecksumService.findByBitstream(context, bitstream);
+                checksum.setProcessStartDate(endDate);
+                checksum.setProcessEndDate(endDate);
+                mostRecentChecksumService.update(context, checksum);
+            }
+        }
+        catch (IOException | SQLException ex)
+        {
+            log.error("Error in init", ex);
+            fail("Error in init: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * This method will be run after every test as per @After. It will
+     * clean resources initialized by the @Before methods.
+     *
+     * Other methods can be annotated with @After here or in subclasses
+     * but no execution order is guaranteed
+     */
+    @After
+    @Override
+    public void destroy()
+    {
+        try
+        {
+            // the context is committed, so remove the records which look unchecked since 1970
+            for (Bitstream bitstream : bitstreams)
+            {
+                mostRecentChecksumService.deleteByBitstream(context, bitstream);
+            }
+        }
+        catch (SQLException ex)
+        {
+            log.error("SQL Error in destroy", ex);
+        }
+        ids = null;
+        bitstreams = null;
+        super.destroy();
+    }
+
+    /**
+     * Test of findOldestRecords method, of class MostRecentChecksumServiceImpl,
+     * paging through records which have the same end date.
+     */
+    @Test
+    public void testFindOldestRecordsPaging() throws SQLException
+    {
+        List<MostRecentChecksum> page = mostRecentChecksumService.findOldestRecords(context, null,
+                new Date(endDate.getTime() - 1), new UUID(0, 0), 2);
+        assertThat("testFindOldestRecordsPaging 0", page.size(), equalTo(2));
+        List<UUID> remaining = new ArrayList<>(ids);
+        for (MostRecentChecksum checksum : page)
+        {
+            assertThat("testFindOldestRecordsPaging 1", remaining.remove(checksum.getBitstream().getID()),
+                    equalTo(true));
+        }
+
+        // the next page starts after the last record, although its end date is the same
+        MostRecentChecksum last = page.get(1);
+        page = mostRecentChecksumService.findOldestRecords(context, null,
+                last.getProcessEndDate(), last.getBitstream().getID(), 2);
+        assertThat("testFindOldestRecordsPaging 2", page.isEmpty(), equalTo(false));
+        assertThat("testFindOldestRecordsPaging 3", page.get(0).getBitstream().getID(),
+                equalTo(remaining.get(0)));
+        for (MostRecentChecksum checksum : page)
+        {
+            assertThat("testFindOldestRecordsPaging 4", ids.contains(checksum.getBitstream().getID())
+                    && !remaining.contains(checksum.getBitstream().getID()), equalTo(false));
+        }
+    }
+
+    /**
+     * Test of findOldestRecords method, of class MostRecentChecksumServiceImpl,
+     * leaving out the records processed since a date.
+     */
+    @Test
+    public void testFindOldestRecordsLessThanDate() throws SQLException
+    {
+        List<MostRecentChecksum> page = mostRecentChecksumService.findOldestRecords(context, endDate,
+                new Date(endDate.getTime() - 1), new UUID(0, 0), 10);
+        for (MostRecentChecksum checksum : page)
+        {
+            assertThat("testFindOldestRecordsLessThanDate 0", ids.contains(checksum.getBitstream().getID()),
+                    equalTo(false));
+        }
+    }
+}
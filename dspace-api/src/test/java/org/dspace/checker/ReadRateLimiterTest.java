@@ -0,0 +1,88 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.checker;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Unit Tests for class ReadRateLimiter
+ */
+public class ReadRateLimiterTest
+{
+    /**
+     * Test of constructor, of class ReadRateLimiter.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroRate()
+    {
+        new ReadRateLimiter(0);
+    }
+
+    /**
+     * Test of acquire method, of class ReadRateLimiter.
+     */
+    @Test
+    public void testAcquire()
+    {
+        // 10 MB/s, so reading 1 MB takes 100 ms
+        ReadRateLimiter limiter = new ReadRateLimiter(10);
+
+        long start = System.nanoTime();
+        limiter.acquire(1024 * 1024);
+        assertThat("testAcquire 0", elapsedMillis(start) < 50, equalTo(true));
+
+        // the second read has to wait until the first one would have ended
+        limiter.acquire(1024 * 1024);
+        limiter.acquire(0);
+        assertThat("testAcquire 1", elapsedMillis(start) >= 190, equalTo(true));
+    }
+
+    /**
+     * Test of acquire method, of class ReadRateLimiter.
+     */
+    @Test
+    public void testAcquireAfterIdle() throws InterruptedException
+    {
+        ReadRateLimiter limiter = new ReadRateLimiter(10);
+        limiter.acquire(1024 * 1024);
+        TimeUnit.MILLISECONDS.sleep(300);
+
+        // the idle time is not saved up: a burst after it is still limited
+        long start = System.nanoTime();
+        limiter.acquire(1024 * 1024);
+        limiter.acquire(1024 * 1024);
+        limiter.acquire(0);
+        assertThat("testAcquireAfterIdle 0", elapsedMillis(start) >= 190, equalTo(true));
+    }
+
+    /**
+     * Test of acquire method, of class ReadRateLimiter.
+     */
+    @Test
+    public void testAcquireInterrupted()
+    {
+        ReadRateLimiter limiter = new ReadRateLimiter(1);
+        limiter.acquire(100 * 1024 * 1024);
+
+        Thread.currentThread().interrupt();
+        long start = System.nanoTime();
+        limiter.acquire(0);
+        assertThat("testAcquireInterrupted 0", elapsedMillis(start) < 1000, equalTo(true));
+        assertThat("testAcquireInterrupted 1", Thread.interrupted(), equalTo(true));
+    }
+
+    private static long elapsedMillis(long start)
+    {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+}
@@ -11,6 +11,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.sql.SQLException;
+import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
 
@@ -21,6 +22,7 @@ import org.junit.*;
 import static org.junit.Assert.* ;
 import static org.hamcrest.CoreMatchers.*;
 import mockit.*;
+import org.apache.commons.io.IOUtils;
 import org.apache.log4j.Logger;
 import org.dspace.authorize.AuthorizeException;
 import org.dspace.core.Constants;
@@ -436,6 +438,37 @@ public class BitstreamTest extends AbstractDSpaceObjectTest
         assertTrue("testDelete 0", delBS.isDeleted());
     }
 
+    /**
+     * Test of clone method, of class Bitstream.
+     */
+    @Test
+    public void testClone() throws IOException, SQLException, AuthorizeException
+    {
+        new NonStrictExpectations(authorizeService.getClass())
+        {{
+            // Allow Bitstream WRITE and DELETE perms
+                authorizeService.authorizeAction((Context) any, (Bitstream) any,
+                    Constants.WRITE); result = null;
+                authorizeService.authorizeAction((Context) any, (Bitstream) any,
+                    Constants.DELETE); result = null;
+
+        }};
+        File f = new File(testProps.get("test.bitstream").toString());
+        Bitstream original = bitstreamService.create(context, new FileInputStream(f));
+        Bitstream cloned = bitstreamService.clone(context, original);
+
+        assertThat("testClone 0", cloned.getID(), not(equalTo(original.getID())));
+        assertThat("testClone 1", cloned.getInternalId(), equalTo(original.getInternalId()));
+        assertThat("testClone 2", cloned.getChecksum(), equalTo(original.getChecksum()));
+        assertThat("testClone 3", bitstreamService.countByInternalId(context, original.getStoreNumber(),
+                original.getInternalId()), equalTo(2L));
+
+        // the contents are still in use by the clone
+        bitstreamService.delete(context, original);
+        assertThat("testClone 4", bitstreamService.countByInternalId(context, original.getStoreNumber(),
+                original.getInternalId()), equalTo(1L));
+    }
+
     /**
      * Test of retrieve method, of class Bitstream.
      */
@@ -453,6 +486,30 @@ public class BitstreamTest extends AbstractDSpaceObjectTest
         assertThat("testRetrieveCanRead 0", bitstreamService.retrieve(context, bs), notNullValue());
     }
 
+    /**
+     * Test of retrieve method with an offset and length, of class Bitstream.
+     */
+    @Test
+    public void testRetrieveRange() throws IOException, SQLException,
+            AuthorizeException
+    {
+        new NonStrictExpectations(authorizeService.getClass())
+        {{
+            // Allow Bitstream READ perms
+                authorizeService.authorizeAction((Context) any, (Bitstream) any,
+                    Constants.READ); result = null;
+        }};
+
+        byte[] all = IOUtils.toByteArray(bitstreamService.retrieve(context, bs));
+        assertTrue("testRetrieveRange 0", all.length > 10);
+
+        byte[] part = IOUtils.toByteArray(bitstreamService.retrieve(context, bs, 3, 5));
+        assertThat("testRetrieveRange 1", part, equalTo(Arrays.copyOfRange(all, 3, 8)));
+
+        byte[] tail = IOUtils.toByteArray(bitstreamService.retrieve(context, bs, all.length - 4, -1));
+        assertThat("testRetrieveRange 2", tail, equalTo(Arrays.copyOfRange(all, all.length - 4, all.length)));
+    }
+
     /**
      * Test of retrieve method, of class Bitstream.
      */
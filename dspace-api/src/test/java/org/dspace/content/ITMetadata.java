@@ -137,5 +137,88 @@ public class ITMetadata  extends AbstractIntegrationTest
         context.restoreAuthSystemState();
     }
 
-}
+    /** Fields of the values created by the lookup tests */
+    private static final String[][] LOOKUP_FIELDS = {
+            {"contributor", "author"}, {"contributor", null}, {"subject", null}, {"subject", "lcsh"},
+            {"description", "abstract"}, {"description", null}, {"identifier", "uri"}, {"identifier", "citation"},
+            {"date", "issued"}, {"date", "accessioned"}, {"title", null}, {"title", "alternative"}};
+
+    /**
+     * Create an item with 240 metadata values spread over a dozen fields.
+     */
+    private Item createLookupItem() throws SQLException, AuthorizeException
+    {
+        context.turnOffAuthorisationSystem();
+        Community owningCommunity = communityService.create(null, context);
+        Collection collection = collectionService.create(context, owningCommunity);
+        Item it = workspaceItemService.create(context, collection, false).getItem();
+        for (int i = 0; i < 20; i++)
+        {
+            for (String[] field : LOOKUP_FIELDS)
+            {
+                itemService.addMetadata(context, it, MetadataSchema.DC_SCHEMA, field[0], field[1], null, "value " + i);
+            }
+        }
+        context.restoreAuthSystemState();
+        return it;
+    }
+
+    /**
+     * Lookups of single fields and elements through the metadata index of the item.
+     * Compare with {@link #testLookupScan()}.
+     */
+    @Test
+    @PerfTest(invocations = 25, threads = 1)
+    public void testLookupIndexed() throws SQLException, AuthorizeException
+    {
+        Item it = createLookupItem();
+        int found = 0;
+        for (int round = 0; round < 100; round++)
+        {
+            for (String[] field : LOOKUP_FIELDS)
+            {
+                found += itemService.getMetadata(it, MetadataSchema.DC_SCHEMA, field[0], field[1], Item.ANY).size();
+            }
+            found += itemService.getMetadata(it, MetadataSchema.DC_SCHEMA, "contributor", Item.ANY, Item.ANY).size();
+        }
+        assertThat("testLookupIndexed 0", found, equalTo(100 * (LOOKUP_FIELDS.length + 2) * 20));
+    }
 
+    /**
+     * The same lookups as {@link #testLookupIndexed()}, scanning all values of the item like
+     * getMetadata did before the metadata index.
+     */
+    @Test
+    @PerfTest(invocations = 25, threads = 1)
+    public void testLookupScan() throws SQLException, AuthorizeException
+    {
+        Item it = createLookupItem();
+        List<MetadataValue> all = itemService.getMetadata(it, Item.ANY, Item.ANY, Item.ANY, Item.ANY);
+        int found = 0;
+        for (int round = 0; round < 100; round++)
+        {
+            for (String[] field : LOOKUP_FIELDS)
+            {
+                for (MetadataValue value : all)
+                {
+                    MetadataField metadataField = value.getMetadataField();
+                    if (metadataField.getMetadataSchema().getName().equals(MetadataSchema.DC_SCHEMA)
+                            && metadataField.getElement().equals(field[0])
+                            && (field[1] == null ? metadataField.getQualifier() == null : field[1].equals(metadataField.getQualifier())))
+                    {
+                        found++;
+                    }
+                }
+            }
+            for (MetadataValue value : all)
+            {
+                if (value.getMetadataField().getElement().equals("contributor"))
+                {
+                    found++;
+                }
+            }
+        }
+        assertThat("testLookupScan 0", found, equalTo(100 * (LOOKUP_FIELDS.length + 2) * 20));
+    }
+
+}
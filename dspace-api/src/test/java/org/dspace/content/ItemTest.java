@@ -187,6 +187,85 @@ public class ItemTest  extends AbstractDSpaceObjectTest
         assertTrue("testFindAll 1",added);
     }
 
+    /**
+     * Test of findAllUnfilteredIDs method, of class Item.
+     */
+    @Test
+    public void testFindAllUnfilteredIDs() throws Exception
+    {
+        Set<UUID> seen = new HashSet<>();
+        UUID last = null;
+        List<UUID> page;
+        do
+        {
+            page = itemService.findAllUnfilteredIDs(context, last, 2);
+            for (UUID id : page)
+            {
+                assertTrue("testFindAllUnfilteredIDs 0", seen.add(id));
+                last = id;
+            }
+        } while(page.size() == 2);
+        assertTrue("testFindAllUnfilteredIDs 1", seen.contains(it.getID()));
+    }
+
+    /**
+     * Test of findInArchiveOrWithdrawnDiscoverableIDsModifiedSince method, of class Item.
+     */
+    @Test
+    public void testFindInArchiveOrWithdrawnDiscoverableIDsModifiedSince() throws Exception
+    {
+        context.turnOffAuthorisationSystem();
+        Item withdrawn = installItemService.installItem(context, workspaceItemService.create(context, collection, false));
+        itemService.withdraw(context, withdrawn);
+        Item hidden = installItemService.installItem(context, workspaceItemService.create(context, collection, false));
+        hidden.setDiscoverable(false);
+        itemService.update(context, hidden);
+        context.restoreAuthSystemState();
+
+        Set<UUID> seen = new HashSet<>();
+        UUID last = null;
+        List<UUID> page;
+        do
+        {
+            page = itemService.findInArchiveOrWithdrawnDiscoverableIDsModifiedSince(context, null, last, 2);
+            assertTrue("testFindInArchiveOrWithdrawnDiscoverableIDsModifiedSince 0", page.size() <= 2);
+            for (UUID id : page)
+            {
+                assertTrue("testFindInArchiveOrWithdrawnDiscoverableIDsModifiedSince 1", seen.add(id));
+                last = id;
+            }
+        } while(page.size() == 2);
+        assertTrue("testFindInArchiveOrWithdrawnDiscoverableIDsModifiedSince 2", seen.contains(it.getID()));
+        assertTrue("testFindInArchiveOrWithdrawnDiscoverableIDsModifiedSince 3", seen.contains(withdrawn.getID()));
+        assertFalse("testFindInArchiveOrWithdrawnDiscoverableIDsModifiedSince 4", seen.contains(hidden.getID()));
+
+        List<UUID> modified = itemService.findInArchiveOrWithdrawnDiscoverableIDsModifiedSince(context,
+                DateUtils.addHours(new Date(), -1), null, Integer.MAX_VALUE);
+        assertTrue("testFindInArchiveOrWithdrawnDiscoverableIDsModifiedSince 5", modified.contains(it.getID()));
+        modified = itemService.findInArchiveOrWithdrawnDiscoverableIDsModifiedSince(context,
+                DateUtils.addHours(new Date(), 1), null, Integer.MAX_VALUE);
+        assertTrue("testFindInArchiveOrWithdrawnDiscoverableIDsModifiedSince 6", modified.isEmpty());
+    }
+
+    /**
+     * Test of findInArchiveOrWithdrawnDiscoverableIDs method, of class Item.
+     */
+    @Test
+    public void testFindInArchiveOrWithdrawnDiscoverableIDs() throws Exception
+    {
+        context.turnOffAuthorisationSystem();
+        Item hidden = installItemService.installItem(context, workspaceItemService.create(context, collection, false));
+        hidden.setDiscoverable(false);
+        itemService.update(context, hidden);
+        context.restoreAuthSystemState();
+
+        List<UUID> found = itemService.findInArchiveOrWithdrawnDiscoverableIDs(context,
+                Arrays.asList(it.getID(), hidden.getID(), UUID.randomUUID()));
+        assertThat("testFindInArchiveOrWithdrawnDiscoverableIDs 0", found, equalTo(Arrays.asList(it.getID())));
+        assertTrue("testFindInArchiveOrWithdrawnDiscoverableIDs 1",
+                itemService.findInArchiveOrWithdrawnDiscoverableIDs(context, new ArrayList<UUID>()).isEmpty());
+    }
+
     /**
      * Test of findBySubmitter method, of class Item.
      */
@@ -270,6 +349,31 @@ public class ItemTest  extends AbstractDSpaceObjectTest
         assertTrue("testGetLastModified 1", DateUtils.isSameDay(it.getLastModified(), new Date()));
     }
 
+    /**
+     * Test of getModificationStamp method, of class Item.
+     */
+    @Test
+    public void testGetModificationStamp() throws Exception
+    {
+        context.turnOffAuthorisationSystem();
+        long stamp = it.getModificationStamp();
+        itemService.addMetadata(context, it, "dc", "title", null, null, "stamped");
+        itemService.update(context, it);
+        assertTrue("testGetModificationStamp 0", it.getModificationStamp() > stamp);
+
+        // updating a bitstream changes the stamp of its bundle and item
+        File f = new File(testProps.get("test.bitstream").toString());
+        Bitstream bitstream = itemService.createSingleBitstream(context, new FileInputStream(f), it, "stamp");
+        Bundle bundle = bitstream.getBundles().get(0);
+        stamp = it.getModificationStamp();
+        long bundleStamp = bundle.getModificationStamp();
+        bitstream.setName(context, "stamped");
+        bitstreamService.update(context, bitstream);
+        assertTrue("testGetModificationStamp 1", bundle.getModificationStamp() > bundleStamp);
+        assertTrue("testGetModificationStamp 2", it.getModificationStamp() > stamp);
+        context.restoreAuthSystemState();
+    }
+
     /**
      * Test of setArchived method, of class Item.
      */
@@ -342,6 +446,62 @@ public class ItemTest  extends AbstractDSpaceObjectTest
         assertTrue("testGetMetadata_String 5",dc.size() == 0);
     }
 
+    /**
+     * Test of getMetadata method, of class Item, after the values of the item change.
+     */
+    @Test
+    public void testGetMetadataAfterChanges() throws SQLException
+    {
+        itemService.addMetadata(context, it, "dc", "contributor", "author", null, "Author, A.");
+        itemService.addMetadata(context, it, "dc", "contributor", null, "en", "Contributor, C.");
+        assertThat("testGetMetadataAfterChanges 0", itemService.getMetadata(it, "dc", "contributor", "author", Item.ANY).size(), equalTo(1));
+        assertThat("testGetMetadataAfterChanges 1", itemService.getMetadata(it, "dc", "contributor", Item.ANY, Item.ANY).size(), equalTo(2));
+        assertThat("testGetMetadataAfterChanges 2", itemService.getMetadata(it, "dc", "contributor", null, Item.ANY).size(), equalTo(1));
+        assertThat("testGetMetadataAfterChanges 3", itemService.getMetadata(it, "dc", "contributor", null, "en").size(), equalTo(1));
+        assertThat("testGetMetadataAfterChanges 4", itemService.getMetadata(it, "dc", "contributor", null, null).size(), equalTo(0));
+
+        itemService.addMetadata(context, it, "dc", "contributor", "author", null, "Author, B.");
+        List<MetadataValue> authors = itemService.getMetadata(it, "dc", "contributor", "author", Item.ANY);
+        assertThat("testGetMetadataAfterChanges 5", authors.size(), equalTo(2));
+        assertThat("testGetMetadataAfterChanges 6", authors.get(0).getValue(), equalTo("Author, A."));
+        assertThat("testGetMetadataAfterChanges 7", authors.get(1).getValue(), equalTo("Author, B."));
+
+        int total = itemService.getMetadata(it, Item.ANY, Item.ANY, Item.ANY, Item.ANY).size();
+        itemService.clearMetadata(context, it, "dc", "contributor", "author", Item.ANY);
+        assertThat("testGetMetadataAfterChanges 8", itemService.getMetadata(it, "dc", "contributor", "author", Item.ANY).size(), equalTo(0));
+        assertThat("testGetMetadataAfterChanges 9", itemService.getMetadata(it, "dc", "contributor", Item.ANY, Item.ANY).size(), equalTo(1));
+        assertThat("testGetMetadataAfterChanges 10", itemService.getMetadata(it, Item.ANY, Item.ANY, Item.ANY, Item.ANY).size(), equalTo(total - 2));
+    }
+
+    /**
+     * Test of getMetadata method, of class Item, after the field of a value
+     * changes or the values are reordered.
+     */
+    @Test
+    public void testGetMetadataAfterFieldChange() throws SQLException
+    {
+        itemService.addMetadata(context, it, "dc", "contributor", "author", null, "Author, A.");
+        itemService.addMetadata(context, it, "dc", "contributor", "author", null, "Author, B.");
+        List<MetadataValue> authors = itemService.getMetadata(it, "dc", "contributor", "author", Item.ANY);
+        assertThat("testGetMetadataAfterFieldChange 0", authors.size(), equalTo(2));
+        assertThat("testGetMetadataAfterFieldChange 1", itemService.getMetadata(it, "dc", "contributor", "editor", Item.ANY).size(), equalTo(0));
+
+        MetadataValue moved = authors.get(1);
+        moved.setMetadataField(metadataFieldService.findByElement(context, "dc", "contributor", "editor"));
+        assertThat("testGetMetadataAfterFieldChange 2", itemService.getMetadata(it, "dc", "contributor", "author", Item.ANY).size(), equalTo(1));
+        List<MetadataValue> editors = itemService.getMetadata(it, "dc", "contributor", "editor", Item.ANY);
+        assertThat("testGetMetadataAfterFieldChange 3", editors.size(), equalTo(1));
+        assertThat("testGetMetadataAfterFieldChange 4", editors.get(0).getValue(), equalTo("Author, B."));
+
+        // values reordered in the list itself
+        List<MetadataValue> values = it.getMetadata();
+        Collections.swap(values, values.indexOf(authors.get(0)), values.indexOf(moved));
+        List<MetadataValue> contributors = itemService.getMetadata(it, "dc", "contributor", Item.ANY, Item.ANY);
+        assertThat("testGetMetadataAfterFieldChange 5", contributors.size(), equalTo(2));
+        assertThat("testGetMetadataAfterFieldChange 6", contributors.get(0).getValue(), equalTo("Author, B."));
+        assertThat("testGetMetadataAfterFieldChange 7", contributors.get(1).getValue(), equalTo("Author, A."));
+    }
+
     /**
      * A test for DS-806: Item.match() incorrect logic for schema testing
      */
@@ -337,6 +337,58 @@ public class MetadataFieldTest extends AbstractUnitTest
         assertThat("testUpdateAuth 0",found.getFieldID(), equalTo(m.getFieldID()));
     }
 
+    /**
+     * Test of findByElement method, of class MetadataField, after the field is renamed.
+     */
+    @Test
+    public void testFindByElementAfterUpdate() throws Exception
+    {
+        new NonStrictExpectations(authorizeService.getClass())
+        {{
+            // Allow full admin permissions
+            authorizeService.isAdmin(context); result = true;
+        }};
+
+        MetadataField m = metadataFieldService.create(context, dcSchema, "elem4", "qual4", null);
+        assertThat("testFindByElementAfterUpdate 0", metadataFieldService.findByElement(context, MetadataSchema.DC_SCHEMA, "elem4", "qual4"), equalTo(m));
+
+        m.setQualifier("qual5");
+        metadataFieldService.update(context, m);
+        assertThat("testFindByElementAfterUpdate 1", metadataFieldService.findByElement(context, MetadataSchema.DC_SCHEMA, "elem4", "qual4"), nullValue());
+        assertThat("testFindByElementAfterUpdate 2", metadataFieldService.findByElement(context, MetadataSchema.DC_SCHEMA, "elem4", "qual5"), equalTo(m));
+    }
+
+    /**
+     * Test of findByElement method, of class MetadataField, after a rename is
+     * committed while another thread loaded the registry from the database.
+     */
+    @Test
+    public void testFindByElementAfterCommittedRename() throws Exception
+    {
+        new NonStrictExpectations(authorizeService.getClass())
+        {{
+            // Allow full admin permissions
+            authorizeService.isAdmin(context); result = true;
+        }};
+
+        MetadataRegistryCache cache = ContentServiceFactory.getInstance().getMetadataRegistryCache();
+        MetadataField m = metadataFieldService.create(context, dcSchema, "elem6", null, null);
+        context.commit();
+        assertThat("testFindByElementAfterCommittedRename 0", cache.getFieldId(context, MetadataSchema.DC_SCHEMA, "elem6", null), equalTo(m.getFieldID()));
+        MetadataRegistryCache.Snapshot committed = cache.getSnapshot(context);
+
+        m = metadataFieldService.find(context, m.getFieldID());
+        m.setElement("elem7");
+        metadataFieldService.update(context, m);
+
+        // another thread loads the registry before the rename is committed
+        cache.setSnapshot(committed);
+
+        context.commit();
+        assertThat("testFindByElementAfterCommittedRename 1", metadataFieldService.findByElement(context, MetadataSchema.DC_SCHEMA, "elem6", null), nullValue());
+        assertThat("testFindByElementAfterCommittedRename 2", metadataFieldService.findByElement(context, MetadataSchema.DC_SCHEMA, "elem7", null).getFieldID(), equalTo(m.getFieldID()));
+    }
+
     /**
      * Test of update method, of class MetadataField.
      */
@@ -232,6 +232,24 @@ public class ContextTest extends AbstractUnitTest
         cleanupContext(instance);
     }
 
+    /**
+     * Test of commit method, of class Context.
+     */
+    @Test
+    public void testCommit() throws SQLException
+    {
+        // To test commit() we need a new Context object
+        Context instance = new Context();
+
+        // Unlike complete(), commit() should leave the context usable
+        instance.commit();
+        assertThat("testCommit 0", instance.getDBConnection(), notNullValue());
+        assertThat("testCommit 1", instance.isValid(), equalTo(true));
+
+        // Cleanup our new context
+        cleanupContext(instance);
+    }
+
     /**
      * Test of abort method, of class Context.
      */
@@ -0,0 +1,54 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.core;
+
+import org.apache.commons.configuration.Configuration;
+import org.databene.contiperf.PerfTest;
+import org.dspace.AbstractIntegrationTest;
+import org.dspace.services.ConfigurationService;
+import org.dspace.services.factory.DSpaceServicesFactory;
+import org.junit.Test;
+
+/**
+ * Compares reading typed properties through the ConfigurationService, which keeps converted values
+ * between calls, with reading them from the underlying Configuration, which interpolates and
+ * converts the value on every call. Compare the timings of both tests in the contiperf report.
+ */
+public class ITConfigurationService extends AbstractIntegrationTest
+{
+    private static final int ROUNDS = 10000;
+
+    private final ConfigurationService configurationService = DSpaceServicesFactory.getInstance().getConfigurationService();
+
+    @Test
+    @PerfTest(invocations = 50, threads = 4)
+    public void testConfiguration()
+    {
+        Configuration configuration = configurationService.getConfiguration();
+        for (int i = 0; i < ROUNDS; i++)
+        {
+            configuration.getString("dspace.url");
+            configuration.getInt("db.maxconnections", 30);
+            configuration.getBoolean("webui.strengths.cache", true);
+            configuration.getStringArray("event.dispatcher.default.consumers");
+        }
+    }
+
+    @Test
+    @PerfTest(invocations = 50, threads = 4)
+    public void testConfigurationService()
+    {
+        for (int i = 0; i < ROUNDS; i++)
+        {
+            configurationService.getProperty("dspace.url");
+            configurationService.getIntProperty("db.maxconnections", 30);
+            configurationService.getBooleanProperty("webui.strengths.cache", true);
+            configurationService.getArrayProperty("event.dispatcher.default.consumers");
+        }
+    }
+}
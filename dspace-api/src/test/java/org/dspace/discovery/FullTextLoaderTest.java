@@ -0,0 +1,216 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.discovery;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+import org.dspace.AbstractUnitTest;
+import org.dspace.authorize.AuthorizeException;
+import org.dspace.content.Bitstream;
+import org.dspace.content.factory.ContentServiceFactory;
+import org.dspace.content.service.BitstreamService;
+import org.dspace.core.Context;
+import org.dspace.services.ConfigurationService;
+import org.dspace.services.factory.DSpaceServicesFactory;
+import org.dspace.storage.bitstore.factory.StorageServiceFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit Tests for class FullTextLoader
+ */
+public class FullTextLoaderTest extends AbstractUnitTest
+{
+    /** log4j category */
+    private static final Logger log = Logger.getLogger(FullTextLoaderTest.class);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private BitstreamService bitstreamService = ContentServiceFactory.getInstance().getBitstreamService();
+
+    private ConfigurationService configurationService = DSpaceServicesFactory.getInstance().getConfigurationService();
+
+    /**
+     * The bitstreams created by a test
+     */
+    private List<Bitstream> bitstreams;
+
+    @Before
+    @Override
+    public void init()
+    {
+        super.init();
+        bitstreams = new ArrayList<>();
+        configurationService.setProperty("discovery.index.fulltext.threads", 0);
+        configurationService.setProperty("discovery.index.fulltext.max-chars", null);
+        configurationService.setProperty("discovery.index.fulltext.cache.dir", null);
+    }
+
+    @After
+    @Override
+    public void destroy()
+    {
+        try
+        {
+            context.turnOffAuthorisationSystem();
+            for (Bitstream bitstream : bitstreams)
+            {
+                bitstreamService.delete(context, bitstream);
+            }
+            context.restoreAuthSystemState();
+        }
+        catch (SQLException | AuthorizeException | IOException ex)
+        {
+            log.error("Error in destroy", ex);
+        }
+        configurationService.setProperty("discovery.index.fulltext.threads", null);
+        configurationService.setProperty("discovery.index.fulltext.max-chars", null);
+        configurationService.setProperty("discovery.index.fulltext.cache.dir", null);
+        bitstreams = null;
+        super.destroy();
+    }
+
+    private Bitstream createBitstream(byte[] content) throws IOException, SQLException
+    {
+        Bitstream bitstream = bitstreamService.create(context, new ByteArrayInputStream(content));
+        bitstreams.add(bitstream);
+        return bitstream;
+    }
+
+    private Bitstream createBitstream(String text) throws IOException, SQLException
+    {
+        return createBitstream(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private FullTextLoader newLoader()
+    {
+        return new FullTextLoader(configurationService,
+                StorageServiceFactory.getInstance().getBitstreamStorageService());
+    }
+
+    /**
+     * Test that the texts are loaded on the loader threads.
+     */
+    @Test
+    public void testLoadOnPool() throws Exception
+    {
+        configurationService.setProperty("discovery.index.fulltext.threads", 1);
+        final List<String> threads = Collections.synchronizedList(new ArrayList<String>());
+        FullTextLoader loader = new FullTextLoader(configurationService,
+                StorageServiceFactory.getInstance().getBitstreamStorageService())
+        {
+            @Override
+            protected String loadText(Context context, List<Bitstream> bitstreams)
+            {
+                threads.add(Thread.currentThread().getName());
+                return super.loadText(context, bitstreams);
+            }
+        };
+
+        Future<String> text = loader.load(context, Arrays.asList(createBitstream("first"), createBitstream("second")));
+        assertThat("testLoadOnPool 0", text.get(), equalTo("first" + FullTextLoader.SEPARATOR + "second"));
+        assertThat("testLoadOnPool 1", threads.get(0), startsWith("discovery-fulltext-"));
+    }
+
+    /**
+     * Test that the texts are loaded by the calling thread when there are no
+     * loader threads.
+     */
+    @Test
+    public void testLoadWithoutPool() throws Exception
+    {
+        Future<String> text = newLoader().load(context, Arrays.asList(createBitstream("text")));
+        assertThat("testLoadWithoutPool 0", text.isDone(), equalTo(true));
+        assertThat("testLoadWithoutPool 1", text.get(), equalTo("text"));
+        assertThat("testLoadWithoutPool 2", newLoader().load(context, new ArrayList<Bitstream>()).get(),
+                nullValue());
+    }
+
+    /**
+     * Test that a TEXT bitstream is read as UTF-8, whatever its encoding.
+     */
+    @Test
+    public void testNonUtf8Text() throws Exception
+    {
+        Bitstream latin1 = createBitstream("caf\u00e9".getBytes(StandardCharsets.ISO_8859_1));
+        assertThat("testNonUtf8Text 0", newLoader().load(context, Arrays.asList(latin1)).get(),
+                equalTo("caf\ufffd"));
+    }
+
+    /**
+     * Test that a text which isn't cached is written to the cache, and read
+     * from it the next time.
+     */
+    @Test
+    public void testCache() throws Exception
+    {
+        configurationService.setProperty("discovery.index.fulltext.cache.dir", folder.getRoot().getAbsolutePath());
+        FullTextLoader loader = newLoader();
+        Bitstream bitstream = createBitstream("text");
+        File cached = loader.getCacheFile(bitstream, false);
+        assertThat("testCache 0", cached.isFile(), equalTo(false));
+
+        assertThat("testCache 1", loader.load(context, Arrays.asList(bitstream)).get(), equalTo("text"));
+        assertThat("testCache 2", cached.isFile(), equalTo(true));
+        assertThat("testCache 3", new String(Files.readAllBytes(cached.toPath()), StandardCharsets.UTF_8),
+                equalTo("text"));
+
+        // the assetstore isn't read again
+        Files.write(cached.toPath(), "cached text".getBytes(StandardCharsets.UTF_8));
+        assertThat("testCache 4", loader.load(context, Arrays.asList(bitstream)).get(), equalTo("cached text"));
+    }
+
+    /**
+     * Test that cached texts are only served for the same content and a
+     * sufficient character limit.
+     */
+    @Test
+    public void testCacheInvalidation() throws Exception
+    {
+        configurationService.setProperty("discovery.index.fulltext.cache.dir", folder.getRoot().getAbsolutePath());
+        configurationService.setProperty("discovery.index.fulltext.max-chars", 3);
+        FullTextLoader truncating = newLoader();
+        Bitstream bitstream = createBitstream("longer text");
+
+        assertThat("testCacheInvalidation 0", truncating.load(context, Arrays.asList(bitstream)).get(),
+                equalTo("lon"));
+        assertThat("testCacheInvalidation 1", truncating.getCacheFile(bitstream, true).isFile(), equalTo(true));
+        assertThat("testCacheInvalidation 2", truncating.getCacheFile(bitstream, false).isFile(), equalTo(false));
+
+        // a higher limit doesn't use the truncated text
+        configurationService.setProperty("discovery.index.fulltext.max-chars", null);
+        FullTextLoader loader = newLoader();
+        assertThat("testCacheInvalidation 3", loader.load(context, Arrays.asList(bitstream)).get(),
+                equalTo("longer text"));
+
+        // other content is cached under its own checksum
+        Bitstream other = createBitstream("other text");
+        assertThat("testCacheInvalidation 4", loader.getCacheFile(other, false),
+                not(equalTo(loader.getCacheFile(bitstream, false))));
+        assertThat("testCacheInvalidation 5", loader.load(context, Arrays.asList(other)).get(),
+                equalTo("other text"));
+    }
+}
@@ -0,0 +1,192 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.discovery;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+import mockit.NonStrictExpectations;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.impl.HttpSolrServer;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.NamedList;
+import org.dspace.AbstractUnitTest;
+import org.dspace.content.factory.ContentServiceFactory;
+import org.dspace.content.service.ItemService;
+import org.dspace.core.Context;
+import org.junit.Test;
+
+/**
+ * Unit Tests for class SolrIndexPipeline
+ */
+public class SolrIndexPipelineTest extends AbstractUnitTest
+{
+    private ItemService itemService = ContentServiceFactory.getInstance().getItemService();
+
+    /**
+     * Hand out more item ids than fit in the queue of the workers, so the
+     * run only ends when the workers take them.
+     */
+    private void mockItemIDs() throws SQLException
+    {
+        final List<UUID> ids = new ArrayList<>();
+        for (int i = 0; i < SolrIndexPipeline.PAGE_SIZE * 3; i++)
+        {
+            ids.add(UUID.randomUUID());
+        }
+        new NonStrictExpectations(itemService.getClass())
+        {
+            {
+                itemService.findAllUnfilteredIDs((Context) any, (UUID) any, anyInt);
+                result = ids;
+            }
+        };
+    }
+
+    /**
+     * Test that the run is aborted when all workers have stopped.
+     */
+    @Test(timeout = 60000)
+    public void testWorkerFailure() throws Exception
+    {
+        mockItemIDs();
+        SolrIndexPipeline pipeline = new SolrIndexPipeline(new SolrServiceImpl(), 2, 10)
+        {
+            @Override
+            protected Worker newWorker(BlockingQueue<UUID> ids, BlockingQueue<SolrInputDocument> documents,
+                                       boolean force, CountDownLatch running, CountDownLatch senderRunning)
+            {
+                return new Worker(ids, documents, force, running, senderRunning)
+                {
+                    @Override
+                    protected void index(Context context, UUID id)
+                    {
+                        throw new IllegalStateException("worker failure");
+                    }
+                };
+            }
+        };
+
+        try
+        {
+            pipeline.indexItems(context, true);
+            fail("testWorkerFailure 0");
+        }
+        catch (IllegalStateException e)
+        {
+            assertThat("testWorkerFailure 1", e.getMessage(), containsString("index workers"));
+        }
+        assertThat("testWorkerFailure 2", pipeline.processed.get(), equalTo(0L));
+    }
+
+    /**
+     * Test that the run is aborted when the sender has stopped.
+     */
+    @Test(timeout = 60000)
+    public void testSenderFailure() throws Exception
+    {
+        mockItemIDs();
+        SolrIndexPipeline pipeline = new SolrIndexPipeline(new SolrServiceImpl(), 2, 1)
+        {
+            @Override
+            protected Worker newWorker(BlockingQueue<UUID> ids, BlockingQueue<SolrInputDocument> documents,
+                                       boolean force, CountDownLatch running, CountDownLatch senderRunning)
+            {
+                return new Worker(ids, documents, force, running, senderRunning)
+                {
+                    @Override
+                    protected void index(Context context, UUID id) throws InterruptedException
+                    {
+                        offer(documents, new SolrInputDocument(), senderRunning, "index senders");
+                    }
+                };
+            }
+
+            @Override
+            protected Sender newSender(BlockingQueue<SolrInputDocument> documents, CountDownLatch running)
+            {
+                return new Sender(documents, running)
+                {
+                    @Override
+                    protected void send(List<SolrInputDocument> batch)
+                    {
+                        throw new IllegalStateException("sender failure");
+                    }
+                };
+            }
+        };
+
+        try
+        {
+            pipeline.indexItems(context, true);
+            fail("testSenderFailure 0");
+        }
+        catch (IllegalStateException e)
+        {
+            assertThat("testSenderFailure 1", e.getMessage(), containsString("index workers"));
+        }
+        assertThat("testSenderFailure 2", pipeline.written.get(), equalTo(0L));
+    }
+
+    /**
+     * Test that a batch which solr refuses is added one by one, so only the
+     * bad document is lost.
+     */
+    @Test
+    public void testBatchRetry() throws Exception
+    {
+        final List<Integer> requests = new ArrayList<>();
+        final HttpSolrServer solr = new HttpSolrServer("http://localhost/solr")
+        {
+            @Override
+            public NamedList<Object> request(SolrRequest request) throws SolrServerException
+            {
+                List<SolrInputDocument> documents = ((UpdateRequest) request).getDocuments();
+                requests.add(documents.size());
+                if (documents.size() > 1 || documents.get(0).getFieldValue("bad") != null)
+                {
+                    throw new SolrServerException("refused");
+                }
+                return new NamedList<Object>();
+            }
+        };
+        SolrIndexPipeline pipeline = new SolrIndexPipeline(new SolrServiceImpl()
+        {
+            @Override
+            protected HttpSolrServer getSolr()
+            {
+                return solr;
+            }
+        }, 1, 3);
+
+        List<SolrInputDocument> batch = new ArrayList<>();
+        for (int i = 0; i < 3; i++)
+        {
+            SolrInputDocument doc = new SolrInputDocument();
+            doc.addField("search.uniqueid", "2-" + i);
+            batch.add(doc);
+        }
+        batch.get(1).addField("bad", true);
+
+        pipeline.new Sender(new ArrayBlockingQueue<SolrInputDocument>(1), new CountDownLatch(1)).send(batch);
+        assertThat("testBatchRetry 0", requests, equalTo(Arrays.asList(3, 1, 1, 1)));
+        assertThat("testBatchRetry 1", pipeline.written.get(), equalTo(2L));
+        assertThat("testBatchRetry 2", pipeline.failed.get(), equalTo(1L));
+    }
+}
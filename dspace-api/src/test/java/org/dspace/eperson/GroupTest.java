@@ -373,6 +373,32 @@ public class GroupTest extends AbstractUnitTest {
         }
     }
 
+    @Test
+    public void isMemberContextAfterAddMember() throws SQLException, AuthorizeException, EPersonDeletionException, IOException {
+        EPerson ePerson = null;
+        try {
+            ePerson = createEPerson("isMemberContextAfterAddMember@dspace.org");
+
+            context.setCurrentUser(ePerson);
+            assertFalse(groupService.isMember(context, topGroup));
+            assertFalse(groupService.isMember(context, level2Group));
+
+            // the cached membership must be dropped when membership changes
+            context.turnOffAuthorisationSystem();
+            groupService.addMember(context, level2Group, ePerson);
+            groupService.update(context, level2Group);
+            context.restoreAuthSystemState();
+            assertTrue(groupService.isMember(context, topGroup));
+            assertTrue(groupService.isMember(context, level2Group));
+        } finally {
+            if(ePerson != null)
+            {
+                context.turnOffAuthorisationSystem();
+                ePersonService.delete(context, ePerson);
+            }
+        }
+    }
+
     @Test
     public void isPermanent()
             throws SQLException
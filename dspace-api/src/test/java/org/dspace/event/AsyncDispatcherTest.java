@@ -0,0 +1,161 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.event;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import org.dspace.AbstractDSpaceTest;
+import org.dspace.core.Constants;
+import org.dspace.event.AsyncDispatcher.EventQueue;
+import org.dspace.services.ConfigurationService;
+import org.dspace.services.factory.DSpaceServicesFactory;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit Tests for the queue of class AsyncDispatcher. The queues are created
+ * without their delivering thread, the tests take the batches themselves.
+ */
+public class AsyncDispatcherTest extends AbstractDSpaceTest
+{
+    private static final String NAME = "asynctest";
+
+    private final Event a = new Event(Event.MODIFY, Constants.ITEM, UUID.randomUUID(), null);
+    private final Event b = new Event(Event.MODIFY, Constants.ITEM, UUID.randomUUID(), null);
+    private final Event c = new Event(Event.MODIFY, Constants.ITEM, UUID.randomUUID(), null);
+
+    private EventQueue queue;
+
+    @Before
+    public void init()
+    {
+        ConfigurationService configurationService = DSpaceServicesFactory.getInstance().getConfigurationService();
+        configurationService.setProperty("event.dispatcher." + NAME + ".queue.size", 2);
+        configurationService.setProperty("event.dispatcher." + NAME + ".batch.size", 1);
+        queue = new EventQueue(NAME);
+    }
+
+    /**
+     * Test of add method, of class AsyncDispatcher.EventQueue.
+     */
+    @Test
+    public void testCoalescing() throws Exception
+    {
+        queue.add(Arrays.asList(a, b));
+        // a repeated event is delivered once, after the events queued before it
+        queue.add(Arrays.asList(new Event(Event.MODIFY, Constants.ITEM, a.getSubjectID(), null)));
+        assertThat("testCoalescing 0", queue.getDepth(), equalTo(2));
+        assertThat("testCoalescing 1", queue.getCoalesced(), equalTo(1L));
+
+        assertThat("testCoalescing 2", queue.take().get(0).getSubjectID(), equalTo(b.getSubjectID()));
+        assertThat("testCoalescing 3", queue.take().get(0).getSubjectID(), equalTo(a.getSubjectID()));
+        assertThat("testCoalescing 4", queue.getDepth(), equalTo(0));
+
+        // events which differ in their type aren't coalesced
+        queue.add(Arrays.asList(a, new Event(Event.DELETE, Constants.ITEM, a.getSubjectID(), null)));
+        assertThat("testCoalescing 5", queue.getDepth(), equalTo(2));
+        assertThat("testCoalescing 6", queue.getCoalesced(), equalTo(1L));
+    }
+
+    /**
+     * Test of add method, of class AsyncDispatcher.EventQueue.
+     */
+    @Test
+    public void testFullQueue() throws Exception
+    {
+        queue.add(Arrays.asList(a, b));
+
+        // an event which is already queued doesn't need room
+        queue.add(Arrays.asList(b));
+        assertThat("testFullQueue 0", queue.getDepth(), equalTo(2));
+
+        Thread adding = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                queue.add(Arrays.asList(c));
+            }
+        };
+        adding.start();
+        adding.join(500);
+        assertThat("testFullQueue 1", adding.isAlive(), equalTo(true));
+        assertThat("testFullQueue 2", queue.getDepth(), equalTo(2));
+
+        // taking a batch makes room
+        List<Event> batch = queue.take();
+        assertThat("testFullQueue 3", batch.get(0).getSubjectID(), equalTo(a.getSubjectID()));
+        adding.join(5000);
+        assertThat("testFullQueue 4", adding.isAlive(), equalTo(false));
+        assertThat("testFullQueue 5", queue.getDepth(), equalTo(2));
+        assertThat("testFullQueue 6", queue.take().get(0).getSubjectID(), equalTo(b.getSubjectID()));
+        assertThat("testFullQueue 7", queue.take().get(0).getSubjectID(), equalTo(c.getSubjectID()));
+    }
+
+    /**
+     * Test of awaitEmpty method, of class AsyncDispatcher.EventQueue.
+     */
+    @Test
+    public void testAwaitEmpty() throws Exception
+    {
+        assertThat("testAwaitEmpty 0", queue.awaitEmpty(0), equalTo(true));
+
+        queue.add(Arrays.asList(a));
+        assertThat("testAwaitEmpty 1", queue.awaitEmpty(100), equalTo(false));
+
+        // the last batch has been taken, but it is still being delivered
+        queue.take();
+        assertThat("testAwaitEmpty 2", queue.getDepth(), equalTo(0));
+        assertThat("testAwaitEmpty 3", queue.awaitEmpty(100), equalTo(false));
+
+        // asking for the next batch means the last one has been delivered
+        Thread delivering = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    queue.take();
+                }
+                catch (InterruptedException e)
+                {
+                    // stopped by the test
+                }
+            }
+        };
+        delivering.start();
+        try
+        {
+            assertThat("testAwaitEmpty 4", queue.awaitEmpty(5000), equalTo(true));
+        }
+        finally
+        {
+            delivering.interrupt();
+            delivering.join(5000);
+        }
+    }
+
+    /**
+     * Test of the queue statistics of class AsyncDispatcher, for a dispatcher
+     * which hasn't queued anything.
+     */
+    @Test
+    public void testUnusedDispatcher() throws Exception
+    {
+        assertThat("testUnusedDispatcher 0", AsyncDispatcher.getQueueDepth("unused"), equalTo(0));
+        assertThat("testUnusedDispatcher 1", AsyncDispatcher.getDeliveredCount("unused"), equalTo(0L));
+        assertThat("testUnusedDispatcher 2", AsyncDispatcher.getCoalescedCount("unused"), equalTo(0L));
+        assertThat("testUnusedDispatcher 3", AsyncDispatcher.awaitDelivery("unused", 0), equalTo(true));
+    }
+}
@@ -0,0 +1,265 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.harvest;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.dspace.AbstractUnitTest;
+import org.dspace.authorize.AuthorizeException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit Tests for the queue of class HarvestScheduler. The harvests aren't
+ * run, the test finishes them itself.
+ */
+public class HarvestSchedulerTest extends AbstractUnitTest
+{
+    private int originalStatus;
+
+    private Integer originalMaxThreads;
+
+    private int originalMaxThreadsPerHost;
+
+    private List<HarvestScheduler> schedulers;
+
+    @Before
+    @Override
+    public void init()
+    {
+        super.init();
+        originalStatus = HarvestScheduler.status;
+        originalMaxThreads = HarvestScheduler.maxActiveThreads;
+        originalMaxThreadsPerHost = HarvestScheduler.maxThreadsPerHost;
+        schedulers = new ArrayList<>();
+    }
+
+    @After
+    @Override
+    public void destroy()
+    {
+        for (HarvestScheduler scheduler : schedulers)
+        {
+            if (scheduler.mainContext != null && scheduler.mainContext.isValid())
+            {
+                scheduler.mainContext.abort();
+            }
+        }
+        HarvestScheduler.status = originalStatus;
+        HarvestScheduler.maxActiveThreads = originalMaxThreads;
+        HarvestScheduler.maxThreadsPerHost = originalMaxThreadsPerHost;
+        schedulers = null;
+        super.destroy();
+    }
+
+    /**
+     * @return a running scheduler with the given limits, whose harvests are
+     *         recorded instead of run
+     */
+    private HarvestScheduler newScheduler(int maxThreads, int maxThreadsPerHost)
+            throws SQLException, AuthorizeException
+    {
+        HarvestScheduler scheduler = new HarvestScheduler();
+        schedulers.add(scheduler);
+        HarvestScheduler.maxActiveThreads = maxThreads;
+        HarvestScheduler.maxThreadsPerHost = maxThreadsPerHost;
+        HarvestScheduler.status = HarvestScheduler.HARVESTER_STATUS_RUNNING;
+        scheduler.executor = new RecordingExecutor();
+        return scheduler;
+    }
+
+    private static List<HarvestThread> started(HarvestScheduler scheduler)
+    {
+        return ((RecordingExecutor) scheduler.executor).started;
+    }
+
+    /**
+     * Queue a harvest, due the given number of minutes ago, or as soon as
+     * possible if null.
+     */
+    private HarvestThread queue(HarvestScheduler scheduler, String host, Integer minutesAgo) throws SQLException
+    {
+        Date dueTime = minutesAgo == null ? null : new Date(System.currentTimeMillis() - minutesAgo * 60000L);
+        HarvestThread ht = new HarvestThread(UUID.randomUUID(), host, dueTime, scheduler);
+        synchronized (scheduler)
+        {
+            scheduler.scheduledCollections.add(ht.getCollectionId());
+            scheduler.harvestThreads.add(ht);
+        }
+        return ht;
+    }
+
+    /**
+     * Test that the most overdue harvests start first, after those which
+     * should run as soon as possible.
+     */
+    @Test
+    public void testMostOverdueFirst() throws Exception
+    {
+        HarvestScheduler scheduler = newScheduler(2, 2);
+        HarvestThread recent = queue(scheduler, "a.example.org", 5);
+        HarvestThread oldest = queue(scheduler, "b.example.org", 120);
+        HarvestThread immediate = queue(scheduler, "c.example.org", null);
+        HarvestThread older = queue(scheduler, "d.example.org", 60);
+
+        scheduler.dispatch();
+        assertThat("testMostOverdueFirst 0", started(scheduler), equalTo(Arrays.asList(immediate, oldest)));
+        assertThat("testMostOverdueFirst 1", scheduler.getQueueStatus(),
+                containsString("Running harvests: 2, queued harvests: 2"));
+        // the queued harvest which was due an hour ago
+        assertThat("testMostOverdueFirst 2", scheduler.getQueueStatus(),
+                containsString("maximum lag of queued harvests: 3600 s"));
+
+        scheduler.harvestFinished(oldest);
+        assertThat("testMostOverdueFirst 3", started(scheduler), equalTo(Arrays.asList(immediate, oldest, older)));
+        scheduler.harvestFinished(immediate);
+        assertThat("testMostOverdueFirst 4", started(scheduler),
+                equalTo(Arrays.asList(immediate, oldest, older, recent)));
+        assertThat("testMostOverdueFirst 5", scheduler.harvestThreads.isEmpty(), equalTo(true));
+    }
+
+    /**
+     * Test that no more harvests from a host run at the same time than are
+     * allowed, while the harvests from other hosts go ahead.
+     */
+    @Test
+    public void testHostLimit() throws Exception
+    {
+        HarvestScheduler scheduler = newScheduler(3, 1);
+        HarvestThread first = queue(scheduler, "a.example.org", 30);
+        HarvestThread second = queue(scheduler, "a.example.org", 20);
+        HarvestThread other = queue(scheduler, "b.example.org", 10);
+
+        scheduler.dispatch();
+        assertThat("testHostLimit 0", started(scheduler), equalTo(Arrays.asList(first, other)));
+        assertThat("testHostLimit 1", scheduler.activeHosts.get("a.example.org"), equalTo(1));
+        // the waiting harvest keeps its place
+        assertThat("testHostLimit 2", scheduler.harvestThreads.peek(), sameInstance(second));
+
+        scheduler.harvestFinished(other);
+        assertThat("testHostLimit 3", started(scheduler).size(), equalTo(2));
+        scheduler.harvestFinished(first);
+        assertThat("testHostLimit 4", started(scheduler), equalTo(Arrays.asList(first, other, second)));
+
+        scheduler.harvestFinished(second);
+        assertThat("testHostLimit 5", scheduler.activeHosts.isEmpty(), equalTo(true));
+        assertThat("testHostLimit 6", scheduler.activeThreads, equalTo(0));
+        assertThat("testHostLimit 7", scheduler.scheduledCollections.isEmpty(), equalTo(true));
+    }
+
+    /**
+     * Test that the hosts of OAI servers are compared without case, and
+     * without the rest of the URL.
+     */
+    @Test
+    public void testGetHost() throws Exception
+    {
+        assertThat("testGetHost 0", HarvestScheduler.getHost("http://OAI.Example.org:8080/oai/request"),
+                equalTo("oai.example.org"));
+        assertThat("testGetHost 1", HarvestScheduler.getHost("https://oai.example.org/other"),
+                equalTo("oai.example.org"));
+        assertThat("testGetHost 2", HarvestScheduler.getHost("not a url"), equalTo("not a url"));
+    }
+
+    /**
+     * Test that harvests started by a scheduler which was replaced only
+     * update the counters of the scheduler which started them.
+     */
+    @Test
+    public void testCountersPerScheduler() throws Exception
+    {
+        HarvestScheduler old = newScheduler(1, 1);
+        HarvestThread running = queue(old, "a.example.org", 30);
+        HarvestThread queued = queue(old, "a.example.org", 20);
+        old.dispatch();
+        assertThat("testCountersPerScheduler 0", started(old), equalTo(Arrays.asList(running)));
+
+        // the old scheduler stops, a new one takes over while the harvest runs
+        old.executor.shutdown();
+        synchronized (old)
+        {
+            old.harvestThreads.clear();
+            old.scheduledCollections.remove(queued.getCollectionId());
+        }
+        HarvestScheduler current = newScheduler(1, 1);
+        HarvestThread next = queue(current, "a.example.org", 10);
+        current.dispatch();
+        assertThat("testCountersPerScheduler 1", started(current), equalTo(Arrays.asList(next)));
+
+        // the old harvest finishes, the new scheduler still counts its own
+        queue(current, "a.example.org", 5);
+        old.harvestFinished(running);
+        assertThat("testCountersPerScheduler 2", old.activeThreads, equalTo(0));
+        assertThat("testCountersPerScheduler 3", old.activeHosts.isEmpty(), equalTo(true));
+        assertThat("testCountersPerScheduler 4", current.activeThreads, equalTo(1));
+        assertThat("testCountersPerScheduler 5", current.activeHosts.get("a.example.org"), equalTo(1));
+        assertThat("testCountersPerScheduler 6", started(current).size(), equalTo(1));
+        // nothing is started by the stopped scheduler
+        assertThat("testCountersPerScheduler 7", started(old).size(), equalTo(1));
+    }
+
+    /**
+     * An executor which records the harvests it is given, and doesn't run
+     * them.
+     */
+    private static class RecordingExecutor extends AbstractExecutorService
+    {
+        final List<HarvestThread> started = Collections.synchronizedList(new ArrayList<HarvestThread>());
+
+        private volatile boolean shutdown = false;
+
+        @Override
+        public void execute(Runnable command)
+        {
+            started.add((HarvestThread) command);
+        }
+
+        @Override
+        public void shutdown()
+        {
+            shutdown = true;
+        }
+
+        @Override
+        public List<Runnable> shutdownNow()
+        {
+            shutdown = true;
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean isShutdown()
+        {
+            return shutdown;
+        }
+
+        @Override
+        public boolean isTerminated()
+        {
+            return shutdown;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit)
+        {
+            return shutdown;
+        }
+    }
+}
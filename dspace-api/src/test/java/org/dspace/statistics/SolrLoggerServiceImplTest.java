@@ -0,0 +1,492 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.statistics;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.impl.HttpSolrServer;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.CursorMarkParams;
+import org.apache.solr.common.params.FacetParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.dspace.AbstractUnitTest;
+import org.dspace.content.DCDate;
+import org.dspace.services.ConfigurationService;
+import org.dspace.services.factory.DSpaceServicesFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit Tests for the date facets of several objects of class
+ * SolrLoggerServiceImpl, against a solr server which counts the hits of the
+ * facet queries, and against rollups which count them by day. And for the
+ * move of a year into a core of its own, against solr servers which keep
+ * their records in memory.
+ */
+public class SolrLoggerServiceImplTest extends AbstractUnitTest
+{
+    private ConfigurationService configurationService = DSpaceServicesFactory.getInstance().getConfigurationService();
+
+    private RecordingSolrServer server;
+
+    private SolrLoggerServiceImpl service;
+
+    /** The sums of the rollups by filter query, null for the total */
+    private Map<String, Map<String, Long>> rollupSums;
+
+    private StatisticsRollup rollup;
+
+    @Before
+    @Override
+    public void init()
+    {
+        super.init();
+        server = new RecordingSolrServer();
+        service = new SolrLoggerServiceImpl();
+        service.solr = server;
+        rollupSums = new LinkedHashMap<String, Map<String, Long>>();
+        rollup = new StatisticsRollup(null, 0, 100)
+        {
+            @Override
+            public boolean canAnswer(String query, String filterQuery, String facetField, String dateType,
+                    Date until)
+            {
+                return true;
+            }
+
+            @Override
+            public Map<String, Long> sum(String query, List<String> filterQueries, String facetField)
+            {
+                assertThat("sum 0", facetField, equalTo("time"));
+                for (String filterQuery : filterQueries)
+                {
+                    if (rollupSums.containsKey(filterQuery))
+                    {
+                        return rollupSums.get(filterQuery);
+                    }
+                }
+                return rollupSums.get(null);
+            }
+        };
+    }
+
+    @After
+    @Override
+    public void destroy()
+    {
+        configurationService.setProperty("solr-statistics.shard.batch.size", null);
+        FileUtils.deleteQuietly(checkpoint());
+        server.shutdown();
+        server = null;
+        service = null;
+        rollup = null;
+        super.destroy();
+    }
+
+    private List<String> gapNames(String dateType, String dateStart, String dateEnd)
+    {
+        List<Date> gapDates = service.getGapDates(dateType, dateStart, dateEnd);
+        List<String> names = new ArrayList<String>();
+        for (int i = 0; i < gapDates.size() - 1; i++)
+        {
+            names.add(service.getGapName(gapDates.get(i), dateType, context));
+        }
+        return names;
+    }
+
+    /**
+     * Test that the dates of several objects are counted with facet queries in
+     * one request, posted as it's too long for a url.
+     */
+    @Test
+    public void testQueryFacetDateOfValues() throws Exception
+    {
+        List<String> values = Arrays.asList("1", "2", "3");
+        Map<String, ObjectCount[]> result = service.queryFacetDate("*:*", null, "id", values,
+                "MONTH", "-4", "+1", true, context);
+
+        assertThat("testQueryFacetDateOfValues 0", server.requests, equalTo(1));
+        assertThat("testQueryFacetDateOfValues 1", server.method, equalTo(SolrRequest.METHOD.POST));
+        // five months and the total of each object
+        assertThat("testQueryFacetDateOfValues 2", server.facetQueries.size(), equalTo(18));
+        assertThat("testQueryFacetDateOfValues 3", server.facetQueries.get(0),
+                startsWith("id:1 AND time:["));
+        assertThat("testQueryFacetDateOfValues 4", server.facetQueries.get(5), equalTo("id:1"));
+
+        List<String> names = gapNames("MONTH", "-4", "+1");
+        assertThat("testQueryFacetDateOfValues 5", names.size(), equalTo(5));
+        assertThat("testQueryFacetDateOfValues 6", new ArrayList<String>(result.keySet()), equalTo(values));
+        for (int v = 0; v < 2; v++)
+        {
+            ObjectCount[] counts = result.get(values.get(v));
+            assertThat("testQueryFacetDateOfValues 7", counts.length, equalTo(6));
+            for (int i = 0; i < counts.length; i++)
+            {
+                assertThat("testQueryFacetDateOfValues 8", counts[i].getValue(),
+                        equalTo(i < names.size() ? names.get(i) : "total"));
+                // the position of its facet query
+                assertThat("testQueryFacetDateOfValues 9", counts[i].getCount(), equalTo(v * 6L + i + 1));
+            }
+        }
+        // the counts solr leaves out are 0
+        for (ObjectCount count : result.get("3"))
+        {
+            assertThat("testQueryFacetDateOfValues 10", count.getCount(), equalTo(0L));
+        }
+    }
+
+    /**
+     * Test that the dates of several objects are counted from the rollups when
+     * they can answer.
+     */
+    @Test
+    public void testQueryFacetDateOfValuesFromRollups() throws Exception
+    {
+        service.statisticsRollup = rollup;
+        List<Date> gapDates = service.getGapDates("MONTH", "-2", "+1");
+        Map<String, Long> sums = new LinkedHashMap<String, Long>();
+        sums.put(null, 12L);
+        sums.put(StatisticsRollup.formatDay(gapDates.get(0)), 3L);
+        sums.put(StatisticsRollup.formatDay(new Date(gapDates.get(1).getTime() - 1)), 4L);
+        sums.put(StatisticsRollup.formatDay(gapDates.get(2)), 5L);
+        rollupSums.put("id:1", sums);
+        rollupSums.put(null, new LinkedHashMap<String, Long>());
+
+        Map<String, ObjectCount[]> result = service.queryFacetDate("*:*", null, "id", Arrays.asList("1", "2"),
+                "MONTH", "-2", "+1", true, context);
+
+        assertThat("testQueryFacetDateOfValuesFromRollups 0", server.requests, equalTo(0));
+        List<String> names = gapNames("MONTH", "-2", "+1");
+        ObjectCount[] counts = result.get("1");
+        assertThat("testQueryFacetDateOfValuesFromRollups 1", counts.length, equalTo(4));
+        assertThat("testQueryFacetDateOfValuesFromRollups 2", counts[0].getValue(), equalTo(names.get(0)));
+        assertThat("testQueryFacetDateOfValuesFromRollups 3", counts[0].getCount(), equalTo(7L));
+        assertThat("testQueryFacetDateOfValuesFromRollups 4", counts[1].getCount(), equalTo(0L));
+        assertThat("testQueryFacetDateOfValuesFromRollups 5", counts[2].getCount(), equalTo(5L));
+        assertThat("testQueryFacetDateOfValuesFromRollups 6", counts[3].getValue(), equalTo("total"));
+        assertThat("testQueryFacetDateOfValuesFromRollups 7", counts[3].getCount(), equalTo(12L));
+        for (ObjectCount count : result.get("2"))
+        {
+            assertThat("testQueryFacetDateOfValuesFromRollups 8", count.getCount(), equalTo(0L));
+        }
+    }
+
+    /**
+     * Test that the dates of one query are counted from the rollups, leaving
+     * out the gaps without hits like the date facet does.
+     */
+    @Test
+    public void testQueryFacetDateFromRollups() throws Exception
+    {
+        service.statisticsRollup = rollup;
+        List<Date> gapDates = service.getGapDates("DAY", "-3", "+1");
+        Map<String, Long> sums = new LinkedHashMap<String, Long>();
+        sums.put(null, 9L);
+        sums.put(StatisticsRollup.formatDay(gapDates.get(1)), 2L);
+        sums.put(StatisticsRollup.formatDay(gapDates.get(3)), 7L);
+        rollupSums.put(null, sums);
+
+        ObjectCount[] result = service.queryFacetDate("id:1", null, -1, "DAY", "-3", "+1", true, context);
+
+        assertThat("testQueryFacetDateFromRollups 0", server.requests, equalTo(0));
+        List<String> names = gapNames("DAY", "-3", "+1");
+        assertThat("testQueryFacetDateFromRollups 1", result.length, equalTo(3));
+        assertThat("testQueryFacetDateFromRollups 2", result[0].getValue(), equalTo(names.get(1)));
+        assertThat("testQueryFacetDateFromRollups 3", result[0].getCount(), equalTo(2L));
+        assertThat("testQueryFacetDateFromRollups 4", result[1].getValue(), equalTo(names.get(3)));
+        assertThat("testQueryFacetDateFromRollups 5", result[1].getCount(), equalTo(7L));
+        assertThat("testQueryFacetDateFromRollups 6", result[2].getValue(), equalTo("total"));
+        assertThat("testQueryFacetDateFromRollups 7", result[2].getCount(), equalTo(9L));
+    }
+
+    private static final DCDate YEAR = new DCDate("2015-01-01T00:00:00Z");
+
+    /**
+     * @return the checkpoint of the move of {@link #YEAR}
+     */
+    private File checkpoint()
+    {
+        return new File(configurationService.getProperty("dspace.dir") + File.separator + "temp"
+                + File.separator + "statistics-2015.cursor");
+    }
+
+    /**
+     * @return a service moving the records of the given core into the given
+     *         year core, two records per page
+     */
+    private SolrLoggerServiceImpl shardingService(MemorySolrServer main, final MemorySolrServer year)
+    {
+        configurationService.setProperty("solr-statistics.shard.batch.size", 2);
+        SolrLoggerServiceImpl sharding = new SolrLoggerServiceImpl()
+        {
+            @Override
+            protected HttpSolrServer getOrCreateCore(HttpSolrServer solr, String coreName)
+            {
+                assertThat("getOrCreateCore 0", coreName, equalTo("statistics-2015"));
+                return year;
+            }
+        };
+        sharding.solr = main;
+        return sharding;
+    }
+
+    /**
+     * Test that a move which was interrupted resumes from the last page
+     * committed to the year core, and that the records are only deleted from
+     * the main core once they are all in the year core.
+     */
+    @Test
+    public void testMoveYearResumesFromCheckpoint() throws Exception
+    {
+        MemorySolrServer main = new MemorySolrServer(25);
+        MemorySolrServer year = new MemorySolrServer(0);
+        SolrLoggerServiceImpl sharding = shardingService(main, year);
+
+        // the year core fails after ten pages
+        year.failAfter = 20;
+        try
+        {
+            sharding.moveYear(YEAR);
+            fail("testMoveYearResumesFromCheckpoint 0");
+        }
+        catch (SolrServerException e)
+        {
+            // expected
+        }
+        assertThat("testMoveYearResumesFromCheckpoint 1", FileUtils.readFileToString(checkpoint(), "UTF-8"),
+                equalTo("20"));
+        assertThat("testMoveYearResumesFromCheckpoint 2", year.uids.size(), equalTo(20));
+        assertThat("testMoveYearResumesFromCheckpoint 3", main.deleteQueries.isEmpty(), equalTo(true));
+
+        year.failAfter = Integer.MAX_VALUE;
+        main.cursorMarks.clear();
+        year.addedRecords = 0;
+        assertThat("testMoveYearResumesFromCheckpoint 4", sharding.moveYear(YEAR), equalTo(25L));
+        // the pages before the checkpoint aren't read again
+        assertThat("testMoveYearResumesFromCheckpoint 5", main.cursorMarks.get(0), equalTo("20"));
+        assertThat("testMoveYearResumesFromCheckpoint 6", year.addedRecords, equalTo(5));
+        assertThat("testMoveYearResumesFromCheckpoint 7", year.uids.size(), equalTo(25));
+        assertThat("testMoveYearResumesFromCheckpoint 8", year.versions, equalTo(0));
+        assertThat("testMoveYearResumesFromCheckpoint 9", main.deleteQueries.size(), equalTo(1));
+        assertThat("testMoveYearResumesFromCheckpoint 10", main.deleteQueries.get(0), startsWith("time:(["));
+        assertThat("testMoveYearResumesFromCheckpoint 11", checkpoint().exists(), equalTo(false));
+    }
+
+    /**
+     * Test that the records stay in the main core when the year core misses
+     * some of them, and that the next move copies them all again.
+     */
+    @Test
+    public void testMoveYearKeepsRecordsWhenVerificationFails() throws Exception
+    {
+        MemorySolrServer main = new MemorySolrServer(25);
+        MemorySolrServer year = new MemorySolrServer(0);
+        SolrLoggerServiceImpl sharding = shardingService(main, year);
+
+        // the year core loses two records, on either side of a page break
+        year.lost.add(MemorySolrServer.uid(1));
+        year.lost.add(MemorySolrServer.uid(2));
+        try
+        {
+            sharding.moveYear(YEAR);
+            fail("testMoveYearKeepsRecordsWhenVerificationFails 0");
+        }
+        catch (IOException e)
+        {
+            assertThat("testMoveYearKeepsRecordsWhenVerificationFails 1", e.getMessage(),
+                    containsString("misses 2 of the records of 2015"));
+        }
+        assertThat("testMoveYearKeepsRecordsWhenVerificationFails 2", main.deleteQueries.isEmpty(), equalTo(true));
+        assertThat("testMoveYearKeepsRecordsWhenVerificationFails 3", main.records.size(), equalTo(25));
+        assertThat("testMoveYearKeepsRecordsWhenVerificationFails 4", checkpoint().exists(), equalTo(false));
+
+        assertThat("testMoveYearKeepsRecordsWhenVerificationFails 5",
+                sharding.countMissingRecords(year, "time:[* TO *]", 2), equalTo(2L));
+        year.lost.clear();
+        main.cursorMarks.clear();
+        assertThat("testMoveYearKeepsRecordsWhenVerificationFails 6", sharding.moveYear(YEAR), equalTo(25L));
+        assertThat("testMoveYearKeepsRecordsWhenVerificationFails 7", main.cursorMarks.get(0),
+                equalTo(CursorMarkParams.CURSOR_MARK_START));
+        assertThat("testMoveYearKeepsRecordsWhenVerificationFails 8", main.deleteQueries.size(), equalTo(1));
+    }
+
+    /**
+     * Keeps its records in memory, sorted by uid. Pages are read with cursor
+     * marks holding the position of the next record, the uids present are
+     * counted with the terms query parser.
+     */
+    private static class MemorySolrServer extends HttpSolrServer
+    {
+        private final List<SolrDocument> records = new ArrayList<SolrDocument>();
+
+        private final Set<String> uids = new HashSet<String>();
+
+        /** Records which are silently dropped when added */
+        private final Set<String> lost = new HashSet<String>();
+
+        /** Number of records which can be added before adding fails */
+        private int failAfter = Integer.MAX_VALUE;
+
+        private int addedRecords = 0;
+
+        /** Number of added records which still had a version */
+        private int versions = 0;
+
+        /** Cursor marks of the pages of records read */
+        private final List<String> cursorMarks = new ArrayList<String>();
+
+        private final List<String> deleteQueries = new ArrayList<String>();
+
+        private MemorySolrServer(int size)
+        {
+            super("http://localhost:8080/solr/statistics");
+            for (int i = 0; i < size; i++)
+            {
+                SolrDocument record = new SolrDocument();
+                record.setField("uid", uid(i));
+                record.setField("time", YEAR.toDate());
+                record.setField("_version_", 1L);
+                records.add(record);
+                uids.add(uid(i));
+            }
+        }
+
+        private static String uid(int i)
+        {
+            return String.format("uid-%03d", i);
+        }
+
+        @Override
+        public NamedList<Object> request(SolrRequest request) throws SolrServerException
+        {
+            NamedList<Object> response = new NamedList<Object>();
+            if (request instanceof UpdateRequest)
+            {
+                UpdateRequest update = (UpdateRequest) request;
+                if (update.getDocuments() != null)
+                {
+                    if (failAfter < addedRecords + update.getDocuments().size())
+                    {
+                        throw new SolrServerException("Unable to add the records");
+                    }
+                    for (SolrInputDocument record : update.getDocuments())
+                    {
+                        addedRecords++;
+                        versions += record.containsKey("_version_") ? 1 : 0;
+                        if (!lost.contains(record.getFieldValue("uid")))
+                        {
+                            uids.add((String) record.getFieldValue("uid"));
+                        }
+                    }
+                }
+                if (update.getDeleteQuery() != null)
+                {
+                    deleteQueries.addAll(update.getDeleteQuery());
+                }
+                return response;
+            }
+
+            SolrParams params = request.getParams();
+            SolrDocumentList results = new SolrDocumentList();
+            String query = params.get(CommonParams.Q);
+            String cursorMark = params.get(CursorMarkParams.CURSOR_MARK_PARAM);
+            if (query.startsWith("{!terms f=uid}"))
+            {
+                int present = 0;
+                for (String uid : query.substring("{!terms f=uid}".length()).split(","))
+                {
+                    present += uids.contains(uid) ? 1 : 0;
+                }
+                results.setNumFound(present);
+            }
+            else if (cursorMark != null)
+            {
+                if (params.get(CommonParams.FL) == null)
+                {
+                    cursorMarks.add(cursorMark);
+                }
+                int start = CursorMarkParams.CURSOR_MARK_START.equals(cursorMark) ? 0 : Integer.parseInt(cursorMark);
+                int end = Math.min(records.size(), start + params.getInt(CommonParams.ROWS));
+                results.addAll(records.subList(start, end));
+                results.setNumFound(records.size());
+                response.add(CursorMarkParams.CURSOR_MARK_NEXT, start == end ? cursorMark : String.valueOf(end));
+            }
+            else
+            {
+                results.setNumFound(records.size());
+            }
+            response.add("response", results);
+            return response;
+        }
+    }
+
+    /**
+     * Records the requests sent to it, answers the facet queries with their
+     * position in the request, except those of object 3.
+     */
+    private static class RecordingSolrServer extends HttpSolrServer
+    {
+        private int requests = 0;
+
+        private SolrRequest.METHOD method;
+
+        private List<String> facetQueries = new ArrayList<String>();
+
+        private RecordingSolrServer()
+        {
+            super("http://localhost:8080/solr/statistics");
+        }
+
+        @Override
+        public NamedList<Object> request(SolrRequest request)
+        {
+            requests++;
+            method = request.getMethod();
+            String[] queries = request.getParams().getParams(FacetParams.FACET_QUERY);
+            facetQueries = queries == null ? new ArrayList<String>() : Arrays.asList(queries);
+
+            NamedList<Object> counts = new NamedList<Object>();
+            for (int i = 0; i < facetQueries.size(); i++)
+            {
+                if (!facetQueries.get(i).startsWith("id:3"))
+                {
+                    counts.add(facetQueries.get(i), i + 1);
+                }
+            }
+            NamedList<Object> facets = new NamedList<Object>();
+            facets.add("facet_queries", counts);
+            SolrDocumentList results = new SolrDocumentList();
+            results.setNumFound(0);
+            NamedList<Object> response = new NamedList<Object>();
+            response.add("response", results);
+            response.add("facet_counts", facets);
+            return response;
+        }
+    }
+}
@@ -0,0 +1,226 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.statistics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.NamedList;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link SolrStatisticsWriter}, against a solr server which records the
+ * batches written to it.
+ */
+public class SolrStatisticsWriterTest
+{
+    private RecordingSolrServer server = new RecordingSolrServer();
+
+    @Test
+    public void testBatching()
+    {
+        SolrStatisticsWriter writer = new SolrStatisticsWriter(server, 10, 2, 100,
+                SolrStatisticsWriter.Overflow.DROP, 0, 1);
+        for (int i = 0; i < 5; i++)
+        {
+            assertTrue(writer.add(event(i)));
+        }
+        // nothing is written before the writer is started
+        assertTrue(server.batches.isEmpty());
+
+        writer.start();
+        writer.shutdown(10000);
+        assertEquals(Arrays.asList(2, 2, 1), server.getBatchSizes());
+        assertEquals(5, writer.getQueuedCount());
+        assertEquals(5, writer.getFlushedCount());
+        assertEquals(0, writer.getQueueSize());
+    }
+
+    @Test
+    public void testDropOverflow()
+    {
+        SolrStatisticsWriter writer = new SolrStatisticsWriter(server, 2, 10, 100,
+                SolrStatisticsWriter.Overflow.DROP, 0, 1);
+        assertTrue(writer.add(event(0)));
+        assertTrue(writer.add(event(1)));
+        assertFalse(writer.add(event(2)));
+        assertEquals(2, writer.getQueuedCount());
+        assertEquals(1, writer.getDroppedCount());
+    }
+
+    @Test
+    public void testBlockOverflow() throws Exception
+    {
+        SolrStatisticsWriter writer = new SolrStatisticsWriter(server, 1, 10, 100,
+                SolrStatisticsWriter.Overflow.BLOCK, 1000, 1);
+        assertTrue(writer.add(event(0)));
+
+        // waits for room in the queue before dropping the event
+        long start = System.currentTimeMillis();
+        assertFalse(writer.add(event(1)));
+        assertTrue(System.currentTimeMillis() - start >= 900);
+        assertEquals(1, writer.getDroppedCount());
+
+        // gets the room the writer makes while it waits
+        writer.start();
+        assertTrue(writer.add(event(2)));
+        writer.shutdown(10000);
+        assertEquals(2, writer.getFlushedCount());
+    }
+
+    @Test
+    public void testShutdownFlush()
+    {
+        SolrStatisticsWriter writer = new SolrStatisticsWriter(server, 10, 10, 60000,
+                SolrStatisticsWriter.Overflow.DROP, 0, 1);
+        writer.start();
+        writer.add(event(0));
+        writer.add(event(1));
+        writer.shutdown(10000);
+        assertEquals(2, writer.getFlushedCount());
+        assertEquals(2, server.getEventCount());
+
+        // events aren't accepted once the writer is shut down
+        assertFalse(writer.add(event(2)));
+    }
+
+    @Test
+    public void testShutdownWithoutStart()
+    {
+        SolrStatisticsWriter writer = new SolrStatisticsWriter(server, 10, 10, 100,
+                SolrStatisticsWriter.Overflow.DROP, 0, 1);
+        writer.add(event(0));
+        writer.shutdown(10000);
+        assertEquals(1, writer.getFlushedCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testStartTwice()
+    {
+        SolrStatisticsWriter writer = new SolrStatisticsWriter(server, 10, 10, 100,
+                SolrStatisticsWriter.Overflow.DROP, 0, 1);
+        writer.start();
+        try
+        {
+            writer.start();
+        }
+        finally
+        {
+            writer.shutdown(10000);
+        }
+    }
+
+    @Test
+    public void testPrepareThreads()
+    {
+        final Set<String> threads = Collections.synchronizedSet(new HashSet<String>());
+        SolrStatisticsWriter writer = new SolrStatisticsWriter(server, 10, 10, 100,
+                SolrStatisticsWriter.Overflow.DROP, 0, 3)
+        {
+            @Override
+            protected void prepare(SolrInputDocument doc)
+            {
+                threads.add(Thread.currentThread().getName());
+                doc.addField("dns", "host" + doc.getFieldValue("id"));
+            }
+        };
+        for (int i = 0; i < 6; i++)
+        {
+            writer.add(event(i));
+        }
+        writer.start();
+        writer.shutdown(10000);
+
+        assertEquals(Arrays.asList(6), server.getBatchSizes());
+        for (SolrInputDocument doc : server.batches.get(0))
+        {
+            assertEquals("host" + doc.getFieldValue("id"), doc.getFieldValue("dns"));
+        }
+        for (String thread : threads)
+        {
+            assertTrue(thread, thread.startsWith("solr-statistics-prepare-"));
+        }
+    }
+
+    @Test
+    public void testFailedBatch()
+    {
+        server.fail = true;
+        SolrStatisticsWriter writer = new SolrStatisticsWriter(server, 10, 10, 100,
+                SolrStatisticsWriter.Overflow.DROP, 0, 1);
+        writer.add(event(0));
+        writer.add(event(1));
+        writer.shutdown(10000);
+        assertEquals(0, writer.getFlushedCount());
+        assertEquals(2, writer.getFailedCount());
+    }
+
+    private static SolrInputDocument event(int id)
+    {
+        SolrInputDocument event = new SolrInputDocument();
+        event.addField("id", id);
+        event.addField("ip", "127.0.0.1");
+        return event;
+    }
+
+    /**
+     * Records the batches of documents added to it.
+     */
+    private static class RecordingSolrServer extends SolrServer
+    {
+        private final List<List<SolrInputDocument>> batches = Collections.synchronizedList(
+                new ArrayList<List<SolrInputDocument>>());
+
+        private volatile boolean fail = false;
+
+        private List<Integer> getBatchSizes()
+        {
+            List<Integer> sizes = new ArrayList<Integer>();
+            for (List<SolrInputDocument> batch : batches)
+            {
+                sizes.add(batch.size());
+            }
+            return sizes;
+        }
+
+        private int getEventCount()
+        {
+            int count = 0;
+            for (List<SolrInputDocument> batch : batches)
+            {
+                count += batch.size();
+            }
+            return count;
+        }
+
+        @Override
+        public NamedList<Object> request(SolrRequest request)
+        {
+            if (fail)
+            {
+                throw new IllegalStateException("solr is down");
+            }
+            batches.add(new ArrayList<SolrInputDocument>(((UpdateRequest) request).getDocuments()));
+            return new NamedList<Object>();
+        }
+
+        @Override
+        public void shutdown()
+        {
+        }
+    }
+}
@@ -0,0 +1,396 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.statistics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.params.CursorMarkParams;
+import org.apache.solr.common.util.NamedList;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link StatisticsRollup}, against a solr server which records the
+ * rollups written to it.
+ */
+public class StatisticsRollupTest
+{
+    private RecordingSolrServer server;
+
+    private StatisticsRollup rollup;
+
+    @Before
+    public void init()
+    {
+        server = new RecordingSolrServer();
+        // flushed by the tests only
+        rollup = new StatisticsRollup(server, 3600000, 100);
+    }
+
+    @After
+    public void destroy()
+    {
+        rollup.shutdown();
+    }
+
+    @Test
+    public void testDayDate()
+    {
+        assertTrue(StatisticsRollup.DAY_DATE.matcher("2016-01-01T00:00:00Z").matches());
+        assertTrue(StatisticsRollup.DAY_DATE.matcher("2016-01-01T00:00:00.000Z").matches());
+        assertTrue(StatisticsRollup.DAY_DATE.matcher("2016-01-01T00\\:00\\:00Z").matches());
+        assertTrue(StatisticsRollup.DAY_DATE.matcher("NOW/DAY").matches());
+        assertTrue(StatisticsRollup.DAY_DATE.matcher("NOW/MONTH-3MONTHS").matches());
+        assertTrue(StatisticsRollup.DAY_DATE.matcher("NOW/YEAR+1YEAR").matches());
+
+        assertFalse(StatisticsRollup.DAY_DATE.matcher("2016-01-01T00:00:01Z").matches());
+        assertFalse(StatisticsRollup.DAY_DATE.matcher("NOW").matches());
+        assertFalse(StatisticsRollup.DAY_DATE.matcher("NOW-1DAY").matches());
+        assertFalse(StatisticsRollup.DAY_DATE.matcher("NOW/HOUR").matches());
+    }
+
+    @Test
+    public void testQueryDate()
+    {
+        Matcher date = StatisticsRollup.QUERY_DATE.matcher("time:[2016-01-01T00:00:00Z TO NOW/DAY+1DAY] AND type:2");
+        List<String> dates = new ArrayList<String>();
+        while (date.find())
+        {
+            dates.add(date.group());
+        }
+        assertEquals(Arrays.asList("2016-01-01T00:00:00Z", "NOW/DAY+1DAY"), dates);
+    }
+
+    @Test
+    public void testIsRollupQuery()
+    {
+        assertTrue(rollup.isRollupQuery(null));
+        assertTrue(rollup.isRollupQuery("type:2 AND id:1234"));
+        assertTrue(rollup.isRollupQuery("owningColl:1234 AND -statistics_type:search"));
+        assertTrue(rollup.isRollupQuery("time:[2016-01-01T00:00:00Z TO 2016-02-01T00:00:00Z]"));
+        assertTrue(rollup.isRollupQuery("time:[2016-01-01T00\\:00\\:00Z TO NOW/DAY+1DAY}"));
+
+        // fields which aren't kept in the rollups
+        assertFalse(rollup.isRollupQuery("ip:127.0.0.1"));
+        assertFalse(rollup.isRollupQuery("type:2 AND userAgent:Mozilla"));
+        // dates which aren't on the start of a day
+        assertFalse(rollup.isRollupQuery("time:[2016-01-01T12:00:00Z TO 2016-02-01T00:00:00Z]"));
+        assertFalse(rollup.isRollupQuery("time:[NOW-7DAYS TO NOW]"));
+    }
+
+    @Test
+    public void testToRollupQuery()
+    {
+        // an inclusive upper bound on the start of a day leaves that day out
+        assertEquals("time:[2016-01-01T00:00:00Z TO 2016-02-01T00:00:00Z}",
+                rollup.toRollupQuery("time:[2016-01-01T00:00:00Z TO 2016-02-01T00:00:00Z]"));
+        assertEquals("time:[NOW/MONTH-1MONTH TO NOW/MONTH}",
+                rollup.toRollupQuery("time:[NOW/MONTH-1MONTH TO NOW/MONTH ]"));
+        // an exclusive lower bound on the start of a day keeps it
+        assertEquals("time:[2016-01-01T00:00:00Z TO NOW/DAY}",
+                rollup.toRollupQuery("time:{2016-01-01T00:00:00Z TO NOW/DAY}"));
+        assertEquals("time:[NOW/DAY-7DAYS TO NOW/DAY}",
+                rollup.toRollupQuery("time:{ NOW/DAY-7DAYS TO NOW/DAY]"));
+
+        assertEquals("type:2 AND id:1234", rollup.toRollupQuery("type:2 AND id:1234"));
+        assertEquals("time:[* TO NOW/DAY}", rollup.toRollupQuery("time:[* TO NOW/DAY}"));
+    }
+
+    @Test
+    public void testAddAndFlush()
+    {
+        Date now = new Date();
+        String today = StatisticsRollup.formatDay(now);
+        rollup.add(hit(now, "1234", "NL", false));
+        rollup.add(hit(now, "1234", "NL", false));
+        rollup.add(hit(now, "1234", "BE", false));
+        rollup.add(hit(now, "1234", "NL", true));
+        SolrInputDocument noTime = hit(now, "1234", "NL", false);
+        noTime.removeField("time");
+        rollup.add(noTime);
+        assertTrue(server.added.isEmpty());
+
+        rollup.flush();
+        Map<String, SolrInputDocument> updates = server.getAdded();
+        assertEquals(2, updates.size());
+
+        SolrInputDocument nl = updates.get(today + "/2/1234/NL/view/ORIGINAL");
+        assertNotNull(nl);
+        assertEquals(map("inc", 2L), nl.getFieldValue(StatisticsRollup.COUNT_FIELD));
+        assertEquals(map("set", Arrays.asList(today)), nl.getFieldValue("time"));
+        assertEquals(map("set", Arrays.asList("coll2", "coll1")), nl.getFieldValue("owningColl"));
+        assertNull(nl.getFieldValue("ip"));
+        assertEquals(map("inc", 1L), updates.get(today + "/2/1234/BE/view/ORIGINAL")
+                .getFieldValue(StatisticsRollup.COUNT_FIELD));
+        // the hits of today don't need the state of the rollups
+        assertEquals(0, server.queries);
+
+        // nothing left to flush
+        server.added.clear();
+        rollup.flush();
+        assertTrue(server.added.isEmpty());
+    }
+
+    @Test
+    public void testFlushDropsRolledUpDays()
+    {
+        Calendar day = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        day.add(Calendar.DAY_OF_MONTH, -3);
+        Date threeDaysAgo = day.getTime();
+        day.add(Calendar.DAY_OF_MONTH, 1);
+        Date twoDaysAgo = day.getTime();
+        // the hits of three days ago are counted by the rollups already
+        server.rolledUpUntil = StatisticsRollup.parseDay(StatisticsRollup.formatDay(twoDaysAgo));
+
+        rollup.add(hit(threeDaysAgo, "1234", "NL", false));
+        rollup.add(hit(twoDaysAgo, "1234", "NL", false));
+        rollup.flush();
+
+        Map<String, SolrInputDocument> updates = server.getAdded();
+        assertEquals(1, updates.size());
+        assertTrue(updates.containsKey(StatisticsRollup.formatDay(twoDaysAgo) + "/2/1234/NL/view/ORIGINAL"));
+        assertEquals(1, server.queries);
+    }
+
+    @Test
+    public void testGetRangeEnd()
+    {
+        assertEquals(StatisticsRollup.parseDay("2016-02-01"),
+                rollup.getRangeEnd("type:2 AND time:[2016-01-01T00:00:00Z TO 2016-02-01T00:00:00Z}"));
+        assertEquals(StatisticsRollup.parseDay("2016-02-01"),
+                rollup.getRangeEnd("time:{ 2016-01-01T00\\:00\\:00Z TO 2016-02-01T00\\:00\\:00Z ]"));
+        // the latest end counts
+        assertEquals(StatisticsRollup.parseDay("2016-03-01"),
+                rollup.getRangeEnd("time:[2016-01-01T00:00:00Z TO 2016-02-01T00:00:00Z} OR "
+                        + "time:[2016-02-01T00:00:00Z TO 2016-03-01T00:00:00Z}"));
+
+        assertNull(rollup.getRangeEnd(null));
+        assertNull(rollup.getRangeEnd("type:2 AND id:1234"));
+        assertNull(rollup.getRangeEnd("time:[2016-01-01T00:00:00Z TO NOW/DAY}"));
+        assertNull(rollup.getRangeEnd("time:[2016-01-01T00:00:00Z TO *]"));
+        assertNull(rollup.getRangeEnd("time:[2016-01-01T00:00:00Z TO 2016-02-01T00:00:00Z} OR "
+                + "time:[2016-02-01T00:00:00Z TO NOW/DAY}"));
+    }
+
+    @Test
+    public void testCanAnswerBeforeRunComplete()
+    {
+        Date threeDaysAgo = day(-3);
+        String range = "time:[" + StatisticsRollup.formatDay(day(-10)) + " TO ";
+        // never rolled up
+        assertFalse(rollup.canAnswer("type:2", range + StatisticsRollup.formatDay(day(-5)) + "}", null, "DAY", null));
+
+        // a first run got up to three days ago, and may still be running
+        server.rolledUpUntil = threeDaysAgo;
+        rollup.getRolledUpUntil(true);
+        assertFalse(rollup.isRunComplete());
+        assertTrue(rollup.canAnswer("type:2", range + StatisticsRollup.formatDay(threeDaysAgo) + "}",
+                null, "DAY", null));
+        assertTrue(rollup.canAnswer("type:2", null, null, "DAY", threeDaysAgo));
+        assertTrue(rollup.canAnswer("type:2", "time:[* TO NOW/DAY}", null, "DAY", day(-5)));
+        // the later days may miss hits
+        assertFalse(rollup.canAnswer("type:2", range + StatisticsRollup.formatDay(day(-2)) + "}",
+                null, "DAY", null));
+        assertFalse(rollup.canAnswer("type:2", null, null, "DAY", day(1)));
+        assertFalse(rollup.canAnswer("type:2", "time:[* TO NOW/DAY}", null, "DAY", null));
+        assertFalse(rollup.canAnswer("type:2", null, null, null, null));
+    }
+
+    @Test
+    public void testCanAnswerAfterRunComplete()
+    {
+        server.rolledUpUntil = day(0);
+        server.complete = true;
+        rollup.getRolledUpUntil(true);
+        assertTrue(rollup.isRunComplete());
+        assertTrue(rollup.canAnswer("type:2", null, null, "DAY", day(1)));
+        assertTrue(rollup.canAnswer("type:2", null, null, null, null));
+        // the rollups still don't know every field
+        assertFalse(rollup.canAnswer("ip:127.0.0.1", null, null, "DAY", day(1)));
+        assertFalse(rollup.canAnswer("type:2", null, null, "HOUR", day(1)));
+    }
+
+    @Test
+    public void testCanAnswerAfterFailedFlush()
+    {
+        server.rolledUpUntil = day(-1);
+        server.complete = true;
+        rollup.getRolledUpUntil(true);
+        assertTrue(rollup.canAnswer("type:2", null, null, "DAY", day(1)));
+
+        server.failUpdates = true;
+        rollup.add(hit(new Date(), "1234", "NL", false));
+        rollup.flush();
+        // the hits of today are missing
+        assertFalse(rollup.canAnswer("type:2", null, null, "DAY", day(1)));
+        assertTrue(rollup.canAnswer("type:2", null, null, "DAY", day(-1)));
+
+        // until today is rolled up again
+        server.rolledUpUntil = day(1);
+        rollup.getRolledUpUntil(true);
+        assertTrue(rollup.canAnswer("type:2", null, null, "DAY", day(2)));
+    }
+
+    @Test
+    public void testRollupMarksRunComplete() throws Exception
+    {
+        // days are rolled up as soon as they ended
+        StatisticsRollup unflushed = new StatisticsRollup(server, 0, 100);
+        try
+        {
+            server.rolledUpUntil = day(-3);
+            unflushed.rollup(server, null, day(-3), day(-1));
+            assertFalse(unflushed.isRunComplete());
+            assertEquals(day(-1), unflushed.getRolledUpUntil(false));
+            assertFalse(server.getAdded().containsKey(StatisticsRollup.COMPLETE_UID));
+
+            server.rolledUpUntil = day(-1);
+            unflushed.rollup(server, null, day(-1), day(0));
+            assertTrue(unflushed.isRunComplete());
+            assertEquals(day(0), unflushed.getRolledUpUntil(false));
+            SolrInputDocument complete = server.getAdded().get(StatisticsRollup.COMPLETE_UID);
+            assertNotNull(complete);
+            assertEquals(StatisticsRollup.STATE_UID, complete.getFieldValue("statistics_type"));
+        }
+        finally
+        {
+            unflushed.shutdown();
+        }
+    }
+
+    /**
+     * @return the start of the day the given number of days from today, in UTC
+     */
+    private static Date day(int days)
+    {
+        Calendar day = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        day.add(Calendar.DAY_OF_MONTH, days);
+        return StatisticsRollup.parseDay(StatisticsRollup.formatDay(day.getTime()));
+    }
+
+    private static SolrInputDocument hit(Date time, String id, String countryCode, boolean isBot)
+    {
+        SolrInputDocument hit = new SolrInputDocument();
+        hit.addField("type", 2);
+        hit.addField("id", id);
+        hit.addField("countryCode", countryCode);
+        hit.addField("statistics_type", "view");
+        hit.addField("bundleName", "ORIGINAL");
+        hit.addField("owningColl", "coll2");
+        hit.addField("owningColl", "coll1");
+        hit.addField("ip", "127.0.0.1");
+        hit.addField("isBot", isBot);
+        hit.addField("time", time);
+        return hit;
+    }
+
+    private static Map<String, Object> map(String key, Object value)
+    {
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put(key, value);
+        return map;
+    }
+
+    /**
+     * Records the documents added to it, answers queries with the state of
+     * the rollups, and queries of the hits with no hits.
+     */
+    private static class RecordingSolrServer extends SolrServer
+    {
+        private final List<SolrInputDocument> added = new ArrayList<SolrInputDocument>();
+
+        private Date rolledUpUntil;
+
+        /** Whether a run of the rollups got up to its last day */
+        private boolean complete = false;
+
+        /** Whether adding documents fails */
+        private boolean failUpdates = false;
+
+        private int queries = 0;
+
+        /**
+         * @return the added documents by uid
+         */
+        private Map<String, SolrInputDocument> getAdded()
+        {
+            Map<String, SolrInputDocument> byUid = new HashMap<String, SolrInputDocument>();
+            for (SolrInputDocument doc : added)
+            {
+                byUid.put(doc.getFieldValue("uid").toString(), doc);
+            }
+            return byUid;
+        }
+
+        @Override
+        public NamedList<Object> request(SolrRequest request) throws SolrServerException
+        {
+            NamedList<Object> response = new NamedList<Object>();
+            if (request instanceof UpdateRequest)
+            {
+                if (((UpdateRequest) request).getDocuments() != null)
+                {
+                    if (failUpdates)
+                    {
+                        throw new SolrServerException("Unable to add the documents");
+                    }
+                    added.addAll(((UpdateRequest) request).getDocuments());
+                }
+            }
+            else
+            {
+                queries++;
+                SolrDocumentList results = new SolrDocumentList();
+                String cursorMark = request.getParams().get(CursorMarkParams.CURSOR_MARK_PARAM);
+                if (cursorMark != null)
+                {
+                    response.add(CursorMarkParams.CURSOR_MARK_NEXT, cursorMark);
+                }
+                else if (rolledUpUntil != null)
+                {
+                    SolrDocument state = new SolrDocument();
+                    state.setField("uid", StatisticsRollup.STATE_UID);
+                    state.setField("time", rolledUpUntil);
+                    results.add(state);
+                    if (complete)
+                    {
+                        SolrDocument marker = new SolrDocument();
+                        marker.setField("uid", StatisticsRollup.COMPLETE_UID);
+                        marker.setField("time", rolledUpUntil);
+                        results.add(marker);
+                    }
+                }
+                results.setNumFound(results.size());
+                response.add("response", results);
+            }
+            return response;
+        }
+
+        @Override
+        public void shutdown()
+        {
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.statistics.content;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.dspace.AbstractUnitTest;
+import org.dspace.services.ConfigurationService;
+import org.dspace.services.factory.DSpaceServicesFactory;
+import org.dspace.statistics.Dataset;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit Tests for class DatasetCache, and the keys of the datasets of class
+ * StatisticsDataVisits
+ */
+public class DatasetCacheTest extends AbstractUnitTest
+{
+    private ConfigurationService configurationService = DSpaceServicesFactory.getInstance().getConfigurationService();
+
+    private DatasetCache cache;
+
+    @Before
+    @Override
+    public void init()
+    {
+        super.init();
+        cache = new DatasetCache();
+    }
+
+    @After
+    @Override
+    public void destroy()
+    {
+        configurationService.setProperty("solr-statistics.dataset.cache.ttl", null);
+        configurationService.setProperty("solr-statistics.dataset.cache.size", null);
+        cache = null;
+        super.destroy();
+    }
+
+    /**
+     * Test that a dataset is kept until its time to live has passed.
+     */
+    @Test
+    public void testTimeToLive() throws Exception
+    {
+        Dataset dataset = new Dataset(1, 1);
+        cache.put("key", dataset);
+        assertThat("testTimeToLive 0", cache.get("key"), sameInstance(dataset));
+        assertThat("testTimeToLive 1", cache.get("other"), nullValue());
+
+        configurationService.setProperty("solr-statistics.dataset.cache.ttl", 1);
+        cache.put("key", dataset);
+        Thread.sleep(1100);
+        assertThat("testTimeToLive 2", cache.get("key"), nullValue());
+
+        // a time to live of 0 disables the cache
+        configurationService.setProperty("solr-statistics.dataset.cache.ttl", 0);
+        cache.put("key", dataset);
+        assertThat("testTimeToLive 3", cache.get("key"), nullValue());
+
+        configurationService.setProperty("solr-statistics.dataset.cache.ttl", null);
+        cache.put("key", dataset);
+        cache.clear();
+        assertThat("testTimeToLive 4", cache.get("key"), nullValue());
+    }
+
+    /**
+     * Test that the least recently used datasets are dropped when the cache is
+     * full.
+     */
+    @Test
+    public void testLeastRecentlyUsed() throws Exception
+    {
+        configurationService.setProperty("solr-statistics.dataset.cache.size", 2);
+        Dataset first = new Dataset(1, 1);
+        Dataset second = new Dataset(1, 1);
+        Dataset third = new Dataset(1, 1);
+        cache.put("first", first);
+        cache.put("second", second);
+        assertThat("testLeastRecentlyUsed 0", cache.get("first"), sameInstance(first));
+
+        cache.put("third", third);
+        assertThat("testLeastRecentlyUsed 1", cache.get("second"), nullValue());
+        assertThat("testLeastRecentlyUsed 2", cache.get("first"), sameInstance(first));
+        assertThat("testLeastRecentlyUsed 3", cache.get("third"), sameInstance(third));
+    }
+
+    private String key(StatisticsDataVisits visits, String dateType, String start, String end,
+            boolean showTotal, String filterQuery)
+    {
+        List<StatisticsDataVisits.DatasetQuery> queries = new ArrayList<StatisticsDataVisits.DatasetQuery>();
+        StatisticsDataVisits.DatasetQuery datasetQuery = new StatisticsDataVisits.DatasetQuery();
+        datasetQuery.setName("Items");
+        datasetQuery.setFacetField("id");
+        datasetQuery.setMax(10);
+        queries.add(datasetQuery);
+        DatasetTimeGenerator dateFacet = null;
+        if (dateType != null)
+        {
+            dateFacet = new DatasetTimeGenerator();
+            dateFacet.setDateInterval(dateType, start, end);
+        }
+        return visits.getCacheKey(context, queries, dateFacet, showTotal, filterQuery);
+    }
+
+    /**
+     * Test that datasets from other queries, dates or locales get other keys.
+     */
+    @Test
+    public void testKeys() throws Exception
+    {
+        StatisticsDataVisits visits = new StatisticsDataVisits();
+        String key = key(visits, "month", "-6", "+1", true, "type:2");
+        assertThat("testKeys 0", key(new StatisticsDataVisits(), "month", "-6", "+1", true, "type:2"),
+                equalTo(key));
+
+        assertThat("testKeys 1", key(visits, "month", "-12", "+1", true, "type:2"), not(equalTo(key)));
+        assertThat("testKeys 2", key(visits, "year", "-6", "+1", true, "type:2"), not(equalTo(key)));
+        assertThat("testKeys 3", key(visits, null, null, null, true, "type:2"), not(equalTo(key)));
+        assertThat("testKeys 4", key(visits, "month", "-6", "+1", false, "type:2"), not(equalTo(key)));
+        assertThat("testKeys 5", key(visits, "month", "-6", "+1", true, "type:3"), not(equalTo(key)));
+
+        // the labels of the dates depend on the locale
+        Locale locale = context.getCurrentLocale();
+        context.setCurrentLocale(locale.equals(Locale.GERMAN) ? Locale.FRENCH : Locale.GERMAN);
+        assertThat("testKeys 6", key(visits, "month", "-6", "+1", true, "type:2"), not(equalTo(key)));
+        context.setCurrentLocale(locale);
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.statistics.util;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link IPTable}.
+ */
+public class IPTableTest
+{
+    @Test
+    public void testSingleAddresses() throws IPTable.IPFormatException
+    {
+        IPTable table = new IPTable();
+        table.add("192.168.2.1");
+        table.add("10.0.0.255");
+
+        assertTrue(table.contains("192.168.2.1"));
+        assertTrue(table.contains("10.0.0.255"));
+        assertFalse(table.contains("192.168.2.2"));
+        assertFalse(table.contains("10.0.1.0"));
+        assertFalse(table.contains("0.0.0.0"));
+        assertFalse(table.contains("255.255.255.255"));
+    }
+
+    @Test
+    public void testSubnetsRangesAndCidr() throws IPTable.IPFormatException
+    {
+        IPTable table = new IPTable();
+        table.add("66.249.64");
+        table.add("72.14.199.10-72.14.199.20");
+        table.add("157.55.0.0/16");
+        table.add("200.1.1.200 - 200.1.2.10");
+
+        assertTrue(table.contains("66.249.64.0"));
+        assertTrue(table.contains("66.249.64.255"));
+        assertFalse(table.contains("66.249.65.0"));
+
+        assertTrue(table.contains("72.14.199.10"));
+        assertTrue(table.contains("72.14.199.20"));
+        assertFalse(table.contains("72.14.199.9"));
+        assertFalse(table.contains("72.14.199.21"));
+
+        assertTrue(table.contains("157.55.39.1"));
+        assertFalse(table.contains("157.56.0.0"));
+
+        assertTrue(table.contains("200.1.1.255"));
+        assertTrue(table.contains("200.1.2.0"));
+        assertFalse(table.contains("200.1.2.11"));
+    }
+
+    @Test
+    public void testAddAfterLookup() throws IPTable.IPFormatException
+    {
+        IPTable table = new IPTable();
+        table.add("1.2.3.4");
+        assertFalse(table.contains("1.2.3.5"));
+        table.add("1.2.3.5");
+        assertTrue(table.contains("1.2.3.4"));
+        assertTrue(table.contains("1.2.3.5"));
+    }
+
+    @Test
+    public void testIPv6() throws IPTable.IPFormatException
+    {
+        IPTable table = new IPTable();
+        table.add("2001:db8::/32");
+        table.add("fe80::1");
+        table.add("::ffff:10.1.2.3");
+
+        assertTrue(table.contains("2001:db8::1"));
+        assertTrue(table.contains("2001:0db8:ffff:ffff:ffff:ffff:ffff:ffff"));
+        assertFalse(table.contains("2001:db9::"));
+        assertTrue(table.contains("fe80:0:0:0:0:0:0:1"));
+        assertTrue(table.contains("fe80::1%eth0"));
+        assertFalse(table.contains("fe80::2"));
+        assertFalse(table.contains("::1"));
+
+        // IPv4-mapped addresses match the IPv4 address
+        assertTrue(table.contains("10.1.2.3"));
+        table.add("10.1.3.0/24");
+        assertTrue(table.contains("::ffff:10.1.3.200"));
+    }
+
+    @Test
+    public void testToSet() throws IPTable.IPFormatException
+    {
+        IPTable table = new IPTable();
+        table.add("66.249.64");
+        table.add("1.2.3.254-1.2.4.1");
+        table.add("fe80::1");
+
+        assertEquals(new HashSet<String>(Arrays.asList("66.249.64", "1.2.3.254", "1.2.3.255", "1.2.4.0", "1.2.4.1",
+                "fe80:0:0:0:0:0:0:1")), table.toSet());
+    }
+
+    @Test
+    public void testInvalidAddresses() throws IPTable.IPFormatException
+    {
+        IPTable table = new IPTable();
+        table.add("1.2.3.4");
+
+        for (String invalid : new String[] {"1.2.3", "1.2.3.4.5", "1.2.3.256", "a.b.c.d", "", "1:2:3", "1::2::3",
+                "12345::", "1:2:3:4:5:6:7:8:9"})
+        {
+            try {
+                table.contains(invalid);
+                fail("'" + invalid + "' accepted");
+            } catch (IPTable.IPFormatException e) {
+                // expected
+            }
+        }
+
+        for (String invalid : new String[] {"1.2", "1.2.3.4/33", "1.2.3.9-1.2.3.1", "1.2.3.0/24-1.2.4.0"})
+        {
+            try {
+                table.add(invalid);
+                fail("'" + invalid + "' accepted");
+            } catch (IPTable.IPFormatException e) {
+                // expected
+            }
+        }
+    }
+}
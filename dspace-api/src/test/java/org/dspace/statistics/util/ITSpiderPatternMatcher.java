@@ -0,0 +1,55 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.statistics.util;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.databene.contiperf.PerfTest;
+import org.dspace.AbstractIntegrationTest;
+import org.junit.Test;
+
+/**
+ * Compares the throughput of {@link SpiderPatternMatcher} with the per-pattern regular expression
+ * loop it replaces, on the agents of {@link SpiderPatternMatcherTest}. Compare the timings of both
+ * tests in the contiperf report.
+ */
+public class ITSpiderPatternMatcher extends AbstractIntegrationTest
+{
+    private static final List<Pattern> loop = SpiderPatternMatcherTest.compile(SpiderPatternMatcherTest.AGENT_PATTERNS);
+
+    private static final SpiderPatternMatcher matcher = new SpiderPatternMatcher(SpiderPatternMatcherTest.AGENT_PATTERNS);
+
+    private static final int ROUNDS = 1000;
+
+    @Test
+    @PerfTest(invocations = 50, threads = 4)
+    public void testRegexLoop()
+    {
+        for (int i = 0; i < ROUNDS; i++)
+        {
+            for (String agent : SpiderPatternMatcherTest.AGENTS)
+            {
+                SpiderPatternMatcherTest.loopMatches(loop, agent);
+            }
+        }
+    }
+
+    @Test
+    @PerfTest(invocations = 50, threads = 4)
+    public void testCompiledMatcher()
+    {
+        for (int i = 0; i < ROUNDS; i++)
+        {
+            for (String agent : SpiderPatternMatcherTest.AGENTS)
+            {
+                matcher.matches(agent);
+            }
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.statistics.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link SpiderPatternMatcher} against the per-pattern regular expression loop it replaces.
+ */
+public class SpiderPatternMatcherTest
+{
+    /** A sample of the patterns shipped in config/spiders/agents */
+    static final List<String> AGENT_PATTERNS = Arrays.asList(
+            "Mozilla/5\\.0 \\(compatible; PRTG Network Monitor \\(www\\.paessler\\.com\\); Windows\\)",
+            "Pingdom\\.com_bot_version_1\\.4_\\(http://www\\.pingdom\\.com/\\)",
+            "Alexandria(\\s|\\+)prototype(\\s|\\+)project",
+            "Brutus\\/AET",
+            "China\\sLocal\\sBrowse\\s2\\.6",
+            "DataCha0s\\/2\\.0",
+            "FDM(\\s|\\+)1",
+            "Googlebot",
+            "HTTrack",
+            "LOCKSS",
+            "LWP\\:\\:Simple",
+            "MSNBot",
+            "Python\\-urllib",
+            "T\\-H\\-U\\-N\\-D\\-E\\-R\\-S\\-T\\-O\\-N\\-E",
+            "Teleport(\\s|\\+)Pro",
+            "Wget",
+            "Xenu(\\s|\\+)Link(\\s|\\+)Sleuth",
+            "[+:,\\.\\;\\/\\\\-]bot",
+            "[^a]fish",
+            "^msnbot",
+            "ia_archiver",
+            "Mozilla/4\\.0 (compatible; MSIE 5\\.0; Windows NT; Girafabot; girafabot at girafa dot com; http://www\\.girafa\\.com)",
+            "multiBlocker browser - IP blocker for Spam, Fraud \\+ Snoop Protection",
+            "Sqworm/2\\.9\\.72-BETA \\(beta_release; 20010821-737; i686-pc-linux-gnu\\)",
+            "(Teradex Mapper; mapper@teradex\\.com; http://www\\.teradex\\.com)",
+            "tivraSpider/1\\.0 (crawler@tivra\\.com)",
+            "websquash\\.com \\( Add Url Robot \\)",
+            "[a-z0-9\\-_]*(bot|crawler|archiver|transcoder|spider|uptime|validator|fetcher)",
+            "^Java\\/",
+            "curl\\/",
+            "https?:\\/\\/",
+            "Scrapy|Nutch",
+            "bingbot?");
+
+    /** User-Agent headers, mostly browsers like on a real repository */
+    static final List<String> AGENTS = Arrays.asList(
+            "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/58.0.3029.110 Safari/537.36",
+            "Mozilla/5.0 (Macintosh; Intel Mac OS X 10_12_4) AppleWebKit/603.1.30 (KHTML, like Gecko) Version/10.1 Safari/603.1.30",
+            "Mozilla/5.0 (X11; Ubuntu; Linux x86_64; rv:53.0) Gecko/20100101 Firefox/53.0",
+            "Mozilla/5.0 (iPhone; CPU iPhone OS 10_3_1 like Mac OS X) AppleWebKit/603.1.30 (KHTML, like Gecko) Version/10.0 Mobile/14E304 Safari/602.1",
+            "Mozilla/5.0 (compatible; MSIE 10.0; Windows NT 6.1; Trident/6.0)",
+            "Mozilla/5.0 (Windows NT 6.1; WOW64; Trident/7.0; rv:11.0) like Gecko",
+            "Mozilla/5.0 (compatible; Googlebot/2.1; +http://www.google.com/bot.html)",
+            "Mozilla/5.0 (compatible; bingbot/2.0; +http://www.bing.com/bingbot.htm)",
+            "msnbot/2.0b (+http://search.msn.com/msnbot.htm)",
+            "Wget/1.17.1 (linux-gnu)",
+            "curl/7.47.0",
+            "Python-urllib/2.7",
+            "Java/1.8.0_131",
+            "Teleport Pro/1.29",
+            "Teleport+Pro",
+            "Xenu Link Sleuth/1.3.8",
+            "ia_archiver (+http://www.alexa.com/site/help/webmasters; crawler@alexa.com)",
+            "LOCKSS cache",
+            "Mozilla/5.0 (compatible; Yahoo! Slurp; http://help.yahoo.com/help/us/ysearch/slurp)",
+            "Scrapy/1.3.3 (+http://scrapy.org)",
+            "jellyfish",
+            "afish",
+            "Brutus/AET",
+            "tivraSpider/1.0 crawler@tivra.com",
+            "",
+            "Firefox");
+
+    /** The loop SpiderDetector used before */
+    static boolean loopMatches(List<Pattern> patterns, String value)
+    {
+        for (Pattern pattern : patterns)
+        {
+            if (pattern.matcher(value).find())
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static List<Pattern> compile(List<String> patterns)
+    {
+        List<Pattern> compiled = new ArrayList<>();
+        for (String pattern : patterns)
+        {
+            compiled.add(Pattern.compile(pattern));
+        }
+        return compiled;
+    }
+
+    @Test
+    public void testSameVerdictsAsRegexLoop()
+    {
+        SpiderPatternMatcher matcher = new SpiderPatternMatcher(AGENT_PATTERNS);
+        assertEquals(AGENT_PATTERNS.size(), matcher.size());
+
+        List<Pattern> loop = compile(AGENT_PATTERNS);
+        for (String agent : AGENTS)
+        {
+            assertEquals("'" + agent + "'", loopMatches(loop, agent), matcher.matches(agent));
+        }
+
+        // every pattern on its own, so one doesn't hide a mistake in another
+        for (String pattern : AGENT_PATTERNS)
+        {
+            SpiderPatternMatcher single = new SpiderPatternMatcher(Collections.singleton(pattern));
+            List<Pattern> singleLoop = compile(Collections.singletonList(pattern));
+            for (String agent : AGENTS)
+            {
+                assertEquals("'" + pattern + "' on '" + agent + "'",
+                        loopMatches(singleLoop, agent), single.matches(agent));
+            }
+        }
+    }
+
+    @Test
+    public void testOverlappingLiterals()
+    {
+        SpiderPatternMatcher matcher = new SpiderPatternMatcher(Arrays.asList("abcd", "bce", "Spider\\(v"));
+        assertTrue(matcher.matches("xxabcexx"));
+        assertTrue(matcher.matches("abcd"));
+        assertTrue(matcher.matches("a Spider(v2)"));
+        assertFalse(matcher.matches("abcabdbc"));
+        assertFalse(matcher.matches("Spider v2"));
+    }
+
+    @Test
+    public void testGuardedRegularExpressions()
+    {
+        SpiderPatternMatcher matcher = new SpiderPatternMatcher(Arrays.asList(
+                "Teleport(\\s|\\+)Pro", "Phonex?", "^Java\\/"));
+        assertTrue(matcher.matches("Teleport Pro/1.29"));
+        assertFalse(matcher.matches("Teleport/1.29"));
+        assertTrue(matcher.matches("a Phone"));
+        assertTrue(matcher.matches("Java/1.8"));
+        assertFalse(matcher.matches("Oracle Java/1.8"));
+    }
+
+    @Test
+    public void testLiterals()
+    {
+        assertEquals("LWP::Simple", SpiderPatternMatcher.toLiteral("LWP\\:\\:Simple", 0));
+        assertEquals("Brutus/AET", SpiderPatternMatcher.toLiteral("Brutus\\/AET", 0));
+        assertNull(SpiderPatternMatcher.toLiteral("China\\sLocal", 0));
+        assertNull(SpiderPatternMatcher.toLiteral("^msnbot", 0));
+        assertEquals("msnbot", SpiderPatternMatcher.toLiteral("^msnbot", 1));
+
+        assertEquals("Alexandria", SpiderPatternMatcher.requiredPrefix("Alexandria(\\s|\\+)prototype"));
+        assertEquals("bingbo", SpiderPatternMatcher.requiredPrefix("bingbot?"));
+        assertEquals("", SpiderPatternMatcher.requiredPrefix("Scrapy|Nutch"));
+        assertEquals("", SpiderPatternMatcher.requiredPrefix("[^a]fish"));
+    }
+
+    @Test
+    public void testInvalidPatternsAreSkipped()
+    {
+        SpiderPatternMatcher matcher = new SpiderPatternMatcher(Arrays.asList("Googlebot", "Broken(bot"));
+        assertEquals(1, matcher.size());
+        assertTrue(matcher.matches("Googlebot/2.1"));
+        assertFalse(matcher.matches(null));
+    }
+}
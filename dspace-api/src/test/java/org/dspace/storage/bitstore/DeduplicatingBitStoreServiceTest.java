@@ -0,0 +1,360 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.storage.bitstore;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+import org.dspace.AbstractUnitTest;
+import org.dspace.authorize.AuthorizeException;
+import org.dspace.content.Bitstream;
+import org.dspace.content.factory.ContentServiceFactory;
+import org.dspace.content.service.BitstreamService;
+import org.dspace.core.Utils;
+import org.dspace.storage.bitstore.factory.StorageServiceFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit Tests for class DeduplicatingBitStoreService, as the incoming asset
+ * store of the storage service.
+ */
+public class DeduplicatingBitStoreServiceTest extends AbstractUnitTest
+{
+    /** log4j category */
+    private static final Logger log = Logger.getLogger(DeduplicatingBitStoreServiceTest.class);
+
+    /** The store number of the deduplicating store, used by no other test */
+    private static final int STORE = 99;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private BitstreamService bitstreamService = ContentServiceFactory.getInstance().getBitstreamService();
+
+    private BitstreamStorageServiceImpl storageService = (BitstreamStorageServiceImpl) StorageServiceFactory
+            .getInstance().getBitstreamStorageService();
+
+    private Map<Integer, BitStoreService> originalStores;
+
+    private int originalIncoming;
+
+    private DSBitStoreService local;
+
+    private DeduplicatingBitStoreService store;
+
+    /**
+     * The bitstreams created by a test
+     */
+    private List<Bitstream> bitstreams;
+
+    @Before
+    @Override
+    public void init()
+    {
+        super.init();
+        bitstreams = new ArrayList<>();
+        local = new DSBitStoreService();
+        local.setBaseDir(folder.getRoot());
+        useStore(local, null);
+    }
+
+    /**
+     * Make a deduplicating store wrapping the given store the incoming store.
+     */
+    private void useStore(BitStoreService wrapped, File tempDir)
+    {
+        try
+        {
+            store = new DeduplicatingBitStoreService();
+            store.setStore(wrapped);
+            store.setTempDir(tempDir);
+            store.init();
+        }
+        catch (IOException ex)
+        {
+            log.error("Error in init", ex);
+            fail("Error in init: " + ex.getMessage());
+        }
+        if (originalStores == null)
+        {
+            originalStores = storageService.getStores();
+            originalIncoming = storageService.getIncoming();
+        }
+        Map<Integer, BitStoreService> stores = new HashMap<>(originalStores);
+        stores.put(STORE, store);
+        storageService.setStores(stores);
+        storageService.setIncoming(STORE);
+    }
+
+    @After
+    @Override
+    public void destroy()
+    {
+        try
+        {
+            context.turnOffAuthorisationSystem();
+            for (Bitstream bitstream : bitstreams)
+            {
+                bitstream = bitstreamService.find(context, bitstream.getID());
+                if (bitstream != null)
+                {
+                    if (!bitstream.isDeleted())
+                    {
+                        bitstreamService.delete(context, bitstream);
+                    }
+                    bitstreamService.expunge(context, bitstream);
+                }
+            }
+            context.restoreAuthSystemState();
+        }
+        catch (SQLException | AuthorizeException | IOException ex)
+        {
+            log.error("Error in destroy", ex);
+        }
+        storageService.setStores(originalStores);
+        storageService.setIncoming(originalIncoming);
+        bitstreams = null;
+        super.destroy();
+    }
+
+    private Bitstream createBitstream(String contents) throws IOException, SQLException
+    {
+        Bitstream bitstream = bitstreamService.create(context,
+                new ByteArrayInputStream(contents.getBytes(StandardCharsets.UTF_8)));
+        bitstreams.add(bitstream);
+        return bitstream;
+    }
+
+    private String read(Bitstream bitstream) throws Exception
+    {
+        try (InputStream in = storageService.retrieve(context, bitstream))
+        {
+            return IOUtils.toString(in, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * @return the files in the asset store, without the temporary files
+     */
+    private List<File> storedFiles(File dir)
+    {
+        List<File> files = new ArrayList<>();
+        for (File file : dir.listFiles())
+        {
+            if (file.isDirectory())
+            {
+                if (!file.equals(store.getTempDir()))
+                {
+                    files.addAll(storedFiles(file));
+                }
+            }
+            else
+            {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Let the storage service remove the contents of the deleted bitstreams.
+     * The contents look older than they are, as recent contents are kept. The
+     * cleanup runs in a thread of its own, so it has a database session of its
+     * own.
+     */
+    private void cleanup() throws Exception
+    {
+        context.commit();
+        for (File file : storedFiles(folder.getRoot()))
+        {
+            file.setLastModified(System.currentTimeMillis() - 2 * 3600 * 1000L);
+        }
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try
+        {
+            executor.submit(new Callable<Void>()
+            {
+                @Override
+                public Void call() throws Exception
+                {
+                    storageService.cleanup(true, false);
+                    return null;
+                }
+            }).get();
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Test that identical contents get the same internal id, and are stored once.
+     */
+    @Test
+    public void testPutIdenticalContents() throws Exception
+    {
+        Bitstream first = createBitstream("contents");
+        Bitstream second = createBitstream("contents");
+
+        byte[] sha256 = MessageDigest.getInstance("SHA-256").digest("contents".getBytes(StandardCharsets.UTF_8));
+        assertThat("testPutIdenticalContents 0", first.getInternalId(), equalTo(Utils.toHex(sha256)));
+        assertThat("testPutIdenticalContents 1", second.getInternalId(), equalTo(first.getInternalId()));
+        assertThat("testPutIdenticalContents 2", second.getStoreNumber(), equalTo(STORE));
+        assertThat("testPutIdenticalContents 3", second.getChecksum(), equalTo(first.getChecksum()));
+        assertThat("testPutIdenticalContents 4", second.getChecksumAlgorithm(), equalTo("MD5"));
+        assertThat("testPutIdenticalContents 5", second.getSize(), equalTo(8L));
+
+        // the temporary file was moved into place, the second one was dropped
+        List<File> files = storedFiles(folder.getRoot());
+        assertThat("testPutIdenticalContents 6", files.size(), equalTo(1));
+        assertThat("testPutIdenticalContents 7", files.get(0), equalTo(local.getFile(first)));
+        assertThat("testPutIdenticalContents 8", store.getTempDir().list().length, equalTo(0));
+
+        assertThat("testPutIdenticalContents 9", read(first), equalTo("contents"));
+        assertThat("testPutIdenticalContents 10", read(second), equalTo("contents"));
+    }
+
+    /**
+     * Test that different contents are stored apart.
+     */
+    @Test
+    public void testPutDifferentContents() throws Exception
+    {
+        Bitstream first = createBitstream("first");
+        Bitstream second = createBitstream("second");
+
+        assertThat("testPutDifferentContents 0", second.getInternalId(), not(equalTo(first.getInternalId())));
+        assertThat("testPutDifferentContents 1", storedFiles(folder.getRoot()).size(), equalTo(2));
+        assertThat("testPutDifferentContents 2", read(first), equalTo("first"));
+        assertThat("testPutDifferentContents 3", read(second), equalTo("second"));
+        assertThat("testPutDifferentContents 4", new String(IOUtils.toByteArray(store.get(second, 1, 3)),
+                StandardCharsets.UTF_8), equalTo("eco"));
+    }
+
+    /**
+     * Test that contents are copied into a wrapped store which isn't a local
+     * one, and aren't copied again.
+     */
+    @Test
+    public void testPutIntoOtherStore() throws Exception
+    {
+        final AtomicInteger puts = new AtomicInteger();
+        File tempDir = folder.newFolder("temp");
+        useStore(new BitStoreService()
+        {
+            @Override
+            public void init() throws IOException
+            {
+                local.init();
+            }
+
+            @Override
+            public String generateId()
+            {
+                return local.generateId();
+            }
+
+            @Override
+            public InputStream get(Bitstream bitstream) throws IOException
+            {
+                return local.get(bitstream);
+            }
+
+            @Override
+            public InputStream get(Bitstream bitstream, long offset, long length) throws IOException
+            {
+                return local.get(bitstream, offset, length);
+            }
+
+            @Override
+            public void put(Bitstream bitstream, InputStream inputStream) throws IOException
+            {
+                puts.incrementAndGet();
+                local.put(bitstream, inputStream);
+            }
+
+            @Override
+            public Map about(Bitstream bitstream, Map attrs) throws IOException
+            {
+                return local.about(bitstream, attrs);
+            }
+
+            @Override
+            public void remove(Bitstream bitstream) throws IOException
+            {
+                local.remove(bitstream);
+            }
+        }, tempDir);
+
+        Bitstream first = createBitstream("contents");
+        Bitstream second = createBitstream("contents");
+        assertThat("testPutIntoOtherStore 0", second.getInternalId(), equalTo(first.getInternalId()));
+        assertThat("testPutIntoOtherStore 1", puts.get(), equalTo(1));
+        assertThat("testPutIntoOtherStore 2", storedFiles(folder.getRoot()).size(), equalTo(1));
+        assertThat("testPutIntoOtherStore 3", read(second), equalTo("contents"));
+        // the temporary files are deleted
+        assertThat("testPutIntoOtherStore 4", tempDir.list().length, equalTo(0));
+    }
+
+    /**
+     * Test that contents shared by two bitstreams are only removed when
+     * neither of them uses them any more.
+     */
+    @Test
+    public void testRemoveSharedContents() throws Exception
+    {
+        Bitstream first = createBitstream("contents");
+        Bitstream second = createBitstream("contents");
+        File file = local.getFile(first);
+
+        context.turnOffAuthorisationSystem();
+        bitstreamService.delete(context, first);
+        context.restoreAuthSystemState();
+        cleanup();
+        assertThat("testRemoveSharedContents 0", file.exists(), equalTo(true));
+        assertThat("testRemoveSharedContents 1", bitstreamService.find(context, first.getID()), nullValue());
+        assertThat("testRemoveSharedContents 2", read(bitstreamService.find(context, second.getID())),
+                equalTo("contents"));
+
+        context.turnOffAuthorisationSystem();
+        bitstreamService.delete(context, bitstreamService.find(context, second.getID()));
+        context.restoreAuthSystemState();
+        cleanup();
+        assertThat("testRemoveSharedContents 3", file.exists(), equalTo(false));
+        assertThat("testRemoveSharedContents 4", bitstreamService.find(context, second.getID()), nullValue());
+
+        // identical contents stored later on are stored again
+        Bitstream third = createBitstream("contents");
+        assertThat("testRemoveSharedContents 5", third.getInternalId(), equalTo(first.getInternalId()));
+        assertThat("testRemoveSharedContents 6", file.exists(), equalTo(true));
+        assertThat("testRemoveSharedContents 7", read(third), equalTo("contents"));
+    }
+}
@@ -0,0 +1,138 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.storage.bitstore;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link LocalBitstreamCache}.
+ */
+public class LocalBitstreamCacheTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testPutAndGet() throws IOException
+    {
+        LocalBitstreamCache cache = new LocalBitstreamCache(folder.getRoot(), 1000);
+        assertNull(cache.get(0, "123456"));
+
+        assertEquals("abc", read(cache.put(0, "123456", contents("abc"))));
+        assertEquals("abc", read(cache.get(0, "123456")));
+
+        cache.remove(0, "123456");
+        assertNull(cache.get(0, "123456"));
+    }
+
+    @Test
+    public void testStoresDontCollide() throws IOException
+    {
+        LocalBitstreamCache cache = new LocalBitstreamCache(folder.getRoot(), 1000);
+        read(cache.put(0, "123456", contents("store 0")));
+        read(cache.put(1, "123456", contents("store 1")));
+
+        assertEquals("store 0", read(cache.get(0, "123456")));
+        assertEquals("store 1", read(cache.get(1, "123456")));
+
+        cache.remove(1, "123456");
+        assertEquals("store 0", read(cache.get(0, "123456")));
+        assertNull(cache.get(1, "123456"));
+    }
+
+    @Test
+    public void testAccepts() throws IOException
+    {
+        LocalBitstreamCache cache = new LocalBitstreamCache(folder.getRoot(), 1000);
+        assertTrue(cache.accepts(100));
+        assertFalse(cache.accepts(101));
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws IOException
+    {
+        LocalBitstreamCache cache = new LocalBitstreamCache(folder.getRoot(), 25);
+        long now = System.currentTimeMillis();
+        read(cache.put(0, "aaaaaa", contents("0123456789")));
+        cache.getFile(0, "aaaaaa").setLastModified(now - 30000);
+        read(cache.put(0, "bbbbbb", contents("0123456789")));
+        cache.getFile(0, "bbbbbb").setLastModified(now - 20000);
+
+        // reading the oldest contents makes them the most recently used
+        read(cache.get(0, "aaaaaa"));
+
+        // 30 bytes don't fit, the least recently used contents go
+        read(cache.put(0, "cccccc", contents("0123456789")));
+        assertNotNull(cache.get(0, "aaaaaa"));
+        assertNull(cache.get(0, "bbbbbb"));
+        assertNotNull(cache.get(0, "cccccc"));
+    }
+
+    @Test
+    public void testSizeOfEarlierRun() throws IOException
+    {
+        LocalBitstreamCache cache = new LocalBitstreamCache(folder.getRoot(), 25);
+        read(cache.put(0, "aaaaaa", contents("0123456789")));
+        cache.getFile(0, "aaaaaa").setLastModified(System.currentTimeMillis() - 30000);
+        read(cache.put(0, "bbbbbb", contents("0123456789")));
+
+        // an incomplete file left behind is removed
+        File part = new File(cache.getFile(0, "cccccc").getParentFile(), "cccccc.part");
+        part.getParentFile().mkdirs();
+        try (FileOutputStream out = new FileOutputStream(part))
+        {
+            out.write(new byte[100]);
+        }
+
+        // the contents of the earlier run count towards the maximum size
+        cache = new LocalBitstreamCache(folder.getRoot(), 25);
+        assertFalse(part.exists());
+        read(cache.put(0, "dddddd", contents("0123456789")));
+        assertNull(cache.get(0, "aaaaaa"));
+        assertNotNull(cache.get(0, "bbbbbb"));
+        assertNotNull(cache.get(0, "dddddd"));
+
+        // a smaller maximum size is applied at once
+        cache.getFile(0, "bbbbbb").setLastModified(System.currentTimeMillis() - 20000);
+        cache = new LocalBitstreamCache(folder.getRoot(), 10);
+        assertNull(cache.get(0, "bbbbbb"));
+        assertNotNull(cache.get(0, "dddddd"));
+    }
+
+    private static InputStream contents(String contents)
+    {
+        return new ByteArrayInputStream(contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(InputStream in) throws IOException
+    {
+        if (in == null)
+        {
+            return null;
+        }
+        try
+        {
+            return IOUtils.toString(in, "UTF-8");
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,284 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.storage.bitstore;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
+import mockit.Mock;
+import mockit.MockUp;
+import org.apache.commons.io.IOUtils;
+import org.dspace.content.Bitstream;
+import org.dspace.core.Utils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link S3BitStoreService}, against an S3 client which keeps the
+ * objects in memory.
+ */
+public class S3BitStoreServiceTest
+{
+    private static final int PART_SIZE = 5 * 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /** The stored objects, by key */
+    private final Map<String, byte[]> objects = new ConcurrentHashMap<String, byte[]>();
+
+    /** The ETags of the stored objects, by key */
+    private final Map<String, String> eTags = new ConcurrentHashMap<String, String>();
+
+    /** The parts of the multipart upload, by part number */
+    private final Map<Integer, byte[]> parts = new ConcurrentHashMap<Integer, byte[]>();
+
+    private final AtomicInteger putObjects = new AtomicInteger();
+
+    private final AtomicInteger getObjects = new AtomicInteger();
+
+    private S3BitStoreService store;
+
+    @Before
+    public void init() throws IOException
+    {
+        new MockUp<AmazonS3Client>()
+        {
+            @Mock
+            boolean doesBucketExist(String bucketName)
+            {
+                return true;
+            }
+
+            @Mock
+            PutObjectResult putObject(PutObjectRequest request) throws IOException
+            {
+                putObjects.incrementAndGet();
+                byte[] bytes = IOUtils.toByteArray(request.getInputStream());
+                objects.put(request.getKey(), bytes);
+                eTags.put(request.getKey(), md5(bytes));
+                return new PutObjectResult();
+            }
+
+            @Mock
+            InitiateMultipartUploadResult initiateMultipartUpload(InitiateMultipartUploadRequest request)
+            {
+                InitiateMultipartUploadResult result = new InitiateMultipartUploadResult();
+                result.setUploadId("upload-" + request.getKey());
+                return result;
+            }
+
+            @Mock
+            UploadPartResult uploadPart(UploadPartRequest request) throws IOException
+            {
+                byte[] bytes = IOUtils.toByteArray(request.getInputStream());
+                assertEquals(request.getPartSize(), bytes.length);
+                parts.put(request.getPartNumber(), bytes);
+                UploadPartResult result = new UploadPartResult();
+                result.setPartNumber(request.getPartNumber());
+                result.setETag(md5(bytes));
+                return result;
+            }
+
+            @Mock
+            CompleteMultipartUploadResult completeMultipartUpload(CompleteMultipartUploadRequest request)
+                    throws IOException
+            {
+                ByteArrayOutputStream object = new ByteArrayOutputStream();
+                for (PartETag partETag : request.getPartETags())
+                {
+                    object.write(parts.get(partETag.getPartNumber()));
+                }
+                objects.put(request.getKey(), object.toByteArray());
+                // not the MD5 digest of the contents
+                eTags.put(request.getKey(), "0123456789abcdef-" + request.getPartETags().size());
+                return new CompleteMultipartUploadResult();
+            }
+
+            @Mock
+            ObjectMetadata getObjectMetadata(String bucketName, String key)
+            {
+                ObjectMetadata metadata = new ObjectMetadata();
+                metadata.setContentLength(objects.get(key).length);
+                metadata.setHeader("ETag", eTags.get(key));
+                metadata.setLastModified(new Date());
+                return metadata;
+            }
+
+            @Mock
+            S3Object getObject(GetObjectRequest request)
+            {
+                getObjects.incrementAndGet();
+                byte[] bytes = objects.get(request.getKey());
+                S3Object object = new S3Object();
+                object.setKey(request.getKey());
+                object.getObjectMetadata().setContentLength(bytes.length);
+                object.setObjectContent(new ByteArrayInputStream(bytes));
+                return object;
+            }
+        };
+
+        store = new S3BitStoreService();
+        store.setAwsAccessKey("access");
+        store.setAwsSecretKey("secret");
+        store.setBucketName("bucket");
+        store.setPartSize(PART_SIZE);
+        store.setUploadThreads(2);
+        store.setCacheDir(folder.newFolder("cache"));
+        store.init();
+    }
+
+    private static String md5(byte[] bytes)
+    {
+        try
+        {
+            return Utils.toHex(MessageDigest.getInstance("MD5").digest(bytes));
+        }
+        catch (Exception e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] contents(int size)
+    {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static Bitstream bitstream(String internalId)
+    {
+        Bitstream bitstream = new Bitstream()
+        {
+        };
+        bitstream.setInternalId(internalId);
+        return bitstream;
+    }
+
+    @Test
+    public void testPut() throws IOException
+    {
+        byte[] bytes = contents(100);
+        Bitstream bitstream = bitstream("small");
+        store.put(bitstream, new ByteArrayInputStream(bytes));
+
+        assertEquals(1, putObjects.get());
+        assertTrue(parts.isEmpty());
+        assertEquals(100, bitstream.getSize());
+        assertEquals(md5(bytes), bitstream.getChecksum());
+        assertEquals("MD5", bitstream.getChecksumAlgorithm());
+        assertArrayEquals(bytes, IOUtils.toByteArray(store.get(bitstream)));
+    }
+
+    @Test
+    public void testMultipartPut() throws IOException
+    {
+        byte[] bytes = contents(2 * PART_SIZE + 1000);
+        Bitstream bitstream = bitstream("large");
+        store.put(bitstream, new ByteArrayInputStream(bytes));
+
+        // uploaded in parts of the part size, the last part holds the rest
+        assertEquals(0, putObjects.get());
+        assertEquals(3, parts.size());
+        assertEquals(PART_SIZE, parts.get(1).length);
+        assertEquals(PART_SIZE, parts.get(2).length);
+        assertEquals(1000, parts.get(3).length);
+        assertArrayEquals(bytes, objects.get("large"));
+
+        // the checksum is the MD5 digest of the contents, not the ETag
+        assertEquals(bytes.length, bitstream.getSize());
+        assertEquals(md5(bytes), bitstream.getChecksum());
+    }
+
+    @Test
+    public void testMultipartChecksum() throws Exception
+    {
+        byte[] bytes = contents(PART_SIZE + 1000);
+        Bitstream bitstream = bitstream("large");
+        store.put(bitstream, new ByteArrayInputStream(bytes));
+        assertTrue(eTags.get("large").endsWith("-2"));
+
+        // a local copy which differs from the stored object
+        IOUtils.toByteArray(store.get(bitstream));
+        File cached = new LocalBitstreamCache(store.getCacheDir(), store.getCacheSize())
+                .getFile(bitstream.getStoreNumber(), "large");
+        assertTrue(cached.isFile());
+        try (FileOutputStream out = new FileOutputStream(cached))
+        {
+            out.write(contents(10));
+        }
+
+        getObjects.set(0);
+        Map attrs = new HashMap();
+        attrs.put("checksum", null);
+        attrs.put("size_bytes", null);
+        store.about(bitstream, attrs);
+        assertEquals(md5(bytes), attrs.get("checksum"));
+        assertEquals("MD5", attrs.get("checksum_algorithm"));
+        assertEquals((long) bytes.length, attrs.get("size_bytes"));
+        assertEquals(1, getObjects.get());
+    }
+
+    @Test
+    public void testChecksum() throws IOException
+    {
+        byte[] bytes = contents(100);
+        Bitstream bitstream = bitstream("small");
+        store.put(bitstream, new ByteArrayInputStream(bytes));
+
+        // the ETag of a single upload is the checksum, nothing is read
+        Map attrs = new HashMap();
+        attrs.put("checksum", null);
+        store.about(bitstream, attrs);
+        assertEquals(md5(bytes), attrs.get("checksum"));
+        assertEquals(0, getObjects.get());
+    }
+
+    @Test
+    public void testRangedGetFromCache() throws IOException
+    {
+        byte[] bytes = contents(100);
+        Bitstream bitstream = bitstream("small");
+        store.put(bitstream, new ByteArrayInputStream(bytes));
+        IOUtils.toByteArray(store.get(bitstream));
+
+        InputStream range = store.get(bitstream, 10, 5);
+        byte[] expected = new byte[5];
+        System.arraycopy(bytes, 10, expected, 0, 5);
+        assertArrayEquals(expected, IOUtils.toByteArray(range));
+        assertEquals(1, getObjects.get());
+    }
+}
@@ -20,8 +20,19 @@ import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.xml.stream.XMLStreamException;
 
 import org.apache.commons.cli.CommandLine;
@@ -34,8 +45,12 @@ import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrQuery.ORDER;
 import org.apache.solr.client.solrj.SolrServer;
 import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.client.solrj.util.ClientUtils;
+import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.params.CursorMarkParams;
 
 import org.dspace.authorize.factory.AuthorizeServiceFactory;
 import org.dspace.authorize.service.AuthorizeService;
@@ -51,6 +66,7 @@ import org.dspace.content.service.ItemService;
 import org.dspace.core.ConfigurationManager;
 import org.dspace.core.Constants;
 import org.dspace.core.Context;
+import org.dspace.services.factory.DSpaceServicesFactory;
 import org.dspace.xoai.exceptions.CompilingException;
 import org.dspace.xoai.services.api.cache.XOAICacheService;
 import org.dspace.xoai.services.api.cache.XOAIItemCacheService;
@@ -75,10 +91,21 @@ import static org.dspace.xoai.util.ItemUtils.retrieveMetadata;
 public class XOAI {
     private static Logger log = LogManager.getLogger(XOAI.class);
 
+    /** Number of item ids read per database query, also the most ids checked per deletion query */
+    private static final int PAGE_SIZE = 1000;
+
+    /** Marker telling an indexing thread that all ids have been handed out */
+    private static final UUID END_OF_IDS = new UUID(0, 0);
+
+    /** Milliseconds to wait for room on the queue before checking the indexing threads are still running */
+    private static final long OFFER_TIMEOUT = 1000;
+
     private final Context context;
     private boolean optimize;
     private final boolean verbose;
     private boolean clean;
+    private int threads;
+    private int batchSize;
 
     @Autowired
     private SolrServerResolver solrServerResolver;
@@ -93,7 +120,7 @@ public class XOAI {
     private final ItemService itemService;
 
 
-    private List<String> getFileFormats(Item item) {
+    private List<String> getFileFormats(Context context, Item item) {
         List<String> formats = new ArrayList<>();
         try {
             for (Bundle b : itemService.getBundles(item, "ORIGINAL")) {
@@ -110,29 +137,42 @@ public class XOAI {
     }
 
     public XOAI(Context context, boolean optimize, boolean clean, boolean verbose) {
-        this.context = context;
+        this(context, verbose, ContentServiceFactory.getInstance().getItemService(),
+                AuthorizeServiceFactory.getInstance().getAuthorizeService(),
+                DSpaceServicesFactory.getInstance().getConfigurationService(), null);
         this.optimize = optimize;
         this.clean = clean;
-        this.verbose = verbose;
-
-        // Load necessary DSpace services
-        this.authorizeService = AuthorizeServiceFactory.getInstance().getAuthorizeService();
-        this.itemService = ContentServiceFactory.getInstance().getItemService();
     }
 
     public XOAI(Context ctx, boolean hasOption) {
-        this.context = ctx;
-        this.verbose = hasOption;
+        this(ctx, false, false, hasOption);
+    }
 
-        // Load necessary DSpace services
-        this.authorizeService = AuthorizeServiceFactory.getInstance().getAuthorizeService();
-        this.itemService = ContentServiceFactory.getInstance().getItemService();
+    /**
+     * Constructor for the tests, with the given services instead of the DSpace ones.
+     */
+    XOAI(Context context, boolean verbose, ItemService itemService, AuthorizeService authorizeService,
+            org.dspace.services.ConfigurationService configurationService, SolrServerResolver solrServerResolver) {
+        this.context = context;
+        this.verbose = verbose;
+        this.itemService = itemService;
+        this.authorizeService = authorizeService;
+        this.solrServerResolver = solrServerResolver;
+        this.threads = Math.max(1, configurationService.getIntProperty("oai.import.threads", 1));
+        this.batchSize = configurationService.getIntProperty("oai.import.batch.size", 100);
     }
 
     private void println(String line) {
         System.out.println(line);
     }
 
+    /**
+     * @param threads the number of threads building the documents, 1 builds them in the calling thread
+     */
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
     public int index() throws DSpaceSolrIndexerException {
         int result = 0;
         try {
@@ -150,8 +190,11 @@ public class XOAI {
                 if (results.getNumFound() == 0) {
                     System.out.println("There are no indexed documents, using full import.");
                     result = this.indexAll();
-                } else
+                } else {
+                    Date started = new Date();
                     result = this.index((Date) results.get(0).getFieldValue("item.lastmodified"));
+                    result += this.markDeleted(started);
+                }
 
             }
             solrServerResolver.getServer().commit();
@@ -177,55 +220,272 @@ public class XOAI {
                         + last.toString());
         // Index both in_archive items AND withdrawn items. Withdrawn items will be flagged withdrawn
         // (in order to notify external OAI harvesters of their new status)
-        try {
-            Iterator<Item> iterator = itemService.findInArchiveOrWithdrawnDiscoverableModifiedSince(
-                    context, last);
-            return this.index(iterator);
-        } catch (SQLException ex) {
-            throw new DSpaceSolrIndexerException(ex.getMessage(), ex);
-        }
+        return this.indexModifiedSince(last);
     }
 
     private int indexAll() throws DSpaceSolrIndexerException {
         System.out.println("Full import");
+        // Index both in_archive items AND withdrawn items. Withdrawn items will be flagged withdrawn
+        // (in order to notify external OAI harvesters of their new status)
+        return this.indexModifiedSince(null);
+    }
+
+    /**
+     * Index the items modified after the given date, in batches of documents. The
+     * items are read by id a page at a time, and the session is cleared after every
+     * page, so the items indexed earlier don't stay in memory.
+     */
+    private int indexModifiedSince(Date last) throws DSpaceSolrIndexerException {
+        long start = System.currentTimeMillis();
+        int i;
         try {
-            // Index both in_archive items AND withdrawn items. Withdrawn items will be flagged withdrawn
-            // (in order to notify external OAI harvesters of their new status)
-            Iterator<Item> iterator = itemService.findInArchiveOrWithdrawnDiscoverableModifiedSince(
-                    context, null);
-            return this.index(iterator);
-        } catch (SQLException ex) {
+            if (threads > 1) {
+                i = this.indexConcurrently(last);
+            } else {
+                i = this.indexSequentially(last);
+            }
+        } catch (SQLException | SolrServerException | IOException | InterruptedException ex) {
             throw new DSpaceSolrIndexerException(ex.getMessage(), ex);
         }
+        long seconds = Math.max(1, (System.currentTimeMillis() - start) / 1000);
+        System.out.println("Total: " + i + " items in " + seconds + " seconds ("
+                + (i / seconds) + " items/s)");
+        return i;
     }
 
-    private int index(Iterator<Item> iterator)
-            throws DSpaceSolrIndexerException {
-        try {
-            int i = 0;
-            SolrServer server = solrServerResolver.getServer();
-            while (iterator.hasNext()) {
-                try {
-                    server.add(this.index(iterator.next()));
-                } catch (SQLException | MetadataBindException | ParseException
-                        | XMLStreamException | WritingXmlException ex) {
-                    log.error(ex.getMessage(), ex);
+    private int indexSequentially(Date last) throws SQLException, SolrServerException, IOException {
+        int i = 0;
+        SolrServer server = solrServerResolver.getServer();
+        List<SolrInputDocument> batch = new ArrayList<>(batchSize);
+        UUID after = null;
+        List<UUID> page;
+        do {
+            page = itemService.findInArchiveOrWithdrawnDiscoverableIDsModifiedSince(context, last, after, PAGE_SIZE);
+            for (UUID id : page) {
+                SolrInputDocument doc = this.index(context, id);
+                if (doc != null) {
+                    batch.add(doc);
+                    if (batch.size() >= batchSize) {
+                        server.add(batch);
+                        batch.clear();
+                    }
                 }
                 i++;
                 if (i % 100 == 0) System.out.println(i + " items imported so far...");
             }
-            System.out.println("Total: " + i + " items");
-            server.commit();
-            return i;
-        } catch (SolrServerException | IOException ex) {
+            if (!page.isEmpty()) {
+                after = page.get(page.size() - 1);
+            }
+            context.clearCache();
+        } while (page.size() == PAGE_SIZE);
+        if (!batch.isEmpty()) {
+            server.add(batch);
+        }
+        return i;
+    }
+
+    /**
+     * The calling thread reads the item ids and hands them to the indexing threads.
+     * Each indexing thread has its own Context, builds the documents and adds them
+     * to solr in batches.
+     */
+    private int indexConcurrently(Date last) throws SQLException, SolrServerException, IOException, InterruptedException {
+        System.out.println("Using " + threads + " threads");
+        final BlockingQueue<UUID> ids = new ArrayBlockingQueue<>(PAGE_SIZE);
+        final AtomicInteger count = new AtomicInteger();
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+        final SolrServer server = solrServerResolver.getServer();
+        // counted down when an indexing thread stops, whatever the reason
+        final CountDownLatch running = new CountDownLatch(threads);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Context threadContext = null;
+                    List<SolrInputDocument> batch = new ArrayList<>(batchSize);
+                    try {
+                        threadContext = new Context();
+                        int indexed = 0;
+                        UUID id;
+                        // after a failure the remaining ids are taken but not indexed,
+                        // so the thread handing them out isn't blocked
+                        while ((id = ids.take()) != END_OF_IDS) {
+                            if (failure.get() != null) {
+                                continue;
+                            }
+                            try {
+                                SolrInputDocument doc = index(threadContext, id);
+                                if (doc != null) {
+                                    batch.add(doc);
+                                    if (batch.size() >= batchSize) {
+                                        server.add(batch);
+                                        batch.clear();
+                                    }
+                                }
+                                int i = count.incrementAndGet();
+                                if (i % 100 == 0) System.out.println(i + " items imported so far...");
+                                if (++indexed % PAGE_SIZE == 0) {
+                                    threadContext.clearCache();
+                                }
+                            } catch (SQLException | SolrServerException | IOException | RuntimeException ex) {
+                                failure.compareAndSet(null, ex);
+                            }
+                        }
+                        if (!batch.isEmpty() && failure.get() == null) {
+                            server.add(batch);
+                        }
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    } catch (SolrServerException | IOException | RuntimeException ex) {
+                        failure.compareAndSet(null, ex);
+                    } catch (Error e) {
+                        log.error("Indexing thread stopped", e);
+                        throw e;
+                    } finally {
+                        if (threadContext != null) {
+                            threadContext.abort();
+                        }
+                        running.countDown();
+                    }
+                }
+            });
+        }
+
+        try {
+            UUID after = null;
+            List<UUID> page;
+            do {
+                page = itemService.findInArchiveOrWithdrawnDiscoverableIDsModifiedSince(context, last, after, PAGE_SIZE);
+                for (UUID id : page) {
+                    offer(ids, id, running);
+                }
+                if (!page.isEmpty()) {
+                    after = page.get(page.size() - 1);
+                }
+            } while (page.size() == PAGE_SIZE && failure.get() == null);
+        } finally {
+            // the indexing threads keep taking ids after a failure, so this only
+            // blocks if they have all stopped, and then there's nobody to tell
+            try {
+                for (int t = 0; t < threads; t++) {
+                    offer(ids, END_OF_IDS, running);
+                }
+            } catch (IllegalStateException ex) {
+                log.debug(ex.getMessage());
+            }
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+
+        Exception ex = failure.get();
+        if (ex instanceof SQLException) {
+            throw (SQLException) ex;
+        } else if (ex instanceof SolrServerException) {
+            throw (SolrServerException) ex;
+        } else if (ex instanceof IOException) {
+            throw (IOException) ex;
+        } else if (ex != null) {
+            throw (RuntimeException) ex;
+        }
+        return count.get();
+    }
+
+    /**
+     * Put an id on the queue, waiting while it is full, unless all indexing
+     * threads have stopped and nobody would take it.
+     *
+     * @throws IllegalStateException if all indexing threads have stopped
+     */
+    private static void offer(BlockingQueue<UUID> ids, UUID id, CountDownLatch running) throws InterruptedException {
+        while (!ids.offer(id, OFFER_TIMEOUT, TimeUnit.MILLISECONDS)) {
+            if (running.getCount() == 0) {
+                throw new IllegalStateException("All indexing threads have stopped, aborting the import");
+            }
+        }
+    }
+
+    /**
+     * Build the document of an item, or return null if it no longer exists or
+     * the document can't be built.
+     */
+    private SolrInputDocument index(Context context, UUID id) throws SQLException {
+        Item item = itemService.find(context, id);
+        if (item == null) {
+            return null;
+        }
+        try {
+            return this.index(context, item);
+        } catch (SQLException | MetadataBindException | ParseException
+                | XMLStreamException | WritingXmlException ex) {
+            log.error(ex.getMessage(), ex);
+            return null;
+        }
+    }
+
+    /**
+     * Flag the indexed items which were deleted, or are no longer in the archive or
+     * discoverable, as deleted. Like withdrawn items they stay in the index, so OAI
+     * harvesters are told they are gone.
+     *
+     * @param started when this import started, used as the modification date of the flagged items
+     * @return the number of items flagged as deleted
+     */
+    int markDeleted(Date started) throws DSpaceSolrIndexerException {
+        System.out.println("Searching for items which were deleted or are no longer discoverable");
+        int deleted = 0;
+        try {
+            SolrServer server = solrServerResolver.getServer();
+            String cursorMark = CursorMarkParams.CURSOR_MARK_START;
+            while (true) {
+                SolrQuery solrParams = new SolrQuery("*:*")
+                        .addFilterQuery("item.deleted:false")
+                        .setFields("item.id", "item.handle")
+                        .addSort("item.handle", ORDER.asc)
+                        .setRows(PAGE_SIZE);
+                solrParams.set(CursorMarkParams.CURSOR_MARK_PARAM, cursorMark);
+                QueryResponse response = server.query(solrParams);
+
+                Map<UUID, String> handles = new HashMap<>();
+                for (SolrDocument doc : response.getResults()) {
+                    handles.put(UUID.fromString(doc.getFieldValue("item.id").toString()),
+                            (String) doc.getFieldValue("item.handle"));
+                }
+                handles.keySet().removeAll(itemService.findInArchiveOrWithdrawnDiscoverableIDs(
+                        context, new ArrayList<>(handles.keySet())));
+                for (String handle : handles.values()) {
+                    SolrDocumentList found = server.query(new SolrQuery("item.handle:" + ClientUtils.escapeQueryChars(handle))).getResults();
+                    if (!found.isEmpty()) {
+                        SolrInputDocument doc = ClientUtils.toSolrInputDocument(found.get(0));
+                        doc.removeField("_version_");
+                        doc.setField("item.deleted", "true");
+                        doc.setField("item.lastmodified", started);
+                        server.add(doc);
+                        deleted++;
+                        if (verbose) {
+                            println("Item with handle " + handle + " flagged as deleted");
+                        }
+                    }
+                }
+
+                String nextCursorMark = response.getNextCursorMark();
+                if (cursorMark.equals(nextCursorMark)) {
+                    break;
+                }
+                cursorMark = nextCursorMark;
+            }
+        } catch (SQLException | SolrServerException | IOException ex) {
             throw new DSpaceSolrIndexerException(ex.getMessage(), ex);
         }
+        System.out.println("Total: " + deleted + " items flagged as deleted");
+        return deleted;
     }
 
-    private SolrInputDocument index(Item item) throws SQLException, MetadataBindException, ParseException, XMLStreamException, WritingXmlException {
+    private SolrInputDocument index(Context context, Item item) throws SQLException, MetadataBindException, ParseException, XMLStreamException, WritingXmlException {
         SolrInputDocument doc = new SolrInputDocument();
         doc.addField("item.id", item.getID());
-        boolean pub = this.isPublic(item);
+        boolean pub = this.isPublic(context, item);
         doc.addField("item.public", pub);
         String handle = item.getHandle();
         doc.addField("item.handle", handle);
@@ -258,7 +518,7 @@ public class XOAI {
             }
         }
 
-        for (String f : getFileFormats(item)) {
+        for (String f : getFileFormats(context, item)) {
             doc.addField("metadata.dc.format.mimetype", f);
         }
 
@@ -277,7 +537,7 @@ public class XOAI {
         return doc;
     }
 
-    private boolean isPublic(Item item) {
+    private boolean isPublic(Context context, Item item) {
         boolean pub = false;
         try {
             //Check if READ access allowed on this Item
@@ -350,6 +610,7 @@ public class XOAI {
             options.addOption("o", "optimize", false,
                     "Optimize index at the end");
             options.addOption("v", "verbose", false, "Verbose output");
+            options.addOption("t", "threads", true, "Number of threads building the documents");
             options.addOption("h", "help", false, "Shows some help");
             options.addOption("n", "number", true, "FOR DEVELOPMENT MUST DELETE");
             CommandLine line = parser.parse(options, argv);
@@ -389,6 +650,9 @@ public class XOAI {
                             line.hasOption('v'));
 
                     applicationContext.getAutowireCapableBeanFactory().autowireBean(indexer);
+                    if (line.hasOption('t')) {
+                        indexer.setThreads(Integer.parseInt(line.getOptionValue('t')));
+                    }
 
                     int imported = indexer.index();
                     if (imported > 0) cleanCache(itemCacheService, cacheService);
@@ -472,6 +736,7 @@ public class XOAI {
             System.out.println("> Parameters:");
             System.out.println("     -o Optimize index after indexing (" + COMMAND_IMPORT + " only)");
             System.out.println("     -c Clear index (" + COMMAND_IMPORT + " only)");
+            System.out.println("     -t <threads> Number of threads building the documents (" + COMMAND_IMPORT + " only)");
             System.out.println("     -v Verbose output");
             System.out.println("     -h Shows this text");
         } else {
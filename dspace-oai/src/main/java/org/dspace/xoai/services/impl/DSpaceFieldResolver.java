@@ -13,43 +13,30 @@ import org.dspace.xoai.services.api.FieldResolver;
 
 import java.sql.SQLException;
 import java.util.regex.Pattern;
-import org.dspace.content.MetadataField;
+import org.dspace.content.MetadataRegistryCache;
 import org.dspace.content.factory.ContentServiceFactory;
-import org.dspace.content.service.MetadataFieldService;
 
 public class DSpaceFieldResolver implements FieldResolver {
-    private MetadataFieldCache metadataFieldCache = null;
-
-    private static final MetadataFieldService metadataFieldService
-            = ContentServiceFactory.getInstance().getMetadataFieldService();
+    private static final MetadataRegistryCache metadataRegistryCache
+            = ContentServiceFactory.getInstance().getMetadataRegistryCache();
 
     @Override
     public int getFieldID(Context context, String field) throws InvalidMetadataFieldException, SQLException {
-        if (metadataFieldCache == null)
-            metadataFieldCache = new MetadataFieldCache();
-        if (!metadataFieldCache.hasField(field))
+        String[] pieces = field.split(Pattern.quote("."));
+        if (pieces.length > 1)
         {
-            String[] pieces = field.split(Pattern.quote("."));
-            if (pieces.length > 1)
-            {
-                String schema = pieces[0];
-                String element = pieces[1];
-                String qualifier = null;
-                if (pieces.length > 2)
-                    qualifier = pieces[2];
-
-                MetadataField metadataField = metadataFieldService.findByElement(context, schema, element, qualifier);
-                if (null != metadataField)
-                {
-                    metadataFieldCache.add(field, metadataField.getFieldID());
-                }
-                else
-                    throw new InvalidMetadataFieldException();
+            String schema = pieces[0];
+            String element = pieces[1];
+            String qualifier = null;
+            if (pieces.length > 2)
+                qualifier = pieces[2];
 
+            Integer id = metadataRegistryCache.getFieldId(context, schema, element, qualifier);
+            if (null != id)
+            {
+                return id;
             }
-            else
-                throw new InvalidMetadataFieldException();
         }
-        return metadataFieldCache.getField(field);
+        throw new InvalidMetadataFieldException();
     }
 }
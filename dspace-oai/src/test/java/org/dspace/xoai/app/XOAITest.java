@@ -0,0 +1,161 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.xoai.app;
+
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.params.CursorMarkParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.dspace.authorize.service.AuthorizeService;
+import org.dspace.content.service.ItemService;
+import org.dspace.core.Context;
+import org.dspace.services.ConfigurationService;
+import org.dspace.xoai.services.api.solr.SolrServerResolver;
+import org.dspace.xoai.solr.exceptions.DSpaceSolrIndexerException;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class XOAITest {
+    private static final UUID KEPT = UUID.randomUUID();
+    private static final UUID DELETED = UUID.randomUUID();
+    private static final UUID HIDDEN = UUID.randomUUID();
+
+    private final SolrServer server = mock(SolrServer.class);
+    private final ItemService itemService = mock(ItemService.class);
+
+    /** The indexed documents, by handle */
+    private final Map<String, SolrDocument> documents = new HashMap<String, SolrDocument>();
+
+    /** The cursor marks of the pages read from the index */
+    private final List<String> cursorMarks = new ArrayList<String>();
+
+    private XOAI underTest;
+
+    @Before
+    public void setUp() throws Exception {
+        ConfigurationService configurationService = mock(ConfigurationService.class);
+        when(configurationService.getIntProperty(anyString(), anyInt())).thenReturn(1);
+        SolrServerResolver solrServerResolver = mock(SolrServerResolver.class);
+        when(solrServerResolver.getServer()).thenReturn(server);
+        underTest = new XOAI((Context) null, false, itemService, mock(AuthorizeService.class),
+                configurationService, solrServerResolver);
+
+        documents.put("123/1", document(KEPT, "123/1"));
+        documents.put("123/2", document(DELETED, "123/2"));
+        documents.put("123/3", document(HIDDEN, "123/3"));
+        // the first page holds two items, the second one the third
+        when(server.query(any(SolrParams.class))).thenAnswer(new Answer<QueryResponse>() {
+            @Override
+            public QueryResponse answer(InvocationOnMock invocation) throws Throwable {
+                SolrParams params = (SolrParams) invocation.getArguments()[0];
+                String cursorMark = params.get(CursorMarkParams.CURSOR_MARK_PARAM);
+                if (cursorMark == null) {
+                    String handle = params.get("q").substring("item.handle:".length()).replace("\\", "");
+                    return response(null, documents.get(handle));
+                }
+                cursorMarks.add(cursorMark);
+                if (CursorMarkParams.CURSOR_MARK_START.equals(cursorMark)) {
+                    return response("second", documents.get("123/1"), documents.get("123/2"));
+                }
+                return response("second", documents.get("123/3"));
+            }
+        });
+    }
+
+    private static SolrDocument document(UUID id, String handle) {
+        SolrDocument doc = new SolrDocument();
+        doc.setField("item.id", id.toString());
+        doc.setField("item.handle", handle);
+        doc.setField("item.deleted", "false");
+        doc.setField("_version_", 1L);
+        return doc;
+    }
+
+    private QueryResponse response(String nextCursorMark, SolrDocument... docs) {
+        SolrDocumentList results = new SolrDocumentList();
+        results.addAll(Arrays.asList(docs));
+        results.setNumFound(docs.length);
+        NamedList<Object> response = new NamedList<Object>();
+        response.add("response", results);
+        if (nextCursorMark != null) {
+            response.add(CursorMarkParams.CURSOR_MARK_NEXT, nextCursorMark);
+        }
+        return new QueryResponse(response, server);
+    }
+
+    @Test
+    public void markDeletedFlagsItemsMissingFromTheDatabase() throws Exception {
+        when(itemService.findInArchiveOrWithdrawnDiscoverableIDs(any(Context.class), anyListOf(UUID.class)))
+                .thenReturn(Arrays.asList(KEPT))
+                .thenReturn(new ArrayList<UUID>());
+        Date started = new Date();
+
+        assertThat(underTest.markDeleted(started), is(2));
+
+        // the index is read a page at a time until the cursor stops moving
+        assertThat(cursorMarks, equalTo(Arrays.asList(CursorMarkParams.CURSOR_MARK_START, "second")));
+        verify(itemService, times(2)).findInArchiveOrWithdrawnDiscoverableIDs(any(Context.class), anyListOf(UUID.class));
+
+        ArgumentCaptor<SolrInputDocument> added = ArgumentCaptor.forClass(SolrInputDocument.class);
+        verify(server, times(2)).add(added.capture());
+        List<String> handles = new ArrayList<String>();
+        for (SolrInputDocument doc : added.getAllValues()) {
+            handles.add((String) doc.getFieldValue("item.handle"));
+            assertThat(doc.getFieldValue("item.deleted"), equalTo((Object) "true"));
+            assertThat(doc.getFieldValue("item.lastmodified"), equalTo((Object) started));
+            assertThat(doc.getField("_version_"), nullValue());
+        }
+        assertThat(handles, equalTo(Arrays.asList("123/2", "123/3")));
+    }
+
+    @Test
+    public void markDeletedKeepsItemsInTheDatabase() throws Exception {
+        when(itemService.findInArchiveOrWithdrawnDiscoverableIDs(any(Context.class), anyListOf(UUID.class)))
+                .thenReturn(Arrays.asList(KEPT, DELETED))
+                .thenReturn(Arrays.asList(HIDDEN));
+
+        assertThat(underTest.markDeleted(new Date()), is(0));
+        verify(server, times(0)).add(any(SolrInputDocument.class));
+    }
+
+    @Test(expected = DSpaceSolrIndexerException.class)
+    public void markDeletedReportsSolrErrors() throws Exception {
+        doThrow(new SolrServerException("down")).when(server).query(any(SolrParams.class));
+        underTest.markDeleted(new Date());
+    }
+}
@@ -165,6 +165,50 @@ public final class DSpaceServiceManager implements ServiceManagerSystem {
         return notify;
     }
 
+    /**
+     * Tell the service change listeners (apart from the service itself) that a
+     * service has been registered or is about to be unregistered.
+     * @param name the name of the service
+     * @param service the service bean
+     * @param registered true if the service was registered, false if it is being unregistered
+     */
+    private void notifyServiceChange(String name, Object service, boolean registered) {
+        List<Class<?>> implementedTypes = getImplementedTypes(service.getClass());
+        for (ServiceChangeListener serviceChangeListener : getServicesByType(ServiceChangeListener.class)) {
+            if (serviceChangeListener == service
+                    || ! checkNotifyServiceChange(implementedTypes, serviceChangeListener)) {
+                continue;
+            }
+            try {
+                if (registered) {
+                    serviceChangeListener.serviceRegistered(name, service, implementedTypes);
+                } else {
+                    serviceChangeListener.serviceUnregistered(name, service);
+                }
+            } catch (Exception e) {
+                log.error("ERROR: Failure in service when calling service change listener: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * @param type a class
+     * @return the class, its superclasses and all the interfaces they implement
+     */
+    private static List<Class<?>> getImplementedTypes(Class<?> type) {
+        Set<Class<?>> types = new LinkedHashSet<Class<?>>();
+        List<Class<?>> toCheck = new ArrayList<Class<?>>();
+        toCheck.add(type);
+        while (! toCheck.isEmpty()) {
+            Class<?> current = toCheck.remove(toCheck.size() - 1);
+            if (current != null && types.add(current)) {
+                toCheck.add(current.getSuperclass());
+                toCheck.addAll(Arrays.asList(current.getInterfaces()));
+            }
+        }
+        return new ArrayList<Class<?>>(types);
+    }
+
     /**
      * Shut down all service managers, including this one.
      */
@@ -239,6 +283,7 @@ public final class DSpaceServiceManager implements ServiceManagerSystem {
         for (ServiceManagerSystem sms : serviceManagers) {
             sms.registerService(name, service);
         }
+        notifyServiceChange(name, service, true);
     }
 
     @Override
@@ -251,6 +296,7 @@ public final class DSpaceServiceManager implements ServiceManagerSystem {
         for (ServiceManagerSystem sms : serviceManagers) {
             sms.registerServiceNoAutowire(name, service);
         }
+        notifyServiceChange(name, service, true);
     }
 
     public <T> T registerServiceClass(String name, Class<T> type) {
@@ -259,7 +305,11 @@ public final class DSpaceServiceManager implements ServiceManagerSystem {
             throw new IllegalArgumentException("name and type cannot be null");
         }
         // we only register with the primary
-        return primaryServiceManager.registerServiceClass(name, type);
+        T service = primaryServiceManager.registerServiceClass(name, type);
+        if (service != null) {
+            notifyServiceChange(name, service, true);
+        }
+        return service;
     }
 
     public void unregisterService(String name) {
@@ -267,6 +317,12 @@ public final class DSpaceServiceManager implements ServiceManagerSystem {
         if (name == null) {
             throw new IllegalArgumentException("name cannot be null");
         }
+        if (isServiceExists(name)) {
+            Object service = getServiceByName(name, Object.class);
+            if (service != null) {
+                notifyServiceChange(name, service, false);
+            }
+        }
         // only unregister with the primary
         primaryServiceManager.unregisterService(name);
     }
@@ -21,10 +21,15 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import org.apache.commons.configuration.Configuration;
 import org.apache.commons.configuration.ConfigurationConverter;
 import org.apache.commons.configuration.ConfigurationException;
 import org.apache.commons.configuration.DefaultConfigurationBuilder;
+import org.apache.commons.configuration.event.ConfigurationEvent;
+import org.apache.commons.configuration.event.ConfigurationListener;
+import org.apache.commons.configuration.event.EventSource;
 import org.dspace.services.ConfigurationService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,6 +39,13 @@ import org.springframework.core.io.ClassPathResource;
 /**
  * The central DSpace configuration service. Uses Apache Commons Configuration
  * to provide the ability to reload Property files.
+ * <P>
+ * Converted (and interpolated) property values are kept in a snapshot, so a
+ * property is only looked up and converted once per type. The snapshot is
+ * replaced by an empty one whenever the Configuration changes: on
+ * setProperty(), reloadConfig(), direct changes to getConfiguration() and
+ * when one of the configuration files is reloaded. Whether a file has
+ * changed is checked at most every {@link #RELOAD_CHECK_INTERVAL} ms.
  *
  * @author Tim Donohue (rewrote to use Apache Commons Config
  * @author Aaron Zeckoski
@@ -67,6 +79,29 @@ public final class DSpaceConfigurationService implements ConfigurationService {
     // Current Home directory
     private String homePath = null;
 
+    /**
+     * Milliseconds between two checks whether configuration files have changed
+     * (the files themselves are only reloaded if they are older than the
+     * refreshDelay in config-definition.xml)
+     */
+    public static final long RELOAD_CHECK_INTERVAL = 5000;
+
+    // Stored in the snapshot for properties which convert to null
+    private static final Object NULL_VALUE = new Object();
+
+    // Converted property values, replaced when the configuration changes
+    private volatile Snapshot snapshot = new Snapshot();
+
+    // Drops the snapshot whenever the configuration changes
+    private final ConfigurationListener changeListener = new ConfigurationListener() {
+        @Override
+        public void configurationChanged(ConfigurationEvent event) {
+            // called both before and after a change, so values read
+            // during the change are not kept
+            snapshot = new Snapshot();
+        }
+    };
+
     /**
      * Initializes a ConfigurationService based on default values. The DSpace
      * Home directory is determined based on system properties / searching.
@@ -327,10 +362,14 @@ public final class DSpaceConfigurationService implements ConfigurationService {
     @Override
     public boolean hasProperty(String name)
     {
-        if(configuration.containsKey(name))
-            return true;
-        else
-            return false;
+        Snapshot current = getSnapshot();
+        Boolean exists = current.keys.get(name);
+        if (exists == null)
+        {
+            exists = Boolean.valueOf(configuration.containsKey(name));
+            current.keys.put(name, exists);
+        }
+        return exists.booleanValue();
     }
 
     /* (non-Javadoc)
@@ -491,7 +530,7 @@ public final class DSpaceConfigurationService implements ConfigurationService {
             configurationBuilder = new DefaultConfigurationBuilder(configDefinition);
 
             // Actually parser our configuration definition & return the resulting Configuration
-            configuration = configurationBuilder.getConfiguration();
+            setConfiguration(configurationBuilder.getConfiguration());
         }
         catch(ConfigurationException ce)
         {
@@ -517,7 +556,7 @@ public final class DSpaceConfigurationService implements ConfigurationService {
         try
         {
             configurationBuilder.reload();
-            this.configuration = configurationBuilder.getConfiguration();
+            setConfiguration(configurationBuilder.getConfiguration());
 
             // Finally, (re)set any dynamic, default properties
             setDynamicProperties();
@@ -529,6 +568,48 @@ public final class DSpaceConfigurationService implements ConfigurationService {
         log.info("Reloaded configuration service: " + toString());
     }
 
+    /**
+     * Use a (newly loaded) Configuration, and listen to its changes.
+     * @param newConfiguration the configuration
+     */
+    private void setConfiguration(Configuration newConfiguration)
+    {
+        if (newConfiguration != configuration)
+        {
+            if (configuration instanceof EventSource)
+            {
+                ((EventSource) configuration).removeConfigurationListener(changeListener);
+            }
+            if (newConfiguration instanceof EventSource)
+            {
+                ((EventSource) newConfiguration).addConfigurationListener(changeListener);
+            }
+            configuration = newConfiguration;
+        }
+        snapshot = new Snapshot();
+    }
+
+    /**
+     * Get the current snapshot of converted values. Every
+     * {@link #RELOAD_CHECK_INTERVAL} ms the configuration files are checked
+     * for changes first, which replaces the snapshot if they were reloaded.
+     * @return the snapshot
+     */
+    private Snapshot getSnapshot()
+    {
+        Snapshot current = snapshot;
+        long now = System.currentTimeMillis();
+        if (now - current.reloadChecked > RELOAD_CHECK_INTERVAL)
+        {
+            current.reloadChecked = now;
+            // Any lookup makes a CombinedConfiguration check its files for changes,
+            // a reload fires an event which replaces the snapshot
+            configuration.containsKey(DSPACE_HOME);
+            current = snapshot;
+        }
+        return current;
+    }
+
      /**
      * Sets properties which are determined dynamically rather than
      * loaded via configuration.
@@ -676,6 +757,56 @@ public final class DSpaceConfigurationService implements ConfigurationService {
      */
     private <T> T convert(String name, Class<T> type) {
 
+        // Other types may be mutable, so convert them every time
+        if (!isImmutable(type) && !type.isArray() && !List.class.equals(type))
+        {
+            return convertValue(name, type);
+        }
+
+        ConcurrentMap<String, Object> values = getSnapshot().getValues(type);
+        Object value = values.get(name);
+        if (value == null)
+        {
+            value = convertValue(name, type);
+            values.put(name, value == null ? NULL_VALUE : value);
+        }
+        if (value == NULL_VALUE)
+        {
+            return null;
+        }
+
+        // Don't hand out the cached array or list, callers may change it
+        if (value instanceof Object[])
+        {
+            return (T) ((Object[]) value).clone();
+        }
+        else if (value instanceof List)
+        {
+            return (T) new ArrayList<Object>((List<?>) value);
+        }
+        return (T) value;
+    }
+
+    /**
+     * @param type a class
+     * @return true if values of the type can not be changed once created
+     */
+    private static boolean isImmutable(Class<?> type) {
+        return type.isPrimitive() || String.class.equals(type) || Object.class.equals(type)
+                || Boolean.class.equals(type) || Byte.class.equals(type) || Short.class.equals(type)
+                || Integer.class.equals(type) || Long.class.equals(type) || Float.class.equals(type)
+                || Double.class.equals(type) || BigDecimal.class.equals(type) || BigInteger.class.equals(type);
+    }
+
+    /**
+     * Look up the value of a given property and convert it to a specific object type.
+     *
+     * @param name Key of the property to convert
+     * @param <T> object type
+     * @return converted value
+     */
+    private <T> T convertValue(String name, Class<T> type) {
+
         // If this key doesn't exist, just return null
         if(!configuration.containsKey(name))
         {
@@ -719,4 +850,27 @@ public final class DSpaceConfigurationService implements ConfigurationService {
             return (T) converter.convertIfNecessary(configuration.getProperty(name), type);
         }
     }
+
+    /**
+     * Property values converted since the configuration was last changed,
+     * by type and property name.
+     */
+    private static final class Snapshot {
+        final ConcurrentMap<Class<?>, ConcurrentMap<String, Object>> values =
+                new ConcurrentHashMap<Class<?>, ConcurrentMap<String, Object>>();
+        final ConcurrentMap<String, Boolean> keys = new ConcurrentHashMap<String, Boolean>();
+        volatile long reloadChecked = System.currentTimeMillis();
+
+        ConcurrentMap<String, Object> getValues(Class<?> type) {
+            ConcurrentMap<String, Object> typeValues = values.get(type);
+            if (typeValues == null) {
+                typeValues = new ConcurrentHashMap<String, Object>();
+                ConcurrentMap<String, Object> existing = values.putIfAbsent(type, typeValues);
+                if (existing != null) {
+                    typeValues = existing;
+                }
+            }
+            return typeValues;
+        }
+    }
 }
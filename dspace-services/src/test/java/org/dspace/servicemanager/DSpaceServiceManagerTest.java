@@ -10,11 +10,13 @@ package org.dspace.servicemanager;
 import static org.junit.Assert.*;
 import static org.junit.Assert.assertEquals;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.dspace.kernel.mixins.InitializedService;
+import org.dspace.kernel.mixins.ServiceChangeListener;
 import org.dspace.kernel.mixins.ShutdownService;
 import org.dspace.servicemanager.config.DSpaceConfigurationService;
 import org.dspace.servicemanager.example.ConcreteExample;
@@ -304,6 +306,59 @@ public class DSpaceServiceManagerTest {
         properties = null;
     }
 
+    @Test
+    public void testServiceChangeListener() {
+        dsm.startup();
+
+        TestServiceChangeListener listener = new TestServiceChangeListener();
+        dsm.registerService(TestServiceChangeListener.class.getName(), listener);
+        // the listener is not told about its own registration
+        assertTrue(listener.registered.isEmpty());
+
+        TestService ts = new TestService();
+        dsm.registerService(TestService.class.getName(), ts);
+        assertEquals(1, listener.registered.size());
+        assertEquals(TestService.class.getName(), listener.registered.get(0));
+        assertTrue(listener.implementedTypes.contains(ShutdownService.class));
+
+        // services of other types are filtered out by notifyForTypes()
+        dsm.registerService("myNewService", "AZ");
+        assertEquals(1, listener.registered.size());
+        dsm.unregisterService("myNewService");
+        assertTrue(listener.unregistered.isEmpty());
+
+        dsm.unregisterService(TestService.class.getName());
+        assertEquals(1, listener.unregistered.size());
+        assertEquals(TestService.class.getName(), listener.unregistered.get(0));
+        // the listener is notified before the service is shut down
+        assertEquals(1, listener.valueWhenUnregistered);
+        assertEquals(2, ts.value);
+
+        dsm.unregisterService(TestServiceChangeListener.class.getName());
+        assertEquals(1, listener.unregistered.size());
+    }
+
+    public static class TestServiceChangeListener implements ServiceChangeListener {
+
+        public List<String> registered = new ArrayList<String>();
+        public List<String> unregistered = new ArrayList<String>();
+        public List<Class<?>> implementedTypes;
+        public int valueWhenUnregistered = -1;
+
+        public Class<?>[] notifyForTypes() {
+            return new Class<?>[] { InitializedService.class };
+        }
+        public void serviceRegistered(String serviceName, Object service, List<Class<?>> implementedTypes) {
+            registered.add(serviceName);
+            this.implementedTypes = implementedTypes;
+        }
+        public void serviceUnregistered(String serviceName, Object service) {
+            unregistered.add(serviceName);
+            valueWhenUnregistered = ((TestService) service).value;
+        }
+
+    }
+
     public static class TestService implements InitializedService, ShutdownService {
 
         public int value = 0;
@@ -394,6 +394,38 @@ public class DSpaceConfigurationServiceTest {
 
     }
 
+    /**
+     * Tests that converted values which are kept between calls follow changes to the configuration
+     */
+    @Test
+    public void testCachedValues() {
+        // Read once, so the values are cached
+        assertEquals(123, configurationService.getIntProperty("sample.number"));
+        assertEquals("Aaron Zeckoski", configurationService.getProperty("current.user"));
+        assertFalse(configurationService.hasProperty("new.value"));
+
+        // Changes through the service
+        configurationService.setProperty("sample.number", "456");
+        assertEquals(456, configurationService.getIntProperty("sample.number"));
+        configurationService.loadConfig("new.value", "A");
+        assertTrue(configurationService.hasProperty("new.value"));
+
+        // Changes to a property another property refers to
+        configurationService.setProperty("aaronz", "Tim Donohue");
+        assertEquals("Tim Donohue", configurationService.getProperty("current.user"));
+
+        // Changes made directly to the Configuration
+        configurationService.getConfiguration().setProperty("sample.number", "789");
+        assertEquals(789, configurationService.getIntProperty("sample.number"));
+        configurationService.getConfiguration().clearProperty("new.value");
+        assertFalse(configurationService.hasProperty("new.value"));
+
+        // Arrays returned to a caller can't change the configuration
+        String[] array = configurationService.getArrayProperty("sample.array");
+        array[0] = "changed";
+        assertEquals("itemA", configurationService.getArrayProperty("sample.array")[0]);
+    }
+
     /**
      * Test method for {@link org.dspace.servicemanager.config.DSpaceConfigurationService#getConfiguration()}.
      */
@@ -7,14 +7,22 @@
  */
 package org.dspace.ui.controller;
 
-import com.google.api.client.util.IOUtils;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import org.apache.commons.io.IOUtils;
 import org.dspace.authorize.AuthorizeException;
+import org.dspace.authorize.factory.AuthorizeServiceFactory;
 import org.dspace.content.Bitstream;
+import org.dspace.content.BitstreamFormat;
 import org.dspace.content.DSpaceObject;
 import org.dspace.content.Item;
 import org.dspace.content.factory.ContentServiceFactory;
@@ -23,9 +31,12 @@ import org.dspace.core.Constants;
 import org.dspace.core.Context;
 import org.dspace.ui.exception.PageNotFoundException;
 import org.dspace.ui.utils.ContextUtil;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.util.UrlPathHelper;
 
 /**
@@ -36,6 +47,10 @@ import org.springframework.web.util.UrlPathHelper;
 @Controller
 public class BitstreamController extends DSpaceController
 {
+    /** Requests for more ranges than this are answered with the whole bitstream */
+    protected static final int MAX_RANGES = 50;
+
+    protected static final String DEFAULT_CONTENT_TYPE = "application/octet-stream";
 
     /**
      * Download a Bitstream
@@ -79,19 +94,188 @@ public class BitstreamController extends DSpaceController
                 throw new PageNotFoundException("Bitstream '" + bitstreamName + "' on Item '" + handle + "'");
             else
             {
-                // Retrieve Bitstream contents, copying it to the response
+                sendBitstream(context, (Item) dso, bitstream, request, response);
+            }
+        }
+        else
+        {
+            // Throw a 404 page not found
+            throw new PageNotFoundException("Bitstream with handle " + handle);
+        }
+    }
+
+    /**
+     * Send the contents of a bitstream. Supports conditional requests (If-None-Match /
+     * If-Modified-Since, based on the bitstream checksum and the last modified date of the item)
+     * and Range requests, which are answered with a single part or a multipart/byteranges response.
+     * Only the requested ranges are read from the asset store.
+     *
+     * @param context
+     * @param item the item which owns the bitstream
+     * @param bitstream
+     * @param request
+     * @param response
+     * @throws SQLException
+     * @throws IOException
+     * @throws AuthorizeException
+     */
+    protected void sendBitstream(Context context, Item item, Bitstream bitstream, HttpServletRequest request,
+                                 HttpServletResponse response)
+            throws SQLException, IOException, AuthorizeException
+    {
+        BitstreamService bitstreamService = ContentServiceFactory.getInstance().getBitstreamService();
+
+        // Check READ access before telling anything about the bitstream (not even that it is unchanged)
+        AuthorizeServiceFactory.getInstance().getAuthorizeService().authorizeAction(context, bitstream, Constants.READ);
+
+        long length = bitstream.getSize();
+        String etag = bitstream.getChecksum() == null ? null : "\"" + bitstream.getChecksum() + "\"";
+        long lastModified = item.getLastModified() == null ? -1 : item.getLastModified().getTime();
+
+        // Sets the ETag and Last-Modified headers, and answers 304 if the client's copy is current
+        ServletWebRequest webRequest = new ServletWebRequest(request, response);
+        boolean notModified = etag == null ? webRequest.checkNotModified(lastModified)
+                : webRequest.checkNotModified(etag, lastModified);
+        if (notModified)
+        {
+            return;
+        }
+
+        BitstreamFormat format = bitstream.getFormat(context);
+        String contentType = format == null || format.getMIMEType() == null ? DEFAULT_CONTENT_TYPE : format.getMIMEType();
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+
+        List<HttpRange> ranges = getRanges(request, etag, lastModified, length);
+        if (ranges == null)
+        {
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+            response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            return;
+        }
+
+        boolean sendBody = !"HEAD".equals(request.getMethod());
+        if (ranges.isEmpty())
+        {
+            response.setContentType(contentType);
+            response.setHeader(HttpHeaders.CONTENT_LENGTH, String.valueOf(length));
+            if (sendBody)
+            {
                 try(InputStream is = bitstreamService.retrieve(context, bitstream))
                 {
-                    IOUtils.copy(is, response.getOutputStream(), true);
-                    response.flushBuffer();
+                    IOUtils.copyLarge(is, response.getOutputStream());
+                }
+            }
+        }
+        else if (ranges.size() == 1)
+        {
+            long start = ranges.get(0).getRangeStart(length);
+            long end = ranges.get(0).getRangeEnd(length);
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setContentType(contentType);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+            response.setHeader(HttpHeaders.CONTENT_LENGTH, String.valueOf(end - start + 1));
+            if (sendBody)
+            {
+                try(InputStream is = bitstreamService.retrieve(context, bitstream, start, end - start + 1))
+                {
+                    IOUtils.copyLarge(is, response.getOutputStream());
                 }
             }
         }
         else
         {
-            // Throw a 404 page not found
-            throw new PageNotFoundException("Bitstream with handle " + handle);
+            String boundary = UUID.randomUUID().toString();
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setContentType("multipart/byteranges; boundary=" + boundary);
+            if (sendBody)
+            {
+                OutputStream out = response.getOutputStream();
+                for (HttpRange range : ranges)
+                {
+                    long start = range.getRangeStart(length);
+                    long end = range.getRangeEnd(length);
+                    writeAscii(out, "\r\n--" + boundary + "\r\n"
+                            + HttpHeaders.CONTENT_TYPE + ": " + contentType + "\r\n"
+                            + HttpHeaders.CONTENT_RANGE + ": bytes " + start + "-" + end + "/" + length + "\r\n\r\n");
+                    try(InputStream is = bitstreamService.retrieve(context, bitstream, start, end - start + 1))
+                    {
+                        IOUtils.copyLarge(is, out);
+                    }
+                }
+                writeAscii(out, "\r\n--" + boundary + "--\r\n");
+            }
         }
+        response.flushBuffer();
+    }
+
+    /**
+     * Get the ranges a request asks for.
+     *
+     * @param request
+     * @param etag the ETag of the bitstream, may be null
+     * @param lastModified the last modified date of the bitstream
+     * @param length the size of the bitstream
+     * @return an empty list if the whole bitstream should be sent, the satisfiable ranges,
+     *      or null if none of the requested ranges is satisfiable
+     */
+    protected List<HttpRange> getRanges(HttpServletRequest request, String etag, long lastModified, long length)
+    {
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        if (rangeHeader == null)
+        {
+            return Collections.emptyList();
+        }
+
+        // If-Range: only send part of the bitstream if the client's copy is still current
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange != null && !ifRange.equals(etag))
+        {
+            long ifRangeDate;
+            try
+            {
+                ifRangeDate = request.getDateHeader(HttpHeaders.IF_RANGE);
+            }
+            catch (IllegalArgumentException e)
+            {
+                // an ETag which doesn't match
+                ifRangeDate = -1;
+            }
+            if (ifRangeDate == -1 || lastModified == -1 || lastModified / 1000 > ifRangeDate / 1000)
+            {
+                return Collections.emptyList();
+            }
+        }
+
+        List<HttpRange> requested;
+        try
+        {
+            requested = HttpRange.parseRanges(rangeHeader);
+        }
+        catch (IllegalArgumentException e)
+        {
+            // A Range header which can't be parsed is ignored
+            return Collections.emptyList();
+        }
+        if (requested.size() > MAX_RANGES)
+        {
+            return Collections.emptyList();
+        }
+
+        List<HttpRange> satisfiable = new ArrayList<>(requested.size());
+        for (HttpRange range : requested)
+        {
+            long start = range.getRangeStart(length);
+            if (start < length && start <= range.getRangeEnd(length))
+            {
+                satisfiable.add(range);
+            }
+        }
+        return satisfiable.isEmpty() ? null : satisfiable;
+    }
+
+    private static void writeAscii(OutputStream out, String text) throws IOException
+    {
+        out.write(text.getBytes(StandardCharsets.US_ASCII));
     }
 
 }
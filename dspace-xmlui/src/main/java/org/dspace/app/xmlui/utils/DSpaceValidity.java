@@ -9,15 +9,10 @@ package org.dspace.app.xmlui.utils;
 
 import java.io.IOException;
 import java.sql.SQLException;
-import java.util.List;
 
 import org.apache.cocoon.util.HashUtil;
 import org.apache.excalibur.source.SourceValidity;
 import org.dspace.content.*;
-import org.dspace.content.factory.ContentServiceFactory;
-import org.dspace.content.service.CollectionService;
-import org.dspace.content.service.CommunityService;
-import org.dspace.content.service.ItemService;
 import org.dspace.core.Context;
 import org.dspace.eperson.EPerson;
 import org.dspace.eperson.Group;
@@ -36,8 +31,8 @@ import org.dspace.eperson.Group;
  * the processes of determining what is unique about a DSpace object. A class
  * is expected to create a new DSpaceValidity object and add() to it all 
  * DSpaceObjects that are rendered by the component. This validity object will 
- * serialize all those objects to a string, take a hash of the string and compare
- * the hash of the string for any updates.
+ * serialize the identity and modification stamp of those objects to a string,
+ * take a hash of the string and compare the hash of the string for any updates.
  * 
  * 
  * @author Scott Phillips
@@ -64,11 +59,6 @@ public class DSpaceValidity implements SourceValidity
     protected long assumedValidityDelay = 0;
 
 
-    transient protected CommunityService communityService = ContentServiceFactory.getInstance().getCommunityService();
-   	transient protected CollectionService collectionService = ContentServiceFactory.getInstance().getCollectionService();
-    transient protected ItemService itemService = ContentServiceFactory.getInstance().getItemService();
-
-
     /**
      * Create a new DSpace validity object. 
      * 
@@ -214,15 +204,11 @@ public class DSpaceValidity implements SourceValidity
      * objects are added in the *exact* same order each time a 
      * validity object is created.
      * 
-     * Below are the following transitive rules for adding 
-     * objects, i.e. if an item is added then all the items 
-     * bundles & bitstreams will also be added.
-     * 
-     * Communities -> logo bitstream
-     * Collection -> logo bitstream
-     * Item -> bundles -> bitstream
-     * Bundles -> bitstreams
-     * EPeople -> groups
+     * Objects are identified by their modification stamp, which the
+     * service layer increases on every update, so no metadata has to be
+     * read. An item's stamp also covers its bundles and bitstreams, and a
+     * bundle's stamp its bitstreams. Communities and collections add their
+     * logo bitstream.
      * 
      * @param dso
      *          The object to add to the validity.
@@ -244,11 +230,7 @@ public class DSpaceValidity implements SourceValidity
 
             validityKey.append("Community:");
             validityKey.append(community.getHandle());
-            validityKey.append(communityService.getMetadata(community, "introductory_text"));
-            validityKey.append(communityService.getMetadata(community, "short_description"));
-            validityKey.append(communityService.getMetadata(community, "side_bar_text"));
-            validityKey.append(communityService.getMetadata(community, "copyright_text"));
-            validityKey.append(communityService.getMetadata(community, "name"));
+            validityKey.append(community.getModificationStamp());
             
             // Add the communities logo
             this.add(context, community.getLogo());
@@ -260,13 +242,7 @@ public class DSpaceValidity implements SourceValidity
             
             validityKey.append("Collection:");
             validityKey.append(collection.getHandle());
-            validityKey.append(collectionService.getMetadata(collection, "introductory_text"));
-            validityKey.append(collectionService.getMetadata(collection, "short_description"));
-            validityKey.append(collectionService.getMetadata(collection, "side_bar_text"));
-            validityKey.append(collectionService.getMetadata(collection, "provenance_description"));
-            validityKey.append(collectionService.getMetadata(collection, "copyright_text"));
-            validityKey.append(collectionService.getMetadata(collection, "license"));
-            validityKey.append(collectionService.getMetadata(collection, "name")); 
+            validityKey.append(collection.getModificationStamp());
             
             // Add the logo also;
             this.add(context, collection.getLogo());
@@ -277,75 +253,18 @@ public class DSpaceValidity implements SourceValidity
             Item item = (Item) dso;
             
             validityKey.append("Item:");
-            validityKey.append(item.getHandle());            
-            validityKey.append(item.getOwningCollection());
+            validityKey.append(item.getHandle());
+            Collection owningCollection = item.getOwningCollection();
+            validityKey.append(owningCollection != null ? owningCollection.getID() : null);
             validityKey.append(item.getLastModified());
-            // Include all metadata values in the validity key.
-            List<MetadataValue> dcvs = itemService.getMetadata(item, Item.ANY, Item.ANY,Item.ANY,Item.ANY);
-            for (MetadataValue dcv : dcvs)
-            {
-                validityKey.append(dcv.getMetadataField().toString('.'));
-                validityKey.append(dcv.getLanguage()).append("=");
-                validityKey.append(dcv.getValue());
-            }
-            
-            for(Bundle bundle : item.getBundles())
-            {
-                // Add each of the items bundles & bitstreams.
-                this.add(context, bundle);
-            }
-        }
-        else if (dso instanceof Bundle)
-        {
-            Bundle bundle = (Bundle) dso;
-            
-            validityKey.append("Bundle:");
-            validityKey.append(bundle.getID());
-            validityKey.append(bundle.getName());
-            validityKey.append(bundle.getPrimaryBitstream() != null ? bundle.getPrimaryBitstream().getID() : "");
-            
-            for(Bitstream bitstream : bundle.getBitstreams())
-            {
-                this.add(context, bitstream);
-            }
-        }
-        else if (dso instanceof Bitstream)
-        {
-            Bitstream bitstream = (Bitstream) dso;
-            
-            validityKey.append("Bundle:");
-            validityKey.append(bitstream.getID());
-            validityKey.append(bitstream.getSequenceID());
-            validityKey.append(bitstream.getName());
-            validityKey.append(bitstream.getSource());
-            validityKey.append(bitstream.getDescription());
-            validityKey.append(bitstream.getChecksum());
-            validityKey.append(bitstream.getChecksumAlgorithm());
-            validityKey.append(bitstream.getSize());
-            validityKey.append(bitstream.getUserFormatDescription());
-            validityKey.append(bitstream.getFormat(context).getDescription());
+            validityKey.append(item.getModificationStamp());
         }
-        else if (dso instanceof EPerson)
+        else if (dso instanceof Bundle || dso instanceof Bitstream
+                || dso instanceof EPerson || dso instanceof Group)
         {
-            EPerson eperson = (EPerson) dso;
-            
-            validityKey.append("Bundle:");
-            validityKey.append(eperson.getID());
-            validityKey.append(eperson.getEmail());
-            validityKey.append(eperson.getNetid());
-            validityKey.append(eperson.getFirstName());
-            validityKey.append(eperson.getLastName());
-            validityKey.append(eperson.canLogIn());
-            validityKey.append(eperson.getRequireCertificate());
-        }
-        else if (dso instanceof Group)
-        {
-            Group group = (Group) dso;
-            
-            validityKey.append("Group:");
-            
-            validityKey.append(group.getID());
-            validityKey.append(group.getName());
+            validityKey.append(dso.getClass().getSimpleName()).append(":");
+            validityKey.append(dso.getID());
+            validityKey.append(dso.getModificationStamp());
         }
         else
         {